@@ -26,6 +26,9 @@ public class PartitionGroupMetric implements Serializable {
     private long indexPosition;
     private long flushPosition;
     private long replicationPosition;
+    private long scrubPosition;
+    private long corruptPosition = -1L;
+    private long corruptCount;
     private String  partitions;
 
     public int getPartitionGroup() {
@@ -84,6 +87,30 @@ public class PartitionGroupMetric implements Serializable {
         this.replicationPosition = replicationPosition;
     }
 
+    public long getScrubPosition() {
+        return scrubPosition;
+    }
+
+    public void setScrubPosition(long scrubPosition) {
+        this.scrubPosition = scrubPosition;
+    }
+
+    public long getCorruptPosition() {
+        return corruptPosition;
+    }
+
+    public void setCorruptPosition(long corruptPosition) {
+        this.corruptPosition = corruptPosition;
+    }
+
+    public long getCorruptCount() {
+        return corruptCount;
+    }
+
+    public void setCorruptCount(long corruptCount) {
+        this.corruptCount = corruptCount;
+    }
+
     public String getPartitions() {
         return partitions;
     }
@@ -24,6 +24,8 @@ public class BrokerStartupInfo implements Serializable {
     private long startupTime;
     private String revision;
     private String commitDate;
+    // 启动时恢复存储的耗时(ms)
+    private long storeRecoverTime;
 
 
     public long getStartupTime() {
@@ -49,4 +51,12 @@ public class BrokerStartupInfo implements Serializable {
     public void setCommitDate(String commitDate) {
         this.commitDate = commitDate;
     }
+
+    public long getStoreRecoverTime() {
+        return storeRecoverTime;
+    }
+
+    public void setStoreRecoverTime(long storeRecoverTime) {
+        this.storeRecoverTime = storeRecoverTime;
+    }
 }
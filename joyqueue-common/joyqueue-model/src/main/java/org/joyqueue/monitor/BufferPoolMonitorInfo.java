@@ -28,6 +28,7 @@ public class BufferPoolMonitorInfo {
     private String directUsed;
 
     private List<PLMonitorInfo> plMonitorInfos;
+    private List<TierMonitorInfo> tierMonitorInfos;
 
     public String getPlUsed() {
         return plUsed;
@@ -77,6 +78,14 @@ public class BufferPoolMonitorInfo {
         this.plMonitorInfos = plMonitorInfos;
     }
 
+    public List<TierMonitorInfo> getTierMonitorInfos() {
+        return tierMonitorInfos;
+    }
+
+    public void setTierMonitorInfos(List<TierMonitorInfo> tierMonitorInfos) {
+        this.tierMonitorInfos = tierMonitorInfos;
+    }
+
     public static class PLMonitorInfo {
         private String cached;
         private String usedPreLoad;
@@ -115,5 +124,64 @@ public class BufferPoolMonitorInfo {
             this.bufferSize = bufferSize;
         }
     }
-}
 
+    /**
+     * 缓存页分层（probation/protected）的命中统计
+     */
+    public static class TierMonitorInfo {
+        private String tier;
+        private int pages;
+        private String used;
+        private long hits;
+        private long misses;
+        private long evictions;
+
+        public String getTier() {
+            return tier;
+        }
+
+        public void setTier(String tier) {
+            this.tier = tier;
+        }
+
+        public int getPages() {
+            return pages;
+        }
+
+        public void setPages(int pages) {
+            this.pages = pages;
+        }
+
+        public String getUsed() {
+            return used;
+        }
+
+        public void setUsed(String used) {
+            this.used = used;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public void setHits(long hits) {
+            this.hits = hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public void setMisses(long misses) {
+            this.misses = misses;
+        }
+
+        public long getEvictions() {
+            return evictions;
+        }
+
+        public void setEvictions(long evictions) {
+            this.evictions = evictions;
+        }
+    }
+}
@@ -47,10 +47,18 @@ public class CommandType {
     //MQTT 查询所有的topic
     public static final int GET_TOPICS = 41;
     public static final int GET_TOPICS_ACK = -41;
+    // raft批量复制命令，同一个broker上多个分区组的复制请求合并发送
+    public static final int RAFT_BATCH_APPEND_ENTRIES_REQUEST = 42;
+    // raft批量复制命令响应
+    public static final int RAFT_BATCH_APPEND_ENTRIES_RESPONSE = -42;
     // raft选举投票请求命令
     public static final int RAFT_VOTE_REQUEST = 43;
     // raft选举投票请求命令响应
     public static final int RAFT_VOTE_RESPONSE = -43;
+    // raft复制快照命令
+    public static final int RAFT_INSTALL_SNAPSHOT_REQUEST = 44;
+    // raft复制快照命令响应
+    public static final int RAFT_INSTALL_SNAPSHOT_RESPONSE = -44;
     // raft复制添加记录命令
     public static final int RAFT_APPEND_ENTRIES_REQUEST = 45;
     // raft复制添加记录命令响应
@@ -17,6 +17,7 @@ package org.joyqueue.network.command;
 
 import org.joyqueue.exception.JoyQueueCode;
 import org.joyqueue.message.BrokerMessage;
+import org.joyqueue.network.transport.command.Releasable;
 
 import java.nio.ByteBuffer;
 import java.util.Collections;
@@ -28,11 +29,13 @@ import java.util.List;
  * author: gaohaoxiang
  * date: 2018/12/13
  */
-public class FetchTopicMessageAckData {
+public class FetchTopicMessageAckData implements Releasable {
 
     private List<BrokerMessage> messages;
     private List<ByteBuffer> buffers;
     private JoyQueueCode code;
+    // 零拷贝读取时，buffers引用了存储的缓存页，应答写入网络后释放
+    private Releasable releasable;
 
     public FetchTopicMessageAckData() {
 
@@ -78,4 +81,17 @@ public class FetchTopicMessageAckData {
         }
         return buffers.size();
     }
+
+    public void setReleasable(Releasable releasable) {
+        this.releasable = releasable;
+    }
+
+    @Override
+    public void release() {
+        Releasable releasable = this.releasable;
+        this.releasable = null;
+        if (releasable != null) {
+            releasable.release();
+        }
+    }
 }
\ No newline at end of file
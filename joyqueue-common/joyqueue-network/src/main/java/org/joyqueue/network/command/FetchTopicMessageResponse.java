@@ -16,6 +16,7 @@
 package org.joyqueue.network.command;
 
 import org.joyqueue.network.transport.command.JoyQueuePayload;
+import org.joyqueue.network.transport.command.Releasable;
 
 import java.util.Map;
 
@@ -25,7 +26,7 @@ import java.util.Map;
  * author: gaohaoxiang
  * date: 2018/12/7
  */
-public class FetchTopicMessageResponse extends JoyQueuePayload {
+public class FetchTopicMessageResponse extends JoyQueuePayload implements Releasable {
 
     private Map<String, FetchTopicMessageAckData> data;
 
@@ -41,4 +42,14 @@ public class FetchTopicMessageResponse extends JoyQueuePayload {
     public Map<String, FetchTopicMessageAckData> getData() {
         return data;
     }
-}
\ No newline at end of file
+
+    @Override
+    public void release() {
+        if (data == null) {
+            return;
+        }
+        for (FetchTopicMessageAckData ackData : data.values()) {
+            ackData.release();
+        }
+    }
+}
@@ -305,6 +305,7 @@ public class DefaultChannelTransport implements ChannelTransport {
                 if (header.getQosLevel() == QosLevel.ONE_WAY) {
                     // 不用应答，释放资源
                     request.release();
+                    response.release();
                     // 回调
                     if (callback != null) {
                         try {
@@ -483,6 +484,8 @@ public class DefaultChannelTransport implements ChannelTransport {
                 }
             }
             request.release();
+            // 应答已经写入网络，释放应答引用的资源
+            response.release();
         }
     }
 
@@ -13,7 +13,7 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-package org.joyqueue.store.nsm;
+package org.joyqueue.toolkit.concurrent;
 
 /**
  * @author liyue25
@@ -13,13 +13,14 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-package org.joyqueue.store.nsm;
+package org.joyqueue.toolkit.concurrent;
 
 import org.joyqueue.toolkit.time.SystemClock;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.DelayQueue;
@@ -72,6 +73,9 @@ import java.util.stream.IntStream;
  * 计算等待时长的算法：
  * 如果上次执行任务返回true或者在空转期，等待时长归零，尽快执行下一次。
  * 如果连续多次返回false，并且已经过了空转期，每次增加一点儿等待时长，直到达到最大等待时长。
+ * <p>
+ * 有新任务到来时，调用{@link #wakeup(VirtualThread)}立即调度等待中的虚拟线程，
+ * 这样空转期可以设置为0，空闲的虚拟线程在延时队列中等待，不占用物理线程。
  *
  * @author liyue25
  * Date: 2018-12-19
@@ -86,6 +90,7 @@ public class VirtualThreadExecutor {
     private final List<Thread> workThreads;
     private final Set<VirtualThread> toBeRemoved = ConcurrentHashMap.newKeySet();
     private final Set<VirtualThread> virtualThreads = ConcurrentHashMap.newKeySet();
+    private final Map<VirtualThread, DelayCommand> commands = new ConcurrentHashMap<>();
 
     /**
      * @param keepAliveTimeMs 每次执行完任务后线程空转的时长，在空转期内一旦有任务立即就能执行，避免等待；
@@ -95,6 +100,18 @@ public class VirtualThreadExecutor {
      * @param threadCount     物理线程数量
      */
     public VirtualThreadExecutor(long keepAliveTimeMs, long maxIntervalMs, int steps, long maxUseTime, int threadCount) {
+        this(keepAliveTimeMs, maxIntervalMs, steps, maxUseTime, threadCount, "VirtualThreadExecutor");
+    }
+
+    /**
+     * @param keepAliveTimeMs 每次执行完任务后线程空转的时长，在空转期内一旦有任务立即就能执行，避免等待；
+     * @param maxIntervalMs   最大等待时长
+     * @param steps           递增次数
+     * @param maxUseTime      虚拟线程每次最大占用物理线程的时长
+     * @param threadCount     物理线程数量
+     * @param name            物理线程名称前缀
+     */
+    public VirtualThreadExecutor(long keepAliveTimeMs, long maxIntervalMs, int steps, long maxUseTime, int threadCount, String name) {
         this.keepAliveTimeMs = keepAliveTimeMs;
         this.maxIntervalMs = maxIntervalMs;
         this.steps = steps;
@@ -102,23 +119,49 @@ public class VirtualThreadExecutor {
         workThreads = IntStream.range(0, threadCount)
                 .mapToObj(index -> {
                     Thread thread = new Thread(new WorkThread());
-                    thread.setName("VirtualThreadExecutor-" + index);
+                    thread.setName(name + "-" + index);
                     thread.start();
                     return thread;
                 }).collect(Collectors.toList());
     }
 
     public void start(VirtualThread vt, String name) {
-        virtualThreads.add(vt);
-        commandQueue.add(new DelayCommand(vt, name));
+        start(vt, 0L, name);
     }
 
     public void start(VirtualThread vt, long minDelayMs, String name) {
+        DelayCommand cmd = new DelayCommand(vt, minDelayMs, name);
         virtualThreads.add(vt);
-        commandQueue.add(new DelayCommand(vt, minDelayMs, name));
+        commands.put(vt, cmd);
+        synchronized (cmd) {
+            cmd.queued = true;
+            commandQueue.add(cmd);
+        }
+    }
+
+    /**
+     * 唤醒虚拟线程：如果虚拟线程正在延时队列中等待，立即调度执行；
+     * 如果正在执行，本次执行结束后不再增加等待时长。
+     * @param vt 虚拟线程
+     */
+    public void wakeup(VirtualThread vt) {
+        DelayCommand cmd = commands.get(vt);
+        if (null == cmd || cmd.woken) {
+            return;
+        }
+        synchronized (cmd) {
+            cmd.woken = true;
+            long now = SystemClock.now();
+            if (cmd.queued && cmd.startTime > now + cmd.minDelayMs && commandQueue.remove(cmd)) {
+                cmd.delay = cmd.minDelayMs;
+                cmd.startTime = now + cmd.delay;
+                commandQueue.put(cmd);
+            }
+        }
     }
 
     public void stop(VirtualThread vt) throws InterruptedException {
+        commands.remove(vt);
         if (virtualThreads.remove(vt)) {
             toBeRemoved.add(vt);
             if (commandQueue.removeIf(cmd -> cmd.virtualThread == vt)) {
@@ -155,11 +198,10 @@ public class VirtualThreadExecutor {
         private volatile long startTime = SystemClock.now();
         private volatile long lastRunTime = SystemClock.now(); // 上一次有效运行的结束时间
         private volatile long delay = 0;
-
-        private DelayCommand(VirtualThread virtualThread, String name) {
-            this(virtualThread, 0L, name);
-
-        }
+        // 是否在延时队列中，读写时持有这个对象的锁
+        private boolean queued = false;
+        // 上次出队之后是否被唤醒过
+        private volatile boolean woken = false;
 
         private DelayCommand(VirtualThread virtualThread, long minDelayMs, String name) {
             this.virtualThread = virtualThread;
@@ -196,6 +238,10 @@ public class VirtualThreadExecutor {
 
                 try {
                     cmd = commandQueue.take();
+                    synchronized (cmd) {
+                        cmd.queued = false;
+                        cmd.woken = false;
+                    }
                     if (toBeRemoved.remove(cmd.virtualThread)) {
                         continue;
                     }
@@ -217,18 +263,22 @@ public class VirtualThreadExecutor {
                 }
                 if (null != cmd) {
                     long now = SystemClock.now();
-                    if (dryRun) {
-                        if (keepAliveTimeMs + cmd.lastRunTime <= now) {
+                    synchronized (cmd) {
+                        if (!dryRun) {
+                            cmd.delay = cmd.minDelayMs;
+                            cmd.lastRunTime = now;
+                        } else if (cmd.woken) {
+                            // 执行期间有新任务到来，尽快再执行一次
+                            cmd.delay = cmd.minDelayMs;
+                        } else if (keepAliveTimeMs + cmd.lastRunTime <= now) {
                             if (cmd.delay < maxIntervalMs) {
                                 cmd.delay += maxIntervalMs / steps;
                             }
                         }
-                    } else {
-                        cmd.delay = cmd.minDelayMs;
-                        cmd.lastRunTime = now;
+                        cmd.startTime = now + cmd.delay;
+                        cmd.queued = true;
+                        commandQueue.put(cmd);
                     }
-                    cmd.startTime = now + cmd.delay;
-                    commandQueue.put(cmd);
                 }
             }
         }
@@ -0,0 +1,59 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.toolkit.concurrent;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 空闲的虚拟线程在延时队列中等待，有任务时被唤醒
+ */
+public class VirtualThreadExecutorTest {
+
+    @Test
+    public void wakeupTest() throws Exception {
+        VirtualThreadExecutor executor = new VirtualThreadExecutor(0L, 10000L, 1, 100L, 1, "VirtualThreadExecutorTest");
+        AtomicInteger runs = new AtomicInteger();
+        AtomicInteger tasks = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(1);
+        VirtualThread vt = () -> {
+            runs.incrementAndGet();
+            if (tasks.get() > 0) {
+                tasks.decrementAndGet();
+                done.countDown();
+                return true;
+            }
+            return false;
+        };
+        try {
+            executor.start(vt, "wakeupTest");
+            Thread.sleep(200L);
+            // 没有任务时不空转
+            Assert.assertTrue(runs.get() <= 2);
+
+            tasks.incrementAndGet();
+            executor.wakeup(vt);
+            Assert.assertTrue(done.await(1, TimeUnit.SECONDS));
+            executor.stop(vt);
+        } finally {
+            executor.stop();
+        }
+    }
+}
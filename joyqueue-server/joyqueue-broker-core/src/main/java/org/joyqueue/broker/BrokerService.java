@@ -317,6 +317,8 @@ public class BrokerService extends Service {
         startIfNecessary(coordinatorService);
         startIfNecessary(brokerManageService);
         startIfNecessary(archiveManager);
+        brokerManageService.getBrokerManageServiceManager().getBrokerMonitorService()
+                .getStartInfo().setStoreRecoverTime(storeInitializer.getRecoverTime());
         printConfig();
     }
 
@@ -31,6 +31,10 @@ public class BrokerStoreConfig {
     public static final boolean DEFAULT_KEEP_UNCONSUMED = true;
     public static final int DEFAULT_STORE_DISK_USAGE_MAX= 80;
     public static final int DEFAULT_STORE_DISK_USAGE_SAFE=75;
+    public static final int DEFAULT_RECOVER_THREADS_PER_DIRECTORY = 16;
+    public static final String DEFAULT_COMPACTION_TOPICS = "";
+    public static final long DEFAULT_COMPACTION_INTERVAL = 60 * 60 * 1000;  // 1hour
+    public static final long DEFAULT_COMPACTION_TOMBSTONE_RETENTION = 1000 * 60 * 60 * 24;  // 1day
     private PropertySupplier propertySupplier;
 
 
@@ -47,7 +51,11 @@ public class BrokerStoreConfig {
         CLEAN_SCHEDULE_END("store.clean.schedule.end", DEFAULT_STORE_CLEAN_SCHEDULE_END, Type.LONG),
         FORCE_RESTORE("store.force.restore", true, Type.BOOLEAN),
         STORE_DISK_USAGE_MAX("store.disk.usage.max",DEFAULT_STORE_DISK_USAGE_MAX,Type.INT),
-        STORE_DISK_USAGE_SAFE("store.disk.usage.safe",DEFAULT_STORE_DISK_USAGE_SAFE,Type.INT);
+        STORE_DISK_USAGE_SAFE("store.disk.usage.safe",DEFAULT_STORE_DISK_USAGE_SAFE,Type.INT),
+        RECOVER_THREADS_PER_DIRECTORY("store.recover.threads.per.directory", DEFAULT_RECOVER_THREADS_PER_DIRECTORY, Type.INT),
+        COMPACTION_TOPICS("store.compaction.topics", DEFAULT_COMPACTION_TOPICS, Type.STRING),
+        COMPACTION_INTERVAL("store.compaction.interval", DEFAULT_COMPACTION_INTERVAL, Type.LONG),
+        COMPACTION_TOMBSTONE_RETENTION("store.compaction.tombstone.retention", DEFAULT_COMPACTION_TOMBSTONE_RETENTION, Type.LONG);
         private String name;
         private Object value;
         private Type type;
@@ -117,6 +125,34 @@ public class BrokerStoreConfig {
         return PropertySupplier.getValue(propertySupplier, BrokerStoreConfigKey.STORE_DISK_USAGE_SAFE);
     }
 
+    /**
+     * Number of threads recovering partition groups in parallel on each data directory
+     **/
+    public int getRecoverThreadsPerDirectory() {
+        return PropertySupplier.getValue(propertySupplier, BrokerStoreConfigKey.RECOVER_THREADS_PER_DIRECTORY);
+    }
+
+    /**
+     * Comma separated full names of the topics compacted by business id
+     **/
+    public String getCompactionTopics() {
+        return PropertySupplier.getValue(propertySupplier, BrokerStoreConfigKey.COMPACTION_TOPICS, DEFAULT_COMPACTION_TOPICS);
+    }
+
+    /**
+     * Minimum interval between two compactions of a partition group
+     **/
+    public long getCompactionInterval() {
+        return PropertySupplier.getValue(propertySupplier, BrokerStoreConfigKey.COMPACTION_INTERVAL, DEFAULT_COMPACTION_INTERVAL);
+    }
+
+    /**
+     * How long a tombstone is kept after it is written
+     **/
+    public long getCompactionTombstoneRetention() {
+        return PropertySupplier.getValue(propertySupplier, BrokerStoreConfigKey.COMPACTION_TOMBSTONE_RETENTION, DEFAULT_COMPACTION_TOMBSTONE_RETENTION);
+    }
+
     /**
      *  Application Data path
      *  @return application data path
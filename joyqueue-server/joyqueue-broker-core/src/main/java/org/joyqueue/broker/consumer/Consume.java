@@ -25,6 +25,7 @@ import org.joyqueue.network.session.Connection;
 import org.joyqueue.network.session.Consumer;
 
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Created by chengzhiliang on 2018/8/16.
@@ -42,6 +43,14 @@ public interface Consume {
      */
     PullResult getMessage(Consumer consumer, int count, int ackTimeout) throws JoyQueueException;
 
+    /**
+     * 异步获取消息，参数同{@link #getMessage(Consumer, int, int)}。
+     * 需要从磁盘加载消息时在存储的读取线程中完成，不阻塞调用线程。
+     *
+     * @return 拉取结果，读取失败时以JoyQueueException结束
+     */
+    CompletableFuture<PullResult> getMessageAsync(Consumer consumer, int count, int ackTimeout);
+
     /**
      * 指定分区、消息序号、获取消息条数获取消息
      *
@@ -54,6 +63,14 @@ public interface Consume {
      */
     PullResult getMessage(Consumer consumer, short partition, long index, int count) throws JoyQueueException;
 
+    /**
+     * 异步获取指定分区、消息序号的消息，参数同{@link #getMessage(Consumer, short, long, int)}。
+     * 需要从磁盘加载消息时在存储的读取线程中完成，不阻塞调用线程。
+     *
+     * @return 拉取结果，读取失败时以JoyQueueException结束
+     */
+    CompletableFuture<PullResult> getMessageAsync(Consumer consumer, short partition, long index, int count);
+
     /**
      * 指定分区、消息序号、获取消息条数获取消息
      *
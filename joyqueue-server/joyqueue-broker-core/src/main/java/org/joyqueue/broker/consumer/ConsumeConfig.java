@@ -71,6 +71,10 @@ public class ConsumeConfig {
         return propertySupplier.getValue(ConsumeConfigKey.INDEX_FLUSH_INTERVAL);
     }
 
+    public boolean getZeroCopyRead() {
+        return PropertySupplier.getValue(propertySupplier, ConsumeConfigKey.ZERO_COPY_READ);
+    }
+
     /**
      * Get consumer level config from
      *
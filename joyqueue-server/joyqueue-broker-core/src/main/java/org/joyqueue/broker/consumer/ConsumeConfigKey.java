@@ -32,6 +32,8 @@ public enum ConsumeConfigKey implements PropertyDef {
     BROADCAST_INDEX_RESET_INTERVAL("consume.broadcast.index.reset.interval", 1000 * 60 * 5, Type.INT),
     BROADCAST_INDEX_RESET_TIME("consume.broadcast.index.reset.time", 1000 * 60 * 60 * 24 * 2, Type.INT),
     INDEX_FLUSH_INTERVAL("consume.index.flush.interval", 1000 * 5, Type.INT),
+    // 零拷贝读取消息，拉取的消息直接引用存储的缓存页，应答写入网络后释放
+    ZERO_COPY_READ("consume.zero.copy.read", false, Type.BOOLEAN),
 
     ;
     private String name;
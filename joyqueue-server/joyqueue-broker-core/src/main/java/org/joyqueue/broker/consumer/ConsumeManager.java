@@ -66,6 +66,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicLong;
@@ -257,6 +259,87 @@ public class ConsumeManager extends Service implements Consume, BrokerContextAwa
             throw ex;
         }
         // 监控逻辑
+        monitor(pullResult, startTime, consumer);
+
+        return pullResult;
+    }
+
+    @Override
+    public CompletableFuture<PullResult> getMessageAsync(Consumer consumer, int count, int ackTimeout) {
+        Preconditions.checkArgument(consumer != null, "消费者信息不能为空");
+
+        // 监控开始时间
+        long startTime = SystemClock.now();
+
+        CompletableFuture<PullResult> future = new CompletableFuture<>();
+        CompletableFuture<PullResult> pullFuture;
+        try {
+            pullFuture = pullMessageAsync(consumer, count, ackTimeout);
+        } catch (JoyQueueException e) {
+            future.completeExceptionally(e);
+            return future;
+        }
+        pullFuture.whenComplete((pullResult, t) -> {
+            if (null == t) {
+                try {
+                    // 监控逻辑
+                    monitor(pullResult, startTime, consumer);
+                } catch (Exception e) {
+                    logger.warn("Monitor pull result exception, consumer: {}.", consumer, e);
+                }
+                future.complete(pullResult);
+                return;
+            }
+            if (t instanceof CompletionException && null != t.getCause()) {
+                t = t.getCause();
+            }
+            if (t instanceof JoyQueueException) {
+                future.completeExceptionally(t);
+            } else {
+                logger.warn(t.getMessage(), t);
+                future.completeExceptionally(new JoyQueueException(JoyQueueCode.SE_IO_ERROR, t));
+            }
+        });
+        return future;
+    }
+
+    /**
+     * 按消费策略异步拉取消息，并行消费按段占用分区，仍然在调用线程中读取
+     */
+    private CompletableFuture<PullResult> pullMessageAsync(Consumer consumer, int count, int ackTimeout) throws JoyQueueException {
+        ConsumerPolicy consumerPolicy = clusterManager.getConsumerPolicy(TopicName.parse(consumer.getTopic()), consumer.getApp());
+        if (count <= 0) {
+            // 如果消费条数小于等于0，则获取消费策略的默认值
+            count = consumerPolicy.getBatchSize();
+        }
+        if (ackTimeout <= 0) {
+            // 如果消息应答时间小于或等于0，则获取消费策略的默认值
+            ackTimeout = consumerPolicy.getAckTimeout();
+        }
+        // 判断是否暂停消费, 返回空
+        if (partitionManager.needPause(consumer)) {
+            PullResult pullResult = new PullResult(consumer, (short) -1, Collections.emptyList());
+            pullResult.setCode(JoyQueueCode.FW_FETCH_TOPIC_MESSAGE_PAUSED);
+            return CompletableFuture.completedFuture(pullResult);
+        }
+
+        // 获取计算，用于均匀消费每个分区
+        long accessTimes = getAndIncrement(consumer);
+        //选择消费策略
+        switch (choiceConsumeStrategy(consumerPolicy)) {
+            case DEFAULT:
+                return partitionConsumption.getMessageAsync(consumer, count, ackTimeout, accessTimes);
+            case SEQUENCE:
+                return partitionConsumption.getMessage4SequenceAsync(consumer, getSequencePartition(consumer), count, ackTimeout);
+            case CONCURRENT:
+                return CompletableFuture.completedFuture(
+                        concurrentConsumption.getMessage(consumer, count, ackTimeout, accessTimes, consumerPolicy.getConcurrent()));
+            default:
+                throw new JoyQueueException(JoyQueueCode.CN_PARAM_ERROR, "invalid consume strategy");
+        }
+    }
+
+    private void monitor(PullResult pullResult, long startTime, Consumer consumer) {
         if (pullResult.getBuffers().size() > 0) {
             short partition = pullResult.getPartition();
             PartitionGroup partitionGroup = clusterManager.getPartitionGroup(TopicName.parse(consumer.getTopic()), partition);
@@ -268,8 +351,6 @@ public class ConsumeManager extends Service implements Consume, BrokerContextAwa
             }
             monitor(pullResult, startTime, consumer, group);
         }
-
-        return pullResult;
     }
 
     /**
@@ -358,6 +439,37 @@ public class ConsumeManager extends Service implements Consume, BrokerContextAwa
         }
     }
 
+    @Override
+    public CompletableFuture<PullResult> getMessageAsync(Consumer consumer, short partition, long index, int count) {
+        Preconditions.checkArgument(consumer != null, "消费者信息不能为空");
+        Preconditions.checkArgument(partition >= 0, "分区不能小于0");
+        Preconditions.checkArgument(index >= 0, "消费序号不能小于0");
+        Preconditions.checkArgument(count > 0, "消费条数不能小于或等于0");
+
+        Integer group = partitionManager.getGroupByPartition(TopicName.parse(consumer.getTopic()), partition);
+        Preconditions.checkArgument(group != null && group >= 0, "找不到主题[" + consumer.getTopic() + "]" + ",分区[" + partition + "]的分区组");
+
+        long startTime = SystemClock.now();
+        CompletableFuture<PullResult> future = new CompletableFuture<>();
+        partitionConsumption.getMsgByPartitionAndIndexAsync(consumer, group, partition, index, count).whenComplete((pullResult, t) -> {
+            if (null == t) {
+                try {
+                    // 监控逻辑
+                    monitor(pullResult, startTime, consumer, group);
+                } catch (Exception e) {
+                    logger.warn("Monitor pull result exception, consumer: {}.", consumer, e);
+                }
+                future.complete(pullResult);
+            } else if (t instanceof JoyQueueException) {
+                future.completeExceptionally(t);
+            } else {
+                logger.warn(t.getMessage(), t);
+                future.completeExceptionally(new JoyQueueException(JoyQueueCode.SE_IO_ERROR, t));
+            }
+        });
+        return future;
+    }
+
     @Override
     public PullResult getMessage(String topic, short partition, long index, int count) throws JoyQueueException {
         Preconditions.checkArgument(StringUtils.isNotBlank(topic), "主题不能为空");
@@ -24,6 +24,7 @@ import org.joyqueue.broker.archive.ArchiveManager;
 import org.joyqueue.broker.archive.ConsumeArchiveService;
 import org.joyqueue.broker.buffer.Serializer;
 import org.joyqueue.broker.cluster.ClusterManager;
+import org.joyqueue.broker.consumer.filter.CompactedMessageFilter;
 import org.joyqueue.broker.consumer.filter.FilterCallback;
 import org.joyqueue.broker.consumer.model.PullResult;
 import org.joyqueue.broker.consumer.position.PositionManager;
@@ -41,6 +42,7 @@ import org.joyqueue.store.PositionOverflowException;
 import org.joyqueue.store.PositionUnderflowException;
 import org.joyqueue.store.ReadResult;
 import org.joyqueue.store.StoreService;
+import org.joyqueue.store.message.CompactedMessageParser;
 import org.joyqueue.toolkit.network.IpUtil;
 import org.joyqueue.toolkit.service.Service;
 import org.slf4j.Logger;
@@ -52,6 +54,8 @@ import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * 默认的消息消费方式，线程安全
@@ -72,6 +76,8 @@ class PartitionConsumption extends Service {
     private PositionManager positionManager;
     // 延迟消费处理器
     private DelayHandler delayHandler = new DelayHandler();
+    // 跳过日志压实产生的占位消息
+    private CompactedMessageFilter compactedMessageFilter = new CompactedMessageFilter();
     // 消费过滤帮助类
     private FilterMessageSupport filterMessageSupport;
     // 尝试管理
@@ -146,6 +152,36 @@ class PartitionConsumption extends Service {
         return pullResult;
     }
 
+    /**
+     * 异步读取消息，参数和结果同{@link #getMessage(Consumer, int, long, long)}。
+     * 需要从磁盘加载消息时在存储的读取线程中完成，不阻塞调用线程。
+     */
+    protected CompletableFuture<PullResult> getMessageAsync(Consumer consumer, int count, long ackTimeout, long accessTimes) throws JoyQueueException {
+        logger.debug("getMessageAsync by topic:[{}], app:[{}], count:[{}], ackTimeout:[{}]", consumer.getTopic(), consumer.getApp(), count, ackTimeout);
+
+        CompletableFuture<PullResult> future = CompletableFuture.completedFuture(new PullResult(consumer, (short) -1, new ArrayList<>(0)));
+
+        List<Short> priorityPartitionList = partitionManager.getPriorityPartition(TopicName.parse(consumer.getTopic()));
+        if (priorityPartitionList.size() > 0) {
+            // 高优先级分区消费
+            future = getFromPartitionAsync(consumer, priorityPartitionList, count, ackTimeout, accessTimes, 0, -1);
+        }
+
+        List<Short> partitionList = clusterManager.getMasterPartitionList(TopicName.parse(consumer.getTopic()));
+        if (partitionManager.isRetry(consumer)) {
+            partitionList = new ArrayList<>(partitionList);
+            partitionList.add(Partition.RETRY_PARTITION_ID);
+        }
+        List<Short> normalPartitionList = partitionList;
+        return future.thenCompose(pullResult -> {
+            if (pullResult.count() > 0) {
+                return CompletableFuture.completedFuture(pullResult);
+            }
+            // 消费普通分区消息
+            return getFromPartitionAsync(consumer, normalPartitionList, count, ackTimeout, accessTimes, 0, -1);
+        });
+    }
+
     /**
      * BrokerMessage 转成 PullResult
      *
@@ -195,6 +231,34 @@ class PartitionConsumption extends Service {
         return new PullResult(consumer, (short) -1, new ArrayList<>(0));
     }
 
+    /**
+     * 异步从本地磁盘分区消费消息，按{@link #getFromPartition(Consumer, List, int, long, long)}的顺序逐个尝试分区，
+     * 前一个分区读取完成后再读取下一个分区
+     *
+     * @param i         已经尝试的分区数
+     * @param listIndex 上一个尝试的分区在列表中的下一个位置
+     */
+    private CompletableFuture<PullResult> getFromPartitionAsync(Consumer consumer, List<Short> partitionList, int count, long ackTimeout, long accessTimes,
+                                                                int i, int listIndex) {
+        int partitionSize = partitionList.size();
+        if (i >= partitionSize) {
+            return CompletableFuture.completedFuture(new PullResult(consumer, (short) -1, new ArrayList<>(0)));
+        }
+        int selectedIndex = partitionManager.selectPartitionIndex(partitionSize, listIndex, accessTimes);
+        short partition = partitionList.get(selectedIndex);
+        return getMessage4SequenceAsync(consumer, partition, count, ackTimeout).thenCompose(pullResult -> {
+            int pullMsgCount = pullResult.getBuffers().size();
+            if (pullMsgCount > 0) {
+                if (config.getLogDetail(consumer.getApp())) {
+                    logger.info("getFromPartition, topic: {}, app: {}, count: {}, partition: {}, partitions: {}, result: {}",
+                            consumer.getTopic(), consumer.getApp(), count, partition, partitionList, pullMsgCount);
+                }
+                return CompletableFuture.completedFuture(pullResult);
+            }
+            return getFromPartitionAsync(consumer, partitionList, count, ackTimeout, accessTimes, i + 1, selectedIndex + 1);
+        });
+    }
+
     /**
      * 指定分区读取消息，kafka使用
      *
@@ -205,52 +269,99 @@ class PartitionConsumption extends Service {
      * @return 读取的消息
      */
     protected PullResult getMsgByPartitionAndIndex(Consumer consumer, int group, short partition, long index, int count) throws JoyQueueException, IOException {
-        PullResult pullResult = new PullResult(consumer, (short) -1, new ArrayList<>(0));
         try {
-            PullResult readResult = getMsgByPartitionAndIndex(consumer.getTopic(), group, partition, index, count);
-            if (readResult.getBuffers() == null) {
-                // 没有拉到消息直接返回
-                return pullResult;
+            return filterPullResult(consumer, partition, getMsgByPartitionAndIndex(consumer.getTopic(), group, partition, index, count));
+        } catch (PositionOverflowException | PositionUnderflowException e) {
+            return positionErrorResult(consumer, partition, index, e);
+        }
+    }
+
+    /**
+     * 异步读取指定分区的消息，kafka使用，参数和结果同{@link #getMsgByPartitionAndIndex(Consumer, int, short, long, int)}。
+     * 需要从磁盘加载消息时在存储的读取线程中完成，不阻塞调用线程。
+     */
+    protected CompletableFuture<PullResult> getMsgByPartitionAndIndexAsync(Consumer consumer, int group, short partition, long index, int count) {
+        CompletableFuture<PullResult> future = new CompletableFuture<>();
+        PartitionGroupStore store = storeService.getStore(consumer.getTopic(), group);
+        store.readAsync(partition, index, count, Long.MAX_VALUE).whenComplete((readRst, t) -> {
+            try {
+                if (null == t) {
+                    future.complete(filterPullResult(consumer, partition, toPullResult(consumer.getTopic(), partition, readRst)));
+                } else if (t instanceof PositionOverflowException || t instanceof PositionUnderflowException) {
+                    future.complete(positionErrorResult(consumer, partition, index, (RuntimeException) t));
+                } else {
+                    future.completeExceptionally(t);
+                }
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
             }
+        });
+        return future;
+    }
 
-            List<ByteBuffer> byteBuffers = readResult.getBuffers();
-            if (StringUtils.isNotEmpty(consumer.getApp()) &&
-                    (!Consumer.ConsumeType.INTERNAL.equals(consumer.getType()) && !Consumer.ConsumeType.KAFKA.equals(consumer.getType()))) {
+    /**
+     * 过滤读取到的消息，开启延迟消费时过滤掉未到消费时间的消息
+     */
+    private PullResult filterPullResult(Consumer consumer, short partition, PullResult readResult) throws JoyQueueException {
+        if (readResult.getBuffers() == null) {
+            // 没有拉到消息直接返回
+            return new PullResult(consumer, (short) -1, new ArrayList<>(0));
+        }
 
-                org.joyqueue.domain.Consumer consumerConfig = clusterManager.tryGetConsumer(TopicName.parse(consumer.getTopic()), consumer.getApp());
+        List<ByteBuffer> byteBuffers = readResult.getBuffers();
+        if (StringUtils.isNotEmpty(consumer.getApp()) &&
+                (!Consumer.ConsumeType.INTERNAL.equals(consumer.getType()) && !Consumer.ConsumeType.KAFKA.equals(consumer.getType()))) {
 
-                if (consumerConfig != null) {
-                    // 过滤消息
-                    byteBuffers = filterMessageSupport.filter(consumerConfig, byteBuffers, new FilterCallbackImpl(consumer));
+            byteBuffers = compactedMessageFilter.filter(byteBuffers, new FilterCallbackImpl(consumer));
 
-                    // 开启延迟消费，过滤未到消费时间的消息
-                    byteBuffers = delayHandler.handle(consumerConfig.getConsumerPolicy(), byteBuffers);
-                }
+            org.joyqueue.domain.Consumer consumerConfig = clusterManager.tryGetConsumer(TopicName.parse(consumer.getTopic()), consumer.getApp());
+
+            if (consumerConfig != null) {
+                // 过滤消息
+                byteBuffers = filterMessageSupport.filter(consumerConfig, byteBuffers, new FilterCallbackImpl(consumer));
+
+                // 开启延迟消费，过滤未到消费时间的消息
+                byteBuffers = delayHandler.handle(consumerConfig.getConsumerPolicy(), byteBuffers);
             }
+        }
 
-            pullResult = new PullResult(consumer, partition, byteBuffers);
-        } catch (PositionOverflowException overflow) {
+        return new PullResult(consumer, partition, byteBuffers);
+    }
+
+    private PullResult positionErrorResult(Consumer consumer, short partition, long index, RuntimeException e) {
+        PullResult pullResult = new PullResult(consumer, (short) -1, new ArrayList<>(0));
+        if (e instanceof PositionOverflowException) {
+            PositionOverflowException overflow = (PositionOverflowException) e;
             logger.debug("PositionOverflow,topic:{},partition:{},index:{}", consumer.getTopic(), partition, index);
             if (overflow.getPosition() != overflow.getRight()) {
                 pullResult.setCode(JoyQueueCode.SE_INDEX_OVERFLOW);
             }
-        } catch (PositionUnderflowException underflow) {
+        } else {
             logger.debug("PositionUnderflow,topic:{},partition:{},index:{}", consumer.getTopic(), partition, index);
             pullResult.setCode(JoyQueueCode.SE_INDEX_UNDERFLOW);
         }
-
         return pullResult;
     }
 
     protected PullResult getMsgByPartitionAndIndex(String topic, int group, short partition, long index, int count) throws JoyQueueException, IOException {
-        long startTime = System.nanoTime();
-        PullResult result = new PullResult(topic, null, partition, null);
         PartitionGroupStore store = storeService.getStore(topic, group);
+        return toPullResult(topic, partition, store.read(partition, index, count, Long.MAX_VALUE));
+    }
 
-        ReadResult readRst = store.read(partition, index, count, Long.MAX_VALUE);
-
+    /**
+     * 按序号读取的结果，日志压实的占位消息转换成消息体为空的消息，
+     * 不经过占位消息过滤器的消费者（kafka、内部消费者）不会读到全为0的消息体
+     */
+    private PullResult toPullResult(String topic, short partition, ReadResult readRst) {
+        PullResult result = new PullResult(topic, null, partition, null);
         if (readRst.getCode() == JoyQueueCode.SUCCESS) {
-            result.setBuffers(Lists.newArrayList(readRst.getMessages()));
+            List<ByteBuffer> buffers = Lists.newArrayList(readRst.getMessages());
+            for (int i = 0; i < buffers.size(); i++) {
+                if (CompactedMessageParser.isCompacted(buffers.get(i))) {
+                    buffers.set(i, CompactedMessageParser.toEmptyMessage(buffers.get(i)));
+                }
+            }
+            result.setBuffers(buffers);
             return result;
         } else {
             logger.error("read message error, error code[{}]", readRst.getCode());
@@ -300,20 +411,76 @@ class PartitionConsumption extends Service {
             }
             int partitionGroup = clusterManager.getPartitionGroupId(TopicName.parse(consumer.getTopic()), partition);
             long index = positionManager.getLastMsgAckIndex(TopicName.parse(consumer.getTopic()), consumer.getApp(), partition);
+            ReadResult readResult = null;
+            Throwable t = null;
             try {
-                ByteBuffer[] byteBuffers = readMessages(consumer, partitionGroup, partition, index, count);
+                readResult = readMessages(consumer, partitionGroup, partition, index, count);
+            } catch (Exception ex) {
+                t = ex;
+            }
+            pullResult = onMessagesRead(consumer, partition, count, index, readResult, t);
+        }
+        return pullResult;
+    }
 
+    /**
+     * 异步顺序消费指定分区的消息，参数和结果同{@link #getMessage4Sequence(Consumer, short, int, long)}。
+     * 需要从磁盘加载消息时在存储的读取线程中完成，读取期间保持分区占用。
+     */
+    protected CompletableFuture<PullResult> getMessage4SequenceAsync(Consumer consumer, short partition, int count, long ackTimeout) {
+        if (partition == Partition.RETRY_PARTITION_ID) {
+            // 重试消息不在本地存储中
+            CompletableFuture<PullResult> future = new CompletableFuture<>();
+            try {
+                future.complete(getMessage4Sequence(consumer, partition, count, ackTimeout));
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+            return future;
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("try getMessage4SequenceAsync by topic:[{}], app:[{}], partition:[{}], count:[{}], ackTimeout:[{}]", consumer.getTopic(), consumer.getApp(), partition, count, ackTimeout);
+        }
 
-                if (byteBuffers == null) {
+        if (!partitionManager.tryOccupyPartition(consumer, partition, ackTimeout)) {
+            return CompletableFuture.completedFuture(new PullResult(consumer, (short) -1, new ArrayList<>(0)));
+        }
+        CompletableFuture<PullResult> future = new CompletableFuture<>();
+        long index = -1;
+        try {
+            int partitionGroup = clusterManager.getPartitionGroupId(TopicName.parse(consumer.getTopic()), partition);
+            index = positionManager.getLastMsgAckIndex(TopicName.parse(consumer.getTopic()), consumer.getApp(), partition);
+            long readIndex = index;
+            readMessagesAsync(consumer, partitionGroup, partition, index, count).whenComplete((readResult, t) ->
+                    future.complete(onMessagesRead(consumer, partition, count, readIndex, readResult, t)));
+        } catch (Exception ex) {
+            future.complete(onMessagesRead(consumer, partition, count, index, null, ex));
+        }
+        return future;
+    }
+
+    /**
+     * 处理读取到的消息：过滤消息，没有消息或者出现异常时释放分区占用和零拷贝读取的缓存页
+     *
+     * @param readResult 读取结果，没有可读取的消息时为null
+     * @param t          读取异常，没有异常时为null
+     */
+    private PullResult onMessagesRead(Consumer consumer, short partition, int count, long index, ReadResult readResult, Throwable t) {
+        // 初始化默认
+        PullResult pullResult = new PullResult(consumer, (short) -1, new ArrayList<>(0));
+        if (null == t) {
+            try {
+                if (readResult == null) {
                     // 如果没有拿到消息，则释放占用
                     partitionManager.releasePartition(consumer, partition);
                     return pullResult;
                 }
 
-                List<ByteBuffer> rByteBufferList = Lists.newArrayList(byteBuffers);
+                List<ByteBuffer> rByteBufferList = Lists.newArrayList(readResult.getMessages());
                 org.joyqueue.domain.Consumer consumerConfig = clusterManager.getConsumer(TopicName.parse(consumer.getTopic()), consumer.getApp());
 
                 // 过滤消息
+                rByteBufferList = compactedMessageFilter.filter(rByteBufferList, new FilterCallbackImpl(consumer));
                 rByteBufferList = filterMessageSupport.filter(consumerConfig, rByteBufferList, new FilterCallbackImpl(consumer));
 
                 // 开启延迟消费，过滤未到消费时间的消息
@@ -326,29 +493,45 @@ class PartitionConsumption extends Service {
                 }
 
                 pullResult = new PullResult(consumer, partition, rByteBufferList);
+                if (rByteBufferList != null && rByteBufferList.size() > 0) {
+                    // 零拷贝读取的消息，由调用方在使用完毕后释放
+                    pullResult.setReleasable(readResult::release);
+                } else {
+                    readResult.release();
+                }
 
                 if (config.getLogDetail(consumer.getApp())) {
                     logger.info("getMessage4Sequence, topic: {}, app: {}, count: {}, partition: {}, index: {}, result: {}",
                             consumer.getTopic(), consumer.getApp(), count, partition, index, pullResult.getBuffers().size());
                 }
+                return pullResult;
             } catch (Exception ex) {
-                // 出现异常释放分区占用
-                partitionManager.releasePartition(consumer, partition);
-
-                if (ex instanceof PositionOverflowException) {
-                    long rightIndex = ((PositionOverflowException) ex).getRight();
-                    if (rightIndex < index) {
-                        pullResult.setCode(JoyQueueCode.SE_INDEX_OVERFLOW);
-                        logger.error(ex.getMessage(), ex);
-                    }
-                } else if (ex instanceof PositionUnderflowException) {
-                    pullResult.setCode(JoyQueueCode.SE_INDEX_UNDERFLOW);
-                    logger.error(ex.getMessage(), ex);
-                } else {
-                    logger.error("get message error, consumer: {}, partition: {}", consumer, partition, ex);
-                }
+                t = ex;
+                pullResult = new PullResult(consumer, (short) -1, new ArrayList<>(0));
             }
         }
+
+        // 出现异常释放分区占用
+        partitionManager.releasePartition(consumer, partition);
+        if (readResult != null) {
+            readResult.release();
+        }
+
+        if (t instanceof CompletionException && null != t.getCause()) {
+            t = t.getCause();
+        }
+        if (t instanceof PositionOverflowException) {
+            long rightIndex = ((PositionOverflowException) t).getRight();
+            if (rightIndex < index) {
+                pullResult.setCode(JoyQueueCode.SE_INDEX_OVERFLOW);
+                logger.error(t.getMessage(), t);
+            }
+        } else if (t instanceof PositionUnderflowException) {
+            pullResult.setCode(JoyQueueCode.SE_INDEX_UNDERFLOW);
+            logger.error(t.getMessage(), t);
+        } else {
+            logger.error("get message error, consumer: {}, partition: {}", consumer, partition, t);
+        }
         return pullResult;
     }
 
@@ -380,6 +563,10 @@ class PartitionConsumption extends Service {
         }
     }
 
+    private boolean isZeroCopyRead(Consumer consumer) {
+        return Consumer.ConsumeType.JOYQUEUE.equals(consumer.getType()) && config.getZeroCopyRead();
+    }
+
     /**
      * 指定分组、分区、序号读取消息
      * <br>
@@ -393,22 +580,16 @@ class PartitionConsumption extends Service {
      * @param count          消息条数
      * @return 读取的消息
      */
-    private ByteBuffer[] readMessages(Consumer consumer, int partitionGroup, short partition, long index, int count) throws IOException {
+    private ReadResult readMessages(Consumer consumer, int partitionGroup, short partition, long index, int count) throws IOException {
         PartitionGroupStore store = storeService.getStore(consumer.getTopic(), partitionGroup);
         if (index < store.getLeftIndex(partition) || index >= store.getRightIndex(partition)) {
             return null;
         }
         try {
-            ReadResult readRst = store.read(partition, index, count, Long.MAX_VALUE);
-            if (readRst.getCode() == JoyQueueCode.SUCCESS) {
-                if (logger.isDebugEnabled()) {
-                    logger.debug("readMessage by topic:[{}], app:[{}], partition:[{}], consumer: [{}], count:[{}], result: {}",
-                            consumer.getTopic(), consumer.getApp(), partition, consumer, count, ArrayUtils.getLength(readRst.getMessages()));
-                }
-                return readRst.getMessages();
-            } else {
-                logger.error("read message error, error code[{}]", readRst.getCode());
-            }
+            // 只有JoyQueue协议的拉取消息应答会在写入网络后释放零拷贝读取的消息
+            ReadResult readRst = isZeroCopyRead(consumer) ?
+                    store.readPinned(partition, index, count, Long.MAX_VALUE) : store.read(partition, index, count, Long.MAX_VALUE);
+            return checkReadResult(consumer, partition, count, readRst);
         } catch (PositionOverflowException overflow) {
             logger.debug("PositionOverflow,topic:{},app:{},partition:{},index:{}", consumer.getTopic(), consumer.getApp(), partition, index);
             throw overflow;
@@ -416,6 +597,32 @@ class PartitionConsumption extends Service {
             logger.debug("PositionUnderflow,topic:{},app:{},partition:{},index:{}", consumer.getTopic(), consumer.getApp(), partition, index);
             throw underflow;
         }
+    }
+
+    /**
+     * 异步读取消息，参数和结果同{@link #readMessages(Consumer, int, short, long, int)}
+     */
+    private CompletableFuture<ReadResult> readMessagesAsync(Consumer consumer, int partitionGroup, short partition, long index, int count) {
+        PartitionGroupStore store = storeService.getStore(consumer.getTopic(), partitionGroup);
+        if (index < store.getLeftIndex(partition) || index >= store.getRightIndex(partition)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        // 只有JoyQueue协议的拉取消息应答会在写入网络后释放零拷贝读取的消息
+        CompletableFuture<ReadResult> future = isZeroCopyRead(consumer) ?
+                store.readPinnedAsync(partition, index, count, Long.MAX_VALUE) : store.readAsync(partition, index, count, Long.MAX_VALUE);
+        return future.thenApply(readRst -> checkReadResult(consumer, partition, count, readRst));
+    }
+
+    private ReadResult checkReadResult(Consumer consumer, short partition, int count, ReadResult readRst) {
+        if (readRst.getCode() == JoyQueueCode.SUCCESS) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("readMessage by topic:[{}], app:[{}], partition:[{}], consumer: [{}], count:[{}], result: {}",
+                        consumer.getTopic(), consumer.getApp(), partition, consumer, count, ArrayUtils.getLength(readRst.getMessages()));
+            }
+            return readRst;
+        } else {
+            logger.error("read message error, error code[{}]", readRst.getCode());
+        }
         return null;
     }
 
@@ -0,0 +1,60 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.broker.consumer.filter;
+
+import org.joyqueue.exception.JoyQueueException;
+import org.joyqueue.store.message.CompactedMessageParser;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 日志压实占位消息过滤器，不需要配置规则，对所有消费者生效。
+ * <br/>
+ * 和标签过滤器一样顺序向后查找：开头的占位消息直接应答掉，返回之后连续的有效消息，
+ * 有效消息之后的占位消息留到下次拉取时应答。
+ */
+public class CompactedMessageFilter implements MessageFilter {
+
+    @Override
+    public List<ByteBuffer> filter(List<ByteBuffer> byteBufferList, FilterCallback filterCallback) throws JoyQueueException {
+        if (byteBufferList == null || byteBufferList.isEmpty()) {
+            return byteBufferList;
+        }
+        int size = byteBufferList.size();
+        int validStart = 0;
+        while (validStart < size && CompactedMessageParser.isCompacted(byteBufferList.get(validStart))) {
+            validStart++;
+        }
+        int validEnd = validStart;
+        while (validEnd < size && !CompactedMessageParser.isCompacted(byteBufferList.get(validEnd))) {
+            validEnd++;
+        }
+        if (validStart == 0 && validEnd == size) {
+            return byteBufferList;
+        }
+
+        if (validStart > 0) {
+            filterCallback.callback(new ArrayList<>(byteBufferList.subList(0, validStart)));
+        }
+        return new ArrayList<>(byteBufferList.subList(validStart, validEnd));
+    }
+
+    @Override
+    public void setRule(String rule) {
+    }
+}
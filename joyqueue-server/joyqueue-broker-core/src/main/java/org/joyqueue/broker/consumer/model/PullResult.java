@@ -17,6 +17,7 @@ package org.joyqueue.broker.consumer.model;
 
 import org.joyqueue.exception.JoyQueueCode;
 import org.joyqueue.network.session.Consumer;
+import org.joyqueue.network.transport.command.Releasable;
 
 import java.nio.ByteBuffer;
 import java.util.List;
@@ -24,7 +25,7 @@ import java.util.List;
 /**
  * Created by lining48 on 2018/8/16.
  */
-public class PullResult {
+public class PullResult implements Releasable {
     // 主题
     private String topic;
     // 应用
@@ -35,6 +36,8 @@ public class PullResult {
     private List<ByteBuffer> buffers;
     // 状态码
     private JoyQueueCode code = JoyQueueCode.SUCCESS;
+    // 零拷贝读取时，释放数据引用的存储缓存页
+    private Releasable releasable;
 
     public PullResult(final Consumer consumer, final short partition, final List<ByteBuffer> buffers) {
         this.topic = consumer.getTopic();
@@ -129,4 +132,24 @@ public class PullResult {
         return buffers == null || buffers.isEmpty();
     }
 
+    public void setReleasable(Releasable releasable) {
+        this.releasable = releasable;
+    }
+
+    public Releasable getReleasable() {
+        return releasable;
+    }
+
+    /**
+     * 释放零拷贝读取的数据，释放后不能再访问数据
+     */
+    @Override
+    public void release() {
+        Releasable releasable = this.releasable;
+        this.releasable = null;
+        if (releasable != null) {
+            releasable.release();
+        }
+    }
+
 }
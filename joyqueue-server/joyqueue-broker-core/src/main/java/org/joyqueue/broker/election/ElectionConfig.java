@@ -77,6 +77,18 @@ public class ElectionConfig {
         return PropertySupplier.getValue(propertySupplier, ElectionConfigKey.TIMER_SCHEDULE_THREAD_NUM);
     }
 
+    public int getInstallSnapshotThreadNum() {
+        return PropertySupplier.getValue(propertySupplier, ElectionConfigKey.INSTALL_SNAPSHOT_THREAD_NUM);
+    }
+
+    public int getAppendEntriesThreadNum() {
+        return PropertySupplier.getValue(propertySupplier, ElectionConfigKey.APPEND_ENTRIES_THREAD_NUM);
+    }
+
+    public int getHeartbeatThreadNum() {
+        return PropertySupplier.getValue(propertySupplier, ElectionConfigKey.HEARTBEAT_THREAD_NUM);
+    }
+
     public int getHeartbeatTimeout() {
         return PropertySupplier.getValue(propertySupplier, ElectionConfigKey.HEARTBEAT_TIMEOUT);
     }
@@ -113,6 +125,30 @@ public class ElectionConfig {
         return PropertySupplier.getValue(propertySupplier, ElectionConfigKey.REPLICATE_THREAD_NUM_MAX);
     }
 
+    public int getReplicatePipelineDepth() {
+        return PropertySupplier.getValue(propertySupplier, ElectionConfigKey.REPLICATE_PIPELINE_DEPTH);
+    }
+
+    public boolean enableReplicateBatch() {
+        return PropertySupplier.getValue(propertySupplier, ElectionConfigKey.REPLICATE_BATCH_ENABLE);
+    }
+
+    public int getReplicateBatchSize() {
+        return PropertySupplier.getValue(propertySupplier, ElectionConfigKey.REPLICATE_BATCH_SIZE);
+    }
+
+    public int getReplicateBatchPipelineDepth() {
+        return PropertySupplier.getValue(propertySupplier, ElectionConfigKey.REPLICATE_BATCH_PIPELINE_DEPTH);
+    }
+
+    public int getReplicateSharedThreadNum() {
+        return PropertySupplier.getValue(propertySupplier, ElectionConfigKey.REPLICATE_SHARED_THREAD_NUM);
+    }
+
+    public int getReplicateSharedThreadMaxInterval() {
+        return PropertySupplier.getValue(propertySupplier, ElectionConfigKey.REPLICATE_SHARED_THREAD_MAX_INTERVAL);
+    }
+
     public int getCommandQueueSize() {
         return PropertySupplier.getValue(propertySupplier, ElectionConfigKey.COMMAND_QUEUE_SIZE);
     }
@@ -145,6 +181,14 @@ public class ElectionConfig {
         return PropertySupplier.getValue(propertySupplier, ElectionConfigKey.OUTPUT_CONSUME_POS);
     }
 
+    public long getSnapshotThreshold() {
+        return PropertySupplier.getValue(propertySupplier, ElectionConfigKey.SNAPSHOT_THRESHOLD);
+    }
+
+    public int getSnapshotChunkSize() {
+        return PropertySupplier.getValue(propertySupplier, ElectionConfigKey.SNAPSHOT_CHUNK_SIZE);
+    }
+
     public void setListenPort(String port) {
         listenPort = Integer.valueOf(port);
     }
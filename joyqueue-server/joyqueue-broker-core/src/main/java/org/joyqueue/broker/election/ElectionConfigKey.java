@@ -29,6 +29,9 @@ public enum ElectionConfigKey implements PropertyDef {
     EXECUTOR_THREAD_NUM_MIN("election.executor.thread.num.min", 10, Type.INT),
     EXECUTOR_THREAD_NUM_MAX("election.executor.thread.num.max", 50, Type.INT),
     TIMER_SCHEDULE_THREAD_NUM("election.timer.schedule.thread.num", 10, Type.INT),
+    INSTALL_SNAPSHOT_THREAD_NUM("election.install.snapshot.thread.num", 2, Type.INT),
+    APPEND_ENTRIES_THREAD_NUM("election.append.entries.thread.num", 16, Type.INT),
+    HEARTBEAT_THREAD_NUM("election.heartbeat.thread.num", 4, Type.INT),
     HEARTBEAT_TIMEOUT("election.heartbeat.timeout", 1000, Type.INT),
     SEND_COMMAND_TIMEOUT("election.send.command.timeout", 1000 * 5, Type.INT),
     MAX_BATCH_REPLICATE_SIZE("election.max.replicate.length", 1024 * 1024, Type.INT),
@@ -38,6 +41,18 @@ public enum ElectionConfigKey implements PropertyDef {
     REPLICATE_CONSUME_POS_INTERVAL("election.replicate.consume.pos.interval", 1000 * 5, Type.INT),
     REPLICATE_THREAD_NUM_MIN("election.replicate.thread.num.min", 10, Type.INT),
     REPLICATE_THREAD_NUM_MAX("election.replicate.thread.num.max", 100, Type.INT),
+    // 每个副本最多同时发送的复制请求数量，1表示收到响应后再复制下一批消息
+    REPLICATE_PIPELINE_DEPTH("election.replicate.pipeline.depth", 1, Type.INT),
+    // 发往同一个broker的复制请求和心跳合并发送，需要所有broker都支持批量复制命令后再开启
+    REPLICATE_BATCH_ENABLE("election.replicate.batch.enable", false, Type.BOOLEAN),
+    // 每个批量复制请求最多包含的消息长度
+    REPLICATE_BATCH_SIZE("election.replicate.batch.size", 2 * 1024 * 1024, Type.INT),
+    // 每个复制通道最多同时发送中的批量复制请求数量
+    REPLICATE_BATCH_PIPELINE_DEPTH("election.replicate.batch.pipeline.depth", 4, Type.INT),
+    // 共享复制线程数量，0表示每个复制组使用独立的复制线程
+    REPLICATE_SHARED_THREAD_NUM("election.replicate.shared.thread.num", 0, Type.INT),
+    // 共享复制线程空闲时检查延时复制命令的最大间隔(ms)，有新的复制命令时立即唤醒
+    REPLICATE_SHARED_THREAD_MAX_INTERVAL("election.replicate.shared.thread.max.interval", 1, Type.INT),
     COMMAND_QUEUE_SIZE("election.command.queue.size", 1024, Type.INT),
     LOG_INTERVAL("election.log.interval", 3000, Type.INT),
     TRANSFER_LEADER_MIN_LAG("election.transfer.leader.min.lag", 10 * 1024 * 1024L, Type.LONG),
@@ -45,7 +60,11 @@ public enum ElectionConfigKey implements PropertyDef {
     MIN_REBALANCE_INTERVAL("election.min.rebalance.interval", 60 * 60 * 1000, Type.INT),
     ENABLE_REPORT_LEADER_PERIODICALLY("election.enable.report.leader.periodically", false, Type.BOOLEAN),
     ENABLE_REPORT_LEADER_PERIODICALLY_FORCE("election.enable.report.leader.periodically.force", false, Type.BOOLEAN),
-    OUTPUT_CONSUME_POS("election.consume.pos.output", false, Type.BOOLEAN);
+    OUTPUT_CONSUME_POS("election.consume.pos.output", false, Type.BOOLEAN),
+    // 副本落后超过这个长度时通过复制快照初始化，0表示不复制快照
+    SNAPSHOT_THRESHOLD("election.snapshot.threshold", 10 * 1024 * 1024 * 1024L, Type.LONG),
+    // 复制快照时每个请求传输的数据长度
+    SNAPSHOT_CHUNK_SIZE("election.snapshot.chunk.size", 2 * 1024 * 1024, Type.INT);
 
     private String name;
     private Object value;
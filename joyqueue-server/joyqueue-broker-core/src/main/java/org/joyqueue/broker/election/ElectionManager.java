@@ -45,6 +45,7 @@ import org.joyqueue.toolkit.service.Service;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
@@ -78,6 +79,12 @@ public class ElectionManager extends Service implements ElectionService, BrokerC
     private final Map<String, TransportSession> sessions = new ConcurrentHashMap<>();
     private ScheduledExecutorService electionTimerExecutor;
     private ExecutorService electionExecutor;
+    // 安装快照会重建业务ID索引，不能在网络IO线程上执行
+    private ExecutorService installSnapshotExecutor;
+    // 同一个分区组的复制请求必须按到达顺序写入，每个分区组固定由其中一个单线程执行器处理
+    private ExecutorService[] appendEntriesExecutors;
+    // 心跳不写数据，不排在复制请求后面
+    private ExecutorService heartbeatExecutor;
 
     private EventBus<ElectionEvent> electionEventManager;
     private ElectionMetadataManager electionMetadataManager;
@@ -164,6 +171,14 @@ public class ElectionManager extends Service implements ElectionService, BrokerC
         electionExecutor = new ThreadPoolExecutor(electionConfig.getExecutorThreadNumMin(), electionConfig.getExecutorThreadNumMax(),
                 60, TimeUnit.SECONDS, new LinkedBlockingDeque<>(electionConfig.getCommandQueueSize()),
                 new NamedThreadFactory("Election-sendCommand"));
+        installSnapshotExecutor = Executors.newFixedThreadPool(electionConfig.getInstallSnapshotThreadNum(),
+                new NamedThreadFactory("Election-installSnapshot"));
+        appendEntriesExecutors = new ExecutorService[electionConfig.getAppendEntriesThreadNum()];
+        for (int i = 0; i < appendEntriesExecutors.length; i++) {
+            appendEntriesExecutors[i] = Executors.newSingleThreadExecutor(new NamedThreadFactory("Election-appendEntries-" + i));
+        }
+        heartbeatExecutor = Executors.newFixedThreadPool(electionConfig.getHeartbeatThreadNum(),
+                new NamedThreadFactory("Election-heartbeat"));
 
         replicationManager = new ReplicationManager(electionConfig, brokerConfig, storeService, consume, brokerMonitor);
         replicationManager.start();
@@ -194,6 +209,13 @@ public class ElectionManager extends Service implements ElectionService, BrokerC
 
         Close.close(electionTimerExecutor);
         Close.close(electionExecutor);
+        Close.close(installSnapshotExecutor);
+        if (appendEntriesExecutors != null) {
+            for (ExecutorService appendEntriesExecutor : appendEntriesExecutors) {
+                Close.close(appendEntriesExecutor);
+            }
+        }
+        Close.close(heartbeatExecutor);
         Close.close(electionEventManager);
         Close.close(transportClient);
         Close.close(replicationManager);
@@ -312,6 +334,41 @@ public class ElectionManager extends Service implements ElectionService, BrokerC
         leaderElection.setLeaderId(leaderId);
     }
 
+    @Override
+    public void movePartitionGroup(String topic, int partitionGroup, String dataPath) throws ElectionException, IOException {
+        TopicPartitionGroup topicPartitionGroup = new TopicPartitionGroup(topic, partitionGroup);
+        LeaderElection leaderElection;
+        synchronized (this) {
+            leaderElection = leaderElections.get(topicPartitionGroup);
+            if (leaderElection == null) {
+                logger.info("Move partition group {} to {}, leader election is null", topicPartitionGroup, dataPath);
+            } else {
+                if (electionMetadataManager.getElectionMetadata(topicPartitionGroup) == null) {
+                    throw new ElectionException(String.format("Move partition group %s, election metadata is null",
+                            topicPartitionGroup));
+                }
+                // 保留选举元数据，迁移完成后用它在新的存储实例上重建选举和复制组
+                leaderElection.stop();
+                leaderElections.remove(topicPartitionGroup);
+                replicationManager.removeReplicaGroup(topic, partitionGroup);
+            }
+        }
+
+        logger.info("Move partition group {} to {}", topicPartitionGroup, dataPath);
+        try {
+            storeService.movePartitionGroup(topic, partitionGroup, dataPath);
+        } finally {
+            if (leaderElection != null) {
+                try {
+                    restoreLeaderElection(topicPartitionGroup, electionMetadataManager.getElectionMetadata(topicPartitionGroup));
+                } catch (Exception e) {
+                    throw new ElectionException(String.format("Restore leader election of %s after move failed",
+                            topicPartitionGroup), e);
+                }
+            }
+        }
+    }
+
     /**
      * 根据PartitionGroup查询election
      *
@@ -324,6 +381,26 @@ public class ElectionManager extends Service implements ElectionService, BrokerC
         return getLeaderElection(topic.getFullName(), partitionGroup);
     }
 
+    public ExecutorService getInstallSnapshotExecutor() {
+        return installSnapshotExecutor;
+    }
+
+    /**
+     * 查询处理分区组复制请求的执行器，同一个分区组总是返回同一个单线程执行器
+     *
+     * @param topic          topic
+     * @param partitionGroup partition group
+     * @return 执行器
+     */
+    public ExecutorService getAppendEntriesExecutor(String topic, int partitionGroup) {
+        int index = (31 * topic.hashCode() + partitionGroup) % appendEntriesExecutors.length;
+        return appendEntriesExecutors[Math.abs(index)];
+    }
+
+    public ExecutorService getHeartbeatExecutor() {
+        return heartbeatExecutor;
+    }
+
     @Override
     public List<LeaderElection> getLeaderElections() {
         return new ArrayList<>(leaderElections.values());
@@ -493,6 +570,24 @@ public class ElectionManager extends Service implements ElectionService, BrokerC
         electionMetadataManager.updateTerm(topic, partitionGroup, term);
     }
 
+    /**
+     * 向目标节点发送心跳命令，开启批量复制时和发往同一个broker的其他心跳合并发送
+     *
+     * @param address 目标broker地址, ip + ":" + port
+     * @param command 心跳命令
+     * @throws TransportException 异常
+     */
+    void sendHeartbeat(String address, Command command, int timeout, CommandCallback callback) throws TransportException {
+        if (!isStarted()) {
+            logger.info("Send heartbeat command but election manager is stopped");
+            return;
+        }
+
+        if (!replicationManager.sendAppendEntries(address, command, timeout, callback)) {
+            sendCommand(address, command, timeout, callback);
+        }
+    }
+
     /**
      * 向目标节点发送命令，采用异步方式
      *
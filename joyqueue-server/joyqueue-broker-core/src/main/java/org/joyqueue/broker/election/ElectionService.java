@@ -20,6 +20,7 @@ import org.joyqueue.domain.PartitionGroup;
 import org.joyqueue.domain.TopicName;
 import org.joyqueue.toolkit.concurrent.EventListener;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.Set;
 
@@ -94,6 +95,18 @@ public interface ElectionService {
      */
     void onLeaderChange(TopicName topic, int partitionGroup, int leaderId) throws Exception;
 
+    /**
+     * Move a partition group to another data directory.
+     * The leader election and replica group of the partition group are stopped during the move
+     * and recreated on the moved store afterwards.
+     * @param topic topic
+     * @param partitionGroup partition group id
+     * @param dataPath target data directory, must be one of the configured data directories
+     * @throws ElectionException leader election can not be recreated
+     * @throws IOException copy files failed, the partition group stays in its original directory
+     */
+    void movePartitionGroup(String topic, int partitionGroup, String dataPath) throws ElectionException, IOException;
+
     /**
      * add a listener to the cluster
      * @param listener listener
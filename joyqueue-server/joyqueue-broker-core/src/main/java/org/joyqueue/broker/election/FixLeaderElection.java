@@ -18,6 +18,8 @@ package org.joyqueue.broker.election;
 import org.joyqueue.broker.cluster.ClusterManager;
 import org.joyqueue.broker.election.command.AppendEntriesRequest;
 import org.joyqueue.broker.election.command.AppendEntriesResponse;
+import org.joyqueue.broker.election.command.InstallSnapshotRequest;
+import org.joyqueue.broker.election.command.InstallSnapshotResponse;
 import org.joyqueue.broker.replication.ReplicaGroup;
 import org.joyqueue.network.transport.codec.JoyQueueHeader;
 import org.joyqueue.domain.PartitionGroup;
@@ -167,4 +169,19 @@ public class FixLeaderElection extends LeaderElection {
         return  replicaGroup.appendEntries(request);
     }
 
+    @Override
+    public Command handleInstallSnapshotRequest(InstallSnapshotRequest request) {
+        if (!isStarted()) {
+            logger.warn("Partition group{}/node{} receive install snapshot request, election not started",
+                    topicPartitionGroup, localNodeId);
+            return new Command(new JoyQueueHeader(Direction.RESPONSE, CommandType.RAFT_INSTALL_SNAPSHOT_RESPONSE),
+                    new InstallSnapshotResponse.Build().success(false).build());
+        }
+
+        logger.debug("Partition group{}/node {} receive install snapshot request from {}",
+                topicPartitionGroup, localNodeId, request.getLeaderId());
+
+        return replicaGroup.installSnapshot(request);
+    }
+
 }
@@ -17,6 +17,7 @@ package org.joyqueue.broker.election;
 
 import org.joyqueue.broker.cluster.ClusterManager;
 import org.joyqueue.broker.election.command.AppendEntriesRequest;
+import org.joyqueue.broker.election.command.InstallSnapshotRequest;
 import org.joyqueue.broker.replication.ReplicaGroup;
 import org.joyqueue.domain.TopicName;
 import org.joyqueue.network.transport.command.Command;
@@ -135,6 +136,13 @@ public abstract class LeaderElection extends Service {
      */
     public abstract Command handleAppendEntriesRequest(AppendEntriesRequest request);
 
+    /**
+     * 处理复制快照请求
+     * @param request 复制快照请求
+     * @return 返回命令
+     */
+    public abstract Command handleInstallSnapshotRequest(InstallSnapshotRequest request);
+
 	public void stepDown(int term){}
 
     public int getLocalNodeId() {
@@ -19,6 +19,8 @@ import com.alibaba.fastjson.JSON;
 import org.joyqueue.broker.cluster.ClusterManager;
 import org.joyqueue.broker.election.command.AppendEntriesRequest;
 import org.joyqueue.broker.election.command.AppendEntriesResponse;
+import org.joyqueue.broker.election.command.InstallSnapshotRequest;
+import org.joyqueue.broker.election.command.InstallSnapshotResponse;
 import org.joyqueue.broker.election.command.TimeoutNowRequest;
 import org.joyqueue.broker.election.command.TimeoutNowResponse;
 import org.joyqueue.broker.election.command.VoteRequest;
@@ -806,6 +808,44 @@ public class RaftLeaderElection extends LeaderElection  {
         }
     }
 
+    /**
+     * 处理复制快照请求
+     * @param request 复制快照请求
+     * @return 返回命令
+     */
+    @Override
+    public Command handleInstallSnapshotRequest(InstallSnapshotRequest request) {
+        synchronized (this) {
+            if (!isStarted()) {
+                logger.warn("Partition group {}/node{} receive install snapshot request, election not started",
+                        topicPartitionGroup, localNode);
+                return null;
+            }
+
+            if (!allNodes.containsKey(request.getLeaderId())) {
+                logger.warn("Partition group {}/node{} receive install snapshot request from unknown node {}",
+                        topicPartitionGroup, localNode, request.getLeaderId());
+                return null;
+            }
+
+            if (request.getTerm() < currentTerm) {
+                logger.info("Partition group {}/node {} receive install snapshot request from {}, current term {} " +
+                                "is bigger than request term {}",
+                        topicPartitionGroup, localNode, request.getLeaderId(), currentTerm, request.getTerm());
+                return new Command(new JoyQueueHeader(Direction.RESPONSE, CommandType.RAFT_INSTALL_SNAPSHOT_RESPONSE),
+                        new InstallSnapshotResponse.Build().success(false).term(currentTerm)
+                                .writePosition(replicableStore.rightPosition()).build());
+            }
+
+            checkStepDown(request.getTerm(), request.getLeaderId());
+
+            resetElectionTimer();
+        }
+
+        // 安装快照时替换整个存储，耗时较长，不持有选举的锁，避免阻塞心跳和投票
+        return replicaGroup.installSnapshot(request);
+    }
+
     /**
      * 开始新一轮心跳，向Follower节点发送心跳命令，重置心跳定时器
      */
@@ -834,7 +874,7 @@ public class RaftLeaderElection extends LeaderElection  {
                     logger.debug("Partition group {}/node{} send heartbeat request {} to {}",
                             topicPartitionGroup, localNode, appendEntriesRequest, node.getNodeId());
                     try {
-                        electionManager.sendCommand(node.getAddress(), command,
+                        electionManager.sendHeartbeat(node.getAddress(), command,
                                 electionConfig.getSendCommandTimeout(), new HeartbeatRequestCallback(node));
                     } catch (Exception e) {
                         logger.warn("Partition group {}/node{} send heartbeat to {} fail",
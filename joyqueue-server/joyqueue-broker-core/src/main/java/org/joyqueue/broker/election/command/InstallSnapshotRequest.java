@@ -0,0 +1,235 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.broker.election.command;
+
+import org.joyqueue.broker.election.TopicPartitionGroup;
+import org.joyqueue.network.command.CommandType;
+import org.joyqueue.network.transport.command.JoyQueuePayload;
+import org.joyqueue.network.transport.command.Releasable;
+import org.joyqueue.store.replication.SnapshotFile;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 复制快照请求，每个请求携带快照中一个文件的一段数据。
+ * 副本落后太多时，Leader直接传输日志文件和索引文件初始化副本，之后从快照的结束位置继续复制。
+ */
+public class InstallSnapshotRequest extends JoyQueuePayload implements Releasable {
+    private TopicPartitionGroup topicPartitionGroup;
+
+    private int term;
+    private int leaderId;
+
+    // end position of the snapshot
+    private long snapshotPosition;
+
+    // file of the data
+    private SnapshotFile file;
+    // offset of the data in the file
+    private long offset;
+
+    // first chunk of the snapshot, follower should clear the received data
+    private boolean first;
+    // last chunk of the snapshot, follower should install the snapshot
+    private boolean last;
+
+    private ByteBuffer data;
+    // 零拷贝读取时，data引用了存储的缓存页，请求完成后释放
+    private Releasable releasable;
+
+    public TopicPartitionGroup getTopicPartitionGroup() {
+        return topicPartitionGroup;
+    }
+
+    public void setTopicPartitionGroup(TopicPartitionGroup topicPartitionGroup) {
+        this.topicPartitionGroup = topicPartitionGroup;
+    }
+
+    public String getTopic() {
+        return topicPartitionGroup.getTopic();
+    }
+
+    public int getPartitionGroup() {
+        return topicPartitionGroup.getPartitionGroupId();
+    }
+
+    public int getTerm() {
+        return term;
+    }
+
+    public void setTerm(int term) {
+        this.term = term;
+    }
+
+    public int getLeaderId() {
+        return leaderId;
+    }
+
+    public void setLeaderId(int leaderId) {
+        this.leaderId = leaderId;
+    }
+
+    public long getSnapshotPosition() {
+        return snapshotPosition;
+    }
+
+    public void setSnapshotPosition(long snapshotPosition) {
+        this.snapshotPosition = snapshotPosition;
+    }
+
+    public SnapshotFile getFile() {
+        return file;
+    }
+
+    public void setFile(SnapshotFile file) {
+        this.file = file;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public void setOffset(long offset) {
+        this.offset = offset;
+    }
+
+    public boolean isFirst() {
+        return first;
+    }
+
+    public void setFirst(boolean first) {
+        this.first = first;
+    }
+
+    public boolean isLast() {
+        return last;
+    }
+
+    public void setLast(boolean last) {
+        this.last = last;
+    }
+
+    public ByteBuffer getData() {
+        return data;
+    }
+
+    public void setData(ByteBuffer data) {
+        this.data = data;
+    }
+
+    public void setReleasable(Releasable releasable) {
+        this.releasable = releasable;
+    }
+
+    public int getDataLength() {
+        return data == null ? 0 : data.remaining();
+    }
+
+    @Override
+    public int type() {
+        return CommandType.RAFT_INSTALL_SNAPSHOT_REQUEST;
+    }
+
+    @Override
+    public String toString() {
+        return new StringBuilder("installSnapshotRequest:{")
+                .append("topic:").append(getTopic())
+                .append(", partitionGroup:").append(getPartitionGroup())
+                .append(", term:").append(term)
+                .append(", leaderId:").append(leaderId)
+                .append(", snapshotPosition:").append(snapshotPosition)
+                .append(", file:").append(file)
+                .append(", offset:").append(offset)
+                .append(", first:").append(first)
+                .append(", last:").append(last)
+                .append(", dataLength:").append(getDataLength())
+                .append("}").toString();
+    }
+
+    @Override
+    public void release() {
+        if (data != null) {
+            data = null;
+        }
+        Releasable releasable = this.releasable;
+        this.releasable = null;
+        if (releasable != null) {
+            releasable.release();
+        }
+    }
+
+    public static class Build {
+        private InstallSnapshotRequest installSnapshotRequest = new InstallSnapshotRequest();
+
+        public static Build create() {
+            return new Build();
+        }
+
+        public InstallSnapshotRequest build() {
+            return installSnapshotRequest;
+        }
+
+        public Build partitionGroup(TopicPartitionGroup partitionGroup) {
+            installSnapshotRequest.setTopicPartitionGroup(partitionGroup);
+            return this;
+        }
+
+        public Build term(int term) {
+            installSnapshotRequest.setTerm(term);
+            return this;
+        }
+
+        public Build leader(int leader) {
+            installSnapshotRequest.setLeaderId(leader);
+            return this;
+        }
+
+        public Build snapshotPosition(long snapshotPosition) {
+            installSnapshotRequest.setSnapshotPosition(snapshotPosition);
+            return this;
+        }
+
+        public Build file(SnapshotFile file) {
+            installSnapshotRequest.setFile(file);
+            return this;
+        }
+
+        public Build offset(long offset) {
+            installSnapshotRequest.setOffset(offset);
+            return this;
+        }
+
+        public Build first(boolean first) {
+            installSnapshotRequest.setFirst(first);
+            return this;
+        }
+
+        public Build last(boolean last) {
+            installSnapshotRequest.setLast(last);
+            return this;
+        }
+
+        public Build data(ByteBuffer data) {
+            installSnapshotRequest.setData(data);
+            return this;
+        }
+
+        public Build releasable(Releasable releasable) {
+            installSnapshotRequest.setReleasable(releasable);
+            return this;
+        }
+    }
+}
@@ -28,6 +28,7 @@ import org.joyqueue.network.command.CommandType;
 import org.joyqueue.network.transport.command.Direction;
 import org.joyqueue.network.transport.command.Type;
 import org.joyqueue.network.transport.command.handler.CommandHandler;
+import org.joyqueue.network.transport.command.provider.ExecutorServiceProvider;
 import org.joyqueue.network.transport.Transport;
 import org.joyqueue.network.transport.exception.TransportException;
 import com.google.common.base.Preconditions;
@@ -35,12 +36,16 @@ import com.google.common.base.Preconditions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.ExecutorService;
+
 /**
+ * 复制请求处理器，同一个分区组的复制请求在同一个单线程执行器中按到达顺序处理，
+ * 流水线复制时后发送的请求不会先于之前的请求写入，不带数据的心跳在单独的线程池中处理
  * author: zhuduohui
  * email: zhuduohui@jd.com
  * date: 2018/9/27
  */
-public class AppendEntriesRequestHandler implements CommandHandler, Type {
+public class AppendEntriesRequestHandler implements CommandHandler, Type, ExecutorServiceProvider {
     private static Logger logger = LoggerFactory.getLogger(AppendEntriesRequestHandler.class);
 
     private ElectionManager electionManager;
@@ -108,6 +113,15 @@ public class AppendEntriesRequestHandler implements CommandHandler, Type {
 
     }
 
+    @Override
+    public ExecutorService getExecutorService(Transport transport, Command command) {
+        AppendEntriesRequest request = (AppendEntriesRequest) command.getPayload();
+        if (request.getEntries() == null || !request.getEntries().hasRemaining()) {
+            return electionManager.getHeartbeatExecutor();
+        }
+        return electionManager.getAppendEntriesExecutor(request.getTopic(), request.getPartitionGroup());
+    }
+
     @Override
     public int type() {
         return CommandType.RAFT_APPEND_ENTRIES_REQUEST;
@@ -0,0 +1,163 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.broker.election.handler;
+
+import org.joyqueue.broker.BrokerContext;
+import org.joyqueue.broker.election.ElectionManager;
+import org.joyqueue.broker.election.ElectionService;
+import org.joyqueue.broker.election.TopicPartitionGroup;
+import org.joyqueue.broker.election.command.AppendEntriesRequest;
+import org.joyqueue.broker.election.command.AppendEntriesResponse;
+import org.joyqueue.broker.election.command.BatchAppendEntriesRequest;
+import org.joyqueue.broker.election.command.BatchAppendEntriesResponse;
+import org.joyqueue.exception.JoyQueueCode;
+import org.joyqueue.network.command.CommandType;
+import org.joyqueue.network.transport.Transport;
+import org.joyqueue.network.transport.codec.JoyQueueHeader;
+import org.joyqueue.network.transport.command.Command;
+import org.joyqueue.network.transport.command.Direction;
+import org.joyqueue.network.transport.command.Type;
+import org.joyqueue.network.transport.command.handler.CommandHandler;
+import org.joyqueue.network.transport.exception.TransportException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * 批量复制请求处理，每个分区组的复制请求提交到这个分区组的复制执行器中按顺序处理，
+ * 和单独收到复制请求时的处理相同，不同分区组之间并行处理，一个分区组等待刷盘不会阻塞其它分区组，
+ * 所有分区组的复制响应合并成一个响应异步返回
+ */
+public class BatchAppendEntriesRequestHandler implements CommandHandler, Type {
+    private static Logger logger = LoggerFactory.getLogger(BatchAppendEntriesRequestHandler.class);
+
+    private AppendEntriesRequestHandler appendEntriesRequestHandler;
+    private ElectionManager electionManager;
+
+    public BatchAppendEntriesRequestHandler(BrokerContext brokerContext) {
+        this.appendEntriesRequestHandler = new AppendEntriesRequestHandler(brokerContext);
+        this.electionManager = (ElectionManager) brokerContext.getElectionService();
+    }
+
+    public BatchAppendEntriesRequestHandler(ElectionService electionService) {
+        this.appendEntriesRequestHandler = new AppendEntriesRequestHandler(electionService);
+        this.electionManager = (ElectionManager) electionService;
+    }
+
+    @Override
+    public Command handle(Transport transport, Command command) throws TransportException {
+        if (!(command.getPayload() instanceof BatchAppendEntriesRequest)) {
+            throw new IllegalArgumentException();
+        }
+
+        BatchAppendEntriesRequest request = (BatchAppendEntriesRequest) command.getPayload();
+        if (request.getRequests() == null) {
+            logger.warn("Receive batch append entries request from {}, request is null", transport.remoteAddress());
+            throw new TransportException("Batch append entries request payload is null",
+                    JoyQueueCode.CT_MESSAGE_BODY_NULL.getCode());
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Receive batch append entries request {} from {}", request, transport.remoteAddress());
+        }
+
+        List<AppendEntriesRequest> requests = request.getRequests();
+        AppendEntriesResponse[] responses = new AppendEntriesResponse[requests.size()];
+
+        // 按分区组分组，保持每个分区组内请求的顺序
+        Map<TopicPartitionGroup, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < requests.size(); i++) {
+            groups.computeIfAbsent(requests.get(i).getTopicPartitionGroup(), key -> new ArrayList<>()).add(i);
+        }
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>(groups.size());
+        for (Map.Entry<TopicPartitionGroup, List<Integer>> entry : groups.entrySet()) {
+            TopicPartitionGroup topicPartitionGroup = entry.getKey();
+            try {
+                futures.add(CompletableFuture.runAsync(() -> {
+                    for (int index : entry.getValue()) {
+                        responses[index] = handle(transport, requests.get(index));
+                    }
+                }, getExecutorService(topicPartitionGroup, requests, entry.getValue())));
+            } catch (Exception e) {
+                logger.warn("Submit append entries requests of topic {} partition group {} in batch fail",
+                        topicPartitionGroup.getTopic(), topicPartitionGroup.getPartitionGroupId(), e);
+            }
+        }
+
+        // 在收到请求的线程中按顺序提交，不等待处理完成，所有分区组处理完成后再异步应答，
+        // 后面的请求帧不会因为等待这一帧而阻塞，每个分区组的请求仍然按收到的顺序处理
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).whenComplete((result, t) -> {
+            if (t != null) {
+                logger.warn("Handle append entries requests in batch fail", t);
+            }
+            List<AppendEntriesResponse> responseList = new ArrayList<>(responses.length);
+            for (AppendEntriesResponse response : responses) {
+                responseList.add(response != null ? response : failure());
+            }
+            try {
+                transport.acknowledge(command, new Command(new JoyQueueHeader(Direction.RESPONSE, CommandType.RAFT_BATCH_APPEND_ENTRIES_RESPONSE),
+                        new BatchAppendEntriesResponse(responseList)));
+            } catch (Exception e) {
+                logger.warn("Acknowledge batch append entries response to {} fail", transport.remoteAddress(), e);
+            }
+        });
+        return null;
+    }
+
+    private AppendEntriesResponse handle(Transport transport, AppendEntriesRequest request) {
+        try {
+            Command response = appendEntriesRequestHandler.handle(transport,
+                    new Command(new JoyQueueHeader(Direction.REQUEST, CommandType.RAFT_APPEND_ENTRIES_REQUEST), request));
+            if (response != null && response.getPayload() instanceof AppendEntriesResponse) {
+                return (AppendEntriesResponse) response.getPayload();
+            }
+        } catch (Exception e) {
+            logger.warn("Handle append entries request of topic {} partition group {} in batch fail",
+                    request.getTopic(), request.getPartitionGroup(), e);
+        }
+        return failure();
+    }
+
+    /**
+     * 心跳和单独收到心跳时一样在心跳线程中处理，不排在复制数据后面
+     */
+    private ExecutorService getExecutorService(TopicPartitionGroup topicPartitionGroup, List<AppendEntriesRequest> requests, List<Integer> indexes) {
+        for (int index : indexes) {
+            ByteBuffer entries = requests.get(index).getEntries();
+            if (entries != null && entries.hasRemaining()) {
+                return electionManager.getAppendEntriesExecutor(topicPartitionGroup.getTopic(), topicPartitionGroup.getPartitionGroupId());
+            }
+        }
+        return electionManager.getHeartbeatExecutor();
+    }
+
+    private AppendEntriesResponse failure() {
+        return new AppendEntriesResponse.Build().success(false).nextPosition(-1L).build();
+    }
+
+    @Override
+    public int type() {
+        return CommandType.RAFT_BATCH_APPEND_ENTRIES_REQUEST;
+    }
+}
@@ -0,0 +1,43 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.broker.election.network.codec;
+
+import io.netty.buffer.ByteBuf;
+import org.joyqueue.broker.election.command.AppendEntriesRequest;
+import org.joyqueue.broker.election.command.BatchAppendEntriesRequest;
+import org.joyqueue.network.command.CommandType;
+import org.joyqueue.network.transport.codec.PayloadEncoder;
+import org.joyqueue.network.transport.command.Type;
+
+/**
+ * 批量复制请求编码器，每个分区组的复制请求和单独发送时的编码相同
+ */
+public class BatchAppendEntriesRequestEncoder implements PayloadEncoder<BatchAppendEntriesRequest>, Type {
+    private final AppendEntriesRequestEncoder encoder = new AppendEntriesRequestEncoder();
+
+    @Override
+    public void encode(final BatchAppendEntriesRequest payload, ByteBuf buffer) throws Exception {
+        buffer.writeInt(payload.getRequests().size());
+        for (AppendEntriesRequest request : payload.getRequests()) {
+            encoder.encode(request, buffer);
+        }
+    }
+
+    @Override
+    public int type() {
+        return CommandType.RAFT_BATCH_APPEND_ENTRIES_REQUEST;
+    }
+}
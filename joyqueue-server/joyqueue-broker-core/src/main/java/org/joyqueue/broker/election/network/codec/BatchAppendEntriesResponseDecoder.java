@@ -0,0 +1,49 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.broker.election.network.codec;
+
+import io.netty.buffer.ByteBuf;
+import org.joyqueue.broker.election.command.AppendEntriesResponse;
+import org.joyqueue.broker.election.command.BatchAppendEntriesResponse;
+import org.joyqueue.network.command.CommandType;
+import org.joyqueue.network.transport.codec.JoyQueueHeader;
+import org.joyqueue.network.transport.codec.PayloadDecoder;
+import org.joyqueue.network.transport.command.Type;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 批量复制响应解码器
+ */
+public class BatchAppendEntriesResponseDecoder implements PayloadDecoder<JoyQueueHeader>, Type {
+    private final AppendEntriesResponseDecoder decoder = new AppendEntriesResponseDecoder();
+
+    @Override
+    public Object decode(final JoyQueueHeader header, final ByteBuf buffer) throws Exception {
+        int size = buffer.readInt();
+        List<AppendEntriesResponse> responses = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            responses.add((AppendEntriesResponse) decoder.decode(header, buffer));
+        }
+        return new BatchAppendEntriesResponse(responses);
+    }
+
+    @Override
+    public int type() {
+        return CommandType.RAFT_BATCH_APPEND_ENTRIES_RESPONSE;
+    }
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.broker.election.network.codec;
+
+import io.netty.buffer.ByteBuf;
+import org.joyqueue.broker.election.command.InstallSnapshotRequest;
+import org.joyqueue.network.command.CommandType;
+import org.joyqueue.network.serializer.Serializer;
+import org.joyqueue.network.transport.codec.PayloadEncoder;
+import org.joyqueue.network.transport.command.Type;
+import org.joyqueue.store.replication.SnapshotFile;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 复制快照请求编码器
+ */
+public class InstallSnapshotRequestEncoder implements PayloadEncoder<InstallSnapshotRequest>, Type {
+    @Override
+    public void encode(final InstallSnapshotRequest payload, ByteBuf buffer) throws Exception {
+        Serializer.write(payload.getTopic(), buffer, Serializer.SHORT_SIZE);
+        buffer.writeInt(payload.getPartitionGroup());
+        buffer.writeInt(payload.getTerm());
+        buffer.writeInt(payload.getLeaderId());
+
+        buffer.writeLong(payload.getSnapshotPosition());
+
+        SnapshotFile file = payload.getFile();
+        buffer.writeShort(file.getPartition());
+        buffer.writeLong(file.getPosition());
+        buffer.writeLong(file.getTimestamp());
+        buffer.writeLong(file.getLength());
+        buffer.writeBoolean(file.isCompactIndex());
+
+        buffer.writeLong(payload.getOffset());
+        buffer.writeBoolean(payload.isFirst());
+        buffer.writeBoolean(payload.isLast());
+
+        ByteBuffer data = payload.getData();
+        if (data == null) {
+            buffer.writeInt(0);
+            return;
+        }
+        buffer.writeInt(data.remaining());
+        data.mark();
+        buffer.writeBytes(data);
+        data.reset();
+    }
+
+    @Override
+    public int type() {
+        return CommandType.RAFT_INSTALL_SNAPSHOT_REQUEST;
+    }
+}
@@ -0,0 +1,40 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.broker.election.network.codec;
+
+import io.netty.buffer.ByteBuf;
+import org.joyqueue.broker.election.command.InstallSnapshotResponse;
+import org.joyqueue.network.command.CommandType;
+import org.joyqueue.network.transport.codec.PayloadEncoder;
+import org.joyqueue.network.transport.command.Type;
+
+/**
+ * 复制快照响应编码器
+ */
+public class InstallSnapshotResponseEncoder implements PayloadEncoder<InstallSnapshotResponse>, Type {
+    @Override
+    public void encode(final InstallSnapshotResponse payload, ByteBuf buffer) throws Exception {
+        buffer.writeInt(payload.getTerm());
+        buffer.writeBoolean(payload.isSuccess());
+        buffer.writeLong(payload.getWritePosition());
+        buffer.writeInt(payload.getReplicaId());
+    }
+
+    @Override
+    public int type() {
+        return CommandType.RAFT_INSTALL_SNAPSHOT_RESPONSE;
+    }
+}
@@ -57,6 +57,9 @@ public class StoreManageConverter {
         result.setIndexPosition(partitionGroupMetric.getIndexPosition());
         result.setFlushPosition(partitionGroupMetric.getFlushPosition());
         result.setReplicationPosition(partitionGroupMetric.getReplicationPosition());
+        result.setScrubPosition(partitionGroupMetric.getScrubPosition());
+        result.setCorruptPosition(partitionGroupMetric.getCorruptPosition());
+        result.setCorruptCount(partitionGroupMetric.getCorruptCount());
         return result;
     }
 
@@ -15,6 +15,10 @@
  */
 package org.joyqueue.broker.manage.service;
 
+import org.joyqueue.broker.election.ElectionException;
+
+import java.io.IOException;
+
 public interface ElectionManageService {
 
     /**
@@ -45,4 +49,15 @@ public interface ElectionManageService {
      * @param term 轮次
      */
     void updateTerm(String topic, int partitionGroup, int term);
+
+    /**
+     * 把主题下的分区组迁移到另一个数据目录，迁移期间分区组停止服务，
+     * 完成后在新的存储实例上重建选举和复制组
+     * @param topic 主题
+     * @param partitionGroup 分区组
+     * @param dataPath 目标数据目录
+     * @throws ElectionException 重建选举失败
+     * @throws IOException 复制文件失败，分区组仍然在原来的目录中
+     */
+    void movePartitionGroup(String topic, int partitionGroup, String dataPath) throws ElectionException, IOException;
 }
@@ -39,6 +39,16 @@ public interface MessageManageService {
      */
     List<BrokerMessageInfo> getPartitionMessage(String topic, String app, short partition, long index, int count);
 
+    /**
+     * 根据业务ID获取主题下的消息，需要存储开启业务ID索引
+     *
+     * @param topic 主题
+     * @param app 应用
+     * @param businessId 业务ID
+     * @return 消息列表
+     */
+    List<BrokerMessageInfo> getMessageByBusinessId(String topic, String app, String businessId);
+
     /**
      * 获取主题下应用的积压消息
      *
@@ -15,6 +15,7 @@
  */
 package org.joyqueue.broker.manage.service.support;
 
+import org.joyqueue.broker.election.ElectionException;
 import org.joyqueue.broker.manage.service.BrokerManageService;
 import org.joyqueue.broker.manage.service.ConnectionManageService;
 import org.joyqueue.broker.manage.service.ConsumerManageService;
@@ -34,6 +35,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.List;
 
 /**
@@ -127,6 +129,11 @@ public class DefaultBrokerManageService implements BrokerManageService {
         return messageManageService.getPartitionMessage(topic, app, partition, index, count);
     }
 
+    @Override
+    public List<BrokerMessageInfo> getMessageByBusinessId(String topic, String app, String businessId) {
+        return messageManageService.getMessageByBusinessId(topic, app, businessId);
+    }
+
     @Override
     public List<BrokerMessageInfo> getPendingMessage(String topic, String app, int count) {
         return messageManageService.getPendingMessage(topic, app, count);
@@ -253,6 +260,11 @@ public class DefaultBrokerManageService implements BrokerManageService {
         electionManageService.updateTerm(topic, partitionGroup, term);
     }
 
+    @Override
+    public void movePartitionGroup(String topic, int partitionGroup, String dataPath) throws ElectionException, IOException {
+        electionManageService.movePartitionGroup(topic, partitionGroup, dataPath);
+    }
+
     @Override
     public Directory storeTreeView(boolean recursive) {
         return storeManageService.storeTreeView(recursive);
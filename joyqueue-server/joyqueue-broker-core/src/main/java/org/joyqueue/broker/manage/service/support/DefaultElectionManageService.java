@@ -15,9 +15,12 @@
  */
 package org.joyqueue.broker.manage.service.support;
 
+import org.joyqueue.broker.election.ElectionException;
 import org.joyqueue.broker.election.ElectionService;
 import org.joyqueue.broker.manage.service.ElectionManageService;
 
+import java.io.IOException;
+
 public class DefaultElectionManageService implements ElectionManageService {
     private ElectionService electionService;
 
@@ -44,4 +47,9 @@ public class DefaultElectionManageService implements ElectionManageService {
     public void updateTerm(String topic, int partitionGroup, int term) {
         electionService.updateTerm(topic, partitionGroup, term);
     }
+
+    @Override
+    public void movePartitionGroup(String topic, int partitionGroup, String dataPath) throws ElectionException, IOException {
+        electionService.movePartitionGroup(topic, partitionGroup, dataPath);
+    }
 }
@@ -72,6 +72,28 @@ public class DefaultMessageManageService implements MessageManageService {
         }
     }
 
+    @Override
+    public List<BrokerMessageInfo> getMessageByBusinessId(String topic, String app, String businessId) {
+        try {
+            List<BrokerMessage> brokerMessages = Lists.newLinkedList();
+            List<BrokerMessageInfo> result = Lists.newLinkedList();
+            byte[][] bytes = storeManagementService.readMessagesByBizId(topic, businessId);
+            if (ArrayUtils.isNotEmpty(bytes)) {
+                for (byte[] message : bytes) {
+                    brokerMessages.add(Serializer.readBrokerMessage(ByteBuffer.wrap(message)));
+                }
+            }
+
+            brokerMessages = messageConvertSupport.convert(brokerMessages, SourceType.INTERNAL.getValue());
+            for (BrokerMessage brokerMessage : brokerMessages) {
+                result.add(new BrokerMessageInfo(brokerMessage));
+            }
+            return result;
+        } catch (Exception e) {
+            throw new ManageException(e);
+        }
+    }
+
     @Override
     public List<BrokerMessageInfo> getPendingMessage(String topic, String app, int count) {
         try {
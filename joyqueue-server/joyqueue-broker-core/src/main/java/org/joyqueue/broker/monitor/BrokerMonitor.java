@@ -238,6 +238,16 @@ public class BrokerMonitor extends Service implements ConsumerMonitor, ProducerM
         replicationStat.getStat().setTimestamp(SystemClock.now());
     }
 
+    @Override
+    public void onReplicationLag(String topic, int partitionGroup, long lag, int inFlight) {
+        if (!config.isEnable()) {
+            return;
+        }
+        ReplicationStat replicationStat = brokerStat.getOrCreateTopicStat(topic).getOrCreatePartitionGroupStat(partitionGroup).getReplicationStat();
+        replicationStat.setReplicaLag(lag);
+        replicationStat.setInFlight(inFlight);
+    }
+
 
     @Override
     public void onGetRetry(String topic, String app, long count, double time) {
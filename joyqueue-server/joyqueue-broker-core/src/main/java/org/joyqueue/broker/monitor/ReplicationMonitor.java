@@ -55,5 +55,14 @@ public interface ReplicationMonitor {
      **/
     void onReplicaStateChange(String topic, int partitionGroup, ElectionNode.State newState);
 
+    /**
+     * 复制延迟
+     * @param topic
+     * @param partitionGroup
+     * @param lag 落后最多的副本和Leader的写入位置之差
+     * @param inFlight 发送中的复制请求数量
+     */
+    void onReplicationLag(String topic, int partitionGroup, long lag, int inFlight);
+
 
 }
\ No newline at end of file
@@ -36,6 +36,10 @@ public class ReplicationStat implements Serializable {
     private ReplicaNodeStat stat=new ReplicaNodeStat();
     // partition group replica max log position
     private long  maxLogPosition;
+    // max lag of followers to the leader write position
+    private long replicaLag;
+    // append entries requests in flight on leader
+    private int inFlight;
 
     public ReplicationStat() {
     }
@@ -66,6 +70,22 @@ public class ReplicationStat implements Serializable {
         this.maxLogPosition = maxLogPosition;
     }
 
+    public long getReplicaLag() {
+        return replicaLag;
+    }
+
+    public void setReplicaLag(long replicaLag) {
+        this.replicaLag = replicaLag;
+    }
+
+    public int getInFlight() {
+        return inFlight;
+    }
+
+    public void setInFlight(int inFlight) {
+        this.inFlight = inFlight;
+    }
+
     public EnQueueStat getAppendStat() {
         return appendStat;
     }
@@ -19,6 +19,14 @@ import org.joyqueue.broker.election.network.codec.AppendEntriesRequestDecoder;
 import org.joyqueue.broker.election.network.codec.AppendEntriesRequestEncoder;
 import org.joyqueue.broker.election.network.codec.AppendEntriesResponseDecoder;
 import org.joyqueue.broker.election.network.codec.AppendEntriesResponseEncoder;
+import org.joyqueue.broker.election.network.codec.BatchAppendEntriesRequestDecoder;
+import org.joyqueue.broker.election.network.codec.BatchAppendEntriesRequestEncoder;
+import org.joyqueue.broker.election.network.codec.BatchAppendEntriesResponseDecoder;
+import org.joyqueue.broker.election.network.codec.BatchAppendEntriesResponseEncoder;
+import org.joyqueue.broker.election.network.codec.InstallSnapshotRequestDecoder;
+import org.joyqueue.broker.election.network.codec.InstallSnapshotRequestEncoder;
+import org.joyqueue.broker.election.network.codec.InstallSnapshotResponseDecoder;
+import org.joyqueue.broker.election.network.codec.InstallSnapshotResponseEncoder;
 import org.joyqueue.broker.election.network.codec.ReplicateConsumePosRequestDecoder;
 import org.joyqueue.broker.election.network.codec.ReplicateConsumePosRequestEncoder;
 import org.joyqueue.broker.election.network.codec.ReplicateConsumePosResponseDecoder;
@@ -86,6 +94,14 @@ public class BrokerPayloadCodecRegistrar {
         payloadCodecFactory.register(new AppendEntriesRequestEncoder());
         payloadCodecFactory.register(new AppendEntriesResponseDecoder());
         payloadCodecFactory.register(new AppendEntriesResponseEncoder());
+        payloadCodecFactory.register(new BatchAppendEntriesRequestDecoder());
+        payloadCodecFactory.register(new BatchAppendEntriesRequestEncoder());
+        payloadCodecFactory.register(new BatchAppendEntriesResponseDecoder());
+        payloadCodecFactory.register(new BatchAppendEntriesResponseEncoder());
+        payloadCodecFactory.register(new InstallSnapshotRequestDecoder());
+        payloadCodecFactory.register(new InstallSnapshotRequestEncoder());
+        payloadCodecFactory.register(new InstallSnapshotResponseDecoder());
+        payloadCodecFactory.register(new InstallSnapshotResponseEncoder());
 
         // index manage command codec
         payloadCodecFactory.register(new IndexQueryRequestDecoder());
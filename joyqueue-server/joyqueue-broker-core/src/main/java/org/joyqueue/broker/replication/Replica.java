@@ -51,6 +51,18 @@ public class Replica {
 
     private ReplicateCommandState replicateCommandState;
 
+    // snapshot which is replicating to this replica, null if replicate by append entries
+    private ReplicaSnapshot snapshot;
+
+    // append entries requests sent to this replica and waiting for response
+    private int inFlight = 0;
+
+    // replicate commands of this replica in the replicate queue or in flight, more than one when pipelining
+    private int commands = 1;
+
+    // increased when the pipeline rewinds, responses of requests sent before are ignored
+    private long generation = 0;
+
     Replica(int replicaId, String address) {
         this.replicaId = replicaId;
         this.address = address;
@@ -141,6 +153,38 @@ public class Replica {
         this.replicateCommandState = replicateCommandState;
     }
 
+    ReplicaSnapshot snapshot() {
+        return snapshot;
+    }
+
+    void snapshot(ReplicaSnapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    int inFlight() {
+        return inFlight;
+    }
+
+    void inFlight(int inFlight) {
+        this.inFlight = inFlight;
+    }
+
+    int commands() {
+        return commands;
+    }
+
+    void commands(int commands) {
+        this.commands = commands;
+    }
+
+    long generation() {
+        return generation;
+    }
+
+    void nextGeneration() {
+        generation++;
+    }
+
     @Override
     public String toString() {
         return new StringBuilder("Replica:{").append("replicaId:").append(replicaId)
@@ -149,6 +193,7 @@ public class Replica {
                 .append(", commitPosition:").append(commitPosition)
                 .append(", nextPosition:").append(nextPosition)
                 .append(", match:").append(match)
+                .append(", inFlight:").append(inFlight)
                 .append(", lastAppendSuccessTime:").append(lastAppendSuccessTime)
                 .append(", lastReplicateConsumePosTime:").append(lastReplicateConsumePosTime).toString();
 
@@ -28,6 +28,8 @@ import org.joyqueue.broker.election.LeaderElection;
 import org.joyqueue.broker.election.TopicPartitionGroup;
 import org.joyqueue.broker.election.command.AppendEntriesRequest;
 import org.joyqueue.broker.election.command.AppendEntriesResponse;
+import org.joyqueue.broker.election.command.InstallSnapshotRequest;
+import org.joyqueue.broker.election.command.InstallSnapshotResponse;
 import org.joyqueue.broker.election.command.ReplicateConsumePosRequest;
 import org.joyqueue.broker.election.command.ReplicateConsumePosResponse;
 import org.joyqueue.broker.election.command.TimeoutNowRequest;
@@ -42,6 +44,10 @@ import org.joyqueue.network.transport.command.CommandCallback;
 import org.joyqueue.network.transport.command.Direction;
 import org.joyqueue.network.transport.exception.TransportException;
 import org.joyqueue.store.replication.ReplicableStore;
+import org.joyqueue.store.replication.SnapshotFile;
+import org.joyqueue.toolkit.buffer.RByteBuffer;
+import org.joyqueue.toolkit.concurrent.VirtualThread;
+import org.joyqueue.toolkit.concurrent.VirtualThreadExecutor;
 import org.joyqueue.toolkit.service.Service;
 import org.joyqueue.toolkit.time.SystemClock;
 import org.joyqueue.toolkit.validate.annotation.NotNull;
@@ -91,9 +97,20 @@ public class ReplicaGroup extends Service {
     private long timeoutNowPosition = 0;
 
     private ReplicableStore replicableStore;
+    // 因为后台校验发现损坏而截断过的位置，从LEADER重新复制后同一位置仍然损坏时不再截断
+    private volatile long repairedCorruptPosition = -1L;
+    // 已经告警过的无法修复的损坏位置
+    private volatile long reportedCorruptPosition = -1L;
+    // 接收和安装快照互斥，不占用选举的锁
+    private final Object snapshotLock = new Object();
+    // 最近一次安装完成的快照位置，LEADER超时重发最后一块时直接返回成功
+    private volatile long installedSnapshotPosition = -1L;
 
     private Thread replicateThread;
     private DelayQueue<DelayedCommand> replicateResponseQueue;
+    // 多个复制组共享的复制线程执行器，为null时每个复制组使用独立的复制线程
+    private VirtualThreadExecutor replicateThreadExecutor;
+    private final VirtualThread replicateVirtualThread = this::replicateOnce;
 
     private LeaderElection leaderElection;
     private ExecutorService replicateExecutor;
@@ -149,17 +166,30 @@ public class ReplicaGroup extends Service {
 
         replicateResponseQueue = new DelayQueue<>();
 
-        replicateThread = new ReplicateThread("ReplicateThread-" + topicPartitionGroup.toString());
-        replicateThread.start();
+        if (replicateThreadExecutor != null) {
+            initResponseQueue();
+            replicateThreadExecutor.start(replicateVirtualThread, "ReplicateThread-" + topicPartitionGroup.toString());
+        } else {
+            replicateThread = new ReplicateThread("ReplicateThread-" + topicPartitionGroup.toString());
+            replicateThread.start();
+        }
     }
 
     @Override
     public void doStop() {
-        while (replicateThread.isAlive()) {
-            replicateThread.interrupt();
+        if (replicateThreadExecutor != null) {
             try {
-                Thread.sleep(10);
-            } catch (InterruptedException ignored) {
+                replicateThreadExecutor.stop(replicateVirtualThread);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        } else {
+            while (replicateThread.isAlive()) {
+                replicateThread.interrupt();
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException ignored) {
+                }
             }
         }
 
@@ -178,6 +208,14 @@ public class ReplicaGroup extends Service {
         this.leaderElection = leaderElection;
     }
 
+    /**
+     * 设置共享的复制线程执行器，需要在启动前设置
+     * @param replicateThreadExecutor 复制线程执行器
+     */
+    public void setReplicateThreadExecutor(VirtualThreadExecutor replicateThreadExecutor) {
+        this.replicateThreadExecutor = replicateThreadExecutor;
+    }
+
     /**
      * 添加节点
      *
@@ -192,7 +230,7 @@ public class ReplicaGroup extends Service {
 
             replicas.add(newReplica);
 
-            replicateResponseQueue.put(new DelayedCommand(ONE_SECOND_NANO, newReplica.replicaId()));
+            putCommand(new DelayedCommand(ONE_SECOND_NANO, newReplica.replicaId()));
 
             for (Replica replica : replicas) {
                 logger.info("Partition group {}/node {} add node, replica {}'s next position is {}",
@@ -289,6 +327,8 @@ public class ReplicaGroup extends Service {
         replicas.forEach(r -> {
             r.nextPosition(writePosition);
             r.setMatch(false);
+            r.snapshot(null);
+            r.nextGeneration();
         });
 
         state = LEADER;
@@ -344,20 +384,7 @@ public class ReplicaGroup extends Service {
                         return;
                     }
 
-                    DelayedCommand command = replicateResponseQueue.take();
-                    if (command.replicaId() == localReplicaId) {
-                        replicateLocal();
-                        continue;
-                    }
-
-                    if (!replicas.contains(getReplica(command.replicaId()))) {
-                        logger.info("Partition group {}/node {} not contain this node {}",
-                                topicPartitionGroup, localReplicaId, command.replicaId());
-                        continue;
-                    }
-
-                    replicateMessage(getReplica(command.replicaId()));
-                    maybeReplicateConsumePos(getReplica(command.replicaId()));
+                    processCommand(replicateResponseQueue.take());
 
                 } catch (InterruptedException ie) {
                     logger.info("Partition group {}/node {} replicate interrupted",
@@ -376,13 +403,67 @@ public class ReplicaGroup extends Service {
 
     }
 
+    /**
+     * 共享复制线程执行器调用，不阻塞等待复制响应
+     * @return 是否处理了复制命令
+     */
+    private boolean replicateOnce() {
+        if (!isStarted() || (state != LEADER && state != TRANSFERRING) || neednotReplicate()) {
+            return false;
+        }
+        DelayedCommand command = replicateResponseQueue.poll();
+        if (command == null) {
+            return false;
+        }
+        try {
+            processCommand(command);
+        } catch (Throwable t) {
+            logger.warn("Partition group {}/node {} replicate fail",
+                    topicPartitionGroup, localReplicaId, t);
+        }
+        return true;
+    }
+
+    /**
+     * 复制命令入队，立即执行的命令唤醒共享复制线程
+     * @param command 复制命令
+     */
+    private void putCommand(DelayedCommand command) {
+        replicateResponseQueue.put(command);
+        if (command.delayTimeNs <= 0 && replicateThreadExecutor != null) {
+            replicateThreadExecutor.wakeup(replicateVirtualThread);
+        }
+    }
+
+    /**
+     * 处理一个复制命令：本地提交或者向副本复制消息
+     * @param command 复制命令
+     */
+    private void processCommand(DelayedCommand command) {
+        if (command.replicaId() == localReplicaId) {
+            replicateLocal();
+            return;
+        }
+
+        if (!replicas.contains(getReplica(command.replicaId()))) {
+            logger.info("Partition group {}/node {} not contain this node {}",
+                    topicPartitionGroup, localReplicaId, command.replicaId());
+            return;
+        }
+
+        replicateMessage(getReplica(command.replicaId()));
+        maybeReplicateConsumePos(getReplica(command.replicaId()));
+    }
+
     /**
      * 初始化响应阻塞队列，启动向副本复制消息
      */
     private void initResponseQueue() {
         replicateResponseQueue.clear();
-        replicas.forEach((r) -> replicateResponseQueue.put(
-                new DelayedCommand(0, r.replicaId())));
+        replicas.forEach((r) -> {
+            r.commands(1);
+            putCommand(new DelayedCommand(0, r.replicaId()));
+        });
     }
 
     /**
@@ -401,11 +482,13 @@ public class ReplicaGroup extends Service {
             delayTimeNs = ONE_SECOND_NANO;
         }
 
-        replicateResponseQueue.put(new DelayedCommand(delayTimeNs, localReplicaId));
+        putCommand(new DelayedCommand(delayTimeNs, localReplicaId));
     }
 
     /**
      * Replicate logs to a replica
+     * 副本和Leader匹配时可以流水线复制：不等待响应，乐观地推进下一个复制位置，
+     * 最多同时发送election.replicate.pipeline.depth个复制请求，每个发送中的请求持有一个复制命令
      * @param replica 副本
      */
     private void replicateMessage(Replica replica) {
@@ -414,35 +497,158 @@ public class ReplicaGroup extends Service {
                 try {
                     long startTimeUs = usTime();
 
-                    AppendEntriesRequest request = generateAppendEntriesRequest(replica);
-                    if (request == null) {
-                        replicateResponseQueue.put(new DelayedCommand(ONE_MS_NANO, replica.replicaId()));
-                        return;
-                    }
+                    // 同一个副本的复制请求按位置顺序生成和发送
+                    synchronized (replica) {
+                        int pipelineDepth = electionConfig.getReplicatePipelineDepth();
+                        boolean pipelined = pipelineDepth > 1 && replica.isMatch() && replica.snapshot() == null;
+                        if (!pipelined && releaseCommand(replica)) {
+                            return;
+                        }
 
-                    JoyQueueHeader header = new JoyQueueHeader(Direction.REQUEST, CommandType.RAFT_APPEND_ENTRIES_REQUEST);
+                        if (replicateSnapshot(replica, startTimeUs)) {
+                            return;
+                        }
 
-                    if (!replica.isMatch() || logger.isDebugEnabled()) {
-                        logger.info("Partition group {}/node {} send append entries request {} to node {}, " +
-                                        "read entries elapse {} us",
-                                topicPartitionGroup, leaderId, request, replica.replicaId(), usTime() - startTimeUs);
-                    }
+                        AppendEntriesRequest request = generateAppendEntriesRequest(replica);
+                        if (request == null) {
+                            if (!releaseCommand(replica)) {
+                                putCommand(new DelayedCommand(ONE_MS_NANO, replica.replicaId()));
+                            }
+                            return;
+                        }
 
-                    this.sendCommand(replica.getAddress(), new Command(header, request),
-                            electionConfig.getSendCommandTimeout(),
-                            new AppendEntriesRequestCallback(replica, startTimeUs, request.getEntriesLength()));
+                        JoyQueueHeader header = new JoyQueueHeader(Direction.REQUEST, CommandType.RAFT_APPEND_ENTRIES_REQUEST);
+
+                        if (!replica.isMatch() || logger.isDebugEnabled()) {
+                            logger.info("Partition group {}/node {} send append entries request {} to node {}, " +
+                                            "read entries elapse {} us, in flight {}",
+                                    topicPartitionGroup, leaderId, request, replica.replicaId(), usTime() - startTimeUs,
+                                    replica.inFlight());
+                        }
+
+                        sendAppendEntries(replica.getAddress(), new Command(header, request),
+                                electionConfig.getSendCommandTimeout(),
+                                new AppendEntriesRequestCallback(replica, startTimeUs, request.getEntriesLength(),
+                                        replica.generation()));
+                        replica.inFlight(replica.inFlight() + 1);
+
+                        if (pipelined) {
+                            replica.nextPosition(request.getStartPosition() + request.getEntriesLength());
+                            if (replica.commands() < pipelineDepth && replica.nextPosition() < replicableStore.rightPosition()) {
+                                replica.commands(replica.commands() + 1);
+                                putCommand(new DelayedCommand(0, replica.replicaId()));
+                            }
+                        }
+                    }
 
                 } catch (Throwable t) {
                     logger.warn("Partition group {}/ node {} send append entries to {} fail",
                             topicPartitionGroup, localReplicaId, replica.replicaId(), t);
-                    replicateResponseQueue.put(new DelayedCommand(ONE_SECOND_NANO, replica.replicaId()));
+                    putCommand(new DelayedCommand(ONE_SECOND_NANO, replica.replicaId()));
                 }
             });
         } catch (Exception e) {
             logger.info("Partition group {}/node {} replicate message to {} fail",
                     topicPartitionGroup, localReplicaId, replica.replicaId(), e);
-            replicateResponseQueue.put(new DelayedCommand(ONE_SECOND_NANO, replica.replicaId()));
+            putCommand(new DelayedCommand(ONE_SECOND_NANO, replica.replicaId()));
+        }
+    }
+
+    /**
+     * 流水线复制时副本有多个复制命令，没有数据可以复制或者不能流水线复制时回收多余的复制命令
+     * @param replica 副本
+     * @return 是否回收了复制命令
+     */
+    private boolean releaseCommand(Replica replica) {
+        if (replica.commands() <= 1) {
+            return false;
+        }
+        replica.commands(replica.commands() - 1);
+        return true;
+    }
+
+    /**
+     * 副本落后太多时向副本复制快照，每次发送快照中一个文件的一段数据，
+     * 快照复制完成后从快照的结束位置继续复制消息
+     * @param replica 副本
+     * @return 是否复制快照
+     * @throws Exception 异常
+     */
+    private boolean replicateSnapshot(Replica replica, long startTimeUs) throws Exception {
+        ReplicaSnapshot snapshot = replica.snapshot();
+        if (snapshot == null) {
+            snapshot = generateSnapshot(replica);
+            if (snapshot == null) {
+                return false;
+            }
+            replica.snapshot(snapshot);
+            logger.info("Partition group {}/node {} start replicate snapshot to node {}, next position is {}, " +
+                            "snapshot position is {}",
+                    topicPartitionGroup, localReplicaId, replica.replicaId(), replica.nextPosition(), snapshot.position());
+        }
+
+        SnapshotFile file = snapshot.file();
+        int length = (int) Math.min(electionConfig.getSnapshotChunkSize(), file.getLength() - snapshot.offset());
+        RByteBuffer data;
+        try {
+            data = replicableStore.readSnapshotFile(file, snapshot.offset(), length);
+        } catch (Exception e) {
+            data = null;
+            logger.warn("Partition group {}/node {} read snapshot file {} at offset {} fail",
+                    topicPartitionGroup, localReplicaId, file, snapshot.offset(), e);
+        }
+        if (data == null || !data.hasRemaining()) {
+            if (data != null) {
+                data.release();
+            }
+            // 快照中的文件已经被删除或者替换，放弃这个快照，下次重新生成
+            replica.snapshot(null);
+            putCommand(new DelayedCommand(ONE_SECOND_NANO, replica.replicaId()));
+            return true;
         }
+
+        // 请求完成后释放缓存页
+        InstallSnapshotRequest request = InstallSnapshotRequest.Build.create().partitionGroup(topicPartitionGroup)
+                .leader(leaderId).term(currentTerm).snapshotPosition(snapshot.position())
+                .file(file).offset(snapshot.offset()).first(snapshot.isFirst())
+                .last(snapshot.isLast(data.remaining())).data(data.getBuffer()).releasable(data::release)
+                .build();
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Partition group {}/node {} send install snapshot request {} to node {}",
+                    topicPartitionGroup, localReplicaId, request, replica.replicaId());
+        }
+
+        JoyQueueHeader header = new JoyQueueHeader(Direction.REQUEST, CommandType.RAFT_INSTALL_SNAPSHOT_REQUEST);
+        this.sendCommand(replica.getAddress(), new Command(header, request),
+                electionConfig.getSendCommandTimeout(),
+                new InstallSnapshotRequestCallback(replica, snapshot, startTimeUs));
+        return true;
+    }
+
+    /**
+     * 副本和Leader不匹配，并且快照结束位置和副本下一个复制位置的差距超过阈值时生成快照
+     * @param replica 副本
+     * @return 快照，不需要复制快照时返回null
+     * @throws Exception 异常
+     */
+    private ReplicaSnapshot generateSnapshot(Replica replica) throws Exception {
+        long threshold = electionConfig.getSnapshotThreshold();
+        if (threshold <= 0 || replica.isMatch()) {
+            return null;
+        }
+        long startPosition = Math.max(replica.nextPosition(), replicableStore.leftPosition());
+        if (replicableStore.rightPosition() - startPosition < threshold) {
+            return null;
+        }
+
+        List<SnapshotFile> files = replicableStore.snapshotFiles();
+        long position = files.stream().filter(SnapshotFile::isJournal)
+                .mapToLong(file -> file.getPosition() + file.getLength()).max().orElse(-1L);
+        if (position - startPosition < threshold) {
+            return null;
+        }
+        return new ReplicaSnapshot(files, position);
     }
 
     /**
@@ -504,15 +710,18 @@ public class ReplicaGroup extends Service {
         private Replica replica;
         private long startTimeUs;
         private int entriesLength;
+        private long generation;
 
-        AppendEntriesRequestCallback(Replica replica, long startTimeUs, int entriesLength) {
+        AppendEntriesRequestCallback(Replica replica, long startTimeUs, int entriesLength, long generation) {
             this.replica = replica;
             this.startTimeUs = startTimeUs;
             this.entriesLength = entriesLength;
+            this.generation = generation;
         }
 
         @Override
         public void onSuccess(Command request, Command response) {
+            releaseInFlight();
             try {
                 if (!(request.getPayload() instanceof AppendEntriesRequest)
                         || !(response.getPayload() instanceof AppendEntriesResponse)) {
@@ -542,7 +751,7 @@ public class ReplicaGroup extends Service {
                     return;
                 }
 
-                processAppendEntriesResponse(appendEntriesResponse, replica);
+                processAppendEntriesResponse(appendEntriesResponse, replica, generation);
 
                 brokerMonitor.onReplicateMessage(topicPartitionGroup.getTopic(), topicPartitionGroup.getPartitionGroupId(),
                         1, entriesLength, usTime() - startTimeUs);
@@ -551,12 +760,13 @@ public class ReplicaGroup extends Service {
                 logger.info("Partition group {}/node {} process append entries reponse fail",
                         topicPartitionGroup, localReplicaId, e);
             } finally {
-                replicateResponseQueue.put(new DelayedCommand(0, replica.replicaId()));
+                putCommand(new DelayedCommand(0, replica.replicaId()));
             }
         }
 
         @Override
         public void onException(Command request, Throwable cause) {
+            releaseInFlight();
             try {
                 if (!(request.getPayload() instanceof AppendEntriesRequest)) {
                     TopicPartitionGroup tpg = ReplicaGroup.this.topicPartitionGroup;
@@ -570,38 +780,191 @@ public class ReplicaGroup extends Service {
                         topicPartitionGroup, localReplicaId, replica.replicaId(),
                         appendEntriesRequest.getStartPosition(), currentTerm, cause);
 
+                // 之后发送的请求也会失败，从这个请求的位置重新复制
+                synchronized (replica) {
+                    if (generation == replica.generation()) {
+                        replica.nextPosition(appendEntriesRequest.getStartPosition());
+                        replica.nextGeneration();
+                    }
+                }
+
             } catch (Exception e) {
                 logger.warn("Partition group {}/node {} send append entries onException fail, request is {}",
                         topicPartitionGroup, localReplicaId, request, e);
             } finally {
-                replicateResponseQueue.put(
+                putCommand(
                         new DelayedCommand(ONE_SECOND_NANO, replica.replicaId()));
             }
         }
+
+        private void releaseInFlight() {
+            synchronized (replica) {
+                replica.inFlight(replica.inFlight() - 1);
+            }
+        }
+    }
+
+    /**
+     * Callback of install snapshot request
+     */
+    private class InstallSnapshotRequestCallback implements CommandCallback {
+        private Replica replica;
+        private ReplicaSnapshot snapshot;
+        private long startTimeUs;
+
+        InstallSnapshotRequestCallback(Replica replica, ReplicaSnapshot snapshot, long startTimeUs) {
+            this.replica = replica;
+            this.snapshot = snapshot;
+            this.startTimeUs = startTimeUs;
+        }
+
+        @Override
+        public void onSuccess(Command request, Command response) {
+            long delayTimeNs = 0;
+            try {
+                if (!(request.getPayload() instanceof InstallSnapshotRequest)
+                        || !(response.getPayload() instanceof InstallSnapshotResponse)) {
+                    return;
+                }
+
+                InstallSnapshotRequest installSnapshotRequest = (InstallSnapshotRequest) request.getPayload();
+                InstallSnapshotResponse installSnapshotResponse = (InstallSnapshotResponse) response.getPayload();
+
+                if (logger.isDebugEnabled() || usTime() - startTimeUs > MAX_PROCESS_TIME) {
+                    logger.info("Partition group {}/node {} receive install snapshot response from {}, " +
+                                    "success is {}, write position is {}, elapse {} us",
+                            topicPartitionGroup, localReplicaId, replica.replicaId(), installSnapshotResponse.isSuccess(),
+                            installSnapshotResponse.getWritePosition(), usTime() - startTimeUs);
+                }
+
+                if (installSnapshotRequest.getTerm() != currentTerm) {
+                    logger.info("Partition group {}/node {} install snapshot request term {} not equals current term {}",
+                            topicPartitionGroup, localReplicaId, installSnapshotRequest.getTerm(), currentTerm);
+                    return;
+                }
+                if (installSnapshotResponse.getTerm() > currentTerm) {
+                    logger.info("Partition group {}/node {} install snapshot response term {} not equals current term {}",
+                            topicPartitionGroup, localReplicaId, installSnapshotResponse.getTerm(), currentTerm);
+                    leaderElection.stepDown(installSnapshotResponse.getTerm());
+                    return;
+                }
+
+                if (!processInstallSnapshotResponse(installSnapshotRequest, installSnapshotResponse, replica, snapshot)) {
+                    delayTimeNs = ONE_SECOND_NANO;
+                }
+
+            } catch (Exception e) {
+                logger.info("Partition group {}/node {} process install snapshot response fail",
+                        topicPartitionGroup, localReplicaId, e);
+            } finally {
+                putCommand(new DelayedCommand(delayTimeNs, replica.replicaId()));
+            }
+        }
+
+        @Override
+        public void onException(Command request, Throwable cause) {
+            // 没有建立连接时请求不会被发送，这里释放快照数据引用的缓存页
+            if (request != null) {
+                request.release();
+            }
+            // 保留快照的传输进度，稍后重新发送这段数据
+            logger.error("Partition group {}/node {} send install snapshot request to {} failed, snapshot is {}, " +
+                            "current term is {}",
+                    topicPartitionGroup, localReplicaId, replica.replicaId(), snapshot, currentTerm, cause);
+            putCommand(new DelayedCommand(ONE_SECOND_NANO, replica.replicaId()));
+        }
+    }
+
+    /**
+     * Process the response of install snapshot request
+     * Move to the next chunk of the snapshot, replicate logs from the snapshot position after the last chunk installed
+     * @return 副本是否成功接收快照数据
+     */
+    private synchronized boolean processInstallSnapshotResponse(InstallSnapshotRequest request, InstallSnapshotResponse response,
+                                                                Replica replica, ReplicaSnapshot snapshot) {
+        if (replica.snapshot() != snapshot) {
+            return true;
+        }
+
+        if (!response.isSuccess()) {
+            logger.warn("Partition group {}/node {} replicate snapshot {} to node {} fail, write position is {}",
+                    topicPartitionGroup, localReplicaId, snapshot, replica.replicaId(), response.getWritePosition());
+            replica.snapshot(null);
+            // 副本可能已经安装了快照，只是没有收到响应，从副本的写入位置继续复制
+            if (response.getWritePosition() > replica.nextPosition()
+                    && response.getWritePosition() <= replicableStore.rightPosition()) {
+                replica.nextPosition(response.getWritePosition());
+            }
+            return false;
+        }
+
+        replica.lastAppendSuccessTime(SystemClock.now());
+        snapshot.advance(request.getDataLength());
+
+        if (request.isLast()) {
+            replica.snapshot(null);
+            replica.writePosition(response.getWritePosition());
+            replica.nextPosition(response.getWritePosition());
+            replica.setMatch(false);
+            logger.info("Partition group {}/node {} replicate snapshot to node {} finished, snapshot position is {}, " +
+                            "write position is {}",
+                    topicPartitionGroup, localReplicaId, replica.replicaId(), snapshot.position(),
+                    response.getWritePosition());
+        }
+        return true;
     }
 
     /**
      * Process the response of append entries request
      * Update the commit position as the majority value of all replica's write position
      * @param response 写入记录响应
+     * @param generation 发送请求时副本的复制代数，流水线回退之前发送的请求的响应被忽略
      */
-    private synchronized void processAppendEntriesResponse(AppendEntriesResponse response, Replica replica) {
+    private void processAppendEntriesResponse(AppendEntriesResponse response, Replica replica, long generation) {
         replica.lastAppendSuccessTime(SystemClock.now());
 
-        if (!response.isSuccess()) {
-            if (response.getNextPosition() == -1L) {
-                replica.nextPosition(getPrevPosition(replica.nextPosition()));
-            } else {
-                replica.nextPosition(getPrevPosition(response.getNextPosition()));
+        // 只锁副本，不阻塞其它副本的响应处理
+        synchronized (replica) {
+            if (generation != replica.generation()) {
+                return;
             }
-            return;
+
+            if (!response.isSuccess()) {
+                // 本任期内副本已经确认匹配，副本写入位置之前的数据和Leader一致，
+                // 从副本的写入位置继续复制，不回退一条记录，避免副本截断已经确认的数据
+                boolean matched = replica.isMatch() && response.getTerm() == currentTerm;
+                if (response.getNextPosition() == -1L) {
+                    if (matched && replica.writePosition() < replica.nextPosition()) {
+                        replica.nextPosition(replica.writePosition());
+                    } else {
+                        replica.nextPosition(getPrevPosition(replica.nextPosition()));
+                    }
+                    // 从确认的位置仍然不匹配时按原来的方式逐条回退
+                    replica.setMatch(false);
+                } else if (matched) {
+                    replica.nextPosition(response.getNextPosition());
+                } else {
+                    replica.nextPosition(getPrevPosition(response.getNextPosition()));
+                }
+                // 之后发送的请求都会失败，回退后重新开始流水线
+                replica.nextGeneration();
+                return;
+            }
+
+            replica.writePosition(response.getWritePosition());
+            replica.nextPosition(Math.max(replica.nextPosition(), response.getNextPosition()));
+            replica.setMatch(true);
         }
 
-        replica.writePosition(response.getWritePosition());
-        replica.nextPosition(response.getNextPosition());
-        replica.setMatch(true);
+        updateCommitPosition(replica);
+    }
 
-        if (transferee != ElectionNode.INVALID_NODE_ID && replica.nextPosition() >= timeoutNowPosition) {
+    /**
+     * Update the commit position as the majority value of all replica's write position
+     * @param replica 写入位置更新的副本
+     */
+    private synchronized void updateCommitPosition(Replica replica) {
+        if (transferee != ElectionNode.INVALID_NODE_ID && replica.writePosition() >= timeoutNowPosition) {
             sendTimeoutNowRequest(transferee);
         }
         // sync leader write position by the way
@@ -612,6 +975,17 @@ public class ReplicaGroup extends Service {
         long commitPosition = replicasWithoutLearners.get(replicasWithoutLearners.size() / 2).writePosition();
         replicableStore.commit(commitPosition);
 
+        long maxLag = 0L;
+        int inFlight = 0;
+        for (Replica r : replicas) {
+            if (r.replicaId() != leaderId) {
+                maxLag = Math.max(maxLag, replicableStore.rightPosition() - r.writePosition());
+                inFlight += r.inFlight();
+            }
+        }
+        brokerMonitor.onReplicationLag(topicPartitionGroup.getTopic(), topicPartitionGroup.getPartitionGroupId(),
+                maxLag, inFlight);
+
         if (brokerConfig.getLogDetail(topicPartitionGroup.getTopic())) {
             replicas.forEach(r -> logger.info("Partition group {}/node {}", topicPartitionGroup, r));
             logger.info("Partition group {}/node {} commit position is {}",
@@ -725,6 +1099,36 @@ public class ReplicaGroup extends Service {
 
                 long startTimeUs = usTime();
 
+                // 后台校验发现本地日志损坏，截断到损坏位置，由Leader从损坏位置开始重新复制
+                // 同一位置重新复制后仍然损坏，说明LEADER的数据也是损坏的，只告警不再截断，避免反复截断和复制
+                // 已经提交的数据可能已经被计入多数派，不能因为校验结果截断，只告警
+                long corruptPosition = replicableStore.corruptPosition();
+                if (corruptPosition >= 0 && corruptPosition < replicableStore.rightPosition()) {
+                    if (corruptPosition < replicableStore.commitPosition()) {
+                        if (corruptPosition != reportedCorruptPosition) {
+                            logger.error("Partition group {}/node {} found corrupted entry at position {} " +
+                                            "below commit position {}, committed entries are never truncated, " +
+                                            "manual repair is required",
+                                    topicPartitionGroup, localReplicaId, corruptPosition,
+                                    replicableStore.commitPosition());
+                            reportedCorruptPosition = corruptPosition;
+                        }
+                    } else if (corruptPosition != repairedCorruptPosition) {
+                        logger.warn("Partition group {}/node {} found corrupted entry at position {}, " +
+                                        "truncate from write position {} and replicate again from leader {}",
+                                topicPartitionGroup, localReplicaId, corruptPosition,
+                                replicableStore.rightPosition(), request.getLeaderId());
+                        repairedCorruptPosition = corruptPosition;
+                        replicableStore.setRightPosition(corruptPosition);
+                    } else if (corruptPosition != reportedCorruptPosition) {
+                        logger.error("Partition group {}/node {} entry at position {} is still corrupted after " +
+                                        "replicated again from leader {}, the leader's copy may be corrupted too, " +
+                                        "manual repair is required",
+                                topicPartitionGroup, localReplicaId, corruptPosition, request.getLeaderId());
+                        reportedCorruptPosition = corruptPosition;
+                    }
+                }
+
                 if (!matchPosition(request.getStartPosition(), request.getLeftPosition(), request.getPrevTerm(),
                         request.getPrevPosition(), request.isMatch())) {
                     if (request.getStartPosition() > replicableStore.rightPosition()) {
@@ -805,6 +1209,66 @@ public class ReplicaGroup extends Service {
         return new Command(new JoyQueueHeader(Direction.RESPONSE, CommandType.RAFT_APPEND_ENTRIES_RESPONSE), response);
     }
 
+    /**
+     * Receive a chunk of snapshot from leader, install the snapshot after receive the last chunk.
+     * A retried last chunk of the installed snapshot returns success without installing again.
+     * @param request 复制快照请求
+     * @return 返回命令
+     */
+    public Command installSnapshot(InstallSnapshotRequest request) {
+        synchronized (snapshotLock) {
+            return doInstallSnapshot(request);
+        }
+    }
+
+    private Command doInstallSnapshot(InstallSnapshotRequest request) {
+        boolean success = true;
+
+        try {
+            if (state != FOLLOWER) {
+                logger.info("Partition group {}/node {} receive install snapshot request {}, state is {}",
+                        topicPartitionGroup, localReplicaId, request, state);
+                success = false;
+            } else if (request.isLast() && !request.isFirst() && request.getSnapshotPosition() == installedSnapshotPosition) {
+                logger.info("Partition group {}/node {} receive the last chunk of installed snapshot from {}, " +
+                                "snapshot position is {}", topicPartitionGroup, localReplicaId, request.getLeaderId(),
+                        request.getSnapshotPosition());
+            } else {
+                long startTimeUs = usTime();
+                if (request.isFirst()) {
+                    installedSnapshotPosition = -1L;
+                    replicableStore.clearSnapshot();
+                    logger.info("Partition group {}/node {} start receive snapshot from {}, snapshot position is {}, " +
+                                    "left position is {}, write position is {}",
+                            topicPartitionGroup, localReplicaId, request.getLeaderId(), request.getSnapshotPosition(),
+                            replicableStore.leftPosition(), replicableStore.rightPosition());
+                }
+
+                replicableStore.writeSnapshotFile(request.getFile(), request.getOffset(), request.getData());
+
+                if (request.isLast()) {
+                    replicableStore.installSnapshot(request.getSnapshotPosition());
+                    installedSnapshotPosition = request.getSnapshotPosition();
+                    logger.info("Partition group {}/node {} install snapshot from {}, left position is {}, " +
+                                    "write position is {}, elapse {} us",
+                            topicPartitionGroup, localReplicaId, request.getLeaderId(), replicableStore.leftPosition(),
+                            replicableStore.rightPosition(), usTime() - startTimeUs);
+                }
+            }
+        } catch (Throwable t) {
+            logger.warn("Partition group {}/node {} install snapshot {} fail",
+                    topicPartitionGroup, localReplicaId, request, t);
+            success = false;
+        }
+
+        InstallSnapshotResponse response = InstallSnapshotResponse.Build.create()
+                .term(currentTerm).writePosition(replicableStore.rightPosition())
+                .replicaId(localReplicaId).success(success)
+                .build();
+
+        return new Command(new JoyQueueHeader(Direction.RESPONSE, CommandType.RAFT_INSTALL_SNAPSHOT_RESPONSE), response);
+    }
+
     /**
      * Match the log on leader and follower
      * @param startPosition  position of the log to be compare
@@ -887,8 +1351,8 @@ public class ReplicaGroup extends Service {
         long maxPosition = -1;
         int candidateId = -1;
         for(Replica replica : replicas) {
-            if (replica.replicaId() != leaderId && replica.nextPosition() > maxPosition) {
-                maxPosition = replica.nextPosition();
+            if (replica.replicaId() != leaderId && replica.writePosition() > maxPosition) {
+                maxPosition = replica.writePosition();
                 candidateId = replica.replicaId();
             }
         }
@@ -906,11 +1370,11 @@ public class ReplicaGroup extends Service {
         this.transferee = transferee;
 
         logger.info("Partition group {}/node {} transfer leadership to {}, log position is {}, " +
-                        "transferee next position is {}",
+                        "transferee write position is {}",
                 topicPartitionGroup, localReplicaId, transferee, logPosition,
-                getReplica(transferee).nextPosition());
+                getReplica(transferee).writePosition());
 
-        if (getReplica(transferee).nextPosition() >= logPosition) {
+        if (getReplica(transferee).writePosition() >= logPosition) {
             sendTimeoutNowRequest(transferee);
         }
 
@@ -989,6 +1453,18 @@ public class ReplicaGroup extends Service {
         transport.sendCommand(command, timeout, callback);
     }
 
+    /**
+     * 发送复制请求，开启批量复制时和发往同一个broker的其他分区组的复制请求合并发送
+     * @param address 目标broker地址, ip + ":" + port
+     * @param command 复制请求命令
+     * @throws TransportException
+     */
+    private void sendAppendEntries(String address, Command command, int timeout, CommandCallback callback) throws TransportException {
+        if (!replicationManager.sendAppendEntries(address, command, timeout, callback)) {
+            sendCommand(address, command, timeout, callback);
+        }
+    }
+
     private class DelayedCommand implements Delayed {
         private long startTimeNs;
         private long delayTimeNs;
@@ -0,0 +1,79 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.broker.replication;
+
+import org.joyqueue.store.replication.SnapshotFile;
+
+import java.util.List;
+
+/**
+ * 正在向副本复制的快照，记录快照包含的文件和当前传输到的文件和偏移量
+ */
+class ReplicaSnapshot {
+    private final List<SnapshotFile> files;
+    // end position of the snapshot
+    private final long position;
+
+    private int fileIndex = 0;
+    private long offset = 0L;
+
+    ReplicaSnapshot(List<SnapshotFile> files, long position) {
+        this.files = files;
+        this.position = position;
+    }
+
+    long position() {
+        return position;
+    }
+
+    SnapshotFile file() {
+        return files.get(fileIndex);
+    }
+
+    long offset() {
+        return offset;
+    }
+
+    boolean isFirst() {
+        return fileIndex == 0 && offset == 0L;
+    }
+
+    /**
+     * 从当前偏移量开始传输length字节后，是否传输完整个快照
+     */
+    boolean isLast(int length) {
+        return fileIndex == files.size() - 1 && offset + length >= file().getLength();
+    }
+
+    /**
+     * 传输成功后移动到下一段数据
+     */
+    void advance(int length) {
+        offset += length;
+        if (offset >= file().getLength() && fileIndex < files.size() - 1) {
+            fileIndex++;
+            offset = 0L;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return new StringBuilder("ReplicaSnapshot:{").append("position:").append(position)
+                .append(", files:").append(files.size())
+                .append(", fileIndex:").append(fileIndex)
+                .append(", offset:").append(offset).append("}").toString();
+    }
+}
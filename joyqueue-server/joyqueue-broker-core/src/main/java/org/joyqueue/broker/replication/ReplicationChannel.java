@@ -0,0 +1,302 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.broker.replication;
+
+import org.joyqueue.broker.election.command.AppendEntriesRequest;
+import org.joyqueue.broker.election.command.AppendEntriesResponse;
+import org.joyqueue.broker.election.command.BatchAppendEntriesRequest;
+import org.joyqueue.broker.election.command.BatchAppendEntriesResponse;
+import org.joyqueue.network.command.CommandType;
+import org.joyqueue.network.transport.codec.JoyQueueHeader;
+import org.joyqueue.network.transport.command.Command;
+import org.joyqueue.network.transport.command.CommandCallback;
+import org.joyqueue.network.transport.command.Direction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 复制通道，发往同一个Follower的所有分区组的复制请求合并成一个批量复制请求发送，
+ * 每个分区组的复制响应在批量复制响应中按顺序返回，再分别回调各自的回调函数。
+ * <br/>
+ * 复制请求和心跳分别在两条线路中发送，心跳不会排在复制数据后面。
+ * 复制线路同一时间最多有pipelineDepth帧在发送中，帧按提交的顺序发出，Follower按收到的顺序处理每个分区组的请求；
+ * 心跳线路同一时间只有一帧在发送中，发送期间提交的心跳在下一帧中合并发送。
+ */
+class ReplicationChannel {
+    private static final Logger logger = LoggerFactory.getLogger(ReplicationChannel.class);
+
+    private final String address;
+    private final TransportSession session;
+    private final ExecutorService executor;
+
+    // 复制请求线路
+    private final Lane appendEntriesLane;
+    // 心跳线路
+    private final Lane heartbeatLane;
+
+    ReplicationChannel(String address, TransportSession session, ExecutorService executor, int batchSize, int pipelineDepth) {
+        this.address = address;
+        this.session = session;
+        this.executor = executor;
+        this.appendEntriesLane = new Lane("append entries", batchSize, Math.max(pipelineDepth, 1));
+        this.heartbeatLane = new Lane("heartbeat", Integer.MAX_VALUE, 1);
+    }
+
+    /**
+     * 提交复制请求或者心跳，异步发送
+     * @param command 复制请求命令
+     * @param timeout 超时时间
+     * @param callback 回调函数
+     */
+    void send(Command command, int timeout, CommandCallback callback) {
+        PendingCommand pendingCommand = new PendingCommand(command, timeout, callback);
+        Lane lane = pendingCommand.isHeartbeat() ? heartbeatLane : appendEntriesLane;
+        lane.pendingCommands.add(pendingCommand);
+        lane.sendNextFrame();
+    }
+
+    void stop() {
+        session.stop();
+    }
+
+    /**
+     * 发送线路，每条线路有自己的队列和同时发送中的帧数限制
+     */
+    private class Lane {
+        private final String name;
+        // 每帧最多包含的消息长度，只有一个请求时不受限制
+        private final int batchSize;
+        // 同时发送中的最大帧数
+        private final int maxInFlight;
+        private final Queue<PendingCommand> pendingCommands = new ConcurrentLinkedQueue<>();
+        // 正在发送中的帧数
+        private final AtomicInteger inFlight = new AtomicInteger(0);
+
+        Lane(String name, int batchSize, int maxInFlight) {
+            this.name = name;
+            this.batchSize = batchSize;
+            this.maxInFlight = maxInFlight;
+        }
+
+        /**
+         * 发送中的帧数没有达到上限时，在发送线程中发送下一帧
+         */
+        void sendNextFrame() {
+            while (!pendingCommands.isEmpty()) {
+                int current = inFlight.get();
+                if (current >= maxInFlight) {
+                    return;
+                }
+                if (!inFlight.compareAndSet(current, current + 1)) {
+                    continue;
+                }
+                try {
+                    executor.execute(this::send);
+                } catch (Exception e) {
+                    inFlight.decrementAndGet();
+                    logger.warn("Replication channel to {} submit send {} task fail", address, name, e);
+                    failPendingCommands(e);
+                }
+                return;
+            }
+        }
+
+        /**
+         * 一帧发送完成，收到了响应或者发送失败
+         */
+        void onFrameComplete() {
+            inFlight.decrementAndGet();
+            sendNextFrame();
+        }
+
+        private void send() {
+            FrameCallback callback;
+            // 取出请求和发送在同一个锁里，保证帧按照请求提交的顺序发出
+            synchronized (this) {
+                List<PendingCommand> batch = poll();
+                if (batch.isEmpty()) {
+                    callback = null;
+                } else {
+                    callback = new FrameCallback(this, batch);
+                    try {
+                        session.sendCommand(toFrame(batch), callback.timeout(), callback);
+                    } catch (Throwable t) {
+                        logger.warn("Replication channel send {} {} requests to {} fail", batch.size(), name, address, t);
+                        callback.onException(null, t);
+                    }
+                }
+            }
+            if (callback == null) {
+                onFrameComplete();
+                return;
+            }
+            // 还有请求时继续填满发送中的帧
+            sendNextFrame();
+        }
+
+        private Command toFrame(List<PendingCommand> batch) {
+            if (batch.size() == 1) {
+                return batch.get(0).command;
+            }
+            List<AppendEntriesRequest> requests = new ArrayList<>(batch.size());
+            for (PendingCommand pendingCommand : batch) {
+                requests.add((AppendEntriesRequest) pendingCommand.command.getPayload());
+            }
+            JoyQueueHeader header = new JoyQueueHeader(Direction.REQUEST, CommandType.RAFT_BATCH_APPEND_ENTRIES_REQUEST);
+            return new Command(header, new BatchAppendEntriesRequest(requests));
+        }
+
+        private List<PendingCommand> poll() {
+            List<PendingCommand> batch = new ArrayList<>();
+            int length = 0;
+            PendingCommand pendingCommand = pendingCommands.peek();
+            while (pendingCommand != null) {
+                int entriesLength = pendingCommand.entriesLength();
+                if (!batch.isEmpty() && length + entriesLength > batchSize) {
+                    break;
+                }
+                batch.add(pendingCommands.poll());
+                length += entriesLength;
+                pendingCommand = pendingCommands.peek();
+            }
+            return batch;
+        }
+
+        private void failPendingCommands(Throwable cause) {
+            PendingCommand pendingCommand = pendingCommands.poll();
+            while (pendingCommand != null) {
+                pendingCommand.onException(cause);
+                pendingCommand = pendingCommands.poll();
+            }
+        }
+    }
+
+    /**
+     * 一帧的回调，只有一个请求时响应就是复制响应，否则是批量复制响应，分别回调各个请求的回调函数后发送下一帧
+     */
+    private class FrameCallback implements CommandCallback {
+        private final Lane lane;
+        private final List<PendingCommand> batch;
+        // 发送失败时可能既回调又抛出异常，每一帧只完成一次
+        private final AtomicBoolean completed = new AtomicBoolean(false);
+
+        FrameCallback(Lane lane, List<PendingCommand> batch) {
+            this.lane = lane;
+            this.batch = batch;
+        }
+
+        int timeout() {
+            int timeout = 0;
+            for (PendingCommand pendingCommand : batch) {
+                timeout = Math.max(timeout, pendingCommand.timeout);
+            }
+            return timeout;
+        }
+
+        @Override
+        public void onSuccess(Command request, Command response) {
+            if (!completed.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                if (batch.size() == 1) {
+                    batch.get(0).onSuccess(response);
+                    return;
+                }
+
+                if (!(response.getPayload() instanceof BatchAppendEntriesResponse)
+                        || ((BatchAppendEntriesResponse) response.getPayload()).getResponses().size() != batch.size()) {
+                    logger.warn("Replication channel receive invalid batch append entries response {} from {}, " +
+                            "request size is {}", response.getPayload(), address, batch.size());
+                    failBatch(new IllegalStateException("Invalid batch append entries response"));
+                    return;
+                }
+
+                List<AppendEntriesResponse> responses = ((BatchAppendEntriesResponse) response.getPayload()).getResponses();
+                for (int i = 0; i < batch.size(); i++) {
+                    JoyQueueHeader header = new JoyQueueHeader(Direction.RESPONSE, CommandType.RAFT_APPEND_ENTRIES_RESPONSE);
+                    batch.get(i).onSuccess(new Command(header, responses.get(i)));
+                }
+            } finally {
+                lane.onFrameComplete();
+            }
+        }
+
+        @Override
+        public void onException(Command request, Throwable cause) {
+            if (!completed.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                failBatch(cause);
+            } finally {
+                lane.onFrameComplete();
+            }
+        }
+
+        private void failBatch(Throwable cause) {
+            for (PendingCommand pendingCommand : batch) {
+                pendingCommand.onException(cause);
+            }
+        }
+    }
+
+    private static class PendingCommand {
+        private Command command;
+        private int timeout;
+        private CommandCallback callback;
+
+        PendingCommand(Command command, int timeout, CommandCallback callback) {
+            this.command = command;
+            this.timeout = timeout;
+            this.callback = callback;
+        }
+
+        int entriesLength() {
+            AppendEntriesRequest request = (AppendEntriesRequest) command.getPayload();
+            return request.getEntries() == null ? 0 : request.getEntriesLength();
+        }
+
+        boolean isHeartbeat() {
+            AppendEntriesRequest request = (AppendEntriesRequest) command.getPayload();
+            return request.getEntries() == null || !request.getEntries().hasRemaining();
+        }
+
+        void onSuccess(Command response) {
+            try {
+                callback.onSuccess(command, response);
+            } catch (Throwable t) {
+                logger.warn("Replication channel callback of {} fail", command.getPayload(), t);
+            }
+        }
+
+        void onException(Throwable cause) {
+            try {
+                callback.onException(command, cause);
+            } catch (Throwable t) {
+                logger.warn("Replication channel callback of {} fail", command.getPayload(), t);
+            }
+        }
+    }
+}
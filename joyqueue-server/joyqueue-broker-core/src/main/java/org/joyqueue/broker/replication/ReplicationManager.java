@@ -24,12 +24,14 @@ import org.joyqueue.broker.election.ElectionException;
 import org.joyqueue.broker.election.TopicPartitionGroup;
 import org.joyqueue.broker.monitor.BrokerMonitor;
 import org.joyqueue.broker.network.support.BrokerTransportClientFactory;
-import org.joyqueue.network.transport.Transport;
 import org.joyqueue.network.transport.TransportClient;
+import org.joyqueue.network.transport.command.Command;
+import org.joyqueue.network.transport.command.CommandCallback;
 import org.joyqueue.network.transport.config.ClientConfig;
 import org.joyqueue.store.StoreService;
 import org.joyqueue.store.replication.ReplicableStore;
 import org.joyqueue.toolkit.concurrent.NamedThreadFactory;
+import org.joyqueue.toolkit.concurrent.VirtualThreadExecutor;
 import org.joyqueue.toolkit.lang.Close;
 import org.joyqueue.toolkit.service.Service;
 import org.slf4j.Logger;
@@ -57,7 +59,8 @@ public class ReplicationManager extends Service {
     private ConcurrentHashMap<TopicPartitionGroup, ReplicaGroup> replicaGroups;
     private ElectionConfig electionConfig;
     private BrokerConfig brokerConfig;
-    private final ConcurrentHashMap<String, Transport> sessions = new ConcurrentHashMap<>();
+    // 发往每个broker的复制通道，开启批量复制时使用
+    private final ConcurrentHashMap<String, ReplicationChannel> channels = new ConcurrentHashMap<>();
 
     private StoreService storeService;
     private Consume consume;
@@ -66,6 +69,10 @@ public class ReplicationManager extends Service {
     private ExecutorService replicateExecutor;
     private ScheduledExecutorService replicateTimerExecutor;
     private BlockingDeque replicateQueue;
+    // 所有复制组共享的复制线程，未开启时为null
+    private VirtualThreadExecutor replicateThreadExecutor;
+    // 复制通道的发送线程，未开启批量复制时为null
+    private ExecutorService replicateChannelExecutor;
 
     public ReplicationManager(ElectionConfig electionConfig, BrokerConfig brokerConfig, StoreService storeService,
                               Consume consume, BrokerMonitor brokerMonitor) {
@@ -100,6 +107,16 @@ public class ReplicationManager extends Service {
                 60, TimeUnit.SECONDS, replicateQueue,
                 new NamedThreadFactory("Replicate-sendCommand"));
 
+        if (electionConfig.getReplicateSharedThreadNum() > 0) {
+            // 复制命令入队时唤醒，空闲时不空转
+            replicateThreadExecutor = new VirtualThreadExecutor(0, electionConfig.getReplicateSharedThreadMaxInterval(), 1, 100,
+                    electionConfig.getReplicateSharedThreadNum(), "ReplicateThread");
+        }
+
+        if (electionConfig.enableReplicateBatch()) {
+            replicateChannelExecutor = Executors.newCachedThreadPool(new NamedThreadFactory("Replicate-channel"));
+        }
+
         replicateTimerExecutor = Executors.newScheduledThreadPool(electionConfig.getTimerScheduleThreadNum());
 
         replicateTimerExecutor.scheduleWithFixedDelay(new Runnable() {
@@ -128,6 +145,14 @@ public class ReplicationManager extends Service {
     public void doStop() {
         Close.close(transportClient);
         Close.close(replicateExecutor);
+        if (replicateThreadExecutor != null) {
+            replicateThreadExecutor.stop();
+        }
+        for (ReplicationChannel channel : channels.values()) {
+            channel.stop();
+        }
+        channels.clear();
+        Close.close(replicateChannelExecutor);
 
         super.doStop();
     }
@@ -151,6 +176,7 @@ public class ReplicationManager extends Service {
         }
         replicaGroup = new ReplicaGroup(topicPartitionGroup, this, replicableStore, electionConfig, brokerConfig,
                 consume, replicateExecutor, brokerMonitor, allNodes, learners, localReplicaId, leaderId, transportClient);
+        replicaGroup.setReplicateThreadExecutor(replicateThreadExecutor);
         try {
             replicaGroup.start();
         } catch (Exception e) {
@@ -174,6 +200,32 @@ public class ReplicationManager extends Service {
         replicaGroups.remove(topicPartitionGroup);
     }
 
+    /**
+     * 发送复制请求或者心跳，开启批量复制时通过复制通道和发往同一个broker的其他分区组的请求合并发送
+     * @param address 目标broker地址, ip + ":" + port
+     * @param command 复制请求命令
+     * @param timeout 超时时间
+     * @param callback 回调函数
+     * @return 是否通过复制通道发送，未开启批量复制时返回false，由调用方直接发送
+     */
+    public boolean sendAppendEntries(String address, Command command, int timeout, CommandCallback callback) {
+        if (replicateChannelExecutor == null) {
+            return false;
+        }
+
+        ReplicationChannel channel = channels.get(address);
+        if (channel == null) {
+            channel = channels.computeIfAbsent(address, key -> {
+                logger.info("Replication manager create replication channel of {}", key);
+                return new ReplicationChannel(key, new TransportSession(key, transportClient),
+                        replicateChannelExecutor, electionConfig.getReplicateBatchSize(),
+                        electionConfig.getReplicateBatchPipelineDepth());
+            });
+        }
+        channel.send(command, timeout, callback);
+        return true;
+    }
+
     public ReplicaGroup getReplicaGroup(String topic, int partitionGroup) {
         ReplicaGroup replicaGroup = replicaGroups.get(new TopicPartitionGroup(topic, partitionGroup));
         if (replicaGroup == null) {
@@ -0,0 +1,78 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.broker.store;
+
+import org.apache.commons.lang3.StringUtils;
+import org.joyqueue.broker.config.BrokerStoreConfig;
+import org.joyqueue.store.PartitionGroupStore;
+import org.joyqueue.toolkit.config.PropertySupplier;
+import org.joyqueue.toolkit.time.SystemClock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Compact the topics listed in store.compaction.topics by business id, only the newest message
+ * of each business id is kept and message indices never change. Compacted topics are not cleaned
+ * by time or size, all other topics are cleaned by {@link GlobalStorageLimitCleaningStrategy}.
+ **/
+public class CompactionStoreCleaningStrategy implements StoreCleaningStrategy {
+    private static final Logger LOG = LoggerFactory.getLogger(CompactionStoreCleaningStrategy.class);
+    private final StoreCleaningStrategy delegate = new GlobalStorageLimitCleaningStrategy();
+    private final Map<String, Long> lastCompactionTime = new ConcurrentHashMap<>();
+    private Set<String> compactionTopics;
+    private long compactionInterval;
+    private long tombstoneRetention;
+
+    @Override
+    public long deleteIfNeeded(PartitionGroupStore partitionGroupStore, Map<Short, Long> partitionAckMap) throws IOException {
+        if (partitionGroupStore == null) {
+            return -1;
+        }
+        if (!compactionTopics.contains(partitionGroupStore.getTopic())) {
+            return delegate.deleteIfNeeded(partitionGroupStore, partitionAckMap);
+        }
+        String partitionGroupKey = String.format("%s:%d", partitionGroupStore.getTopic(), partitionGroupStore.getPartitionGroup());
+        long now = SystemClock.now();
+        Long last = lastCompactionTime.get(partitionGroupKey);
+        if (last != null && now - last < compactionInterval) {
+            return 0L;
+        }
+        lastCompactionTime.put(partitionGroupKey, now);
+        long compactedSize = partitionGroupStore.compact(now - tombstoneRetention);
+        LOG.info("Compact partition group {}, compacted size {} byte, elapsed time {}ms",
+                partitionGroupKey, compactedSize, SystemClock.now() - now);
+        return compactedSize;
+    }
+
+    @Override
+    public void setSupplier(PropertySupplier supplier) {
+        BrokerStoreConfig brokerStoreConfig = new BrokerStoreConfig(supplier);
+        this.delegate.setSupplier(supplier);
+        this.compactionTopics = Arrays.stream(StringUtils.split(StringUtils.defaultString(brokerStoreConfig.getCompactionTopics()), ','))
+                .map(String::trim)
+                .filter(StringUtils::isNotEmpty)
+                .collect(Collectors.toSet());
+        this.compactionInterval = brokerStoreConfig.getCompactionInterval();
+        this.tombstoneRetention = brokerStoreConfig.getCompactionTombstoneRetention();
+    }
+}
@@ -42,18 +42,21 @@ import org.joyqueue.store.StoreService;
 import org.joyqueue.toolkit.concurrent.EventListener;
 import org.joyqueue.toolkit.concurrent.NamedThreadFactory;
 import org.joyqueue.toolkit.service.Service;
+import org.joyqueue.toolkit.time.SystemClock;
 import org.apache.commons.collections.CollectionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * StoreInitializer
@@ -69,6 +72,7 @@ public class StoreInitializer extends Service implements EventListener<MetaEvent
     private ClusterManager clusterManager;
     private StoreService storeService;
     private ElectionService electionService;
+    private volatile long recoverTime = 0L;
 
     public StoreInitializer(BrokerStoreConfig config, NameService nameService, ClusterManager clusterManager, StoreService storeService, ElectionService electionService) {
         this.config = config;
@@ -91,26 +95,55 @@ public class StoreInitializer extends Service implements EventListener<MetaEvent
             return;
         }
 
-        ExecutorService executor = Executors.newFixedThreadPool(32, new NamedThreadFactory("Store-recover-threads"));
+        // 本节点是leader的分区组优先恢复，尽早恢复leader的读写
+        List<Replica> sortedReplicas = new ArrayList<>(replicas);
+        sortedReplicas.sort(Comparator.comparing(replica -> !isLeader(replica, broker)));
+        int total = sortedReplicas.size();
+        int leaders = (int) sortedReplicas.stream().filter(replica -> isLeader(replica, broker)).count();
+        int progressStep = Math.max(1, total / 20);
+        AtomicInteger recovered = new AtomicInteger();
+
+        int threads = config.getRecoverThreadsPerDirectory() * storeService.dataDirectoryCount();
+        logger.info("Recovering {} partition groups ({} leaders) with {} threads...", total, leaders, threads);
+        long startTime = SystemClock.now();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new NamedThreadFactory("Store-recover-threads"));
         try {
             CompletableFuture.allOf(
-                    replicas.stream()
+                    sortedReplicas.stream()
                             .map(replica -> CompletableFuture.runAsync(() -> {
                                 PartitionGroup group = clusterManager.getPartitionGroupByGroup(replica.getTopic(),replica.getGroup());
                                 if (group == null) {
                                     logger.warn("group is null topic {},replica {}", replica.getTopic(), replica.getGroup());
                                     throw new RuntimeException(String.format("group is null topic %s,replica %s", replica.getTopic(), replica.getGroup()));
                                 }
-                                if (!group.getReplicas().contains(broker.getId())) {
-                                    return;
+                                if (group.getReplicas().contains(broker.getId())) {
+                                    doRestore(group, replica, broker);
+                                }
+                                int count = recovered.incrementAndGet();
+                                if (count % progressStep == 0 || count == total) {
+                                    logger.info("Recovering partition groups, progress: {}/{}, elapsed: {}ms.",
+                                            count, total, SystemClock.now() - startTime);
                                 }
-                                doRestore(group, replica, broker);
                                     }, executor)
                             ).toArray(CompletableFuture[]::new)
             ).get();
         } finally {
             executor.shutdown();
         }
+        recoverTime = SystemClock.now() - startTime;
+        logger.info("All {} partition groups recovered, time to ready: {}ms.", total, recoverTime);
+    }
+
+    private boolean isLeader(Replica replica, Broker broker) {
+        PartitionGroup group = clusterManager.getPartitionGroupByGroup(replica.getTopic(), replica.getGroup());
+        return group != null && group.getLeader() != null && group.getLeader().equals(broker.getId());
+    }
+
+    /**
+     * 启动时恢复所有分区组的耗时(ms)
+     */
+    public long getRecoverTime() {
+        return recoverTime;
     }
 
     protected void doRestore(PartitionGroup group, Replica replica, Broker broker) {
@@ -19,12 +19,16 @@ import org.joyqueue.broker.monitor.BrokerMonitor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Created by zhuduohui on 2018/12/6.
  */
 public class BrokerMonitorStub extends BrokerMonitor {
     private static Logger logger = LoggerFactory.getLogger(BrokerMonitorStub.class);
 
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
     @Override
     public void onReplicateMessage(String topic, int partitionGroup, long count, long size, double time) {
         logger.debug("Monitor replicate message of topic {} partition group {}, " +
@@ -38,4 +42,19 @@ public class BrokerMonitorStub extends BrokerMonitor {
                 "count is {}, size is {}, time is {}",
                 topic, partitionGroup, count, size, time);
     }
+
+    @Override
+    public void onReplicationLag(String topic, int partitionGroup, long lag, int inFlight) {
+        logger.debug("Monitor replication lag of topic {} partition group {}, " +
+                "lag is {}, in flight is {}",
+                topic, partitionGroup, lag, inFlight);
+        maxInFlight.accumulateAndGet(inFlight, Math::max);
+    }
+
+    /**
+     * 处理复制响应时，除这个响应对应的请求外，仍在发送中的复制请求数的最大值
+     */
+    public int getMaxInFlight() {
+        return maxInFlight.get();
+    }
 }
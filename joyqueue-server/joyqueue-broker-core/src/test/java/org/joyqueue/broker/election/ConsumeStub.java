@@ -26,6 +26,7 @@ import org.joyqueue.network.session.Connection;
 import org.joyqueue.network.session.Consumer;
 
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 
 /**
@@ -47,6 +48,11 @@ public class ConsumeStub implements Consume {
         return null;
     }
 
+    @Override
+    public CompletableFuture<PullResult> getMessageAsync(Consumer consumer, int count, int ackTimeout) {
+        return null;
+    }
+
     /**
      * 获取消息，kafka使用，不走应答逻辑，只关注pullIndex
      *
@@ -62,6 +68,11 @@ public class ConsumeStub implements Consume {
         return null;
     }
 
+    @Override
+    public CompletableFuture<PullResult> getMessageAsync(Consumer consumer, short partition, long index, int count) {
+        return null;
+    }
+
     @Override
     public PullResult getMessage(String topic, short partition, long index, int count) {
         return null;
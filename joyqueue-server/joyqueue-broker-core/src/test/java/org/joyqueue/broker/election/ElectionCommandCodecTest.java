@@ -20,6 +20,10 @@ import org.joyqueue.broker.consumer.position.model.Position;
 import org.joyqueue.broker.election.TopicPartitionGroup;
 import org.joyqueue.broker.election.command.AppendEntriesRequest;
 import org.joyqueue.broker.election.command.AppendEntriesResponse;
+import org.joyqueue.broker.election.command.BatchAppendEntriesRequest;
+import org.joyqueue.broker.election.command.BatchAppendEntriesResponse;
+import org.joyqueue.broker.election.command.InstallSnapshotRequest;
+import org.joyqueue.broker.election.command.InstallSnapshotResponse;
 import org.joyqueue.broker.election.command.ReplicateConsumePosRequest;
 import org.joyqueue.broker.election.command.ReplicateConsumePosResponse;
 import org.joyqueue.broker.election.command.TimeoutNowRequest;
@@ -30,6 +34,14 @@ import org.joyqueue.broker.election.network.codec.AppendEntriesRequestDecoder;
 import org.joyqueue.broker.election.network.codec.AppendEntriesRequestEncoder;
 import org.joyqueue.broker.election.network.codec.AppendEntriesResponseDecoder;
 import org.joyqueue.broker.election.network.codec.AppendEntriesResponseEncoder;
+import org.joyqueue.broker.election.network.codec.BatchAppendEntriesRequestDecoder;
+import org.joyqueue.broker.election.network.codec.BatchAppendEntriesRequestEncoder;
+import org.joyqueue.broker.election.network.codec.BatchAppendEntriesResponseDecoder;
+import org.joyqueue.broker.election.network.codec.BatchAppendEntriesResponseEncoder;
+import org.joyqueue.broker.election.network.codec.InstallSnapshotRequestDecoder;
+import org.joyqueue.broker.election.network.codec.InstallSnapshotRequestEncoder;
+import org.joyqueue.broker.election.network.codec.InstallSnapshotResponseDecoder;
+import org.joyqueue.broker.election.network.codec.InstallSnapshotResponseEncoder;
 import org.joyqueue.broker.election.network.codec.ReplicateConsumePosRequestDecoder;
 import org.joyqueue.broker.election.network.codec.ReplicateConsumePosRequestEncoder;
 import org.joyqueue.broker.election.network.codec.ReplicateConsumePosResponseDecoder;
@@ -43,12 +55,14 @@ import org.joyqueue.broker.election.network.codec.VoteRequestEncoder;
 import org.joyqueue.broker.election.network.codec.VoteResponseDecoder;
 import org.joyqueue.broker.election.network.codec.VoteResponseEncoder;
 import org.joyqueue.network.transport.codec.JoyQueueHeader;
+import org.joyqueue.store.replication.SnapshotFile;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import org.junit.Assert;
 import org.junit.Test;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -120,6 +134,119 @@ public class ElectionCommandCodecTest {
         Assert.assertEquals(3, decodeEntires.getInt());
     }
 
+    @Test
+    public void testInstallSnapshotCodec() throws Exception {
+        final TopicPartitionGroup topicPartitionGroup = new TopicPartitionGroup("test", 1);
+        final SnapshotFile file = new SnapshotFile((short) 2, 1024L, 12345L, 4096L, true);
+
+        ByteBuffer data = ByteBuffer.allocate(100);
+        data.putLong(1L);
+        data.putLong(2L);
+        data.flip();
+
+        InstallSnapshotRequest request = InstallSnapshotRequest.Build.create()
+                .partitionGroup(topicPartitionGroup)
+                .term(4)
+                .leader(30)
+                .snapshotPosition(8192L)
+                .file(file)
+                .offset(512L)
+                .first(false)
+                .last(true)
+                .data(data)
+                .build();
+        request.setHeader(new JoyQueueHeader());
+
+        ByteBuf byteBuf = Unpooled.buffer(512);
+        new InstallSnapshotRequestEncoder().encode(request, byteBuf);
+        InstallSnapshotRequest decodeRequest = (InstallSnapshotRequest) new InstallSnapshotRequestDecoder()
+                .decode(new JoyQueueHeader(request.type()), byteBuf);
+
+        Assert.assertEquals(topicPartitionGroup.getTopic(), decodeRequest.getTopic());
+        Assert.assertEquals(topicPartitionGroup.getPartitionGroupId(), decodeRequest.getPartitionGroup());
+        Assert.assertEquals(4, decodeRequest.getTerm());
+        Assert.assertEquals(30, decodeRequest.getLeaderId());
+        Assert.assertEquals(8192L, decodeRequest.getSnapshotPosition());
+        Assert.assertEquals(file.getPartition(), decodeRequest.getFile().getPartition());
+        Assert.assertEquals(file.getPosition(), decodeRequest.getFile().getPosition());
+        Assert.assertEquals(file.getTimestamp(), decodeRequest.getFile().getTimestamp());
+        Assert.assertEquals(file.getLength(), decodeRequest.getFile().getLength());
+        Assert.assertTrue(decodeRequest.getFile().isCompactIndex());
+        Assert.assertEquals(512L, decodeRequest.getOffset());
+        Assert.assertFalse(decodeRequest.isFirst());
+        Assert.assertTrue(decodeRequest.isLast());
+        Assert.assertEquals(16, decodeRequest.getDataLength());
+        Assert.assertEquals(1L, decodeRequest.getData().getLong());
+        Assert.assertEquals(2L, decodeRequest.getData().getLong());
+
+        InstallSnapshotResponse response = InstallSnapshotResponse.Build.create()
+                .term(5).success(true).writePosition(8192L).replicaId(8)
+                .build();
+        byteBuf = Unpooled.buffer(512);
+        new InstallSnapshotResponseEncoder().encode(response, byteBuf);
+        InstallSnapshotResponse decodeResponse = (InstallSnapshotResponse) new InstallSnapshotResponseDecoder()
+                .decode(new JoyQueueHeader(response.type()), byteBuf);
+
+        Assert.assertEquals(5, decodeResponse.getTerm());
+        Assert.assertTrue(decodeResponse.isSuccess());
+        Assert.assertEquals(8192L, decodeResponse.getWritePosition());
+        Assert.assertEquals(8, decodeResponse.getReplicaId());
+    }
+
+    @Test
+    public void testBatchAppendEntriesCodec() throws Exception {
+        ByteBuffer entries = ByteBuffer.allocate(8);
+        entries.putLong(1L);
+        entries.flip();
+
+        AppendEntriesRequest appendEntriesRequest = AppendEntriesRequest.Build.create()
+                .partitionGroup(new TopicPartitionGroup("test", 1)).term(4).leader(30)
+                .startPosition(15L).commitPosition(10L).entries(entries)
+                .build();
+        // 心跳请求没有消息
+        AppendEntriesRequest heartbeatRequest = AppendEntriesRequest.Build.create()
+                .partitionGroup(new TopicPartitionGroup("test2", 2)).term(5).leader(30)
+                .build();
+        BatchAppendEntriesRequest request = new BatchAppendEntriesRequest(Arrays.asList(appendEntriesRequest, heartbeatRequest));
+
+        ByteBuf byteBuf = Unpooled.buffer(512);
+        new BatchAppendEntriesRequestEncoder().encode(request, byteBuf);
+        BatchAppendEntriesRequest decodeRequest = (BatchAppendEntriesRequest) new BatchAppendEntriesRequestDecoder()
+                .decode(new JoyQueueHeader(request.type()), byteBuf);
+
+        Assert.assertEquals(2, decodeRequest.getRequests().size());
+        Assert.assertEquals(8, decodeRequest.getEntriesLength());
+        AppendEntriesRequest decodeAppendEntriesRequest = decodeRequest.getRequests().get(0);
+        Assert.assertEquals("test", decodeAppendEntriesRequest.getTopic());
+        Assert.assertEquals(1, decodeAppendEntriesRequest.getPartitionGroup());
+        Assert.assertEquals(4, decodeAppendEntriesRequest.getTerm());
+        Assert.assertEquals(15L, decodeAppendEntriesRequest.getStartPosition());
+        Assert.assertEquals(10L, decodeAppendEntriesRequest.getCommitPosition());
+        Assert.assertEquals(1L, decodeAppendEntriesRequest.getEntries().getLong());
+        AppendEntriesRequest decodeHeartbeatRequest = decodeRequest.getRequests().get(1);
+        Assert.assertEquals("test2", decodeHeartbeatRequest.getTopic());
+        Assert.assertEquals(2, decodeHeartbeatRequest.getPartitionGroup());
+        Assert.assertEquals(5, decodeHeartbeatRequest.getTerm());
+        Assert.assertEquals(0, decodeHeartbeatRequest.getEntriesLength());
+
+        BatchAppendEntriesResponse response = new BatchAppendEntriesResponse(Arrays.asList(
+                AppendEntriesResponse.Build.create().term(4).success(true).nextPosition(23L).writePosition(23L).replicaId(2).build(),
+                AppendEntriesResponse.Build.create().term(5).success(false).nextPosition(-1L).replicaId(2).build()));
+        byteBuf = Unpooled.buffer(512);
+        new BatchAppendEntriesResponseEncoder().encode(response, byteBuf);
+        BatchAppendEntriesResponse decodeResponse = (BatchAppendEntriesResponse) new BatchAppendEntriesResponseDecoder()
+                .decode(new JoyQueueHeader(response.type()), byteBuf);
+
+        Assert.assertEquals(2, decodeResponse.getResponses().size());
+        Assert.assertEquals(4, decodeResponse.getResponses().get(0).getTerm());
+        Assert.assertTrue(decodeResponse.getResponses().get(0).isSuccess());
+        Assert.assertEquals(23L, decodeResponse.getResponses().get(0).getNextPosition());
+        Assert.assertEquals(23L, decodeResponse.getResponses().get(0).getWritePosition());
+        Assert.assertEquals(5, decodeResponse.getResponses().get(1).getTerm());
+        Assert.assertFalse(decodeResponse.getResponses().get(1).isSuccess());
+        Assert.assertEquals(-1L, decodeResponse.getResponses().get(1).getNextPosition());
+    }
+
     @Test
     public void testAppendEntriesResponseCodec() throws Exception {
         final int entriesTerm = 1;
@@ -33,6 +33,7 @@ import org.joyqueue.broker.election.network.codec.VoteRequestEncoder;
 import org.joyqueue.broker.election.network.codec.VoteResponseDecoder;
 import org.joyqueue.broker.election.network.codec.VoteResponseEncoder;
 import org.joyqueue.broker.network.codec.BrokerPayloadCodecRegistrar;
+import org.joyqueue.broker.network.protocol.support.CommandHandlerFactoryWrapper;
 import org.joyqueue.network.transport.TransportServer;
 import org.joyqueue.network.transport.codec.Codec;
 import org.joyqueue.network.transport.codec.CodecFactory;
@@ -41,9 +42,20 @@ import org.joyqueue.network.transport.codec.DefaultEncoder;
 import org.joyqueue.network.transport.codec.JoyQueueHeaderCodec;
 import org.joyqueue.network.transport.codec.PayloadCodecFactory;
 import org.joyqueue.network.transport.codec.support.DefaultCodec;
+import org.joyqueue.network.transport.command.Command;
+import org.joyqueue.network.transport.command.handler.CommandHandler;
+import org.joyqueue.network.transport.command.handler.CommandHandlerFactory;
 import org.joyqueue.network.transport.command.support.DefaultCommandHandlerFactory;
 import org.joyqueue.network.transport.support.DefaultTransportServerFactory;
 import org.joyqueue.store.StoreService;
+import org.joyqueue.toolkit.concurrent.NamedThreadFactory;
+import org.joyqueue.toolkit.lang.Close;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by zhuduohui on 2018/10/8.
@@ -51,17 +63,51 @@ import org.joyqueue.store.StoreService;
 public class ElectionManagerStub extends ElectionManager {
     private TransportServer transportServer;
     private ServerConfigStub serverConfig;
+    private BrokerMonitorStub brokerMonitorStub;
+    // 和broker一样，没有指定执行器的命令在多线程的公共线程池中处理
+    private ExecutorService commonThreadPool;
+    private CommandHandlerFactory commandHandlerFactory;
+    // 收到的各类型请求的数量
+    private final ConcurrentMap<Integer, AtomicInteger> requestCounts = new ConcurrentHashMap<>();
 
     public ElectionManagerStub(ElectionConfig electionConfig, StoreService storeService, Consume consume) {
-        super(electionConfig, storeService, consume, new ClusterManagerStub(), new BrokerMonitorStub());
+        this(electionConfig, storeService, consume, new BrokerMonitorStub());
+    }
+
+    private ElectionManagerStub(ElectionConfig electionConfig, StoreService storeService, Consume consume,
+                                BrokerMonitorStub brokerMonitorStub) {
+        super(electionConfig, storeService, consume, new ClusterManagerStub(), brokerMonitorStub);
+        this.brokerMonitorStub = brokerMonitorStub;
+    }
+
+    public BrokerMonitorStub getBrokerMonitorStub() {
+        return brokerMonitorStub;
+    }
+
+    public CommandHandlerFactory getCommandHandlerFactory() {
+        return commandHandlerFactory;
+    }
+
+    public int getRequestCount(int type) {
+        AtomicInteger count = requestCounts.get(type);
+        return count == null ? 0 : count.get();
     }
 
     @Override
     public void doStart() throws Exception {
         super.doStart();
 
-        DefaultCommandHandlerFactory commandHandlerFactory = new DefaultCommandHandlerFactory();
-        ElectionCommandHandlerRegistrarStub.register(this, commandHandlerFactory);
+        DefaultCommandHandlerFactory defaultCommandHandlerFactory = new DefaultCommandHandlerFactory() {
+            @Override
+            public CommandHandler getHandler(Command command) {
+                requestCounts.computeIfAbsent(command.getHeader().getType(), type -> new AtomicInteger()).incrementAndGet();
+                return super.getHandler(command);
+            }
+        };
+        ElectionCommandHandlerRegistrarStub.register(this, defaultCommandHandlerFactory);
+        commonThreadPool = Executors.newFixedThreadPool(8, new NamedThreadFactory("Election-stub-common"));
+        commandHandlerFactory = new CommandHandlerFactoryWrapper(defaultCommandHandlerFactory,
+                commonThreadPool, commonThreadPool, commonThreadPool);
 
         Codec codec = new CodecFactory() {
             @Override
@@ -101,6 +147,7 @@ public class ElectionManagerStub extends ElectionManager {
     @Override
     public void doStop() {
         transportServer.stop();
+        Close.close(commonThreadPool);
         super.doStop();
     }
 }
@@ -60,6 +60,11 @@ public class ElectionManagerTest {
         return System.getProperty(property) + File.separator + "store";
     }
 
+    private String getStoreDataDir() {
+        String property = "java.io.tmpdir";
+        return System.getProperty(property) + File.separator + "store_data";
+    }
+
     private String getElectionDir() {
         String property = "java.io.tmpdir";
         return System.getProperty(property) + File.separator + "election";
@@ -70,6 +75,8 @@ public class ElectionManagerTest {
         Configuration conf = new Configuration();
         StoreConfig storeConfig = new StoreConfig(conf);
         storeConfig.setPath(getStoreDir());
+        new File(getStoreDataDir()).mkdirs();
+        storeConfig.setDataPaths(getStoreDataDir());
         storeService = new Store(storeConfig);
         ((Store) storeService).start();
 
@@ -102,6 +109,7 @@ public class ElectionManagerTest {
         electionManager.stop();
 
         Files.deleteDirectory(new File(getStoreDir()));
+        Files.deleteDirectory(new File(getStoreDataDir()));
         Files.deleteDirectory(new File(getElectionDir()));
     }
 
@@ -148,4 +156,29 @@ public class ElectionManagerTest {
         Assert.assertNull(election);
 
     }
+
+    @Test
+    public void testMovePartitionGroup() throws Exception {
+        List<Broker> allNodes = new LinkedList<>();
+        allNodes.add(broker1);
+        allNodes.add(broker2);
+
+        storeService.removePartitionGroup(topic1, partitionGroup1);
+        storeService.createPartitionGroup(topic1, partitionGroup1, partitions);
+        electionManager.onPartitionGroupCreate(PartitionGroup.ElectType.fix, new TopicName(topic1),
+                partitionGroup1, allNodes, new TreeSet<>(), broker1.getId(), broker1.getId());
+        LeaderElection election = electionManager.getLeaderElection(topic1, partitionGroup1);
+        String groupPath = "topics" + File.separator + topic1 + File.separator + partitionGroup1;
+        String dataPath = new File(getStoreDir(), groupPath).exists() ? getStoreDataDir() : getStoreDir();
+
+        // 迁移后选举和复制组在新的存储实例上重建
+        electionManager.movePartitionGroup(topic1, partitionGroup1, dataPath);
+        Assert.assertEquals(electionManager.getLeaderElectionCount(), 1);
+        LeaderElection movedElection = electionManager.getLeaderElection(topic1, partitionGroup1);
+        Assert.assertNotSame(election, movedElection);
+        Assert.assertNotSame(election.getReplicaGroup(), movedElection.getReplicaGroup());
+        Assert.assertSame(storeService.getReplicableStore(topic1, partitionGroup1), movedElection.replicableStore);
+        Assert.assertTrue(new File(dataPath, groupPath).isDirectory());
+        Assert.assertEquals(movedElection.getLeaderId(), broker1.getId().longValue());
+    }
 }
@@ -16,9 +16,16 @@
 package org.joyqueue.broker.election;
 
 import org.joyqueue.broker.config.Configuration;
+import org.joyqueue.broker.election.command.AppendEntriesRequest;
 import org.joyqueue.domain.Broker;
 import org.joyqueue.domain.PartitionGroup;
 import org.joyqueue.domain.TopicName;
+import org.joyqueue.network.command.CommandType;
+import org.joyqueue.network.transport.codec.JoyQueueHeader;
+import org.joyqueue.network.transport.command.Command;
+import org.joyqueue.network.transport.command.Direction;
+import org.joyqueue.network.transport.command.handler.CommandHandler;
+import org.joyqueue.network.transport.command.provider.ExecutorServiceProvider;
 import org.joyqueue.store.*;
 import org.joyqueue.store.StoreService;
 import org.joyqueue.store.replication.ReplicableStore;
@@ -33,6 +40,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.nio.ByteBuffer;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.TreeSet;
@@ -54,9 +62,11 @@ public class FixedLeaderElectionTest {
     private int leaderId = 1;
 
     private StoreService[] storeServices = new StoreService[FIX_ELECTION_NUM];
+    private Configuration[] configurations = new Configuration[FIX_ELECTION_NUM];
 
     private TopicName topic1 = TopicName.parse("test");
     private int partitionGroup1 = 1;
+    private TopicName topic2 = TopicName.parse("test2");
 
     private ProduceTask produceTask = new ProduceTask(storeServices[leaderId], topic1, partitionGroup1);
     private ConsumeTask consumeTask = new ConsumeTask(storeServices[leaderId], topic1, partitionGroup1);
@@ -78,6 +88,7 @@ public class FixedLeaderElectionTest {
 
         for (int i = 0; i < FIX_ELECTION_NUM; i++) {
             Configuration conf = new Configuration();
+            configurations[i] = conf;
             StoreConfig storeConfig = new StoreConfig(conf);
             storeConfig.setPath(getStoreDir() + i);
             storeServices[i] = new Store(storeConfig);
@@ -114,6 +125,7 @@ public class FixedLeaderElectionTest {
         for (int i = 0; i < FIX_ELECTION_NUM; i++) {
             if (storeServices[i] != null) {
                 storeServices[i].removePartitionGroup(topic1.getFullName(), partitionGroup1);
+                storeServices[i].removePartitionGroup(topic2.getFullName(), partitionGroup1);
                 ((Store)storeServices[i]).stop();
             }
 
@@ -121,6 +133,7 @@ public class FixedLeaderElectionTest {
                 leaderElections[i] = electionManager[i].getLeaderElection(topic1, partitionGroup1);
                 if (leaderElections[i] != null) leaderElections[i].stop();
                 electionManager[i].onPartitionGroupRemove(topic1, partitionGroup1);
+                electionManager[i].onPartitionGroupRemove(topic2, partitionGroup1);
                 electionManager[i].stop();
             }
         }
@@ -188,6 +201,208 @@ public class FixedLeaderElectionTest {
 
     }
 
+    @Test
+    public void testFixReplicationPipelined() throws Exception {
+        for (Configuration conf : configurations) {
+            conf.addProperty(ElectionConfigKey.REPLICATE_PIPELINE_DEPTH.getName(), "4");
+            conf.addProperty(ElectionConfigKey.MAX_BATCH_REPLICATE_SIZE.getName(), String.valueOf(16 * 1024));
+        }
+
+        List<Broker> allNodes = new LinkedList<>();
+        for (int i = 0; i < FIX_NODE_NUM; i++) {
+            allNodes.add(brokers[i]);
+        }
+
+        for (int i = 0; i < FIX_ELECTION_NUM; i++) {
+            storeServices[i].createPartitionGroup(topic1.getFullName(), partitionGroup1, partitions);
+        }
+
+        // 先只启动LEADER并积压消息，FOLLOWER启动后分多批追赶，流水线中同时有多个复制请求
+        int leaderIndex = leaderId - 1;
+        int followerIndex = nextNode(leaderId) - 1;
+        electionManager[leaderIndex].onPartitionGroupCreate(PartitionGroup.ElectType.fix,
+                topic1, partitionGroup1, allNodes, new TreeSet<>(), brokers[leaderIndex].getId(), leaderId);
+        leaderElections[leaderIndex] = electionManager[leaderIndex].getLeaderElection(topic1, partitionGroup1);
+
+        Thread.sleep(1000);
+        produceTask.setStoreService(storeServices[leaderIndex]);
+        produceTask.start();
+        Thread.sleep(3000);
+        produceTask.stop(true);
+        produceTask.interrupt();
+        // wait for the pending async writes
+        Thread.sleep(1000);
+
+        electionManager[followerIndex].onPartitionGroupCreate(PartitionGroup.ElectType.fix,
+                topic1, partitionGroup1, allNodes, new TreeSet<>(), brokers[followerIndex].getId(), leaderId);
+        leaderElections[followerIndex] = electionManager[followerIndex].getLeaderElection(topic1, partitionGroup1);
+
+        ReplicableStore leaderStore = storeServices[leaderIndex].getReplicableStore(topic1.getFullName(), partitionGroup1);
+        ReplicableStore followerStore = storeServices[followerIndex].getReplicableStore(topic1.getFullName(), partitionGroup1);
+        Assert.assertTrue(leaderStore.rightPosition() > 4 * 16 * 1024);
+        waitForReplication(leaderStore, followerStore);
+
+        Assert.assertEquals(leaderId, leaderElections[followerIndex].getLeaderId());
+        Assert.assertEquals(leaderStore.rightPosition(), followerStore.rightPosition());
+        Assert.assertEquals(leaderStore.rightPosition(), leaderStore.commitPosition());
+        // 复制请求经过和broker相同的多线程处理器工厂，FOLLOWER按顺序写入，没有截断已经确认的数据
+        int length = (int) (leaderStore.rightPosition() - leaderStore.leftPosition());
+        Assert.assertEquals(leaderStore.readEntryBuffer(leaderStore.leftPosition(), length),
+                followerStore.readEntryBuffer(leaderStore.leftPosition(), length));
+        // 上报的数量不含正在处理的响应对应的请求，大于0说明同一个FOLLOWER同时有多个请求在发送中
+        Assert.assertTrue(electionManager[leaderIndex].getBrokerMonitorStub().getMaxInFlight() > 0);
+    }
+
+    @Test
+    public void testAppendEntriesExecutor() {
+        ByteBuffer entries = ByteBuffer.wrap(new byte[16]);
+        CommandHandler handler = electionManager[0].getCommandHandlerFactory().getHandler(
+                appendEntriesCommand(topic1.getFullName(), partitionGroup1, entries));
+        Assert.assertTrue(handler instanceof ExecutorServiceProvider);
+
+        // 同一个分区组的复制请求总是由同一个单线程执行器处理，不会进入多线程的公共线程池
+        ExecutorServiceProvider provider = (ExecutorServiceProvider) handler;
+        Assert.assertSame(provider.getExecutorService(null, appendEntriesCommand(topic1.getFullName(), partitionGroup1, entries)),
+                provider.getExecutorService(null, appendEntriesCommand(topic1.getFullName(), partitionGroup1, entries)));
+        Assert.assertSame(electionManager[0].getAppendEntriesExecutor(topic1.getFullName(), partitionGroup1),
+                provider.getExecutorService(null, appendEntriesCommand(topic1.getFullName(), partitionGroup1, entries)));
+        // 心跳不排在复制请求后面
+        Assert.assertSame(electionManager[0].getHeartbeatExecutor(),
+                provider.getExecutorService(null, appendEntriesCommand(topic1.getFullName(), partitionGroup1, null)));
+    }
+
+    private Command appendEntriesCommand(String topic, int partitionGroup, ByteBuffer entries) {
+        AppendEntriesRequest request = AppendEntriesRequest.Build.create()
+                .partitionGroup(new TopicPartitionGroup(topic, partitionGroup)).entries(entries).build();
+        return new Command(new JoyQueueHeader(Direction.REQUEST, CommandType.RAFT_APPEND_ENTRIES_REQUEST), request);
+    }
+
+    @Test
+    public void testFixReplicationRewind() throws Exception {
+        for (Configuration conf : configurations) {
+            conf.addProperty(ElectionConfigKey.REPLICATE_PIPELINE_DEPTH.getName(), "4");
+            conf.addProperty(ElectionConfigKey.MAX_BATCH_REPLICATE_SIZE.getName(), String.valueOf(1024));
+        }
+
+        List<Broker> allNodes = new LinkedList<>();
+        for (int i = 0; i < FIX_NODE_NUM; i++) {
+            allNodes.add(brokers[i]);
+        }
+
+        for (int i = 0; i < FIX_ELECTION_NUM; i++) {
+            storeServices[i].createPartitionGroup(topic1.getFullName(), partitionGroup1, partitions);
+            electionManager[i].onPartitionGroupCreate(PartitionGroup.ElectType.fix,
+                    topic1, partitionGroup1, allNodes, new TreeSet<>(), brokers[i].getId(), leaderId);
+            leaderElections[i] = electionManager[i].getLeaderElection(topic1, partitionGroup1);
+        }
+
+        Thread.sleep(5000);
+        int leaderId = leaderElections[0].getLeaderId();
+        Assert.assertNotEquals(leaderId, -1);
+
+        produceTask.setStoreService(storeServices[leaderId - 1]);
+        produceTask.start();
+        Thread.sleep(2000);
+        produceTask.stop(true);
+        produceTask.interrupt();
+        // wait for the pending async writes
+        Thread.sleep(1000);
+
+        ReplicableStore leaderStore = storeServices[leaderId - 1].getReplicableStore(topic1.getFullName(), partitionGroup1);
+        ReplicableStore followerStore = storeServices[nextNode(leaderId) - 1].getReplicableStore(topic1.getFullName(), partitionGroup1);
+        waitForReplication(leaderStore, followerStore);
+        Assert.assertEquals(leaderStore.rightPosition(), followerStore.rightPosition());
+
+        // 截断FOLLOWER，LEADER按原来的位置发送的请求被拒绝，需要回退到FOLLOWER的写入位置重新复制
+        long replicatedPosition = leaderStore.rightPosition();
+        long truncatePosition = followerStore.position(replicatedPosition, -100);
+        followerStore.setRightPosition(truncatePosition);
+        Assert.assertEquals(truncatePosition, followerStore.rightPosition());
+
+        ProduceTask rewindProduceTask = new ProduceTask(storeServices[leaderId - 1], topic1, partitionGroup1);
+        rewindProduceTask.start();
+        Thread.sleep(2000);
+        rewindProduceTask.stop(true);
+        rewindProduceTask.interrupt();
+        Thread.sleep(1000);
+
+        waitForReplication(leaderStore, followerStore);
+        Assert.assertTrue(leaderStore.rightPosition() > replicatedPosition);
+        Assert.assertEquals(leaderStore.rightPosition(), followerStore.rightPosition());
+        Assert.assertEquals(leaderStore.rightPosition(), leaderStore.commitPosition());
+
+        // 截断后重新复制的数据和LEADER一致
+        int length = (int) (replicatedPosition - truncatePosition);
+        Assert.assertEquals(leaderStore.readEntryBuffer(truncatePosition, length),
+                followerStore.readEntryBuffer(truncatePosition, length));
+    }
+
+    private void waitForReplication(ReplicableStore leaderStore, ReplicableStore followerStore) throws InterruptedException {
+        for (int i = 0; i < 100 && followerStore.rightPosition() < leaderStore.rightPosition(); i++) {
+            Thread.sleep(100);
+        }
+    }
+
+    @Test
+    public void testFixReplicationBatched() throws Exception {
+        // 复制通道在启动时创建，修改配置后重启
+        for (int i = 0; i < FIX_ELECTION_NUM; i++) {
+            configurations[i].addProperty(ElectionConfigKey.REPLICATE_BATCH_ENABLE.getName(), "true");
+            configurations[i].addProperty(ElectionConfigKey.REPLICATE_PIPELINE_DEPTH.getName(), "4");
+            configurations[i].addProperty(ElectionConfigKey.MAX_BATCH_REPLICATE_SIZE.getName(), String.valueOf(16 * 1024));
+            electionManager[i].stop();
+            electionManager[i].start();
+        }
+
+        List<Broker> allNodes = new LinkedList<>();
+        for (int i = 0; i < FIX_NODE_NUM; i++) {
+            allNodes.add(brokers[i]);
+        }
+
+        // 两个分区组发往同一个FOLLOWER的复制请求合并发送
+        TopicName[] topics = new TopicName[]{topic1, topic2};
+        for (TopicName topic : topics) {
+            for (int i = 0; i < FIX_ELECTION_NUM; i++) {
+                storeServices[i].createPartitionGroup(topic.getFullName(), partitionGroup1, partitions);
+                electionManager[i].onPartitionGroupCreate(PartitionGroup.ElectType.fix,
+                        topic, partitionGroup1, allNodes, new TreeSet<>(), brokers[i].getId(), leaderId);
+            }
+        }
+        for (int i = 0; i < FIX_ELECTION_NUM; i++) {
+            leaderElections[i] = electionManager[i].getLeaderElection(topic1, partitionGroup1);
+        }
+
+        Thread.sleep(5000);
+        int leaderId = leaderElections[0].getLeaderId();
+        Assert.assertNotEquals(leaderId, -1);
+
+        ProduceTask produceTask2 = new ProduceTask(storeServices[leaderId - 1], topic2, partitionGroup1);
+        produceTask.setStoreService(storeServices[leaderId - 1]);
+        produceTask.start();
+        produceTask2.start();
+        Thread.sleep(3000);
+        produceTask.stop(true);
+        produceTask.interrupt();
+        produceTask2.stop(true);
+        produceTask2.interrupt();
+        // wait for the pending async writes
+        Thread.sleep(1000);
+
+        for (TopicName topic : topics) {
+            ReplicableStore leaderStore = storeServices[leaderId - 1].getReplicableStore(topic.getFullName(), partitionGroup1);
+            ReplicableStore followerStore = storeServices[nextNode(leaderId) - 1].getReplicableStore(topic.getFullName(), partitionGroup1);
+            waitForReplication(leaderStore, followerStore);
+            Assert.assertTrue(leaderStore.rightPosition() > 0);
+            Assert.assertEquals(leaderStore.rightPosition(), followerStore.rightPosition());
+            Assert.assertEquals(leaderStore.rightPosition(), leaderStore.commitPosition());
+            int length = (int) (leaderStore.rightPosition() - leaderStore.leftPosition());
+            Assert.assertEquals(leaderStore.readEntryBuffer(leaderStore.leftPosition(), length),
+                    followerStore.readEntryBuffer(leaderStore.leftPosition(), length));
+        }
+        Assert.assertTrue(electionManager[nextNode(leaderId) - 1]
+                .getRequestCount(CommandType.RAFT_BATCH_APPEND_ENTRIES_REQUEST) > 0);
+    }
+
     private class ElectionEventListener implements EventListener<ElectionEvent> {
         @Override
         public void onEvent(ElectionEvent event) {
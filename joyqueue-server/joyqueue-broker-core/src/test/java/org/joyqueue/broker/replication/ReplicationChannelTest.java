@@ -0,0 +1,138 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.broker.replication;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import org.joyqueue.broker.election.TopicPartitionGroup;
+import org.joyqueue.broker.election.command.AppendEntriesRequest;
+import org.joyqueue.broker.election.command.AppendEntriesResponse;
+import org.joyqueue.broker.election.command.BatchAppendEntriesRequest;
+import org.joyqueue.broker.election.command.BatchAppendEntriesResponse;
+import org.joyqueue.network.command.CommandType;
+import org.joyqueue.network.transport.codec.JoyQueueHeader;
+import org.joyqueue.network.transport.command.Command;
+import org.joyqueue.network.transport.command.CommandCallback;
+import org.joyqueue.network.transport.command.Direction;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 复制通道：复制请求最多pipelineDepth帧同时发送，心跳单独合并发送
+ */
+public class ReplicationChannelTest {
+
+    private final List<Command> frames = new ArrayList<>();
+    private final List<CommandCallback> callbacks = new ArrayList<>();
+    private ReplicationChannel channel;
+
+    @Before
+    public void setup() {
+        TransportSession session = Mockito.mock(TransportSession.class);
+        Mockito.doAnswer(invocation -> {
+            frames.add(invocation.getArgument(0));
+            callbacks.add(invocation.getArgument(2));
+            return null;
+        }).when(session).sendCommand(ArgumentMatchers.any(Command.class), ArgumentMatchers.anyInt(), ArgumentMatchers.any(CommandCallback.class));
+        // 每帧只放得下一个复制请求，最多两帧同时发送
+        channel = new ReplicationChannel("127.0.0.1:50091", session, MoreExecutors.newDirectExecutorService(), 1, 2);
+    }
+
+    @Test
+    public void pipelineTest() {
+        AtomicInteger succeeded = new AtomicInteger();
+        List<Command> commands = Arrays.asList(appendEntries(0, 10), appendEntries(1, 10), appendEntries(2, 10));
+        for (Command command : commands) {
+            channel.send(command, 1000, new CountingCallback(succeeded));
+        }
+        Assert.assertEquals(2, frames.size());
+
+        callbacks.get(0).onSuccess(frames.get(0), response());
+        Assert.assertEquals(1, succeeded.get());
+        Assert.assertEquals(commands, frames);
+
+        callbacks.get(1).onSuccess(frames.get(1), response());
+        callbacks.get(2).onException(frames.get(2), new IllegalStateException());
+        Assert.assertEquals(2, succeeded.get());
+        Assert.assertEquals(3, frames.size());
+    }
+
+    @Test
+    public void heartbeatTest() {
+        AtomicInteger succeeded = new AtomicInteger();
+        channel.send(appendEntries(0, 0), 1000, new CountingCallback(succeeded));
+        channel.send(appendEntries(1, 0), 1000, new CountingCallback(succeeded));
+        channel.send(appendEntries(2, 0), 1000, new CountingCallback(succeeded));
+        // 心跳帧发送中时，复制请求不需要等待
+        channel.send(appendEntries(3, 10), 1000, new CountingCallback(succeeded));
+        Assert.assertEquals(2, frames.size());
+        Assert.assertEquals(3, ((AppendEntriesRequest) frames.get(1).getPayload()).getPartitionGroup());
+
+        // 发送期间提交的心跳合并成一帧
+        callbacks.get(0).onSuccess(frames.get(0), response());
+        Assert.assertEquals(3, frames.size());
+        Assert.assertTrue(frames.get(2).getPayload() instanceof BatchAppendEntriesRequest);
+        List<AppendEntriesRequest> heartbeats = ((BatchAppendEntriesRequest) frames.get(2).getPayload()).getRequests();
+        Assert.assertEquals(2, heartbeats.size());
+        Assert.assertEquals(1, heartbeats.get(0).getPartitionGroup());
+        Assert.assertEquals(2, heartbeats.get(1).getPartitionGroup());
+
+        List<AppendEntriesResponse> responses = Arrays.asList(appendEntriesResponse(), appendEntriesResponse());
+        callbacks.get(2).onSuccess(frames.get(2), new Command(
+                new JoyQueueHeader(Direction.RESPONSE, CommandType.RAFT_BATCH_APPEND_ENTRIES_RESPONSE), new BatchAppendEntriesResponse(responses)));
+        Assert.assertEquals(3, succeeded.get());
+    }
+
+    private Command appendEntries(int partitionGroup, int entriesLength) {
+        AppendEntriesRequest request = new AppendEntriesRequest();
+        request.setTopicPartitionGroup(new TopicPartitionGroup("test_topic", partitionGroup));
+        request.setEntries(entriesLength == 0 ? null : ByteBuffer.allocate(entriesLength));
+        return new Command(new JoyQueueHeader(Direction.REQUEST, CommandType.RAFT_APPEND_ENTRIES_REQUEST), request);
+    }
+
+    private Command response() {
+        return new Command(new JoyQueueHeader(Direction.RESPONSE, CommandType.RAFT_APPEND_ENTRIES_RESPONSE), appendEntriesResponse());
+    }
+
+    private AppendEntriesResponse appendEntriesResponse() {
+        return new AppendEntriesResponse.Build().success(true).build();
+    }
+
+    private static class CountingCallback implements CommandCallback {
+        private final AtomicInteger succeeded;
+
+        CountingCallback(AtomicInteger succeeded) {
+            this.succeeded = succeeded;
+        }
+
+        @Override
+        public void onSuccess(Command request, Command response) {
+            succeeded.incrementAndGet();
+        }
+
+        @Override
+        public void onException(Command request, Throwable cause) {
+        }
+    }
+}
@@ -100,6 +100,11 @@ public class TransactionSegmentCompletionHandler {
         for (int i = 0; i < transactionDomains.size(); i++) {
             long currentIndex = this.currentIndex + i;
             TransactionDomain transactionDomain = transactionDomains.get(i);
+            // 日志压实的占位消息
+            if (transactionDomain == null) {
+                result.add(null);
+                continue;
+            }
             UnCompletedTransactionMetadata unCompletedTransaction = null;
 
             if (transactionDomain instanceof TransactionPrepare) {
@@ -81,6 +81,11 @@ public class TransactionLogSegment {
         }
         List<TransactionDomain> result = Lists.newArrayListWithCapacity(buffers.size());
         for (ByteBuffer buffer : buffers) {
+            // 日志压实的占位消息没有消息体，保留位置，返回null
+            if (!buffer.hasRemaining()) {
+                result.add(null);
+                continue;
+            }
             TransactionDomain transactionDomain = TransactionSerializer.deserialize(buffer);
             result.add(transactionDomain);
         }
@@ -48,6 +48,7 @@ import org.joyqueue.network.session.Consumer;
 import org.joyqueue.network.transport.Transport;
 import org.joyqueue.network.transport.command.Command;
 import org.joyqueue.response.BooleanResponse;
+import org.joyqueue.store.message.CompactedMessageParser;
 import org.joyqueue.toolkit.delay.AbstractDelayedOperation;
 import org.joyqueue.toolkit.delay.DelayedOperation;
 import org.joyqueue.toolkit.delay.DelayedOperationKey;
@@ -57,8 +58,11 @@ import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * FetchRequestHandler
@@ -91,104 +95,241 @@ public class FetchRequestHandler extends AbstractKafkaCommandHandler implements
 
     @Override
     public Command handle(Transport transport, Command request) {
-        FetchRequest fetchRequest = (FetchRequest) request.getPayload();
-        Map<String, List<FetchRequest.PartitionRequest>> partitionRequestMap = fetchRequest.getPartitionRequests();
-        String clientId = KafkaClientHelper.parseClient(fetchRequest.getClientId());
-        String clientIp = ((InetSocketAddress) transport.remoteAddress()).getHostString();
-//        IsolationLevel isolationLevel = IsolationLevel.valueOf(fetchRequest.getIsolationLevel());
-        int maxBytes = fetchRequest.getMaxBytes();
-        Traffic traffic = new Traffic(clientId);
-
-        Map<String, List<FetchResponse.PartitionResponse>> fetchPartitionResponseMap = Maps.newHashMapWithExpectedSize(partitionRequestMap.size());
-        int currentBytes = 0;
-        for (Map.Entry<String, List<FetchRequest.PartitionRequest>> entry : partitionRequestMap.entrySet()) {
-            TopicName topic = TopicName.parse(entry.getKey());
-            List<FetchResponse.PartitionResponse> partitionResponses = Lists.newArrayListWithCapacity(entry.getValue().size());
-
-            Connection connection = SessionHelper.getConnection(transport);
-            String consumerId = connection.getConsumer(topic.getFullName(), clientId);
-            Consumer consumer = sessionManager.getConsumerById(consumerId);
-            org.joyqueue.domain.Consumer.ConsumerPolicy consumerPolicy = clusterManager.tryGetConsumerPolicy(topic, clientId);
-
-            for (FetchRequest.PartitionRequest partitionRequest : entry.getValue()) {
-                int partition = partitionRequest.getPartition();
-
-                if (consumer == null) {
-                    partitionResponses.add(new FetchResponse.PartitionResponse(partition, KafkaErrorCode.NOT_LEADER_FOR_PARTITION.getCode()));
-                    continue;
-                }
+        FetchContext fetchContext = new FetchContext(transport, request);
+        fetchContext.fetchNext();
+        // 有分区需要从磁盘读取时异步应答
+        return fetchContext.async ? null : fetchContext.response;
+    }
 
-                if (currentBytes > maxBytes) {
-                    partitionResponses.add(new FetchResponse.PartitionResponse(partition, KafkaErrorCode.NONE.getCode()));
+    /**
+     * 一次拉取请求的上下文，按顺序逐个拉取分区。
+     * 分区的消息都在内存中时在当前线程中完成拉取，否则在存储的读取线程中继续拉取后续分区并应答。
+     */
+    private class FetchContext {
+        private final Transport transport;
+        private final Command request;
+        private final FetchRequest fetchRequest;
+        private final String clientId;
+        private final String clientIp;
+        private final int maxBytes;
+        private final Traffic traffic;
+        private final Connection connection;
+        private final Map<String, List<FetchResponse.PartitionResponse>> fetchPartitionResponseMap;
+        private final Iterator<Map.Entry<String, List<FetchRequest.PartitionRequest>>> topicIterator;
+        private int currentBytes = 0;
+
+        private TopicName topic;
+        private Consumer consumer;
+        private org.joyqueue.domain.Consumer.ConsumerPolicy consumerPolicy;
+        private List<FetchResponse.PartitionResponse> partitionResponses;
+        private Iterator<FetchRequest.PartitionRequest> partitionIterator;
+
+        private volatile boolean async = false;
+        private Command response;
+
+        FetchContext(Transport transport, Command request) {
+            this.transport = transport;
+            this.request = request;
+            this.fetchRequest = (FetchRequest) request.getPayload();
+            Map<String, List<FetchRequest.PartitionRequest>> partitionRequestMap = fetchRequest.getPartitionRequests();
+            this.clientId = KafkaClientHelper.parseClient(fetchRequest.getClientId());
+            this.clientIp = ((InetSocketAddress) transport.remoteAddress()).getHostString();
+//            IsolationLevel isolationLevel = IsolationLevel.valueOf(fetchRequest.getIsolationLevel());
+            this.maxBytes = fetchRequest.getMaxBytes();
+            this.traffic = new Traffic(clientId);
+            this.connection = SessionHelper.getConnection(transport);
+            this.fetchPartitionResponseMap = Maps.newHashMapWithExpectedSize(partitionRequestMap.size());
+            this.topicIterator = partitionRequestMap.entrySet().iterator();
+        }
+
+        void fetchNext() {
+            FetchRequest.PartitionRequest partitionRequest;
+            while ((partitionRequest = nextPartitionRequest()) != null) {
+                CompletableFuture<FetchResponse.PartitionResponse> future = fetchPartition(partitionRequest);
+                if (null == future) {
                     continue;
                 }
+                if (!future.isDone()) {
+                    async = true;
+                    future.thenAccept(partitionResponse -> {
+                        try {
+                            onFetched(partitionResponse);
+                            fetchNext();
+                        } catch (Exception e) {
+                            logger.error("fetch message exception, transport: {}, app: {}", transport, clientId, e);
+                            complete();
+                        }
+                    });
+                    return;
+                }
+                onFetched(future.join());
+            }
+            complete();
+        }
 
-                BooleanResponse checkResult = clusterManager.checkReadable(topic, clientId, clientIp, (short) partition);
-                if (!checkResult.isSuccess()) {
-                    logger.warn("checkReadable failed, transport: {}, topic: {}, partition: {}, app: {}, code: {}", transport, topic, partition, clientId, checkResult.getJoyQueueCode());
-                    short errorCode = CheckResultConverter.convertFetchCode(checkResult.getJoyQueueCode());
-                    partitionResponses.add(new FetchResponse.PartitionResponse(partition, errorCode));
-                    traffic.record(topic.getFullName(), 0);
-                    continue;
+        private FetchRequest.PartitionRequest nextPartitionRequest() {
+            while (null == partitionIterator || !partitionIterator.hasNext()) {
+                if (!topicIterator.hasNext()) {
+                    return null;
                 }
+                Map.Entry<String, List<FetchRequest.PartitionRequest>> entry = topicIterator.next();
+                topic = TopicName.parse(entry.getKey());
+                partitionResponses = Lists.newArrayListWithCapacity(entry.getValue().size());
+                fetchPartitionResponseMap.put(entry.getKey(), partitionResponses);
+
+                String consumerId = connection.getConsumer(topic.getFullName(), clientId);
+                consumer = sessionManager.getConsumerById(consumerId);
+                consumerPolicy = clusterManager.tryGetConsumerPolicy(topic, clientId);
+                partitionIterator = entry.getValue().iterator();
+            }
+            return partitionIterator.next();
+        }
 
-                long offset = partitionRequest.getOffset();
-                int partitionMaxBytes = partitionRequest.getMaxBytes();
-                FetchResponse.PartitionResponse partitionResponse = fetchMessage(transport, consumer, consumerPolicy, topic, partition, clientId, offset, partitionMaxBytes);
+        /**
+         * 拉取一个分区，不需要读取消息时直接写入分区应答并返回null
+         */
+        private CompletableFuture<FetchResponse.PartitionResponse> fetchPartition(FetchRequest.PartitionRequest partitionRequest) {
+            int partition = partitionRequest.getPartition();
 
-                currentBytes += partitionResponse.getBytes();
-                partitionResponses.add(partitionResponse);
-                traffic.record(topic.getFullName(), (partitionResponse.getMessages() == null ? 0 : partitionResponse.getMessages().size()));
+            if (consumer == null) {
+                partitionResponses.add(new FetchResponse.PartitionResponse(partition, KafkaErrorCode.NOT_LEADER_FOR_PARTITION.getCode()));
+                return null;
             }
 
-            fetchPartitionResponseMap.put(entry.getKey(), partitionResponses);
-        }
+            if (currentBytes > maxBytes) {
+                partitionResponses.add(new FetchResponse.PartitionResponse(partition, KafkaErrorCode.NONE.getCode()));
+                return null;
+            }
 
-        FetchResponse fetchResponse = new FetchResponse();
-        fetchResponse.setPartitionResponses(fetchPartitionResponseMap);
-        Command response = new Command(fetchResponse);
+            BooleanResponse checkResult = clusterManager.checkReadable(topic, clientId, clientIp, (short) partition);
+            if (!checkResult.isSuccess()) {
+                logger.warn("checkReadable failed, transport: {}, topic: {}, partition: {}, app: {}, code: {}", transport, topic, partition, clientId, checkResult.getJoyQueueCode());
+                short errorCode = CheckResultConverter.convertFetchCode(checkResult.getJoyQueueCode());
+                partitionResponses.add(new FetchResponse.PartitionResponse(partition, errorCode));
+                traffic.record(topic.getFullName(), 0);
+                return null;
+            }
 
-        // 如果当前拉取消息量小于最小限制，那么延迟响应
-        if (fetchRequest.getMinBytes() > currentBytes && fetchRequest.getMaxWait() > 0 && config.getFetchDelay()) {
-            delayPurgatory.tryCompleteElseWatch(new AbstractDelayedOperation(fetchRequest.getMaxWait()) {
-                @Override
-                protected void onComplete() {
-                    transport.acknowledge(request, response);
-                }
-            }, Sets.newHashSet(new DelayedOperationKey()));
-            return null;
+            long offset = partitionRequest.getOffset();
+            int partitionMaxBytes = partitionRequest.getMaxBytes();
+            return fetchMessage(transport, consumer, consumerPolicy, topic, partition, offset, partitionMaxBytes);
+        }
+
+        private void onFetched(FetchResponse.PartitionResponse partitionResponse) {
+            currentBytes += partitionResponse.getBytes();
+            partitionResponses.add(partitionResponse);
+            traffic.record(topic.getFullName(), (partitionResponse.getMessages() == null ? 0 : partitionResponse.getMessages().size()));
         }
 
-        return response;
+        private void complete() {
+            FetchResponse fetchResponse = new FetchResponse();
+            fetchResponse.setPartitionResponses(fetchPartitionResponseMap);
+            Command response = new Command(fetchResponse);
+
+            // 如果当前拉取消息量小于最小限制，那么延迟响应
+            if (fetchRequest.getMinBytes() > currentBytes && fetchRequest.getMaxWait() > 0 && config.getFetchDelay()) {
+                delayPurgatory.tryCompleteElseWatch(new AbstractDelayedOperation(fetchRequest.getMaxWait()) {
+                    @Override
+                    protected void onComplete() {
+                        transport.acknowledge(request, response);
+                    }
+                }, Sets.newHashSet(new DelayedOperationKey()));
+                return;
+            }
+
+            if (async) {
+                transport.acknowledge(request, response);
+            } else {
+                this.response = response;
+            }
+        }
     }
 
-    private FetchResponse.PartitionResponse fetchMessage(Transport transport, Consumer consumer, org.joyqueue.domain.Consumer.ConsumerPolicy consumerPolicy,
-                                                         TopicName topic, int partition, String clientId, long offset, int maxBytes) {
+    /**
+     * 拉取一个分区的消息，直到达到maxBytes或者没有更多消息，结果不会以异常结束
+     */
+    private CompletableFuture<FetchResponse.PartitionResponse> fetchMessage(Transport transport, Consumer consumer, org.joyqueue.domain.Consumer.ConsumerPolicy consumerPolicy,
+                                                                            TopicName topic, int partition, long offset, int maxBytes) {
         long minIndex = consume.getMinIndex(consumer, (short) partition);
         long maxIndex = consume.getMaxIndex(consumer, (short) partition);
 
         if (offset < minIndex || offset > maxIndex) {
             logger.warn("fetch message exception, index out of range, transport: {}, consumer: {}, partition: {}, offset: {}, minOffset: {}, maxOffset: {}",
                     transport, consumer, partition, offset, minIndex, maxIndex);
-            return new FetchResponse.PartitionResponse(partition, KafkaErrorCode.OFFSET_OUT_OF_RANGE.getCode());
+            return CompletableFuture.completedFuture(new FetchResponse.PartitionResponse(partition, KafkaErrorCode.OFFSET_OUT_OF_RANGE.getCode()));
         }
 
-        List<KafkaBrokerMessage> kafkaBrokerMessages = Lists.newLinkedList();
-        int batchSize = consumerPolicy.getBatchSize();
-        int currentBytes = 0;
+        PartitionFetch partitionFetch = new PartitionFetch(consumer, topic, partition, offset, minIndex, maxIndex, maxBytes, consumerPolicy.getBatchSize());
+        partitionFetch.fetchNext();
+        return partitionFetch.future;
+    }
 
-        // 判断总体长度
-        while (currentBytes < maxBytes && offset < maxIndex) {
-            List<BrokerMessage> messages = null;
-            try {
-                messages = doFetchMessage(consumer, partition, offset, batchSize);
+    /**
+     * 一个分区的拉取过程，按批读取消息，读取在存储的读取线程中完成时在该线程中继续读取下一批
+     */
+    private class PartitionFetch {
+        private final Consumer consumer;
+        private final TopicName topic;
+        private final int partition;
+        private final long minIndex;
+        private final long maxIndex;
+        private final int maxBytes;
+        private final int batchSize;
+        private final List<KafkaBrokerMessage> kafkaBrokerMessages = Lists.newLinkedList();
+        private final CompletableFuture<FetchResponse.PartitionResponse> future = new CompletableFuture<>();
+        private long offset;
+        private int currentBytes = 0;
+
+        PartitionFetch(Consumer consumer, TopicName topic, int partition, long offset, long minIndex, long maxIndex, int maxBytes, int batchSize) {
+            this.consumer = consumer;
+            this.topic = topic;
+            this.partition = partition;
+            this.offset = offset;
+            this.minIndex = minIndex;
+            this.maxIndex = maxIndex;
+            this.maxBytes = maxBytes;
+            this.batchSize = batchSize;
+        }
 
-                if (CollectionUtils.isEmpty(messages)) {
+        void fetchNext() {
+            // 判断总体长度
+            while (currentBytes < maxBytes && offset < maxIndex) {
+                CompletableFuture<Boolean> next = doFetchMessage(consumer, partition, offset, batchSize).handle(this::onFetched);
+                if (!next.isDone()) {
+                    next.thenAccept(hasNext -> {
+                        if (hasNext) {
+                            fetchNext();
+                        } else {
+                            complete();
+                        }
+                    });
+                    return;
+                }
+                if (!next.join()) {
                     break;
                 }
+            }
+            complete();
+        }
+
+        /**
+         * 处理一批读取到的消息
+         * @return 是否需要继续读取下一批
+         */
+        private boolean onFetched(FetchedMessages fetched, Throwable t) {
+            if (null != t) {
+                logger.error("fetch message exception, consumer: {}, partition: {}, offset: {}, batchSize: {}", consumer, partition, offset, batchSize, t);
+                return false;
+            }
+            try {
+                if (null == fetched || (CollectionUtils.isEmpty(fetched.messages) && fetched.compacted == 0)) {
+                    return false;
+                }
 
-                short skipOffset = 0;
-                int currentBatchSize = 0;
+                // 日志压实的占位消息不返回给客户端，和kafka压实后的日志一样留下offset空洞，但是要跳过这些offset
+                short skipOffset = (short) fetched.compacted;
+                int currentBatchSize = fetched.compacted;
+                List<BrokerMessage> messages = fetched.messages;
 
                 // 消息转换
                 for (BrokerMessage message : messages) {
@@ -208,26 +349,46 @@ public class FetchRequestHandler extends AbstractKafkaCommandHandler implements
 
                 // 不满足一批消息量
                 if (currentBatchSize < batchSize) {
-                    break;
+                    return false;
                 }
 
                 offset += skipOffset;
+                return true;
             } catch (Exception e) {
                 logger.error("fetch message exception, consumer: {}, partition: {}, offset: {}, batchSize: {}", consumer, partition, offset, batchSize, e);
-                break;
+                return false;
             }
         }
 
-        FetchResponse.PartitionResponse fetchResponsePartitionData = new FetchResponse.PartitionResponse(partition, KafkaErrorCode.NONE.getCode(), kafkaBrokerMessages);
-        fetchResponsePartitionData.setBytes(currentBytes);
-        fetchResponsePartitionData.setLogStartOffset(minIndex);
-        fetchResponsePartitionData.setLastStableOffset(maxIndex);
-        fetchResponsePartitionData.setHighWater(maxIndex);
-        return fetchResponsePartitionData;
+        private void complete() {
+            FetchResponse.PartitionResponse fetchResponsePartitionData = new FetchResponse.PartitionResponse(partition, KafkaErrorCode.NONE.getCode(), kafkaBrokerMessages);
+            fetchResponsePartitionData.setBytes(currentBytes);
+            fetchResponsePartitionData.setLogStartOffset(minIndex);
+            fetchResponsePartitionData.setLastStableOffset(maxIndex);
+            fetchResponsePartitionData.setHighWater(maxIndex);
+            future.complete(fetchResponsePartitionData);
+        }
     }
 
-    private List<BrokerMessage> doFetchMessage(Consumer consumer, int partition, long offset, int batchSize) throws Exception {
-        PullResult pullResult = consume.getMessage(consumer, (short) partition, offset, batchSize);
+    private CompletableFuture<FetchedMessages> doFetchMessage(Consumer consumer, int partition, long offset, int batchSize) {
+        CompletableFuture<PullResult> pullFuture;
+        try {
+            pullFuture = consume.getMessageAsync(consumer, (short) partition, offset, batchSize);
+        } catch (Exception e) {
+            CompletableFuture<FetchedMessages> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+        return pullFuture.thenApply(pullResult -> {
+            try {
+                return toBrokerMessages(pullResult, consumer, partition, offset, batchSize);
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    private FetchedMessages toBrokerMessages(PullResult pullResult, Consumer consumer, int partition, long offset, int batchSize) throws Exception {
         if (pullResult.getCode() != JoyQueueCode.SUCCESS) {
             logger.warn("fetch message error, consumer: {}, partition: {}, offset: {}, batchSize: {}, code: {}", consumer, partition, offset, batchSize, pullResult.getCode());
             return null;
@@ -236,11 +397,32 @@ public class FetchRequestHandler extends AbstractKafkaCommandHandler implements
             return null;
         }
         List<BrokerMessage> brokerMessages = Lists.newArrayListWithCapacity(pullResult.getBuffers().size());
+        int compacted = 0;
         for (ByteBuffer buffer : pullResult.getBuffers()) {
+            if (CompactedMessageParser.isCompacted(buffer)) {
+                compacted++;
+                continue;
+            }
             BrokerMessage brokerMessage = Serializer.readBrokerMessage(buffer);
             brokerMessages.add(brokerMessage);
         }
-        return messageConvertSupport.convert(brokerMessages, SourceType.KAFKA.getValue());
+        if (brokerMessages.isEmpty()) {
+            return new FetchedMessages(brokerMessages, compacted);
+        }
+        return new FetchedMessages(messageConvertSupport.convert(brokerMessages, SourceType.KAFKA.getValue()), compacted);
+    }
+
+    /**
+     * 一批读取到的消息，compacted是跳过的占位消息条数
+     */
+    private static class FetchedMessages {
+        private final List<BrokerMessage> messages;
+        private final int compacted;
+
+        FetchedMessages(List<BrokerMessage> messages, int compacted) {
+            this.messages = messages;
+            this.compacted = compacted;
+        }
     }
 
     @Override
@@ -0,0 +1,208 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.broker.kafka.handler;
+
+import org.joyqueue.broker.BrokerContext;
+import org.joyqueue.broker.buffer.Serializer;
+import org.joyqueue.broker.cluster.ClusterManager;
+import org.joyqueue.broker.consumer.Consume;
+import org.joyqueue.broker.consumer.MessageConvertSupport;
+import org.joyqueue.broker.consumer.model.PullResult;
+import org.joyqueue.broker.kafka.KafkaContext;
+import org.joyqueue.broker.kafka.KafkaErrorCode;
+import org.joyqueue.broker.kafka.command.FetchRequest;
+import org.joyqueue.broker.kafka.command.FetchResponse;
+import org.joyqueue.broker.kafka.config.KafkaConfig;
+import org.joyqueue.broker.kafka.message.KafkaBrokerMessage;
+import org.joyqueue.broker.monitor.SessionManager;
+import org.joyqueue.domain.TopicName;
+import org.joyqueue.message.BrokerMessage;
+import org.joyqueue.message.SourceType;
+import org.joyqueue.network.session.Connection;
+import org.joyqueue.network.session.Consumer;
+import org.joyqueue.network.transport.Transport;
+import org.joyqueue.network.transport.TransportAttribute;
+import org.joyqueue.network.transport.command.Command;
+import org.joyqueue.response.BooleanResponse;
+import org.joyqueue.store.message.CompactedMessageParser;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 拉取日志压实后的分区，占位消息不返回给kafka客户端
+ */
+public class FetchRequestHandlerTest {
+
+    private static final String TOPIC = "test_topic";
+    private static final String APP = "test_app";
+    private static final short PARTITION = 0;
+
+    private final Consume consume = Mockito.mock(Consume.class);
+    private final Consumer consumer = new Consumer("consumer_id", TOPIC, APP);
+    private final List<ByteBuffer> segment = new ArrayList<>();
+    private FetchRequestHandler fetchRequestHandler;
+    private Transport transport;
+
+    @Before
+    public void setup() throws Exception {
+        // 0、3、5是真实消息，1、2、4被压实成占位消息
+        for (int i = 0; i < 6; i++) {
+            ByteBuffer message = createMessage(i);
+            if (i == 1 || i == 2 || i == 4) {
+                message = toPlaceholder(message);
+            }
+            segment.add(message);
+        }
+
+        ClusterManager clusterManager = Mockito.mock(ClusterManager.class);
+        org.joyqueue.domain.Consumer.ConsumerPolicy consumerPolicy = new org.joyqueue.domain.Consumer.ConsumerPolicy();
+        consumerPolicy.setBatchSize((short) 10);
+        Mockito.when(clusterManager.tryGetConsumerPolicy(ArgumentMatchers.any(TopicName.class), ArgumentMatchers.anyString())).thenReturn(consumerPolicy);
+        Mockito.when(clusterManager.checkReadable(ArgumentMatchers.any(TopicName.class), ArgumentMatchers.anyString(), ArgumentMatchers.anyString(), ArgumentMatchers.anyShort()))
+                .thenReturn(BooleanResponse.success());
+
+        Mockito.when(consume.getMinIndex(consumer, PARTITION)).thenReturn(0L);
+        Mockito.when(consume.getMaxIndex(consumer, PARTITION)).thenReturn((long) segment.size());
+        Mockito.when(consume.getMessageAsync(ArgumentMatchers.eq(consumer), ArgumentMatchers.eq(PARTITION), ArgumentMatchers.anyLong(), ArgumentMatchers.anyInt()))
+                .thenAnswer(invocation -> {
+                    int index = (int) (long) invocation.getArgument(2);
+                    int count = invocation.getArgument(3);
+                    List<ByteBuffer> buffers = new ArrayList<>();
+                    for (int i = index; i < Math.min(segment.size(), index + count); i++) {
+                        buffers.add(segment.get(i).duplicate());
+                    }
+                    return CompletableFuture.completedFuture(new PullResult(consumer, PARTITION, buffers));
+                });
+
+        MessageConvertSupport messageConvertSupport = Mockito.mock(MessageConvertSupport.class);
+        Mockito.when(messageConvertSupport.convert(ArgumentMatchers.anyList(), ArgumentMatchers.anyByte())).thenAnswer(invocation -> invocation.getArgument(0));
+
+        SessionManager sessionManager = Mockito.mock(SessionManager.class);
+        Mockito.when(sessionManager.getConsumerById(consumer.getId())).thenReturn(consumer);
+
+        BrokerContext brokerContext = Mockito.mock(BrokerContext.class);
+        Mockito.when(brokerContext.getConsume()).thenReturn(consume);
+        Mockito.when(brokerContext.getClusterManager()).thenReturn(clusterManager);
+        Mockito.when(brokerContext.getMessageConvertSupport()).thenReturn(messageConvertSupport);
+        Mockito.when(brokerContext.getSessionManager()).thenReturn(sessionManager);
+
+        KafkaConfig config = Mockito.mock(KafkaConfig.class);
+        Mockito.when(config.getFetchDelay()).thenReturn(false);
+
+        KafkaContext kafkaContext = Mockito.mock(KafkaContext.class);
+        Mockito.when(kafkaContext.getConfig()).thenReturn(config);
+        Mockito.when(kafkaContext.getBrokerContext()).thenReturn(brokerContext);
+
+        fetchRequestHandler = new FetchRequestHandler();
+        fetchRequestHandler.setKafkaContext(kafkaContext);
+
+        Connection connection = Mockito.mock(Connection.class);
+        Mockito.when(connection.getConsumer(TOPIC, APP)).thenReturn(consumer.getId());
+        TransportAttribute attribute = Mockito.mock(TransportAttribute.class);
+        Mockito.when(attribute.get(SessionManager.CONNECTION_KEY)).thenReturn(connection);
+        transport = Mockito.mock(Transport.class);
+        Mockito.when(transport.attr()).thenReturn(attribute);
+        Mockito.when(transport.remoteAddress()).thenReturn(new InetSocketAddress("127.0.0.1", 50088));
+    }
+
+    @Test
+    public void fetchCompactedTest() {
+        FetchResponse.PartitionResponse response = fetch(0);
+        Assert.assertEquals(KafkaErrorCode.NONE.getCode(), response.getError());
+        assertOffsets(response, 0L, 3L, 5L);
+        for (KafkaBrokerMessage message : response.getMessages()) {
+            Assert.assertArrayEquals(("body" + message.getOffset()).getBytes(), message.getValue());
+        }
+    }
+
+    @Test
+    public void fetchFromPlaceholderTest() {
+        assertOffsets(fetch(1), 3L, 5L);
+        assertOffsets(fetch(4), 5L);
+    }
+
+    @Test
+    public void fetchPlaceholderOnlyTest() {
+        // 只剩下占位消息时返回空结果，读取不会停在占位消息上
+        segment.set(5, toPlaceholder(segment.get(5)));
+        assertOffsets(fetch(4));
+        assertOffsets(fetch(0), 0L, 3L);
+    }
+
+    private FetchResponse.PartitionResponse fetch(long offset) {
+        FetchRequest.PartitionRequest partitionRequest = new FetchRequest.PartitionRequest();
+        partitionRequest.setPartition(PARTITION);
+        partitionRequest.setOffset(offset);
+        partitionRequest.setMaxBytes(1024 * 1024);
+
+        FetchRequest fetchRequest = new FetchRequest();
+        fetchRequest.setClientId(APP);
+        fetchRequest.setMaxBytes(1024 * 1024);
+        fetchRequest.setPartitionRequests(Collections.singletonMap(TOPIC, Collections.singletonList(partitionRequest)));
+
+        Command response = fetchRequestHandler.handle(transport, new Command(fetchRequest));
+        Assert.assertNotNull(response);
+        List<FetchResponse.PartitionResponse> partitionResponses = ((FetchResponse) response.getPayload()).getPartitionResponses().get(TOPIC);
+        Assert.assertEquals(1, partitionResponses.size());
+        return partitionResponses.get(0);
+    }
+
+    private void assertOffsets(FetchResponse.PartitionResponse response, long... offsets) {
+        List<KafkaBrokerMessage> messages = response.getMessages();
+        Assert.assertEquals(offsets.length, messages.size());
+        for (int i = 0; i < offsets.length; i++) {
+            Assert.assertEquals(offsets[i], messages.get(i).getOffset());
+        }
+    }
+
+    private ByteBuffer createMessage(long index) throws Exception {
+        BrokerMessage brokerMessage = new BrokerMessage();
+        brokerMessage.setTopic(TOPIC);
+        brokerMessage.setApp(APP);
+        brokerMessage.setPartition(PARTITION);
+        brokerMessage.setMsgIndexNo(index);
+        brokerMessage.setSource(SourceType.JOYQUEUE.getValue());
+        brokerMessage.setClientIp("10.1.1.1".getBytes());
+        brokerMessage.setBusinessId("key" + index);
+        brokerMessage.setBody(("body" + index).getBytes());
+
+        int size = Serializer.sizeOf(brokerMessage);
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        Serializer.write(brokerMessage, buffer, size);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * 和LogCompactor一样，用占位消息头部替换消息，其余数据全为0
+     */
+    private ByteBuffer toPlaceholder(ByteBuffer message) {
+        ByteBuffer placeholder = ByteBuffer.allocate(message.remaining());
+        placeholder.put(CompactedMessageParser.placeholderHeader(message));
+        placeholder.clear();
+        return placeholder;
+    }
+}
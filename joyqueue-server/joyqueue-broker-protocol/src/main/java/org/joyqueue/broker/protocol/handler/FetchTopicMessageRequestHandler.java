@@ -50,7 +50,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * FetchTopicMessageRequestHandler
@@ -86,18 +89,90 @@ public class FetchTopicMessageRequestHandler implements JoyQueueCommandHandler,
             return BooleanAck.build(JoyQueueCode.FW_CONNECTION_NOT_EXISTS.getCode());
         }
 
-        boolean isNeedLongPoll = fetchTopicMessageRequest.getTopics().size() == 1 && fetchTopicMessageRequest.getLongPollTimeout() > 0;
-        Map<String, FetchTopicMessageAckData> result = Maps.newHashMapWithExpectedSize(fetchTopicMessageRequest.getTopics().size());
-        Traffic traffic = new Traffic(fetchTopicMessageRequest.getApp());
+        FetchContext fetchContext = new FetchContext(transport, command, connection);
+        fetchContext.fetchNext();
+        // 有主题需要从磁盘读取时异步应答
+        return fetchContext.async ? null : fetchContext.response;
+    }
+
+    /**
+     * 一次拉取请求的上下文，按顺序逐个拉取主题。
+     * 消息都在内存中时在当前线程中完成拉取，否则在存储的读取线程中继续拉取后续主题并应答。
+     */
+    private class FetchContext {
+        private final Transport transport;
+        private final Command command;
+        private final FetchTopicMessageRequest fetchTopicMessageRequest;
+        private final Connection connection;
+        private final boolean isNeedLongPoll;
+        private final Map<String, FetchTopicMessageAckData> result;
+        private final Traffic traffic;
+        private final Iterator<Map.Entry<String, FetchTopicMessageData>> topicIterator;
 
-        for (Map.Entry<String, FetchTopicMessageData> entry : fetchTopicMessageRequest.getTopics().entrySet()) {
-            String topic = entry.getKey();
+        private volatile boolean async = false;
+        private Command response;
+
+        FetchContext(Transport transport, Command command, Connection connection) {
+            this.transport = transport;
+            this.command = command;
+            this.fetchTopicMessageRequest = (FetchTopicMessageRequest) command.getPayload();
+            this.connection = connection;
+            this.isNeedLongPoll = fetchTopicMessageRequest.getTopics().size() == 1 && fetchTopicMessageRequest.getLongPollTimeout() > 0;
+            this.result = Maps.newHashMapWithExpectedSize(fetchTopicMessageRequest.getTopics().size());
+            this.traffic = new Traffic(fetchTopicMessageRequest.getApp());
+            this.topicIterator = fetchTopicMessageRequest.getTopics().entrySet().iterator();
+        }
+
+        void fetchNext() {
+            // 长轮询挂起或者异常时，释放已经拉取到的消息持有的缓存页
+            try {
+                while (topicIterator.hasNext()) {
+                    Map.Entry<String, FetchTopicMessageData> entry = topicIterator.next();
+                    Consumer consumer = getConsumer(entry.getKey());
+                    if (consumer == null) {
+                        continue;
+                    }
+
+                    FetchTopicMessageData fetchTopicMessageData = entry.getValue();
+                    CompletableFuture<FetchTopicMessageAckData> future = fetchMessage(transport, consumer, fetchTopicMessageData.getCount(), fetchTopicMessageRequest.getAckTimeout());
+                    if (!future.isDone()) {
+                        async = true;
+                        future.thenAccept(fetchTopicMessageAckData -> {
+                            try {
+                                if (onFetched(consumer, fetchTopicMessageData, fetchTopicMessageAckData)) {
+                                    fetchNext();
+                                }
+                            } catch (Exception e) {
+                                onException(e);
+                            }
+                        });
+                        return;
+                    }
+                    if (!onFetched(consumer, fetchTopicMessageData, future.join())) {
+                        return;
+                    }
+                }
+            } catch (RuntimeException e) {
+                if (!async) {
+                    release(result);
+                    throw e;
+                }
+                onException(e);
+                return;
+            }
+            complete();
+        }
+
+        /**
+         * 检查主题是否可以读取，不能读取时写入主题应答并返回null
+         */
+        private Consumer getConsumer(String topic) {
             BooleanResponse checkResult = clusterManager.checkReadable(TopicName.parse(topic), fetchTopicMessageRequest.getApp(), connection.getHost());
             if (!checkResult.isSuccess()) {
                 logger.warn("checkReadable failed, transport: {}, topic: {}, app: {}, code: {}", transport, topic, fetchTopicMessageRequest.getApp(), checkResult.getJoyQueueCode());
                 result.put(topic, new FetchTopicMessageAckData(CheckResultConverter.convertFetchCode(command.getHeader().getVersion(), checkResult.getJoyQueueCode())));
                 traffic.record(topic, 0);
-                continue;
+                return null;
             }
 
             String consumerId = connection.getConsumer(topic, fetchTopicMessageRequest.getApp());
@@ -106,47 +181,89 @@ public class FetchTopicMessageRequestHandler implements JoyQueueCommandHandler,
             if (consumer == null) {
                 logger.warn("connection is not exists, transport: {}, app: {}, topics: {}", transport, fetchTopicMessageRequest.getApp(), fetchTopicMessageRequest.getTopics().keySet());
                 result.put(topic, new FetchTopicMessageAckData(CheckResultConverter.convertFetchCode(command.getHeader().getVersion(), JoyQueueCode.FW_CONSUMER_NOT_EXISTS)));
-                continue;
             }
+            return consumer;
+        }
 
-            FetchTopicMessageData fetchTopicMessageData = entry.getValue();
-            FetchTopicMessageAckData fetchTopicMessageAckData = fetchMessage(transport, consumer, fetchTopicMessageData.getCount(), fetchTopicMessageRequest.getAckTimeout());
+        /**
+         * 处理一个主题拉取到的消息
+         * @return 是否继续拉取，长轮询挂起时返回false，由长轮询应答
+         */
+        private boolean onFetched(Consumer consumer, FetchTopicMessageData fetchTopicMessageData, FetchTopicMessageAckData fetchTopicMessageAckData) {
+            result.put(consumer.getTopic(), fetchTopicMessageAckData);
 
             if (isNeedLongPoll && CollectionUtils.isEmpty(fetchTopicMessageAckData.getBuffers()) && clusterManager.isNeedLongPull(consumer.getTopic())) {
                 if (longPollingManager.suspend(new LongPolling(consumer, fetchTopicMessageData.getCount(), fetchTopicMessageRequest.getAckTimeout(),
                         fetchTopicMessageRequest.getLongPollTimeout(), new FetchTopicMessageLongPollCallback(fetchTopicMessageRequest, command, transport)))) {
-                    return null;
+                    release(result);
+                    return false;
                 }
             }
 
-            traffic.record(topic, fetchTopicMessageAckData.getSize());
-            result.put(topic, fetchTopicMessageAckData);
+            traffic.record(consumer.getTopic(), fetchTopicMessageAckData.getSize());
+            return true;
         }
 
-        FetchTopicMessageResponse fetchTopicMessageResponse = new FetchTopicMessageResponse();
-        fetchTopicMessageResponse.setTraffic(traffic);
-        fetchTopicMessageResponse.setData(result);
-        return new Command(fetchTopicMessageResponse);
+        private void onException(Exception e) {
+            logger.error("fetchTopicMessage exception, transport: {}, app: {}", transport, fetchTopicMessageRequest.getApp(), e);
+            release(result);
+            transport.acknowledge(command, BooleanAck.build(JoyQueueCode.CN_UNKNOWN_ERROR.getCode()));
+        }
+
+        private void complete() {
+            FetchTopicMessageResponse fetchTopicMessageResponse = new FetchTopicMessageResponse();
+            fetchTopicMessageResponse.setTraffic(traffic);
+            fetchTopicMessageResponse.setData(result);
+            Command response = new Command(fetchTopicMessageResponse);
+
+            if (async) {
+                transport.acknowledge(command, response);
+            } else {
+                this.response = response;
+            }
+        }
+    }
+
+    private void release(Map<String, FetchTopicMessageAckData> result) {
+        for (FetchTopicMessageAckData fetchTopicMessageAckData : result.values()) {
+            fetchTopicMessageAckData.release();
+        }
     }
 
-    protected FetchTopicMessageAckData fetchMessage(Transport transport, Consumer consumer, int count, int ackTimeout) {
-        FetchTopicMessageAckData fetchTopicMessageAckData = new FetchTopicMessageAckData();
-        fetchTopicMessageAckData.setBuffers(Collections.emptyList());
+    /**
+     * 拉取一个主题的消息，结果不会以异常结束
+     */
+    protected CompletableFuture<FetchTopicMessageAckData> fetchMessage(Transport transport, Consumer consumer, int count, int ackTimeout) {
+        CompletableFuture<PullResult> pullFuture;
         try {
-            PullResult pullResult = consume.getMessage(consumer, count, ackTimeout);
-            if (!pullResult.getCode().equals(JoyQueueCode.SUCCESS)) {
-                logger.error("fetchTopicMessage exception, transport: {}, consumer: {}, count: {}", transport, consumer, count);
-            }
-            fetchTopicMessageAckData.setBuffers(pullResult.getBuffers());
-            fetchTopicMessageAckData.setCode(pullResult.getCode());
-        } catch (JoyQueueException e) {
-            logger.error("fetchTopicMessage exception, transport: {}, consumer: {}, count: {}", transport, consumer, count, e);
-            fetchTopicMessageAckData.setCode(JoyQueueCode.valueOf(e.getCode()));
+            pullFuture = consume.getMessageAsync(consumer, count, ackTimeout);
         } catch (Exception e) {
-            logger.error("fetchTopicMessage exception, transport: {}, consumer: {}, count: {}", transport, consumer, count, e);
-            fetchTopicMessageAckData.setCode(JoyQueueCode.CN_UNKNOWN_ERROR);
+            pullFuture = new CompletableFuture<>();
+            pullFuture.completeExceptionally(e);
         }
-        return fetchTopicMessageAckData;
+        return pullFuture.handle((pullResult, t) -> {
+            FetchTopicMessageAckData fetchTopicMessageAckData = new FetchTopicMessageAckData();
+            fetchTopicMessageAckData.setBuffers(Collections.emptyList());
+            if (null == t) {
+                if (!pullResult.getCode().equals(JoyQueueCode.SUCCESS)) {
+                    logger.error("fetchTopicMessage exception, transport: {}, consumer: {}, count: {}", transport, consumer, count);
+                }
+                fetchTopicMessageAckData.setBuffers(pullResult.getBuffers());
+                fetchTopicMessageAckData.setCode(pullResult.getCode());
+                fetchTopicMessageAckData.setReleasable(pullResult);
+                return fetchTopicMessageAckData;
+            }
+            if (t instanceof CompletionException && null != t.getCause()) {
+                t = t.getCause();
+            }
+            logger.error("fetchTopicMessage exception, transport: {}, consumer: {}, count: {}", transport, consumer, count, t);
+            if (t instanceof JoyQueueException) {
+                fetchTopicMessageAckData.setCode(JoyQueueCode.valueOf(((JoyQueueException) t).getCode()));
+            } else {
+                fetchTopicMessageAckData.setCode(JoyQueueCode.CN_UNKNOWN_ERROR);
+            }
+            return fetchTopicMessageAckData;
+        });
     }
 
     @Override
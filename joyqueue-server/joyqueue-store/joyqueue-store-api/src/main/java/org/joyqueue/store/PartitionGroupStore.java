@@ -19,6 +19,7 @@ import org.joyqueue.toolkit.concurrent.EventListener;
 
 import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Future;
 
 /**
@@ -59,6 +60,14 @@ public interface PartitionGroupStore {
      **/
     long clean(long time, Map<Short, Long> partitionAckMap, boolean keepUnconsumed) throws IOException;
 
+    /**
+     * 按业务ID压实已经写满的日志文件，每个业务ID只保留最新的一条消息，消息的索引不变。
+     * 被删除的消息替换为占位消息，见{@link org.joyqueue.store.message.CompactedMessageParser}。
+     * @param tombstoneBefore 存储时间早于tombstoneBefore的删除标记也被删除
+     * @return 压实删除的消息长度
+     */
+    long compact(long tombstoneBefore) throws IOException;
+
     /**
      * 获取分区当前的最小索引，用于初始化消费
      * @param partition 分区
@@ -118,5 +127,44 @@ public interface PartitionGroupStore {
      */
     ReadResult read(short partition, long index, int count, long maxSize) throws IOException;
 
+    /**
+     * 零拷贝读取消息，返回的消息是存储缓存页的只读切片，参数同{@link #read(short, long, int, long)}。
+     * 消息使用完毕后必须调用{@link ReadResult#release()}释放，释放之前缓存页不会被卸载或回收。
+     * @see ReadResult#release()
+     */
+    default ReadResult readPinned(short partition, long index, int count, long maxSize) throws IOException {
+        return read(partition, index, count, maxSize);
+    }
+
+    /**
+     * 异步读取消息，参数同{@link #read(short, long, int, long)}。
+     * 需要从磁盘加载数据时在存储的读取线程中执行，不阻塞调用线程；数据已经在内存中时直接在调用线程中完成。
+     * @return 读取结果，读取失败时以异常结束
+     */
+    default CompletableFuture<ReadResult> readAsync(short partition, long index, int count, long maxSize) {
+        CompletableFuture<ReadResult> future = new CompletableFuture<>();
+        try {
+            future.complete(read(partition, index, count, maxSize));
+        } catch (Throwable t) {
+            future.completeExceptionally(t);
+        }
+        return future;
+    }
+
+    /**
+     * 异步零拷贝读取消息，参数同{@link #readAsync(short, long, int, long)}。
+     * 消息使用完毕后必须调用{@link ReadResult#release()}释放。
+     * @see #readPinned(short, long, int, long)
+     */
+    default CompletableFuture<ReadResult> readPinnedAsync(short partition, long index, int count, long maxSize) {
+        CompletableFuture<ReadResult> future = new CompletableFuture<>();
+        try {
+            future.complete(readPinned(partition, index, count, maxSize));
+        } catch (Throwable t) {
+            future.completeExceptionally(t);
+        }
+        return future;
+    }
+
 
 }
@@ -70,6 +70,10 @@ public interface StoreManagementService {
     byte [][] readMessages(String topic, int partitionGroup, long position, int count);
     byte [][] readMessages(String topic, short partition, long index, int count);
     byte [][] readMessages(File file, long position, int count, boolean includeFileHeader);
+    /**
+     * 根据业务ID读取消息，需要开启业务ID索引
+     */
+    byte [][] readMessagesByBizId(String topic, String bizId);
     /**
      * 读取索引
      */
@@ -114,6 +118,8 @@ public interface StoreManagementService {
         private PartitionMetric [] partitionMetrics;
         // 最小位置、最大位置、已索引位置、刷盘位置、复制位置
         private long leftPosition, rightPosition, indexPosition, flushPosition, replicationPosition;
+        // 后台校验的位置、第一条损坏消息的位置（-1表示没有损坏）、累计发现损坏的次数
+        private long scrubPosition, corruptPosition = -1L, corruptCount;
 
         public int getPartitionGroup() {
             return partitionGroup;
@@ -170,6 +176,30 @@ public interface StoreManagementService {
         public void setReplicationPosition(long replicationPosition) {
             this.replicationPosition = replicationPosition;
         }
+
+        public long getScrubPosition() {
+            return scrubPosition;
+        }
+
+        public void setScrubPosition(long scrubPosition) {
+            this.scrubPosition = scrubPosition;
+        }
+
+        public long getCorruptPosition() {
+            return corruptPosition;
+        }
+
+        public void setCorruptPosition(long corruptPosition) {
+            this.corruptPosition = corruptPosition;
+        }
+
+        public long getCorruptCount() {
+            return corruptCount;
+        }
+
+        public void setCorruptCount(long corruptCount) {
+            this.corruptCount = corruptCount;
+        }
     }
 
     class PartitionMetric {
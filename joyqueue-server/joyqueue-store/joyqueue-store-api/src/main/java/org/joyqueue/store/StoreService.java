@@ -127,6 +127,23 @@ public interface StoreService {
 
     ReplicableStore getReplicableStore(String topic, int partitionGroup);
 
+    /**
+     * 数据目录的数量
+     * @return 配置的数据目录数量，至少为1
+     */
+    int dataDirectoryCount();
+
+    /**
+     * 把Partition group迁移到另一个数据目录。迁移期间Partition group停止服务，
+     * 迁移完成后需要重新获取{@link PartitionGroupStore}和{@link ReplicableStore}实例。
+     * @throws NoSuchPartitionGroupException PartitionGroup不存在时抛出此异常
+     * @throws IOException 复制文件异常时抛出，此时Partition group仍然在原来的目录中
+     * @param topic Topic
+     * @param partitionGroup Partition group
+     * @param dataPath 目标数据目录，必须是已配置的数据目录之一
+     */
+    void movePartitionGroup(String topic, int partitionGroup, String dataPath) throws IOException;
+
     /**
      * 获取管理接口 {@link StoreManagementService} 实例
      * @return {@link StoreManagementService} 实例
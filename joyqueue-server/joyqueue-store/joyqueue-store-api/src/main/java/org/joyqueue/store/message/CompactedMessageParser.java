@@ -0,0 +1,110 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.store.message;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * 日志压实消息解析器。
+ * 压实时被删除的消息替换为占位消息：长度、分区、索引和任期不变，消息体全为0，其余变长属性为空，
+ * 这样消息在日志中的位置和分区索引都不变，占位消息在文件中只需要写入头部，其余部分是文件空洞。
+ */
+public class CompactedMessageParser {
+    /**
+     * 占位消息标志位在消息中第几个字节（Byte）
+     */
+    private static final int COMPACTED_FLAG_BYTE_INDEX = MessageParser.SYS;
+    /**
+     * 占位消息标志位在字节(Byte)中第几位，批消息标志位是第4位
+     */
+    private static final int COMPACTED_FLAG_BIT_INDEX = 5;
+    /**
+     * 压缩标志位在SYS的低位字节中
+     */
+    private static final int COMPRESSED_FLAG_BYTE_INDEX = MessageParser.SYS + 1;
+    private static final int COMPRESSED_FLAG_BIT_INDEX = 0;
+    // 消息体长度字段之后，其余变长属性为空时长度字段的总长度
+    private static final int EMPTY_TAIL_LENGTH;
+    private static final byte[] ZEROS = new byte[4096];
+
+    static {
+        byte[][] empty = new byte[MessageParser.getVariableAttributesCount()][0];
+        EMPTY_TAIL_LENGTH = MessageParser.build(empty).remaining() - MessageParser.getFixedAttributesLength() - Integer.BYTES;
+    }
+
+    public static boolean isCompacted(ByteBuffer msg) {
+        return 1 == MessageParser.getBit(msg, COMPACTED_FLAG_BYTE_INDEX, COMPACTED_FLAG_BIT_INDEX);
+    }
+
+    public static void setCompacted(ByteBuffer msg, boolean compacted) {
+        MessageParser.setBit(msg, COMPACTED_FLAG_BYTE_INDEX, COMPACTED_FLAG_BIT_INDEX, compacted);
+    }
+
+    /**
+     * 删除标记：有业务ID，消息体为空的消息。压实后这个业务ID之前的消息都被删除，删除标记保留一段时间后也被删除。
+     */
+    public static boolean isTombstone(ByteBuffer msg) {
+        return MessageParser.getByteBuffer(msg, MessageParser.BODY).remaining() == 0
+                && MessageParser.getByteBuffer(msg, MessageParser.BIZ_ID).remaining() > 0;
+    }
+
+    /**
+     * 生成替换msg的占位消息的头部，包括定长属性和消息体长度，头部之后的数据全为0。
+     *
+     * @return 占位消息的头部，消息太短无法替换时返回null
+     */
+    public static ByteBuffer placeholderHeader(ByteBuffer msg) {
+        int fixedLength = MessageParser.getFixedAttributesLength();
+        int bodyLength = msg.remaining() - fixedLength - Integer.BYTES - EMPTY_TAIL_LENGTH;
+        if (bodyLength <= 0) {
+            // 消息体为空的消息无法通过CRC校验，不能作为占位消息
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.allocate(fixedLength + Integer.BYTES);
+        ByteBuffer fixed = msg.slice();
+        fixed.limit(fixedLength);
+        header.put(fixed).putInt(bodyLength).flip();
+
+        setCompacted(header, true);
+        BatchMessageParser.setBatch(header, false);
+        MessageParser.setBit(header, COMPRESSED_FLAG_BYTE_INDEX, COMPRESSED_FLAG_BIT_INDEX, false);
+        CRC32 crc32 = new CRC32();
+        for (int remaining = bodyLength; remaining > 0; remaining -= ZEROS.length) {
+            crc32.update(ZEROS, 0, Math.min(remaining, ZEROS.length));
+        }
+        MessageParser.setLong(header, MessageParser.CRC, crc32.getValue());
+        return header;
+    }
+
+    /**
+     * 把占位消息转换成消息体为空的消息返回给消费者，定长属性不变，仍然带有占位消息标志。
+     * 占位消息的消息体全为0，不能作为真实的消息返回。
+     *
+     * @return 消息体和其余变长属性都为空的新消息
+     */
+    public static ByteBuffer toEmptyMessage(ByteBuffer msg) {
+        int fixedLength = MessageParser.getFixedAttributesLength();
+        ByteBuffer empty = MessageParser.build(new byte[MessageParser.getVariableAttributesCount()][0]);
+        ByteBuffer fixed = msg.slice();
+        fixed.limit(fixedLength);
+        empty.duplicate().put(fixed);
+        MessageParser.setInt(empty, MessageParser.LENGTH, empty.remaining());
+        // 空消息体的CRC
+        MessageParser.setLong(empty, MessageParser.CRC, new CRC32().getValue());
+        return empty;
+    }
+}
@@ -77,6 +77,8 @@ public class MessageParser {
 
     public static int getFixedAttributesLength(){return firstVarOffset;}
 
+    public static int getVariableAttributesCount(){return attributes.length - firstVarIndex;}
+
     public static byte getByte(ByteBuffer messageBuffer, int offset){
         return messageBuffer.get(messageBuffer.position() + offset);
     }
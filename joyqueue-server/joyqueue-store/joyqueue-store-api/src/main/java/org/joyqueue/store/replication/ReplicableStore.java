@@ -16,9 +16,11 @@
 package org.joyqueue.store.replication;
 
 import org.joyqueue.store.ReadException;
+import org.joyqueue.toolkit.buffer.RByteBuffer;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.List;
 import java.util.concurrent.TimeoutException;
 
 /**
@@ -132,4 +134,53 @@ public interface ReplicableStore {
      */
     int getEntryTerm(long position) throws IOException;
 
+    /**
+     * LEADER 生成用于初始化副本的快照：已经写满、刷盘并且建立了索引的消息日志文件，和所有分区的索引文件。
+     * 快照的结束位置是最后一个消息日志文件的结束位置。
+     * @return 按传输顺序排列的快照文件，消息日志文件在前。没有可用的快照时返回空列表。
+     * @throws IOException 发生IO错误
+     */
+    List<SnapshotFile> snapshotFiles() throws IOException;
+
+    /**
+     * LEADER 读取快照文件的原始数据，不按日志边界截断。
+     * 零拷贝读取，返回缓存页的只读切片，数据发送之后必须调用{@link RByteBuffer#release()}释放。
+     * @param file 快照文件
+     * @param offset 相对文件数据起始位置的偏移量
+     * @param length 最大长度
+     * @return 读取的数据，长度不超过文件剩余的长度
+     * @throws IOException 文件已经被删除，或者发生IO错误
+     */
+    RByteBuffer readSnapshotFile(SnapshotFile file, long offset, int length) throws IOException;
+
+    /**
+     * FOLLOWER 把收到的快照数据写入临时目录，不影响当前的存储。
+     * @param file 快照文件
+     * @param offset 相对文件数据起始位置的偏移量，0表示文件的第一段数据
+     * @param data 数据
+     * @throws IOException 发生IO错误
+     */
+    void writeSnapshotFile(SnapshotFile file, long offset, ByteBuffer data) throws IOException;
+
+    /**
+     * FOLLOWER 清空临时目录中未安装的快照数据，开始接收新的快照之前调用。
+     * @throws IOException 发生IO错误
+     */
+    void clearSnapshot() throws IOException;
+
+    /**
+     * FOLLOWER 用临时目录中的快照替换当前存储的所有数据，截断{@code position}之后的索引。
+     * @param position 快照的结束位置，安装完成后{@link #rightPosition()}等于这个位置
+     * @throws IOException 快照不完整，或者发生IO错误
+     */
+    void installSnapshot(long position) throws IOException;
+
+    /**
+     * 后台校验发现的第一条损坏日志的起始位置，没有发现损坏时返回-1。
+     * FOLLOWER 截断到这个位置后从 LEADER 重新复制。
+     */
+    default long corruptPosition() {
+        return -1L;
+    }
+
 }
@@ -0,0 +1,104 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.store.replication;
+
+/**
+ * 快照中的一个文件：消息日志文件或者分区索引文件。
+ * 快照只传输文件的数据部分，文件头由接收方根据创建时间重新生成。
+ */
+public class SnapshotFile {
+    /**
+     * 消息日志文件的分区号
+     */
+    public static final short JOURNAL = -1;
+
+    // 消息日志文件为JOURNAL，索引文件为所属的分区
+    private short partition;
+    // 文件的起始位置，也就是文件名
+    private long position;
+    // 文件的创建时间
+    private long timestamp;
+    // 需要传输的数据长度，不含文件头
+    private long length;
+    // 索引文件是否为紧凑格式
+    private boolean compactIndex;
+
+    public SnapshotFile() {
+    }
+
+    public SnapshotFile(short partition, long position, long timestamp, long length, boolean compactIndex) {
+        this.partition = partition;
+        this.position = position;
+        this.timestamp = timestamp;
+        this.length = length;
+        this.compactIndex = compactIndex;
+    }
+
+    public boolean isJournal() {
+        return partition == JOURNAL;
+    }
+
+    public short getPartition() {
+        return partition;
+    }
+
+    public void setPartition(short partition) {
+        this.partition = partition;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    public void setPosition(long position) {
+        this.position = position;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public void setLength(long length) {
+        this.length = length;
+    }
+
+    public boolean isCompactIndex() {
+        return compactIndex;
+    }
+
+    public void setCompactIndex(boolean compactIndex) {
+        this.compactIndex = compactIndex;
+    }
+
+    @Override
+    public String toString() {
+        return "SnapshotFile{" +
+                "partition=" + partition +
+                ", position=" + position +
+                ", timestamp=" + timestamp +
+                ", length=" + length +
+                ", compactIndex=" + compactIndex +
+                '}';
+    }
+}
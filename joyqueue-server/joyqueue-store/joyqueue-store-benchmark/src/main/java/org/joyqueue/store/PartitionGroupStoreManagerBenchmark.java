@@ -0,0 +1,218 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.store;
+
+import org.joyqueue.domain.QosLevel;
+import org.joyqueue.store.file.PositioningStore;
+import org.joyqueue.store.utils.MessageUtils;
+import org.joyqueue.store.utils.PreloadBufferPool;
+import org.joyqueue.toolkit.concurrent.LoopThread;
+import org.joyqueue.toolkit.time.SystemClock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.joyqueue.store.PartitionGroupStoreManager.Config.DEFAULT_FLUSH_INTERVAL_MS;
+import static org.joyqueue.store.PartitionGroupStoreManager.Config.DEFAULT_MAX_DIRTY_SIZE;
+import static org.joyqueue.store.PartitionGroupStoreManager.Config.DEFAULT_MAX_MESSAGE_LENGTH;
+import static org.joyqueue.store.PartitionGroupStoreManager.Config.DEFAULT_PRINT_METRIC_INTERVAL_MS;
+import static org.joyqueue.store.PartitionGroupStoreManager.Config.DEFAULT_WRITE_REQUEST_CACHE_SIZE;
+import static org.joyqueue.store.PartitionGroupStoreManager.Config.DEFAULT_WRITE_TIMEOUT_MS;
+
+/**
+ * 分区组写入和读取的基准测试。
+ * 写入时后台线程模拟复制提交，并按文件删除已写入的数据，避免占满磁盘。
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class PartitionGroupStoreManagerBenchmark {
+    private static final Logger logger = LoggerFactory.getLogger(PartitionGroupStoreManagerBenchmark.class);
+    private static final String TOPIC = "benchmark_topic";
+    private static final int PARTITION_GROUP = 0;
+    private static final int MESSAGE_FILE_SIZE = 128 * 1024 * 1024;
+    private static final int INDEX_FILE_SIZE = 512 * 1024;
+    // 读取测试预先写入每个分区的消息数
+    private static final int READ_MESSAGE_COUNT = 100000;
+    private static final long PREPARE_TIMEOUT_MS = 60000L;
+
+    @State(Scope.Benchmark)
+    public static class WriteState {
+        @Param({"1024"})
+        int messageSize;
+
+        @Param({"1", "8"})
+        int partitionCount;
+
+        @Param({"RECEIVE", "PERSISTENCE", "REPLICATION"})
+        QosLevel qosLevel;
+
+        StoreContext context;
+        QosStore qosStore;
+        ByteBuffer message;
+        private LoopThread cleanThread;
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            context = new StoreContext(partitionCount);
+            qosStore = context.store.getQosStore(qosLevel);
+            message = MessageUtils.build(1, messageSize).get(0);
+
+            Map<Short, Long> ackMap = new HashMap<>();
+            for (short partition : context.partitions) {
+                ackMap.put(partition, Long.MAX_VALUE);
+            }
+            cleanThread = LoopThread.builder()
+                    .name("CleanThread-" + TOPIC)
+                    .doWork(() -> context.store.clean(0L, ackMap, false))
+                    .sleepTime(1000L, 1000L)
+                    .onException(e -> logger.warn("Clean exception: ", e))
+                    .build();
+            cleanThread.start();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            cleanThread.stop();
+            context.destroy();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class ReadState {
+        @Param({"1024"})
+        int messageSize;
+
+        @Param({"1", "8"})
+        int partitionCount;
+
+        @Param({"1", "32"})
+        int batchCount;
+
+        StoreContext context;
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            context = new StoreContext(partitionCount);
+            ByteBuffer message = MessageUtils.build(1, messageSize).get(0);
+            QosStore qosStore = context.store.getQosStore(QosLevel.PERSISTENCE);
+            for (short partition : context.partitions) {
+                for (int i = 0; i < READ_MESSAGE_COUNT; i++) {
+                    qosStore.asyncWrite(new WriteRequest(partition, message.duplicate()));
+                }
+            }
+            // 等待所有消息建好索引
+            long t0 = SystemClock.now();
+            for (short partition : context.partitions) {
+                while (context.store.getRightIndex(partition) < READ_MESSAGE_COUNT) {
+                    if (SystemClock.now() - t0 > PREPARE_TIMEOUT_MS) {
+                        throw new TimeoutException("Prepare messages timeout!");
+                    }
+                    Thread.sleep(10L);
+                }
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            context.destroy();
+        }
+    }
+
+    /**
+     * 临时目录中的分区组存储，后台线程持续提交写入的消息。
+     */
+    static class StoreContext {
+        final File base;
+        final short[] partitions;
+        final PartitionGroupStoreManager store;
+        private final LoopThread commitThread;
+
+        StoreContext(int partitionCount) throws Exception {
+            PreloadBufferPool bufferPool = PreloadBufferPool.getInstance();
+            bufferPool.addPreLoad(MESSAGE_FILE_SIZE, 2, 4);
+            bufferPool.addPreLoad(INDEX_FILE_SIZE, 2, 4);
+
+            partitions = new short[partitionCount];
+            for (short i = 0; i < partitionCount; i++) {
+                partitions[i] = i;
+            }
+            base = BenchmarkSupport.createTempDir("partition-group");
+            File groupBase = new File(base, String.valueOf(PARTITION_GROUP));
+            PartitionGroupStoreSupport.init(groupBase, partitions);
+
+            PartitionGroupStoreManager.Config config = new PartitionGroupStoreManager.Config(DEFAULT_MAX_MESSAGE_LENGTH,
+                    DEFAULT_WRITE_REQUEST_CACHE_SIZE, DEFAULT_FLUSH_INTERVAL_MS, DEFAULT_WRITE_TIMEOUT_MS, DEFAULT_MAX_DIRTY_SIZE,
+                    DEFAULT_PRINT_METRIC_INTERVAL_MS, new PositioningStore.Config(MESSAGE_FILE_SIZE), new PositioningStore.Config(INDEX_FILE_SIZE));
+            store = new PartitionGroupStoreManager(TOPIC, PARTITION_GROUP, groupBase, config, bufferPool);
+            store.recover();
+            store.start();
+            store.enable();
+
+            commitThread = LoopThread.builder()
+                    .name("CommitThread-" + TOPIC)
+                    .doWork(() -> store.commit(store.rightPosition()))
+                    .sleepTime(0L, 1L)
+                    .onException(e -> logger.warn("Commit exception: ", e))
+                    .build();
+            commitThread.start();
+        }
+
+        void destroy() {
+            commitThread.stop();
+            store.disable();
+            store.stop();
+            store.close();
+            BenchmarkSupport.deleteFolder(base);
+        }
+    }
+
+    @Benchmark
+    public WriteResult write(WriteState state) throws Exception {
+        short partition = state.context.partitions[ThreadLocalRandom.current().nextInt(state.partitionCount)];
+        return state.qosStore.asyncWrite(new WriteRequest(partition, state.message.duplicate())).get();
+    }
+
+    @Benchmark
+    public ReadResult read(ReadState state) throws IOException {
+        short partition = state.context.partitions[ThreadLocalRandom.current().nextInt(state.partitionCount)];
+        long index = ThreadLocalRandom.current().nextInt(READ_MESSAGE_COUNT - state.batchCount);
+        return state.context.store.read(partition, index, state.batchCount, 0L);
+    }
+}
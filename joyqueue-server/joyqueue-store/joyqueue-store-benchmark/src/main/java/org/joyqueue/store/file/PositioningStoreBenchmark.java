@@ -0,0 +1,126 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.store.file;
+
+import org.joyqueue.store.BenchmarkSupport;
+import org.joyqueue.store.utils.MessageUtils;
+import org.joyqueue.store.utils.PreloadBufferPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PositioningStore追加写和批量读的基准测试
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class PositioningStoreBenchmark {
+    private static final int FILE_DATA_SIZE = 128 * 1024 * 1024;
+    // 未刷盘数据超过这个大小时同步刷盘
+    private static final long MAX_DIRTY_SIZE = 10 * 1024 * 1024;
+    // 追加写的文件总大小超过这个大小时删除最左侧的文件
+    private static final long MAX_PHYSICAL_SIZE = 4L * FILE_DATA_SIZE;
+    // 批量读预先写入的消息数
+    private static final int READ_MESSAGE_COUNT = 100000;
+
+    @Param({"128", "1024", "16384"})
+    private int messageSize;
+
+    @Param({"1", "32"})
+    private int batchCount;
+
+    private File base;
+    private PositioningStore<ByteBuffer> appendStore;
+    private PositioningStore<ByteBuffer> readStore;
+    private ByteBuffer message;
+    private long[] positions;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        PreloadBufferPool bufferPool = PreloadBufferPool.getInstance();
+        bufferPool.addPreLoad(FILE_DATA_SIZE, 2, 4);
+        base = BenchmarkSupport.createTempDir("positioning-store");
+        message = MessageUtils.build(1, messageSize).get(0);
+
+        appendStore = createStore(new File(base, "append"), bufferPool);
+
+        readStore = createStore(new File(base, "read"), bufferPool);
+        positions = new long[READ_MESSAGE_COUNT];
+        for (int i = 0; i < READ_MESSAGE_COUNT; i++) {
+            positions[i] = readStore.right();
+            readStore.append(message);
+        }
+        while (readStore.flushPosition() < readStore.right()) {
+            readStore.flush();
+        }
+    }
+
+    private PositioningStore<ByteBuffer> createStore(File dir, PreloadBufferPool bufferPool) throws IOException {
+        if (!dir.mkdirs()) {
+            throw new IOException("Create directory failed: " + dir.getAbsolutePath());
+        }
+        PositioningStore<ByteBuffer> store = new PositioningStore<>(dir,
+                new PositioningStore.Config(FILE_DATA_SIZE), bufferPool, new StoreMessageSerializer(messageSize * 2L + 1024));
+        store.recover();
+        return store;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        appendStore.close();
+        readStore.close();
+        BenchmarkSupport.deleteFolder(base);
+    }
+
+    @Benchmark
+    public long append() throws IOException {
+        long position = appendStore.append(message);
+        if (position - appendStore.flushPosition() > MAX_DIRTY_SIZE) {
+            appendStore.flush();
+        }
+        if (appendStore.physicalSize() > MAX_PHYSICAL_SIZE) {
+            appendStore.physicalDeleteLeftFile();
+        }
+        return position;
+    }
+
+    @Benchmark
+    public List<ByteBuffer> batchRead() throws IOException {
+        int index = ThreadLocalRandom.current().nextInt(READ_MESSAGE_COUNT - batchCount);
+        return readStore.batchRead(positions[index], batchCount);
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.store.file;
+
+import org.joyqueue.store.BenchmarkSupport;
+import org.joyqueue.store.utils.PreloadBufferPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 比较StoreFile使用MappedByteBuffer和DirectBuffer两种缓存页时的随机读性能。
+ * direct：写入后的文件，缓存页是写入时分配的DirectBuffer；
+ * mmap：重新打开的只读文件，缓存页是MappedByteBuffer。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class StoreFileBenchmark {
+    private static final int FILE_DATA_SIZE = 64 * 1024 * 1024;
+    private static final int FILE_HEADER_SIZE = 128;
+    private static final int WRITE_BLOCK_SIZE = 1024 * 1024;
+
+    @Param({"mmap", "direct"})
+    private String bufferType;
+
+    @Param({"1024", "65536"})
+    private int readSize;
+
+    private File base;
+    private StoreFileImpl<ByteBuffer> storeFile;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        PreloadBufferPool bufferPool = PreloadBufferPool.getInstance();
+        bufferPool.addPreLoad(FILE_DATA_SIZE, 1, 2);
+        base = BenchmarkSupport.createTempDir("store-file");
+
+        StoreFileImpl<ByteBuffer> writeFile = createStoreFile(bufferPool);
+        byte[] block = new byte[WRITE_BLOCK_SIZE];
+        ThreadLocalRandom.current().nextBytes(block);
+        for (int i = 0; i < FILE_DATA_SIZE / WRITE_BLOCK_SIZE; i++) {
+            writeFile.appendByteBuffer(ByteBuffer.wrap(block));
+        }
+        while (writeFile.flushPosition() < writeFile.writePosition()) {
+            writeFile.flush();
+        }
+
+        if ("direct".equals(bufferType)) {
+            storeFile = writeFile;
+        } else {
+            writeFile.forceUnload();
+            storeFile = createStoreFile(bufferPool);
+        }
+    }
+
+    private StoreFileImpl<ByteBuffer> createStoreFile(PreloadBufferPool bufferPool) {
+        return new StoreFileImpl<>(0L, base, FILE_HEADER_SIZE, new StoreMessageSerializer(FILE_DATA_SIZE),
+                bufferPool, FILE_DATA_SIZE);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        storeFile.forceUnload();
+        BenchmarkSupport.deleteFolder(base);
+    }
+
+    @Benchmark
+    public ByteBuffer randomRead() throws IOException {
+        int position = ThreadLocalRandom.current().nextInt(FILE_DATA_SIZE - readSize);
+        return storeFile.readByteBuffer(position, readSize);
+    }
+}
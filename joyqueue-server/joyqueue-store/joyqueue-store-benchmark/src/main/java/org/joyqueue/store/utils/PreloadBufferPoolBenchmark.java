@@ -0,0 +1,144 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.store.utils;
+
+import org.joyqueue.store.BenchmarkSupport;
+import org.joyqueue.store.file.PositioningStore;
+import org.joyqueue.store.file.StoreMessageSerializer;
+import org.joyqueue.toolkit.time.SystemClock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓存页分配、回收和淘汰的基准测试。
+ * 缓存总大小通过{@link PreloadBufferPool#MAX_MEMORY_KEY}限制为{@link #MAX_MEMORY}，
+ * 随机读取的文件总大小是它的4倍，读取时会不断淘汰缓存页。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = {"-D" + PreloadBufferPool.MAX_MEMORY_KEY + "=" + PreloadBufferPoolBenchmark.MAX_MEMORY})
+public class PreloadBufferPoolBenchmark {
+    static final String MAX_MEMORY = "256m";
+    private static final long MAX_MEMORY_SIZE = 256L * 1024 * 1024;
+    private static final int MESSAGE_SIZE = 1024;
+
+    @Param({"16777216"})
+    private int fileDataSize;
+
+    private PreloadBufferPool bufferPool;
+    private File base;
+    private PositioningStore<ByteBuffer> store;
+    private BufferHolder bufferHolder;
+    private long[] positions;
+    private int messageCount;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        bufferPool = PreloadBufferPool.getInstance();
+        bufferPool.addPreLoad(fileDataSize, 2, 4);
+        bufferHolder = new DummyBufferHolder(fileDataSize);
+
+        base = BenchmarkSupport.createTempDir("preload-buffer-pool");
+        ByteBuffer message = MessageUtils.build(1, MESSAGE_SIZE).get(0);
+        store = createStore();
+        positions = new long[(int) (4 * MAX_MEMORY_SIZE / MESSAGE_SIZE)];
+        while (store.right() < 4 * MAX_MEMORY_SIZE) {
+            positions[messageCount++] = store.right();
+            store.append(message);
+            if (store.right() - store.flushPosition() >= fileDataSize) {
+                store.flush();
+            }
+        }
+        while (store.flushPosition() < store.right()) {
+            store.flush();
+        }
+        // 重新打开，读取时按需加载文件
+        store.close();
+        store = createStore();
+    }
+
+    private PositioningStore<ByteBuffer> createStore() throws IOException {
+        PositioningStore<ByteBuffer> positioningStore = new PositioningStore<>(base,
+                new PositioningStore.Config(fileDataSize), bufferPool, new StoreMessageSerializer(MESSAGE_SIZE * 2));
+        positioningStore.recover();
+        return positioningStore;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        store.close();
+        BenchmarkSupport.deleteFolder(base);
+    }
+
+    @Benchmark
+    public void allocateAndReleaseDirect() {
+        ByteBuffer buffer = bufferPool.allocateDirect(bufferHolder);
+        bufferPool.releaseDirect(buffer, bufferHolder);
+    }
+
+    @Benchmark
+    public ByteBuffer evictionChurn() throws IOException {
+        return store.read(positions[ThreadLocalRandom.current().nextInt(messageCount)]);
+    }
+
+    private static class DummyBufferHolder implements BufferHolder {
+        private final int size;
+
+        DummyBufferHolder(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean isFree() {
+            return true;
+        }
+
+        @Override
+        public boolean evict() {
+            return false;
+        }
+
+        @Override
+        public long lastAccessTime() {
+            return SystemClock.now();
+        }
+    }
+}
@@ -0,0 +1,303 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.store;
+
+import org.joyqueue.store.file.PositioningStore;
+import org.joyqueue.store.file.StoreFile;
+import org.joyqueue.store.file.StoreFileImpl;
+import org.joyqueue.store.index.BizIdIndex;
+import org.joyqueue.store.message.BatchMessageParser;
+import org.joyqueue.store.message.CompactedMessageParser;
+import org.joyqueue.store.message.MessageParser;
+import org.joyqueue.toolkit.format.Format;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按业务ID(BIZ_ID)压实消息日志：每个业务ID只保留最新的一条消息。
+ * 先扫描上次压实之后新写入的日志（脏区），记录每个业务ID最后一条消息的位置；再逐个重写已经写满并且刷盘的文件，
+ * 被删除的消息替换为长度相同的占位消息，消息的位置和分区索引都不变，复制和消费位置不受影响。
+ * 记录业务ID的表有大小限制，脏区的业务ID超过限制时分多轮压实。
+ * 没有业务ID的消息和批消息不压实。删除标记是所在业务ID的最新消息时，超过保留时间，
+ * 并且之前的文件都已经压实（没有压缩文件，也没有替换失败的文件）之后才删除，避免旧消息重新出现。
+ * 每个分区组一个实例，记录已经压实到的位置。
+ */
+class LogCompactor {
+    private static final Logger logger = LoggerFactory.getLogger(LogCompactor.class);
+    // 一轮压实最多记录的业务ID数量
+    static final int DEFAULT_MAX_ENTRIES = 256 * 1024;
+
+    private final int maxEntries;
+    // 已经压实到的位置，这个位置之前的每条消息，如果之前的位置有相同业务ID的更新的消息，已经被删除
+    private long cleanPosition = 0L;
+    // 上一轮保留的删除标记中最早的存储时间，没有保留删除标记时为Long.MAX_VALUE
+    private long retainedTombstoneTime = Long.MAX_VALUE;
+    // 日志被截断的最小位置，下次压实时从这个位置重新压实，没有截断时为Long.MAX_VALUE
+    private final AtomicLong truncatedPosition = new AtomicLong(Long.MAX_VALUE);
+
+    LogCompactor() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param maxEntries 一轮压实最多记录的业务ID数量
+     */
+    LogCompactor(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * 日志被截断或者替换之后，下次压实时从截断的位置重新压实。不等待正在进行的压实，可以在写入线程中调用。
+     */
+    void reset(long position) {
+        truncatedPosition.accumulateAndGet(position, Math::min);
+    }
+
+    /**
+     * 压实一个分区组的消息日志。没有新写满的文件，也没有到期的删除标记时不压实。
+     *
+     * @param tombstoneBefore 存储时间早于tombstoneBefore的删除标记也被删除
+     * @return 本次压实删除的消息长度
+     */
+    synchronized long compact(PartitionGroupStoreManager manager, long tombstoneBefore) throws IOException {
+        PositioningStore<ByteBuffer> store = manager.messageStore();
+        long indexPosition = manager.indexPosition();
+        List<StoreFile<ByteBuffer>> files = new ArrayList<>();
+        for (StoreFile<ByteBuffer> storeFile : store.sealedFiles(store.left())) {
+            if (storeFile.position() + storeFile.writePosition() > indexPosition) {
+                break;
+            }
+            files.add(storeFile);
+        }
+        if (files.isEmpty()) {
+            return 0L;
+        }
+        StoreFile<ByteBuffer> lastFile = files.get(files.size() - 1);
+        long end = lastFile.position() + lastFile.writePosition();
+        cleanPosition = Math.max(Math.min(cleanPosition, truncatedPosition.getAndSet(Long.MAX_VALUE)), store.left());
+        if (cleanPosition >= end && retainedTombstoneTime >= tombstoneBefore) {
+            return 0L;
+        }
+
+        // 压缩文件不会被压实，其中的旧消息一直存在，之后的删除标记不能删除
+        long compressedBefore = store.firstCompressedPosition();
+
+        long compactedSize = 0L;
+        // 扫描到已经建好索引的位置，没有写满的文件中更新的消息也可以用来删除旧消息
+        long scanPosition = cleanPosition;
+        boolean progress;
+        do {
+            Pass pass = new Pass(store, tombstoneBefore, compressedBefore);
+            pass.scan(scanPosition, indexPosition);
+            progress = pass.scanEnd > scanPosition;
+            scanPosition = pass.scanEnd;
+            for (StoreFile<ByteBuffer> storeFile : files) {
+                if (storeFile.position() >= pass.scanEnd) {
+                    break;
+                }
+                long size = compactFile(store, storeFile, storeFile.writePosition(), pass);
+                if (size < 0) {
+                    // 替换失败的文件中还有没删除的旧消息，下次从这个文件开始重新压实
+                    pass.scanEnd = storeFile.position();
+                    pass.failed = true;
+                } else {
+                    compactedSize += size;
+                }
+            }
+            cleanPosition = Math.min(pass.scanEnd, end);
+            retainedTombstoneTime = pass.retainedTombstoneTime;
+            if (pass.failed) {
+                break;
+            }
+        } while (progress && scanPosition < indexPosition);
+        return compactedSize;
+    }
+
+    /**
+     * 一轮压实的状态
+     */
+    private class Pass {
+        private final PositioningStore<ByteBuffer> store;
+        private final long tombstoneBefore;
+        private final long compressedBefore;
+        // 业务ID哈希 -> 最后一条消息的位置
+        private final Map<Long, Long> latest = new HashMap<>();
+        // 本轮扫描的结束位置，压实之后成为新的压实位置
+        private long scanEnd;
+        // 本轮之前的文件是否有替换失败的
+        private boolean failed = false;
+        private long retainedTombstoneTime = Long.MAX_VALUE;
+
+        Pass(PositioningStore<ByteBuffer> store, long tombstoneBefore, long compressedBefore) {
+            this.store = store;
+            this.tombstoneBefore = tombstoneBefore;
+            this.compressedBefore = compressedBefore;
+        }
+
+        /**
+         * 扫描脏区，业务ID数量达到上限时提前结束
+         */
+        void scan(long start, long end) throws IOException {
+            long position = start;
+            while (position < end) {
+                ByteBuffer message = read(store, position);
+                if (isCompactable(message)) {
+                    long hash = BizIdIndex.hash(MessageParser.getByteBuffer(message, MessageParser.BIZ_ID));
+                    if (latest.size() >= maxEntries && !latest.containsKey(hash)) {
+                        break;
+                    }
+                    latest.put(hash, position);
+                }
+                position += message.remaining();
+            }
+            scanEnd = position;
+        }
+
+        boolean isRemovable(ByteBuffer message, long position) throws IOException {
+            if (position >= scanEnd || !isCompactable(message)) {
+                return false;
+            }
+            ByteBuffer bizId = MessageParser.getByteBuffer(message, MessageParser.BIZ_ID);
+            Long latestPosition = latest.get(BizIdIndex.hash(bizId));
+            if (null == latestPosition || latestPosition <= position) {
+                // 最新的消息只有是过期的删除标记时才删除
+                return isRemovableTombstone(message, position);
+            }
+            // 哈希可能冲突，需要比较两条消息的业务ID
+            ByteBuffer latestMessage = read(store, latestPosition);
+            if (bizId.equals(MessageParser.getByteBuffer(latestMessage, MessageParser.BIZ_ID))) {
+                return null != CompactedMessageParser.placeholderHeader(message);
+            }
+            return isRemovableTombstone(message, position);
+        }
+
+        private boolean isRemovableTombstone(ByteBuffer message, long position) {
+            if (!CompactedMessageParser.isTombstone(message) || null == CompactedMessageParser.placeholderHeader(message)) {
+                return false;
+            }
+            long timestamp = PartitionGroupStoreManager.getStorageTimestamp(message);
+            if (timestamp < tombstoneBefore && !failed && position < compressedBefore) {
+                return true;
+            }
+            retainedTombstoneTime = Math.min(retainedTombstoneTime, timestamp);
+            return false;
+        }
+    }
+
+    /**
+     * 重写一个文件，没有需要删除的消息时不重写
+     *
+     * @return 删除的消息长度，替换文件失败时返回-1
+     */
+    private long compactFile(PositioningStore<ByteBuffer> store, StoreFile<ByteBuffer> storeFile,
+                             int dataSize, Pass pass) throws IOException {
+        long start = Math.max(store.left(), storeFile.position());
+        long end = storeFile.position() + dataSize;
+        List<Long> removed = new ArrayList<>();
+        for (long position = start; position < end; ) {
+            ByteBuffer message = read(store, position);
+            if (pass.isRemovable(message, position)) {
+                removed.add(position);
+            }
+            position += message.remaining();
+        }
+        if (removed.isEmpty()) {
+            return 0L;
+        }
+
+        File source = storeFile.file();
+        File tmp = new File(source.getParentFile(), source.getName() + StoreFileImpl.TMP_SUFFIX);
+        long headerSize = store.fileHeaderSize();
+        long compactedSize = 0L;
+        try (FileChannel src = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+             FileChannel dest = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            // 文件头原样复制
+            ByteBuffer header = ByteBuffer.allocate((int) headerSize);
+            while (header.hasRemaining()) {
+                if (src.read(header, header.position()) < 0) {
+                    throw new EOFException(String.format("Read file header failed: %s.", source.getAbsolutePath()));
+                }
+            }
+            header.flip();
+            writeFully(dest, header, 0L);
+
+            int next = 0;
+            for (long position = start; position < end; ) {
+                ByteBuffer message = read(store, position);
+                int length = message.remaining();
+                long offset = headerSize + position - storeFile.position();
+                if (next < removed.size() && removed.get(next) == position) {
+                    // 只写入占位消息的头部，其余部分留作文件空洞
+                    writeFully(dest, CompactedMessageParser.placeholderHeader(message), offset);
+                    compactedSize += length;
+                    next++;
+                } else {
+                    writeFully(dest, message, offset);
+                }
+                position += length;
+            }
+            dest.force(true);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) {
+            raf.setLength(headerSize + dataSize);
+        }
+
+        if (!store.replace(storeFile, tmp, dataSize)) {
+            Files.deleteIfExists(tmp.toPath());
+            return -1L;
+        }
+        logger.info("Store file compacted: {}, removed {} messages, {} bytes.",
+                source.getAbsolutePath(), removed.size(), Format.formatWithComma(compactedSize));
+        return compactedSize;
+    }
+
+    /**
+     * 有业务ID，不是批消息，也不是占位消息
+     */
+    private static boolean isCompactable(ByteBuffer message) {
+        return !CompactedMessageParser.isCompacted(message) && !BatchMessageParser.isBatch(message)
+                && MessageParser.getByteBuffer(message, MessageParser.BIZ_ID).remaining() > 0;
+    }
+
+    private static ByteBuffer read(PositioningStore<ByteBuffer> store, long position) throws IOException {
+        ByteBuffer message = store.read(position);
+        if (null == message) {
+            throw new ReadException(String.format("Read log failed! store: %s, position: %d.", store.base().getAbsolutePath(), position));
+        }
+        return message;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+}
@@ -23,16 +23,28 @@ import org.joyqueue.store.file.Checkpoint;
 import org.joyqueue.store.file.DiskFullException;
 import org.joyqueue.store.file.PositioningStore;
 import org.joyqueue.store.file.RollBackException;
+import org.joyqueue.store.file.ShutdownMarker;
+import org.joyqueue.store.file.StoreFile;
 import org.joyqueue.store.file.StoreMessageSerializer;
 import org.joyqueue.store.file.WriteException;
+import org.joyqueue.store.index.BizIdIndex;
+import org.joyqueue.store.index.CompactIndexSerializer;
+import org.joyqueue.store.index.CompactIndexStore;
+import org.joyqueue.store.index.DefaultIndexStore;
 import org.joyqueue.store.index.IndexItem;
 import org.joyqueue.store.index.IndexSerializer;
+import org.joyqueue.store.index.IndexStore;
+import org.joyqueue.store.index.TimeIndex;
 import org.joyqueue.store.message.BatchMessageParser;
 import org.joyqueue.store.message.MessageParser;
 import org.joyqueue.store.replication.ReplicableStore;
+import org.joyqueue.store.replication.SnapshotFile;
 import org.joyqueue.store.utils.PreloadBufferPool;
+import org.joyqueue.toolkit.buffer.RByteBuffer;
 import org.joyqueue.toolkit.concurrent.EventListener;
 import org.joyqueue.toolkit.concurrent.LoopThread;
+import org.joyqueue.toolkit.concurrent.VirtualThread;
+import org.joyqueue.toolkit.concurrent.VirtualThreadExecutor;
 import org.joyqueue.toolkit.format.Format;
 import org.joyqueue.toolkit.lang.LifeCycle;
 import org.joyqueue.toolkit.metric.Metric;
@@ -46,7 +58,10 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -55,9 +70,15 @@ import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
@@ -65,6 +86,7 @@ import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.zip.CRC32;
 
 /**
  * @author liyue25
@@ -74,6 +96,10 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
     private static final Logger logger = LoggerFactory.getLogger(PartitionGroupStoreManager.class);
     private static final long EVENT_TIMEOUT_MILLS = 60 * 1000L;
     private final PositioningStore<ByteBuffer> store;
+    // 业务ID索引，没有开启时为null
+    private final BizIdIndex bizIdIndex;
+    // 后台线程池中正在进行的业务ID索引补建
+    private volatile Future<?> bizIdIndexBackfill;
     private final File base;
     private final String topic;
     private final int partitionGroup;
@@ -89,6 +115,10 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
             };
     private final PreloadBufferPool bufferPool;
     private final LoopThread writeLoopThread, flushLoopThread;
+    // 多个PartitionGroup共享的写入和刷盘执行器，为null时使用独立的写入和刷盘线程。
+    // 每个PartitionGroup的写入（刷盘）虚拟线程同一时刻只会在一个物理线程上执行，保证了写入顺序。
+    private final VirtualThreadExecutor writeExecutor, flushExecutor;
+    private final VirtualThread writeVirtualThread = this::tryWrite, flushVirtualThread = this::flush;
     private final LoopThread metricThread;
     private final BlockingQueue<WriteCommand> writeCommandCache;
     private long replicationPosition;
@@ -97,18 +127,48 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
     private int term; // 当前轮次
     private Metric produceMetrics = null, consumeMetrics = null;
     private Metric.MetricInstance produceMetric = null, consumeMetric;
+    private long lastFileOpenCount = 0L;
     private final Lock writeLock = new ReentrantLock();
+    // 后台校验当前的位置
+    private volatile long scrubPosition = 0L;
+    // 后台校验发现的第一条损坏消息的位置，-1表示没有发现损坏
+    private volatile long corruptPosition = -1L;
+    // 按业务ID压实消息日志，记录已经压实到的位置
+    private final LogCompactor logCompactor = new LogCompactor();
+    // 后台校验累计发现损坏的次数
+    private final AtomicLong corruptCount = new AtomicLong(0L);
 
     private AtomicLong lastCheckDiskSpaceTimestamp = new AtomicLong(0L);
     private volatile boolean isDiskFull = false;
     private static final long CHECK_DISK_SPACE_COOL_DOWN = 1000L;
     private static final long FLUSH_CHECKPOINT_INTERVAL_MS = 60 * 1000L;
+    // 每次刷盘最多循环的次数，避免一个分区组长时间占用共享的刷盘线程
+    private static final int MAX_FLUSH_ROUNDS = 16;
     private long lastFlushCheckpointTimestamp = 0L;
     static final String CHECKPOINT_FILE= "checkpoint.json";
+    static final String SHUTDOWN_MARKER_FILE = "shutdown.json";
+    // 分区索引目录中存在这个文件时，索引使用紧凑格式
+    static final String COMPACT_INDEX_MARKER_FILE = "compact";
+    // 副本接收快照的临时目录
+    static final String SNAPSHOT_DIR = "snapshot";
+    // 安装快照之前写入，内容是快照的结束位置，安装完成后删除；启动时存在这个文件说明安装被中断，需要重新安装
+    static final String SNAPSHOT_INSTALL_MARKER_FILE = "snapshot.install";
+    // 正常关闭标记中计算CRC的末尾数据长度
+    private static final int SHUTDOWN_MARKER_CRC_LENGTH = 64 * 1024;
     private int lastEntryTerm = -1;
+    // 连续顺序读取这么多次之后开始预读
+    private static final int READ_AHEAD_SEQUENTIAL_COUNT = 2;
+    // 每个分区最多记录的顺序读取流
+    private static final int MAX_READ_STREAMS = 64;
 
     public PartitionGroupStoreManager(String topic, int partitionGroup, File base, Config config,
                                       PreloadBufferPool bufferPool) {
+        this(topic, partitionGroup, base, config, bufferPool, null, null);
+    }
+
+    public PartitionGroupStoreManager(String topic, int partitionGroup, File base, Config config,
+                                      PreloadBufferPool bufferPool,
+                                      VirtualThreadExecutor writeExecutor, VirtualThreadExecutor flushExecutor) {
         this.base = base;
         this.topic = topic;
         this.partitionGroup = partitionGroup;
@@ -121,20 +181,24 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
         this.callbackMap.put(QosLevel.REPLICATION, new CallbackPositioningBelt());
         this.callbackMap.put(QosLevel.ALL, new CallbackPositioningBelt());
         StoreMessageSerializer storeMessageSerializer = new StoreMessageSerializer(config.maxMessageLength);
-        this.store = new PositioningStore<>(base, config.storeConfig, bufferPool, storeMessageSerializer);
+        this.store = new PositioningStore<>(base, config.coldBase, config.storeConfig, bufferPool, storeMessageSerializer);
+        this.bizIdIndex = config.bizIdIndex ?
+                new BizIdIndex(new File(base, "bizid"), BizIdIndex.DEFAULT_MAX_ENTRIES, store.fileDataSize()) : null;
         if (!base.isDirectory()) {
             throw new StoreInitializeException(String.format("Partition group directory: %s not available!", base.getAbsolutePath()));
         }
         this.replicationPosition = store.flushPosition();
         term = getMaxTerm(store);
 
-        this.writeLoopThread = LoopThread.builder()
+        this.writeExecutor = writeExecutor;
+        this.flushExecutor = flushExecutor;
+        this.writeLoopThread = null != writeExecutor ? null : LoopThread.builder()
                 .name(String.format("WriteThread-%s-%d", topic, partitionGroup))
                 .doWork(this::write)
                 .sleepTime(0, 0)
                 .onException(e -> logger.warn("Write Exception: ", e))
                 .build();
-        this.flushLoopThread = LoopThread.builder()
+        this.flushLoopThread = null != flushExecutor ? null : LoopThread.builder()
                 .name(String.format("FlushThread-%s-%d", topic, partitionGroup))
                 .doWork(this::flush)
                 .sleepTime(config.flushIntervalMs, config.flushIntervalMs)
@@ -146,11 +210,11 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
     private LoopThread initMetrics(Config config) {
         if (config.printMetricIntervalMs > 0) {
             produceMetrics = new Metric("WriteMetric-" + topic + "-" + partitionGroup, 1,
-                    new String[]{"WriteLatency", "FlushLatency"}, new String[]{"WriteCount", "FlushCount"},
-                    new String[]{"WriteTraffic", "FlushTraffic"});
+                    new String[]{"WriteLatency", "FlushLatency", "ForceLatency"}, new String[]{"WriteCount", "FlushCount", "ForceCount", "FileOpenCount"},
+                    new String[]{"WriteTraffic", "FlushTraffic", "ForceTraffic"});
             produceMetric = produceMetrics.getMetricInstances().get(0);
             consumeMetrics = new Metric("ReadMetric-" + topic + "-" + partitionGroup, 1,
-                    new String[]{"ReadLatency"}, new String[]{"ReadCount"},
+                    new String[]{"ReadLatency"}, new String[]{"ReadCount", "ReadRangeCount"},
                     new String[]{"ReadTraffic"});
             consumeMetric = consumeMetrics.getMetricInstances().get(0);
 
@@ -159,6 +223,9 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
                     .name("Metric-Thread")
                     .onException(e -> logger.warn("Exception:", e))
                     .doWork(() -> {
+                        long fileOpenCount = fileOpenCount();
+                        produceMetric.addCounter("FileOpenCount", Math.max(fileOpenCount - lastFileOpenCount, 0L));
+                        lastFileOpenCount = fileOpenCount;
                         consumeMetrics.reportAndReset();
                         produceMetrics.reportAndReset();
                         logger.info("{}-{} WriteCommandCache size: {}, dirty size: {}/{}.",
@@ -170,12 +237,38 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
         }
     }
 
+    /**
+     * 消息日志和索引打开文件的总次数
+     */
+    private long fileOpenCount() {
+        return store.fileOpenCount() + partitionMap.values().stream().mapToLong(p -> p.store.fileOpenCount()).sum();
+    }
+
     public void recover() {
         try {
 
+            long snapshotPosition = recoverSnapshotInstall();
+            // 读取后立即删除，避免启动后异常退出时误用旧的标记
+            ShutdownMarker marker = readShutdownMarker();
+            if (snapshotPosition >= 0L) {
+                // 重新安装快照之后索引需要重建，不能使用安装之前写入的标记
+                marker = null;
+            }
             logger.info("Recovering message store {}...", base.getAbsolutePath());
-            store.recover();
+            store.recover(null == marker);
+            if (null != marker && !verifyTail(store, marker.getJournalRight(), marker.getJournalCrc())) {
+                logger.warn("Message store {} does not match the shutdown marker, recover the log tail...", base.getAbsolutePath());
+                marker = null;
+                store.recoverLogTail();
+            }
             resetLastEntryTerm();
+            if (null != marker && recoverPartitions(marker)) {
+                indexPosition = marker.getIndexPosition();
+                recoverTimeIndices();
+                recoverBizIdIndex();
+                logger.info("Store recovered from the shutdown marker: {}...", base.getAbsolutePath());
+                return;
+            }
             logger.info("Recovering index store {}...", base.getAbsolutePath());
             indexPosition = recoverPartitions();
             long safeIndexPosition = indexPosition;
@@ -198,12 +291,210 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
                     throw t;
                 }
             }
+            recoverTimeIndices();
+            recoverBizIdIndex();
+            if (snapshotPosition >= 0L && null != bizIdIndex) {
+                // 重新创建的业务ID索引从indexPosition开始，之前的消息在后台补建
+                backfillBizIdIndex(indexPosition);
+            }
             logger.info("Store recovered: {}...", base.getAbsolutePath());
         } catch (IOException e) {
             throw new StoreInitializeException(e);
         }
     }
 
+    /**
+     * 删除超出分区索引范围的时间索引，再从分区索引补齐时间索引末尾缺失的部分（例如异常退出时没有刷盘的时间索引）。
+     * 补齐时每隔timeIndexIntervalCount条消息读取一次存储时间，不按timeIndexIntervalMs补充，
+     * 补齐的部分可能比正常写入时稀疏，只影响按时间查找时折半查找的范围，不影响结果。
+     */
+    private void recoverTimeIndices() throws IOException {
+        for (Map.Entry<Short, Partition> entry : partitionMap.entrySet()) {
+            Partition partition = entry.getValue();
+            long rightIndex = partition.store.right() / IndexItem.STORAGE_SIZE;
+            partition.timeIndex.truncate(rightIndex);
+            long lastIndex = partition.timeIndex.lastIndex();
+            long index = lastIndex < 0 ? partition.store.left() / IndexItem.STORAGE_SIZE : lastIndex + config.timeIndexIntervalCount;
+            long rebuilt = 0L;
+            try {
+                for (; index < rightIndex; index += config.timeIndexIntervalCount) {
+                    partition.timeIndex.append(getStorageTimestamp(store, partition.store, index), index);
+                    rebuilt++;
+                }
+            } catch (PositionOverflowException | PositionUnderflowException e) {
+                // 消息日志已经被删除或者还没有恢复到这个位置，时间索引只补到这里，按时间查找时扩大折半查找的范围
+                logger.warn("Rebuild time index stopped at index {}, partition: {}, store: {}.",
+                        index, entry.getKey(), base.getAbsolutePath(), e);
+            }
+            if (rebuilt > 0) {
+                logger.info("Rebuilt {} time index entries, partition: {}, store: {}.", rebuilt, entry.getKey(), base.getAbsolutePath());
+            }
+        }
+    }
+
+    /**
+     * 恢复业务ID索引，从最后一个段覆盖的结束位置开始重新读取消息日志
+     */
+    private void recoverBizIdIndex() throws IOException {
+        if (null != bizIdIndex) {
+            rebuildBizIdIndex(bizIdIndex.recover(indexPosition, store.left()));
+        }
+    }
+
+    /**
+     * 在存储共享的后台线程池中为[store.left(), end)之间的消息补建业务ID索引，补建期间查找不到这些消息。
+     * 没有配置后台线程池时在调用线程中补建。
+     */
+    private void backfillBizIdIndex(long end) {
+        BizIdIndex index = bizIdIndex;
+        long start = store.left();
+        if (start >= end) {
+            return;
+        }
+        // 先取消之前的补建，索引的清空和回滚也会让之前的补建停止
+        cancelBizIdIndexBackfill();
+        long epoch = index.epoch();
+        Runnable task = () -> {
+            try {
+                long position = index.backfill(start, end, epoch, store::read);
+                logger.info("Business id index backfilled from {} to {}, store: {}.",
+                        Format.formatWithComma(start), Format.formatWithComma(position), base.getAbsolutePath());
+            } catch (Throwable t) {
+                logger.warn("Backfill business id index exception, start: {}, end: {}, store: {}.",
+                        Format.formatWithComma(start), Format.formatWithComma(end), base.getAbsolutePath(), t);
+            }
+        };
+        ExecutorService backgroundExecutor = config.backgroundExecutor;
+        if (null == backgroundExecutor) {
+            task.run();
+            return;
+        }
+        try {
+            bizIdIndexBackfill = backgroundExecutor.submit(task);
+        } catch (RejectedExecutionException e) {
+            logger.warn("Backfill business id index rejected, start: {}, end: {}, store: {}.",
+                    Format.formatWithComma(start), Format.formatWithComma(end), base.getAbsolutePath());
+        }
+    }
+
+    /**
+     * 取消业务ID索引的补建，等待正在进行的补建退出，避免和安装快照、关闭存储并发
+     */
+    private void cancelBizIdIndexBackfill() {
+        Future<?> future = bizIdIndexBackfill;
+        if (null == future) {
+            return;
+        }
+        bizIdIndex.cancelBackfill();
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | CancellationException e) {
+            logger.warn("Backfill business id index exception, store: {}.", base.getAbsolutePath(), e);
+        }
+        bizIdIndexBackfill = null;
+    }
+
+    private void rebuildBizIdIndex(long position) throws IOException {
+        while (position < indexPosition) {
+            ByteBuffer message = store.read(position);
+            if (null == message) {
+                throw new ReadException(String.format("Read log failed! store: %s, position: %d.", store.base().getAbsolutePath(), position));
+            }
+            long end = position + message.remaining();
+            bizIdIndex.append(message, position, end);
+            position = end;
+        }
+    }
+
+    /**
+     * 读取并删除正常关闭标记，标记不存在或无法删除时返回null。
+     */
+    private ShutdownMarker readShutdownMarker() {
+        File markerFile = new File(base, SHUTDOWN_MARKER_FILE);
+        if (!markerFile.isFile()) {
+            return null;
+        }
+        ShutdownMarker marker = null;
+        try {
+            byte[] serializedData = new byte[(int) markerFile.length()];
+            try (FileInputStream fis = new FileInputStream(markerFile)) {
+                if (serializedData.length != fis.read(serializedData)) {
+                    throw new IOException("File length not match!");
+                }
+            }
+            marker = JSON.parseObject(new String(serializedData, StandardCharsets.UTF_8), ShutdownMarker.class);
+        } catch (Throwable t) {
+            logger.warn("Read shutdown marker {} exception, continue recover...", markerFile.getAbsolutePath(), t);
+        }
+        if (!markerFile.delete()) {
+            logger.warn("Delete shutdown marker {} failed, ignore it.", markerFile.getAbsolutePath());
+            return null;
+        }
+        if (null != marker && (marker.getIndexPosition() != marker.getJournalRight()
+                || null == marker.getPartitions() || null == marker.getPartitionCrcs())) {
+            return null;
+        }
+        return marker;
+    }
+
+    /**
+     * 按照正常关闭标记恢复分区索引，不扫描索引末尾。
+     * @return 所有分区的索引结束位置和末尾CRC都与标记一致时返回true，否则不修改partitionMap并返回false。
+     */
+    private boolean recoverPartitions(ShutdownMarker marker) throws IOException {
+        File indexBase = new File(base, "index");
+        Short[] partitionIndices = indexBase.isDirectory() ? loadPartitionIndices(indexBase) : null;
+        if (null == partitionIndices || partitionIndices.length != marker.getPartitions().size()) {
+            return false;
+        }
+        Map<Short, IndexStore> indexStores = new HashMap<>(partitionIndices.length);
+        try {
+            for (short partitionIndex : partitionIndices) {
+                Long right = marker.getPartitions().get(partitionIndex);
+                Long crc = marker.getPartitionCrcs().get(partitionIndex);
+                if (null == right || null == crc) {
+                    return false;
+                }
+                IndexStore indexStore = createIndexStore(partitionIndex);
+                indexStores.put(partitionIndex, indexStore);
+                indexStore.recover(false);
+                if (indexStore.right() != right || tailCrc(indexStore.physicalStore()) != crc) {
+                    logger.warn("Index store {} does not match the shutdown marker.", indexStore.base().getAbsolutePath());
+                    return false;
+                }
+            }
+            for (Map.Entry<Short, IndexStore> entry : indexStores.entrySet()) {
+                TimeIndex timeIndex = createTimeIndex(entry.getKey());
+                timeIndex.recover();
+                partitionMap.put(entry.getKey(), new Partition(entry.getValue(), timeIndex));
+            }
+            indexStores.clear();
+            return true;
+        } finally {
+            indexStores.values().forEach(IndexStore::close);
+        }
+    }
+
+    private boolean verifyTail(PositioningStore<?> store, long right, long crc) throws IOException {
+        return store.right() == right && tailCrc(store) == crc;
+    }
+
+    private long tailCrc(PositioningStore<?> store) throws IOException {
+        CRC32 crc32 = new CRC32();
+        long position = Math.max(store.left(), store.right() - SHUTDOWN_MARKER_CRC_LENGTH);
+        while (position < store.right()) {
+            byte[] bytes = store.readBytes(position, (int) (store.right() - position));
+            if (bytes.length == 0) {
+                throw new ReadException(String.format("Read store failed! store: %s, position: %d.", store.base().getAbsolutePath(), position));
+            }
+            crc32.update(bytes);
+            position += bytes.length;
+        }
+        return crc32.getValue();
+    }
+
     private void resetLastEntryTerm() {
         if(store.right() > 0) {
             long lastLogPosition = store.toLogStart(store.right());
@@ -231,7 +522,7 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
                 indexPosition += indexItem.getLength();
                 continue;
             }
-            PositioningStore<IndexItem> indexStore = partition.store;
+            IndexStore indexStore = partition.store;
 
             if (indexStore.right() == 0) {
                 indexStore.setRight(indexItem.getIndex() * IndexItem.STORAGE_SIZE);
@@ -245,11 +536,10 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
                     indexItem.setBatchMessage(true);
                     indexItem.setBatchMessageSize(batchSize);
                 }
-                writeIndex(indexItem, partition.store);
+                writeIndex(indexItem, partition, byteBuffer);
 
             } else if (indexItem.getIndex() < storeIndex) {
-                IndexItem pi = indexStore.read(indexItem.getIndex() * IndexItem.STORAGE_SIZE);
-                if (pi.getOffset() != indexPosition) {
+                if (indexStore.readOffset(indexItem.getIndex() * IndexItem.STORAGE_SIZE) != indexPosition) {
                     throw new WriteException(
                             String.format(
                                     "Index mismatch, store: %s, partition: %d, next index of the partition: %s，index in log: %s, log position: %s, log: \n%s",
@@ -272,7 +562,7 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
                                 MessageParser.getString(byteBuffer)));
             }
 
-            if (indexStore.right() - indexStore.flushPosition() >= 10 * 1024 * 1024) {
+            if (indexStore.physicalStore().right() - indexStore.physicalStore().flushPosition() >= 10 * 1024 * 1024) {
                 indexStore.flush();
                 logger.info("Recovering index, topic: {}, group: {}, Write position: {}, index position: {}",
                         topic, partitionGroup, store.right(), indexPosition);
@@ -280,8 +570,8 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
         }
 
         for (Partition partition : partitionMap.values()) {
-            PositioningStore<IndexItem> indexStore = partition.store;
-            if (indexStore.right() > indexStore.flushPosition()) {
+            IndexStore indexStore = partition.store;
+            if (!indexStore.isClean()) {
                 indexStore.flush();
             }
         }
@@ -360,27 +650,20 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
 
             // 1. 创建Partition对象，加入到partitionMap中
 
-            File partitionBase = new File(indexBase, String.valueOf(partitionIndex));
-            PositioningStore<IndexItem> indexStore =
-                    new PositioningStore<>(partitionBase, config.indexStoreConfig, bufferPool, new IndexSerializer());
+            IndexStore indexStore = createIndexStore(partitionIndex);
             indexStore.recover();
 
             //截掉末尾可能存在的半条索引
             indexStore.setRight(indexStore.right() - indexStore.right() % IndexItem.STORAGE_SIZE);
 
-            // 删除末尾的全是0的部分
+            // 删除末尾的全是0的部分，offsets/lengths[0]是上一条索引，[1]是当前索引
             long validPosition = indexStore.right();
-            IndexItem currentIndex, previousIndex = null;
+            long[] offsets = new long[2];
+            int[] lengths = new int[2];
 
             while ((validPosition -= IndexItem.STORAGE_SIZE) >= indexStore.left() + IndexItem.STORAGE_SIZE) { //第一条索引有可能是全0，这是合法的。
-                if(null == previousIndex) {
-                    currentIndex = indexStore.read(validPosition);
-                } else {
-                    currentIndex = previousIndex;
-                }
-
-                previousIndex = indexStore.read(validPosition - IndexItem.STORAGE_SIZE);
-                if(verifyCurrentIndex(currentIndex, previousIndex)){
+                indexStore.batchRead(validPosition - IndexItem.STORAGE_SIZE, 2, offsets, lengths);
+                if(verifyCurrentIndex(offsets[1], lengths[1], offsets[0])){
                     break;
                 }
             }
@@ -388,24 +671,20 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
             indexStore.setRight(validPosition + IndexItem.STORAGE_SIZE);
 
 
-            partitionMap.put(partitionIndex, new Partition(indexStore));
+            TimeIndex timeIndex = createTimeIndex(partitionIndex);
+            timeIndex.recover();
+            partitionMap.put(partitionIndex, new Partition(indexStore, timeIndex));
 
             if (indexStore.right() - indexStore.left() > 0) {
 
 
                 // 2. 如果最后一条索引是批消息的索引，需要检查其完整性
 
-                IndexItem lastIndexItem = indexStore.read(indexStore.right() - IndexItem.STORAGE_SIZE);
-                if (lastIndexItem == null) throw new ReadException(
-                        String.format("Failed to recover index store %s to position %s, batchRead index failed!",
-                                indexStore.base().getAbsolutePath(),
-                                Format.formatWithComma(
-                                        indexStore.right() - IndexItem.STORAGE_SIZE)));
+                long indexedMessagePosition = indexStore.readOffset(indexStore.right() - IndexItem.STORAGE_SIZE);
                 // 检查对应的消息是否批消息，如果是批消息检查这一批消息的索引的完整性，如不完整直接截掉这个批消息的已存储的所有索引
-                verifyBatchMessage(lastIndexItem, indexStore, store);
+                verifyBatchMessage(indexedMessagePosition, indexStore, store);
 
                 // 如果indexPosition大于当前分区索引的最大消息位置， 向前移动indexPosition
-                long indexedMessagePosition = lastIndexItem.getOffset();
 
                 logger.info("Topic: {}, group: {}, partition: {}, maxIndexedMessageOffset: {}.", topic,
                         partitionGroup, partitionIndex, Format.formatWithComma(indexedMessagePosition));
@@ -426,12 +705,13 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
 
     /**
      * 根据上一条索引来验证这条索引的合法性
-     * @param current 当前索引
-     * @param previous 上一条索引
+     * @param offset 当前索引的消息偏移量
+     * @param length 当前索引的消息长度
+     * @param previousOffset 上一条索引的消息偏移量
      * @return
      */
-    private boolean verifyCurrentIndex(IndexItem current, IndexItem previous) {
-        return current.getLength() > 0 && current.getOffset() > previous.getOffset();
+    private boolean verifyCurrentIndex(long offset, int length, long previousOffset) {
+        return length > 0 && offset > previousOffset;
     }
 
     private Short[] loadPartitionIndices(File indexBase) {
@@ -453,20 +733,22 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
         return partitionIndices;
     }
 
-    private void verifyBatchMessage(IndexItem lastIndexItem, PositioningStore<IndexItem> indexStore, PositioningStore<ByteBuffer> store) throws IOException {
+    private void verifyBatchMessage(long lastOffset, IndexStore indexStore, PositioningStore<ByteBuffer> store) throws IOException {
 
-        if (lastIndexItem.getOffset() < store.right()) {
-            ByteBuffer msg = store.read(lastIndexItem.getOffset());
-            if (BatchMessageParser.isBatch(msg)) {
-                short batchSize = BatchMessageParser.getBatchSize(msg);
-                long startIndex = MessageParser.getLong(msg, MessageParser.INDEX);
+        if (lastOffset < store.right()) {
+            // 直接从缓存页中读取消息头，不复制整条消息，不是批消息时返回null，否则返回{批消息大小, 起始索引}
+            long[] batch = store.read(lastOffset, (msg, length) -> BatchMessageParser.isBatch(msg) ?
+                    new long[] {BatchMessageParser.getBatchSize(msg), MessageParser.getLong(msg, MessageParser.INDEX)} : null);
+            if (null != batch) {
+                short batchSize = (short) batch[0];
+                long startIndex = batch[1];
 
                 if (indexStore.right() < (batchSize + startIndex) * IndexItem.STORAGE_SIZE) {
                     logger.info("Incomplete batch message indices found, roll back index store to {}, " +
                                     "index: {}, message position: {}, store: {}.",
                             Format.formatWithComma(startIndex * IndexItem.STORAGE_SIZE),
-                            Format.formatWithComma(lastIndexItem.getIndex()),
-                            Format.formatWithComma(lastIndexItem.getOffset()),
+                            Format.formatWithComma(indexStore.right() / IndexItem.STORAGE_SIZE - 1),
+                            Format.formatWithComma(lastOffset),
                             indexStore.base().getAbsolutePath());
                     indexStore.setRight(startIndex * IndexItem.STORAGE_SIZE);
                 }
@@ -494,10 +776,101 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
             if (!partitionBase.renameTo(new File(partitionBase.getParent(), partitionBase.getName() + ".d." + SystemClock.now()))) {
                 logger.warn("Rename directory {} failed!", partitionBase.getAbsolutePath());
             }
+            File timeIndexBase = p.timeIndex.base();
+            if (timeIndexBase.exists() && !timeIndexBase.renameTo(new File(timeIndexBase.getParent(), timeIndexBase.getName() + ".d." + SystemClock.now()))) {
+                logger.warn("Rename directory {} failed!", timeIndexBase.getAbsolutePath());
+            }
+        }
+        if (null != config.coldBase) {
+            File coldPartitionBase = new File(config.coldBase, "index" + File.separator + partition);
+            if (coldPartitionBase.exists() && !coldPartitionBase.renameTo(new File(coldPartitionBase.getParent(), coldPartitionBase.getName() + ".d." + SystemClock.now()))) {
+                logger.warn("Rename directory {} failed!", coldPartitionBase.getAbsolutePath());
+            }
         }
 
     }
 
+    /**
+     * 已有索引数据的分区保持原来的索引格式，只有新的或者空的分区索引才使用紧凑格式。
+     */
+    private IndexStore createIndexStore(short partition) throws IOException {
+        String relPath = "index" + File.separator + partition;
+        File indexBase = new File(base, relPath);
+        File coldIndexBase = null == config.coldBase ? null : new File(config.coldBase, relPath);
+        File compactMarker = new File(indexBase, COMPACT_INDEX_MARKER_FILE);
+        if (!compactMarker.isFile() && config.compactIndex && !hasStoreFile(indexBase) && !hasStoreFile(coldIndexBase)) {
+            if (!(indexBase.isDirectory() || indexBase.mkdirs()) || !compactMarker.createNewFile()) {
+                throw new IOException(String.format("Create file: %s failed!", compactMarker.getAbsolutePath()));
+            }
+        }
+        return newIndexStore(partition, compactMarker.isFile());
+    }
+
+    private IndexStore newIndexStore(short partition, boolean compactIndex) {
+        String relPath = "index" + File.separator + partition;
+        File indexBase = new File(base, relPath);
+        File coldIndexBase = null == config.coldBase ? null : new File(config.coldBase, relPath);
+        if (compactIndex) {
+            return new CompactIndexStore(new PositioningStore<>(indexBase, coldIndexBase,
+                    config.indexStoreConfig, bufferPool, new CompactIndexSerializer()));
+        }
+        return new DefaultIndexStore(new PositioningStore<>(indexBase, coldIndexBase,
+                config.indexStoreConfig, bufferPool, new IndexSerializer()));
+    }
+
+    private boolean hasStoreFile(File dir) {
+        String[] files = null == dir ? null : dir.list((d, name) -> name.matches("^\\d+$"));
+        return null != files && files.length > 0;
+    }
+
+    /**
+     * 按业务ID压实已经写满并且刷盘的消息日志文件，压缩后的文件不压实。
+     *
+     * @param tombstoneBefore 存储时间早于tombstoneBefore的删除标记也被删除
+     * @return 本次压实删除的消息长度
+     */
+    public long compact(long tombstoneBefore) throws IOException {
+        return logCompactor.compact(this, tombstoneBefore);
+    }
+
+    /**
+     * 压缩创建时间超过compressAgeMs的消息日志文件，索引文件很小并且需要随机读取，不压缩。
+     *
+     * @return 本次压缩节省的磁盘空间
+     */
+    public long compress() throws IOException {
+        if (null == config.compressType) {
+            return 0L;
+        }
+        return store.compress(SystemClock.now() - config.compressAgeMs, config.compressType, config.compressBlockSize);
+    }
+
+    /**
+     * 把创建时间超过coldTierAgeMs的日志文件和索引文件转移到冷存储，时间索引很小，一直保留在原目录。
+     *
+     * @return 本次转移的数据大小
+     */
+    public long offload() throws IOException {
+        if (null == config.coldBase) {
+            return 0L;
+        }
+        long timestamp = SystemClock.now() - config.coldTierAgeMs;
+        long offloadSize = store.offload(timestamp);
+        for (Partition partition : partitionMap.values()) {
+            offloadSize += partition.store.offload(timestamp);
+        }
+        return offloadSize;
+    }
+
+    private TimeIndex createTimeIndex(short partition) {
+        File timeIndexBase = new File(base, "timeindex" + File.separator + partition);
+        if (!timeIndexBase.isDirectory() && !timeIndexBase.mkdirs()) {
+            throw new StoreInitializeException(String.format("Create directory: %s failed!", timeIndexBase.getAbsolutePath()));
+        }
+        return new TimeIndex(timeIndexBase, config.indexStoreConfig, bufferPool,
+                config.timeIndexIntervalMs, config.timeIndexIntervalCount);
+    }
+
     private void addPartition(short partition) throws IOException {
         if (partitionMap.get(partition) == null) {
             // 如果存在分区目录，先删除
@@ -505,10 +878,11 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
 
             File partitionBase = new File(base, "index" + File.separator + partition);
             if (partitionBase.mkdirs()) {
-                PositioningStore<IndexItem> indexStore =
-                        new PositioningStore<>(partitionBase, config.indexStoreConfig, bufferPool, new IndexSerializer());
+                IndexStore indexStore = createIndexStore(partition);
                 indexStore.recover();
-                partitionMap.put(partition, new Partition(indexStore));
+                TimeIndex timeIndex = createTimeIndex(partition);
+                timeIndex.recover();
+                partitionMap.put(partition, new Partition(indexStore, timeIndex));
             } else {
                 throw new IOException(String.format("Create directory: %s failed!", partitionBase.getAbsolutePath()));
             }
@@ -516,80 +890,314 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
     }
 
     public ReadResult read(short partition, long index, int count, long maxSize) throws IOException {
+        return read(partition, index, count, maxSize, false);
+    }
+
+    /**
+     * 零拷贝读取，返回的消息是缓存页的只读切片，使用完毕后需要调用{@link ReadResult#release()}释放。
+     */
+    public ReadResult readPinned(short partition, long index, int count, long maxSize) throws IOException {
+        return read(partition, index, count, maxSize, true);
+    }
+
+    /**
+     * 异步读取，参数同{@link #read(short, long, int, long)}。
+     * 要读取的索引和消息都已经加载了缓存页时（通常是读取尾部）直接在调用线程中读取；
+     * 否则提交到数据目录的读取线程池，避免加载缓存页阻塞调用线程。读取线程池已满时在调用线程中读取。
+     */
+    public CompletableFuture<ReadResult> readAsync(short partition, long index, int count, long maxSize) {
+        return readAsync(partition, index, count, maxSize, false);
+    }
+
+    /**
+     * 异步零拷贝读取，参数同{@link #readAsync(short, long, int, long)}，使用完毕后需要调用{@link ReadResult#release()}释放。
+     */
+    public CompletableFuture<ReadResult> readPinnedAsync(short partition, long index, int count, long maxSize) {
+        return readAsync(partition, index, count, maxSize, true);
+    }
+
+    private CompletableFuture<ReadResult> readAsync(short partition, long index, int count, long maxSize, boolean pinned) {
+        CompletableFuture<ReadResult> future = new CompletableFuture<>();
+        ExecutorService readExecutor = config.readExecutor;
+        if (null != readExecutor && !isResident(partition, index)) {
+            try {
+                readExecutor.execute(() -> read(future, partition, index, count, maxSize, pinned));
+                return future;
+            } catch (RejectedExecutionException e) {
+                logger.debug("Read executor is busy, read in caller thread, topic: {}, group: {}.", topic, partitionGroup);
+            }
+        }
+        read(future, partition, index, count, maxSize, pinned);
+        return future;
+    }
+
+    private void read(CompletableFuture<ReadResult> future, short partition, long index, int count, long maxSize, boolean pinned) {
+        try {
+            future.complete(read(partition, index, count, maxSize, pinned));
+        } catch (Throwable t) {
+            future.completeExceptionally(t);
+        }
+    }
+
+    /**
+     * 读取index位置的索引和对应的消息是否不需要从磁盘加载缓存页
+     */
+    private boolean isResident(short partition, long index) {
+        Partition p = partitionMap.get(partition);
+        if (null == p) {
+            return true;
+        }
+        try {
+            long indexPosition = index * IndexItem.STORAGE_SIZE;
+            if (indexPosition < p.store.left() || indexPosition >= p.store.right()) {
+                return true;
+            }
+            return p.store.physicalStore().isResident(p.store.physicalPosition(indexPosition))
+                    && store.isResident(p.store.readOffset(indexPosition));
+        } catch (Throwable t) {
+            // 读取位置无效时直接读取，由读取方法返回错误
+            return true;
+        }
+    }
+
+    private ReadResult read(short partition, long index, int count, long maxSize, boolean pinned) throws IOException {
         long t0 = System.nanoTime();
         ReadResult readResult = new ReadResult();
         checkPartition(partition);
-        PositioningStore<IndexItem> indexStore = partitionMap.get(partition).store;
-        List<IndexItem> indexItemList = indexStore.batchRead(index * IndexItem.STORAGE_SIZE, count);
-
-        long size = 0L;
-        readResult.setEop(indexItemList.size() < count);
-        List<ByteBuffer> buffers = new ArrayList<>(count);
-        IndexItem lastIndexItem = null;
-        for (int i = 0; i < indexItemList.size(); i++) {
-            IndexItem indexItem = indexItemList.get(i);
-            // 如果索引的offset和上一条相同，说明它们是同一批消息，直接跳过即可
-            if (null != lastIndexItem && indexItem.getOffset() == lastIndexItem.getOffset()) {
-                continue;
+        Partition p = partitionMap.get(partition);
+        ReadContext context = new ReadContext(partition, index, count, maxSize, pinned);
+        // 索引直接读到数组中，不为每条索引创建对象
+        int indexCount = p.store.batchRead(index * IndexItem.STORAGE_SIZE, count, context.offsets, context.lengths);
+        readAhead(p, index, indexCount, context.offsets, context.lengths);
+
+        readResult.setEop(indexCount < count);
+        readResult.setPinnedBuffers(context.pinnedBuffers);
+        long[] offsets = context.offsets;
+        int[] lengths = context.lengths;
+        // 物理上连续的一段消息，合并成一次读取，range中保存索引在数组中的下标
+        int[] range = new int[indexCount];
+        int rangeSize = 0;
+        long rangeLength = 0L;
+        int last = -1;
+        try {
+            for (int i = 0; i < indexCount; i++) {
+                // 如果索引的offset和上一条相同，说明它们是同一批消息，直接跳过即可
+                if (last >= 0 && offsets[i] == offsets[last]) {
+                    continue;
+                }
+                if (offsets[i] >= commitPosition()) {
+                    continue;
+                }
+                if (rangeSize > 0 && !isContinuous(offsets[last], lengths[last], offsets[i], lengths[i], rangeLength, maxSize)) {
+                    boolean full = !readRange(context, range, rangeSize);
+                    rangeSize = 0;
+                    rangeLength = 0L;
+                    if (full) {
+                        break;
+                    }
+                }
+                range[rangeSize++] = i;
+                rangeLength += lengths[i];
+                last = i;
             }
-            if (indexItem.getOffset() >= commitPosition()) {
-                continue;
+            if (rangeSize > 0) {
+                readRange(context, range, rangeSize);
+            }
+        } catch (Throwable t) {
+            readResult.release();
+            throw t;
+        }
+        List<ByteBuffer> buffers = context.buffers;
+        readResult.setMessages(buffers.toArray(new ByteBuffer[0]));
+        readResult.setCode(JoyQueueCode.SUCCESS);
+        if (null != consumeMetric) {
+            consumeMetric.addCounter("ReadCount", buffers.size());
+            consumeMetric.addCounter("ReadRangeCount", context.rangeCount);
+            consumeMetric.addLatency("ReadLatency", System.nanoTime() - t0);
+            consumeMetric.addTraffic("ReadTraffic", buffers.stream().mapToInt(ByteBuffer::remaining).sum());
+        }
+
+        return readResult;
+    }
+
+    /**
+     * 识别顺序读取：读取的起始索引等于上次读取的结束索引，连续命中READ_AHEAD_SEQUENTIAL_COUNT次后提交预读。
+     * 同一分区可能有多个消费者在不同位置读取，按下一次读取的索引分别记录。
+     */
+    private void readAhead(Partition p, long index, int indexCount, long[] offsets, int[] lengths) {
+        ReadAhead readAhead = config.readAhead;
+        if (null == readAhead || indexCount == 0) {
+            return;
+        }
+        Integer sequentialCount = p.readStreams.remove(index);
+        if (p.readStreams.size() >= MAX_READ_STREAMS) {
+            p.readStreams.clear();
+        }
+        int count = null == sequentialCount ? 0 : sequentialCount + 1;
+        long nextIndex = index + indexCount;
+        p.readStreams.put(nextIndex, count);
+        if (count >= READ_AHEAD_SEQUENTIAL_COUNT) {
+            try {
+                readAhead.submit(p.store.physicalStore(), p.store.physicalPosition(nextIndex * IndexItem.STORAGE_SIZE),
+                        store, offsets[indexCount - 1] + lengths[indexCount - 1]);
+            } catch (IOException e) {
+                logger.debug("Read ahead exception, store: {}.", p.store.base(), e);
             }
+        }
+    }
+
+    /**
+     * 判断消息是否紧跟在上一条消息之后，并且合并后的长度不超过maxSize
+     */
+    private boolean isContinuous(long lastOffset, int lastLength, long offset, int length, long rangeLength, long maxSize) {
+        long totalLength = rangeLength + length;
+        return offset == lastOffset + lastLength
+                && totalLength <= Integer.MAX_VALUE
+                && (maxSize <= 0 || totalLength < maxSize);
+    }
+
+    /**
+     * 一次读取物理上连续的一段消息，然后按照索引拆分成多条消息。
+     * 拆分出的消息长度和索引不一致时，退化为逐条读取。
+     * @return 读取的消息总长度达到maxSize时返回false
+     */
+    private boolean readRange(ReadContext context, int[] range, int rangeSize) throws IOException {
+        long[] offsets = context.offsets;
+        int[] lengths = context.lengths;
+        long rangeOffset = offsets[range[0]];
+        ByteBuffer rangeBuffer = null;
+        if (rangeSize > 1) {
+            int last = range[rangeSize - 1];
+            rangeBuffer = readRangeBuffer(context, rangeOffset, (int) (offsets[last] + lengths[last] - rangeOffset));
+        }
+        context.rangeCount++;
+        for (int i = 0; i < rangeSize; i++) {
+            long offset = offsets[range[i]];
+            int length = lengths[range[i]];
+            long index = context.index + range[i];
             try {
-                ByteBuffer log;
-                try {
-                    log = store.read(indexItem.getOffset(), indexItem.getLength());
-                    if (MessageParser.getInt(log, MessageParser.LENGTH) != indexItem.getLength()) {
-                        logger.warn("索引中消息长度不正确！index: {} , offset: {}, message length (from index/from message): {}/{}, partition: {}, store: {}.",
-                                Format.formatWithComma(index + i),
-                                Format.formatWithComma(indexItem.getOffset()),
-                                indexItem.getLength(), MessageParser.getInt(log, MessageParser.LENGTH),
-                                partition,
-                                base.getAbsolutePath());
-                        log = store.read(indexItem.getOffset());
-                    }
-                } catch (Throwable t) {
-                    logger.warn("Exception on read, try to read without length! index: {} , offset: {}, message length: {}, partition: {}, store: {}.",
-                            Format.formatWithComma(index + i),
-                            Format.formatWithComma(indexItem.getOffset()),
-                            indexItem.getLength(),
-                            partition,
-                            base.getAbsolutePath(),
-                            t);
-                    log = store.read(indexItem.getOffset());
+                ByteBuffer log = null;
+                if (null != rangeBuffer) {
+                    log = sliceLog(rangeBuffer, (int) (offset - rangeOffset), length);
+                }
+                if (null == log) {
+                    log = readLog(context, index, offset, length);
                 }
 
                 if (null != log) {
-                    if (maxSize <= 0 || (size += log.remaining()) < maxSize) {
-                        buffers.add(log);
+                    if (context.maxSize <= 0 || (context.size += log.remaining()) < context.maxSize) {
+                        context.buffers.add(log);
                     } else {
-                        break;
+                        return false;
                     }
                 } else {
-                    throw new ReadException(String.format("Read log failed! store: %s, position: %d.", store.base().getAbsolutePath(), indexItem.getOffset()));
+                    throw new ReadException(String.format("Read log failed! store: %s, position: %d.", store.base().getAbsolutePath(), offset));
                 }
-                lastIndexItem = indexItem;
-
             } catch (Throwable t) {
                 logger.warn("Exception on read! index: {} , offset: {}, message length: {}, partition: {}, store: {}.",
-                        Format.formatWithComma(index + i),
-                        Format.formatWithComma(indexItem.getOffset()),
-                        indexItem.getLength(),
-                        partition,
+                        Format.formatWithComma(index),
+                        Format.formatWithComma(offset),
+                        length,
+                        context.partition,
                         base.getAbsolutePath(),
                         t);
                 throw t;
             }
         }
-        readResult.setMessages(buffers.toArray(new ByteBuffer[0]));
-        readResult.setCode(JoyQueueCode.SUCCESS);
-        if (null != consumeMetric) {
-            consumeMetric.addCounter("ReadCount", buffers.size());
-            consumeMetric.addLatency("ReadLatency", System.nanoTime() - t0);
-            consumeMetric.addTraffic("ReadTraffic", buffers.stream().mapToInt(ByteBuffer::remaining).sum());
+        return true;
+    }
+
+    /**
+     * 读取一段连续的消息，到达文件末尾时返回的长度可能小于length，读取失败返回null。
+     */
+    private ByteBuffer readRangeBuffer(ReadContext context, long position, int length) {
+        try {
+            if (context.pinned) {
+                RByteBuffer rangeBuffer = store.readPinnedByteBuffer(position, length);
+                context.pinnedBuffers.add(rangeBuffer);
+                return rangeBuffer.getBuffer();
+            } else {
+                return ByteBuffer.wrap(store.readBytes(position, length));
+            }
+        } catch (Throwable t) {
+            logger.debug("Exception on read range, position: {}, length: {}, store: {}.",
+                    position, length, base.getAbsolutePath(), t);
+            return null;
         }
+    }
 
-        return readResult;
+    /**
+     * 从一段连续的消息中截取一条消息，越界或者消息中的长度与索引不一致时返回null
+     */
+    private ByteBuffer sliceLog(ByteBuffer rangeBuffer, int relOffset, int length) {
+        if (relOffset + length > rangeBuffer.limit()) {
+            return null;
+        }
+        ByteBuffer log = rangeBuffer.duplicate();
+        log.position(relOffset);
+        log.limit(relOffset + length);
+        log = log.slice();
+        if (length <= Integer.BYTES || MessageParser.getInt(log, MessageParser.LENGTH) != length) {
+            return null;
+        }
+        return log;
+    }
+
+    /**
+     * 逐条读取消息
+     */
+    private ByteBuffer readLog(ReadContext context, long index, long offset, int length) throws IOException {
+        if (context.pinned) {
+            RByteBuffer pinnedLog = readPinnedLog(offset, length);
+            if (null != pinnedLog) {
+                context.pinnedBuffers.add(pinnedLog);
+                return pinnedLog.getBuffer();
+            }
+        }
+        ByteBuffer log;
+        try {
+            log = store.read(offset, length);
+            if (MessageParser.getInt(log, MessageParser.LENGTH) != length) {
+                logger.warn("索引中消息长度不正确！index: {} , offset: {}, message length (from index/from message): {}/{}, partition: {}, store: {}.",
+                        Format.formatWithComma(index),
+                        Format.formatWithComma(offset),
+                        length, MessageParser.getInt(log, MessageParser.LENGTH),
+                        context.partition,
+                        base.getAbsolutePath());
+                log = store.read(offset);
+            }
+        } catch (Throwable t) {
+            logger.warn("Exception on read, try to read without length! index: {} , offset: {}, message length: {}, partition: {}, store: {}.",
+                    Format.formatWithComma(index),
+                    Format.formatWithComma(offset),
+                    length,
+                    context.partition,
+                    base.getAbsolutePath(),
+                    t);
+            log = store.read(offset);
+        }
+        return log;
+    }
+
+    /**
+     * 零拷贝读取一条消息，索引中的长度和消息中的长度不一致或者读取失败时返回null，由调用方按复制的方式重新读取。
+     */
+    private RByteBuffer readPinnedLog(long offset, int length) {
+        RByteBuffer log = null;
+        try {
+            log = store.readPinnedByteBuffer(offset, length);
+            if (log.remaining() == length
+                    && MessageParser.getInt(log.getBuffer(), MessageParser.LENGTH) == length) {
+                return log;
+            }
+        } catch (Throwable t) {
+            logger.debug("Exception on read pinned log, offset: {}, length: {}, store: {}.",
+                    offset, length, base.getAbsolutePath(), t);
+        }
+        if (null != log) {
+            log.release();
+        }
+        return null;
     }
 
     private void checkPartition(short partition) {
@@ -597,13 +1205,23 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
             throw new ReadException(String.format("No such partition: %d in topic: %s, partition group: %d.", partition, topic, partitionGroup));
     }
 
-    private long[] write(ByteBuffer... byteBuffers) throws IOException {
+    /**
+     * 写入一个WriteCommand的所有消息，写入失败时回滚到partitionSnapshot，
+     * 写入成功后用本次写入的分区位置更新partitionSnapshot，作为下一个WriteCommand的回滚点。
+     * 先按照写入后的位置生成所有消息的索引，再一次追加所有消息，最后依次写入索引。
+     */
+    private long[] write(ByteBuffer[] byteBuffers, Map<Short, Long> partitionSnapshot) throws IOException {
         long start = store.right();
-        Map<Short, Long> partitionSnapshot = createPartitionSnapshot();
         long position = start;
-        long[] indices = new long[byteBuffers.length];
+        int count = byteBuffers.length;
+        long[] indices = new long[count];
+        short[] partitions = new short[count];
+        List<ByteBuffer> messages = new ArrayList<>(count);
+        IndexItem[] indexItems = new IndexItem[count];
+        // 每个分区下一条消息的索引序号，同一个WriteCommand中同一个分区的多条消息依次递增
+        Map<Short, Long> nextIndices = new HashMap<>();
         try {
-            for (int i = 0, byteBuffersLength = byteBuffers.length; i < byteBuffersLength; i++) {
+            for (int i = 0; i < count; i++) {
                 ByteBuffer byteBuffer = byteBuffers[i].slice();
                 if (byteBuffer.remaining() > config.maxMessageLength) {
                     throw new WriteException(String.format("Message too large! Message length: %d, limit: %d", byteBuffer.remaining(), config.maxMessageLength));
@@ -611,27 +1229,40 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
                 // 生成索引
                 IndexItem indexItem = IndexItem.parseMessage(byteBuffer, position);
                 Partition partition = partitionMap.get(indexItem.getPartition());
-                indices[i] = partition.store.right() / IndexItem.STORAGE_SIZE;
+                partitions[i] = indexItem.getPartition();
+                indices[i] = nextIndices.getOrDefault(partitions[i], partition.store.right() / IndexItem.STORAGE_SIZE);
                 MessageParser.setLong(byteBuffer, MessageParser.INDEX, indices[i]);
                 indexItem.setIndex(indices[i]);
-
-                // 写入消息
-                position = store.append(byteBuffer);
-                updateLastEntryTerm(byteBuffer);
-                // 写入索引
-
                 if (BatchMessageParser.isBatch(byteBuffer)) {
                     short batchSize = BatchMessageParser.getBatchSize(byteBuffer);
                     indexItem.setBatchMessage(true);
                     indexItem.setBatchMessageSize(batchSize);
                 }
-                writeIndex(indexItem, partition.store);
-                flushLoopThread.wakeup();
+                // 批消息写入batchMessageSize条逻辑索引
+                nextIndices.put(partitions[i], indices[i] + indexItem.getBatchMessageSize());
+                indexItems[i] = indexItem;
+                messages.add(byteBuffer);
+                position += byteBuffer.remaining();
+            }
+
+            // 写入消息
+            if (count > 0 && store.append(messages) != position) {
+                throw new WriteException(String.format("Unexpected store position after append! Expected: %d, actual: %d.", position, store.right()));
+            }
+
+            // 写入索引
+            for (int i = 0; i < count; i++) {
+                ByteBuffer byteBuffer = messages.get(i);
+                updateLastEntryTerm(byteBuffer);
+                writeIndex(indexItems[i], partitionMap.get(partitions[i]), byteBuffer);
             }
         } catch (Throwable t) {
             onWriteException(start, partitionSnapshot , t);
             throw t;
         }
+        for (short partition : partitions) {
+            partitionSnapshot.put(partition, partitionMap.get(partition).store.right());
+        }
         return indices;
     }
 
@@ -640,69 +1271,122 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
                 .collect(Collectors.toMap(Map.Entry::getKey, entry -> entry.getValue().store.right()));
     }
 
-    private void writeIndex(IndexItem indexItem, PositioningStore<IndexItem> indexStore) throws IOException {
-        if (indexItem.isBatchMessage()) {
-            // 批消息内每条消息的索引都指向批消息的起始位置，长度都是都批消息的总长度
-            appendBatchMessageIndices(indexStore, indexItem);
-        } else {
-            indexStore.append(indexItem);
+    private void writeIndex(IndexItem indexItem, Partition partition, ByteBuffer message) throws IOException {
+        partition.timeIndex.append(getStorageTimestamp(message), indexItem.getIndex());
+        partition.store.append(indexItem);
+        if (null != bizIdIndex) {
+            bizIdIndex.append(message, indexItem.getOffset(), indexItem.getOffset() + indexItem.getLength());
         }
         indexPosition += indexItem.getLength();
     }
 
-    private void appendBatchMessageIndices(PositioningStore<IndexItem> indexStore, IndexItem indexItem) throws IOException {
-        ByteBuffer indexBuffer = ByteBuffer.allocate(indexItem.getBatchMessageSize() * IndexItem.STORAGE_SIZE);
-        for (int j = 0; j < indexItem.getBatchMessageSize(); j++) {
-            indexItem.serializeTo(indexBuffer);
-        }
-        indexBuffer.flip();
-        indexStore.appendByteBuffer(indexBuffer);
-    }
-
     private void write() throws IOException, InterruptedException {
-        WriteCommand writeCommand = null;
         if(!writeLock.tryLock()) {
             throw new IllegalStateException("Acquire write lock failed!");
         }
         try {
-            writeCommand = writeCommandCache.take();
+            List<WriteCommand> writeCommands = new ArrayList<>();
+            writeCommands.add(writeCommandCache.take());
+            writeCommandCache.drainTo(writeCommands);
+            if (waitForFlush()) {
+                writeCommands.forEach(writeCommand -> onWriteFailed(writeCommand, JoyQueueCode.SE_WRITE_TIMEOUT));
+                return;
+            }
+            write(writeCommands);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            writeLock.unlock();
+        }
+    }
 
-            if (null != produceMetric) {
-                produceMetric.addTraffic("WriteTraffic", Arrays.stream(writeCommand.messages).mapToInt(ByteBuffer::remaining).sum());
+    /**
+     * 共享写入执行器调用，不阻塞等待写入请求，也不等待刷盘。
+     * 未刷盘的数据超过maxDirtySize时不处理写入请求，等待下次调度；写入请求堆积在队列中，队列满时阻塞生产者。
+     * @return 是否处理了写入请求
+     */
+    private boolean tryWrite() {
+        if (writeCommandCache.isEmpty() || isDirtyFull() || !writeLock.tryLock()) {
+            return false;
+        }
+        try {
+            List<WriteCommand> writeCommands = new ArrayList<>();
+            writeCommandCache.drainTo(writeCommands);
+            if (writeCommands.isEmpty()) {
+                return false;
             }
-            long t0 = System.nanoTime();
+            write(writeCommands);
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
 
+    /**
+     * 批量写入队列中积压的WriteCommand：只创建一次回滚快照，全部写入后一次性注册回调并唤醒刷盘线程。
+     * 每个WriteCommand独立处理异常，一个WriteCommand写入失败只回滚它自己写入的消息，不影响其它WriteCommand。
+     */
+    private void write(List<WriteCommand> writeCommands) {
+        long t0 = System.nanoTime();
+        int traffic = 0;
+        for (WriteCommand writeCommand : writeCommands) {
+            traffic += Arrays.stream(writeCommand.messages).mapToInt(ByteBuffer::remaining).sum();
+        }
+        if (null != produceMetric) {
+            produceMetric.addTraffic("WriteTraffic", traffic);
+        }
+
+        try {
             verifyState(true);
+        } catch (IllegalStateException e) {
+            writeCommands.forEach(writeCommand -> onWriteFailed(writeCommand, JoyQueueCode.CY_STATUS_ERROR));
+            logger.warn("Write failed, cause: store disabled! Store: {}.", base.getAbsolutePath());
+            return;
+        }
 
-            if (waitForFlush()) {
-                writeCommand.eventListener.onEvent(new WriteResult(JoyQueueCode.SE_WRITE_TIMEOUT, null));
-            } else {
-                long[] indices = write(writeCommand.messages);
-                handleCallback(writeCommand, store.right(), indices);
+        Map<Short, Long> partitionSnapshot = createPartitionSnapshot();
+        List<Callback> callbacks = new ArrayList<>(writeCommands.size());
+        boolean diskFull = false;
+        for (WriteCommand writeCommand : writeCommands) {
+            if (diskFull) {
+                onWriteFailed(writeCommand, JoyQueueCode.SE_DISK_FULL);
+                continue;
             }
-            long t1 = System.nanoTime();
-//
-            if (null != produceMetric) {
-                produceMetric.addLatency("WriteLatency", t1 - t0);
-                produceMetric.addCounter("WriteCount", 1);
+            try {
+                long[] indices = write(writeCommand.messages, partitionSnapshot);
+                Callback callback = new Callback(writeCommand.qosLevel, writeCommand.eventListener, indices);
+                callback.position = store.right();
+                callbacks.add(callback);
+            } catch (DiskFullException e) {
+                // 磁盘已满，后续的WriteCommand也无法写入
+                diskFull = true;
+                onWriteFailed(writeCommand, JoyQueueCode.SE_DISK_FULL);
+                logger.warn("Write failed, cause: disk full! Store: {}.", base.getAbsolutePath());
+            } catch (Throwable t) {
+                onWriteFailed(writeCommand, JoyQueueCode.SE_WRITE_FAILED);
+                logger.warn("Write failed, cause: exception! Store: {}.", base.getAbsolutePath(), t);
+            }
+        }
 
+        handleCallbacks(callbacks);
+        if (!callbacks.isEmpty()) {
+            if (null != flushLoopThread) {
+                flushLoopThread.wakeup();
+            } else if (null != flushExecutor) {
+                flushExecutor.wakeup(flushVirtualThread);
             }
-        } catch (DiskFullException e) {
-            if (null != writeCommand && writeCommand.eventListener != null)
-                writeCommand.eventListener.onEvent(new WriteResult(JoyQueueCode.SE_DISK_FULL, null));
-            logger.warn("Write failed, cause: disk full! Store: {}.", base.getAbsolutePath());
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-        } catch (IllegalStateException e) {
-            if (null != writeCommand && writeCommand.eventListener != null)
-                writeCommand.eventListener.onEvent(new WriteResult(JoyQueueCode.CY_STATUS_ERROR, null));
-            logger.warn("Write failed, cause: store disabled! Store: {}.", base.getAbsolutePath());
-        } catch (Throwable t) {
-            if (null != writeCommand && writeCommand.eventListener != null)
-                writeCommand.eventListener.onEvent(new WriteResult(JoyQueueCode.SE_WRITE_FAILED, null));
-            logger.warn("Write failed, cause: exception! Store: {}.", base.getAbsolutePath(), t);
-        } finally {
-            writeLock.unlock();
+        }
+
+        if (null != produceMetric) {
+            long t1 = System.nanoTime();
+            produceMetric.addLatency("WriteLatency", t1 - t0);
+            produceMetric.addCounter("WriteCount", writeCommands.size());
+        }
+    }
+
+    private void onWriteFailed(WriteCommand writeCommand, JoyQueueCode code) {
+        if (writeCommand.eventListener != null) {
+            writeCommand.eventListener.onEvent(new WriteResult(code, null));
         }
     }
 
@@ -712,29 +1396,39 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
         }
     }
 
+    private boolean isDirtyFull() {
+        return store.right() - store.flushPosition() >= config.maxDirtySize;
+    }
+
     private boolean waitForFlush() {
 
         long t0 = SystemClock.now();
-        while (store.right() - store.flushPosition() >= config.maxDirtySize && SystemClock.now() - t0 <= config.writeTimeoutMs) {
+        while (isDirtyFull() && SystemClock.now() - t0 <= config.writeTimeoutMs) {
             Thread.yield();
         }
         return SystemClock.now() - t0 > config.writeTimeoutMs;
     }
 
-    private void handleCallback(WriteCommand writeCommand, long position, long[] indices) {
-        Callback callback = new Callback(writeCommand.qosLevel, writeCommand.eventListener, indices);
-        callback.position = position;
-
+    private void handleCallbacks(List<Callback> callbacks) {
         // 处理回调
-        CallbackPositioningBelt belt = callbackMap.get(writeCommand.qosLevel);
-        if(null != belt) {
-            belt.put(callback);
+        for (Callback callback : callbacks) {
+            CallbackPositioningBelt belt = callbackMap.get(callback.qosLevel);
+            if(null != belt) {
+                belt.put(callback);
+            }
         }
     }
 
-    private void flush() {
+    /**
+     * 刷盘，每次最多刷盘maxDirtySize的数据或者MAX_FLUSH_ROUNDS轮，剩余的数据下次调度时继续刷盘
+     * @return 是否有数据写入磁盘
+     */
+    private boolean flush() {
+        boolean ret = false;
         try {
             boolean flushed;
+            int rounds = 0;
+            long flushedSize = 0L;
             do {
                 long t0 = System.nanoTime();
                 long before = store.flushPosition();
@@ -745,16 +1439,47 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
                     produceMetric.addLatency("FlushLatency", t1 - t0);
                     produceMetric.addCounter("FlushCount", 1);
                 }
-                if(flushed) {
+                if(flushed && !config.flushForce) {
                     callbackMap.get(QosLevel.PERSISTENCE).callbackBefore(flushPosition());
                 }
 //                this.callbackThread.wakeup();
                 flushCheckpointPeriodically();
-            } while (flushed);
+                ret = ret || flushed;
+                flushedSize += store.flushPosition() - before;
+                rounds++;
+            } while (flushed && rounds < MAX_FLUSH_ROUNDS && flushedSize < config.maxDirtySize);
+
+            // 未刷盘数据过多时写入请求在等待刷盘，刷盘后唤醒写入
+            if (ret && null != writeExecutor && !writeCommandCache.isEmpty()) {
+                writeExecutor.wakeup(writeVirtualThread);
+            }
+
+            if (config.flushForce) {
+                force();
+            }
 
         } catch (IOException e) {
             logger.warn("Exception:", e);
         }
+        return ret;
+    }
+
+    /**
+     * 组提交：一次fsync覆盖上次同步之后刷盘的所有WriteCommand，同步完成后再回调PERSISTENCE级别的写入。
+     * 索引可以在恢复时从消息日志重建，因此只同步消息日志。
+     */
+    private void force() throws IOException {
+        long t0 = System.nanoTime();
+        long before = store.forcePosition();
+        if (store.force()) {
+            if (null != produceMetric) {
+                long t1 = System.nanoTime();
+                produceMetric.addTraffic("ForceTraffic", store.forcePosition() - before);
+                produceMetric.addLatency("ForceLatency", t1 - t0);
+                produceMetric.addCounter("ForceCount", 1);
+            }
+            callbackMap.get(QosLevel.PERSISTENCE).callbackBefore(persistentPosition());
+        }
     }
 
     private boolean flushIndices() {
@@ -762,13 +1487,19 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
 
         try {
             boolean flushed;
+            int rounds = 0;
             do {
                 flushed = false;
                 for (Partition partition : partitionMap.values()) {
                     flushed = partition.store.flush() || flushed;
+                    partition.timeIndex.flush();
+                }
+                if (null != bizIdIndex) {
+                    bizIdIndex.flush();
                 }
                 ret = ret || flushed;
-            } while (flushed);
+                rounds++;
+            } while (flushed && rounds < MAX_FLUSH_ROUNDS);
         } catch (Exception e) {
             logger.warn("Exception: ", e);
         }
@@ -818,6 +1549,9 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
         WriteCommand writeCommand = new WriteCommand(qosLevel, eventListener, messages);
         try {
             this.writeCommandCache.put(writeCommand);
+            if (null != writeExecutor) {
+                writeExecutor.wakeup(writeVirtualThread);
+            }
         } catch (InterruptedException e) {
             logger.warn("Exception: ", e);
             if (eventListener != null)
@@ -833,7 +1567,7 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
         return indexPosition;
     }
 
-    PositioningStore<IndexItem> indexStore(short partition) {
+    IndexStore indexStore(short partition) {
         if (partitionMap.containsKey(partition)) {
             return partitionMap.get(partition).store;
         } else {
@@ -841,12 +1575,50 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
         }
     }
 
-    PositioningStore<ByteBuffer> messageStore() {
-        return store;
+    TimeIndex timeIndex(short partition) {
+        Partition p = partitionMap.get(partition);
+        return null == p ? null : p.timeIndex;
+    }
+
+    PositioningStore<ByteBuffer> messageStore() {
+        return store;
+    }
+
+    long scrubPosition() {
+        return scrubPosition;
+    }
+
+    void setScrubPosition(long scrubPosition) {
+        this.scrubPosition = scrubPosition;
+    }
+
+    long corruptCount() {
+        return corruptCount.get();
+    }
+
+    /**
+     * 后台校验发现损坏的消息，只记录最小的位置
+     */
+    void markCorrupt(long position, String reason) {
+        // 校验过程中数据已经被截断
+        if (position >= rightPosition()) {
+            return;
+        }
+        corruptCount.incrementAndGet();
+        if (corruptPosition < 0 || position < corruptPosition) {
+            corruptPosition = position;
+        }
+        logger.warn("Corrupted message found, topic: {}, group: {}, position: {}, reason: {}.",
+                topic, partitionGroup, position, reason);
+    }
+
+    @Override
+    public long corruptPosition() {
+        return corruptPosition;
     }
 
     Set<PositioningStore<IndexItem>> meetPositioningStores() {
-        return partitionMap.values().stream().map(p -> p.store).collect(Collectors.toSet());
+        return partitionMap.values().stream().map(p -> p.store.physicalStore()).collect(Collectors.toSet());
     }
 
 
@@ -858,7 +1630,7 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
         for (Map.Entry<Short, Long> partition : partitionAckMap.entrySet()) {
             Short p = partition.getKey();
             long minPartitionIndex = partition.getValue();
-            PositioningStore<IndexItem> indexStore = indexStore(p);
+            IndexStore indexStore = indexStore(p);
             if (indexStore != null) {
                 if (minPartitionIndex != Long.MAX_VALUE && keepUnconsumed) {
                     minPartitionIndex *= IndexItem.STORAGE_SIZE;
@@ -883,8 +1655,10 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
                     }
                 }
 
+                partitionMap.get(p).timeIndex.deleteBefore(indexStore.left() / IndexItem.STORAGE_SIZE);
+
                 try {
-                    long storeMinMessagePosition = indexStore.read(indexStore.left()).getOffset();
+                    long storeMinMessagePosition = indexStore.readOffset(indexStore.left());
                     if (minMessagePosition < 0 || minMessagePosition > storeMinMessagePosition) {
                         minMessagePosition = storeMinMessagePosition;
                     }
@@ -899,6 +1673,9 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
                 logger.info("Delete PositioningStore physical message file, offset position: <{}>", minMessagePosition);
             }
         }
+        if (null != bizIdIndex) {
+            deletedSize += bizIdIndex.deleteBefore(store.left());
+        }
 
         return deletedSize;
     }
@@ -910,14 +1687,11 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
      * @return true if partition 的最早消息时间小于指定时间
      *
      **/
-    private  boolean hasEarly(PositioningStore<IndexItem> indexStore,long time) throws IOException{
+    private  boolean hasEarly(IndexStore indexStore,long time) throws IOException{
         long left=indexStore.left();
-        IndexItem item=indexStore.read(left);
-        ByteBuffer message=store.read(item.getOffset());
         // message send time
-        long clientTimestamp=MessageParser.getLong(message,MessageParser.CLIENT_TIMESTAMP);
-        long offset=MessageParser.getInt(message,MessageParser.STORAGE_TIMESTAMP);
-        if(clientTimestamp+offset<time){
+        long storageTimestamp=store.read(indexStore.readOffset(left), (message, length) -> getStorageTimestamp(message));
+        if(storageTimestamp<time){
             return true;
         }else{
             return false;
@@ -952,6 +1726,11 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
 
     @Override
     public synchronized void start() {
+        // 启动后数据可能发生变化，上次停止时写入的正常关闭标记不再可信
+        File markerFile = new File(base, SHUTDOWN_MARKER_FILE);
+        if (markerFile.exists() && !markerFile.delete()) {
+            logger.warn("Delete shutdown marker {} failed!", markerFile.getAbsolutePath());
+        }
         if (config.printMetricIntervalMs > 0) {
             metricThread.start();
         }
@@ -965,12 +1744,20 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
 //    }
 
     private void startFlushThread() {
-        flushLoopThread.start();
+        if (null != flushExecutor) {
+            flushExecutor.start(flushVirtualThread, String.format("FlushThread-%s-%d", topic, partitionGroup));
+        } else {
+            flushLoopThread.start();
+        }
     }
 
 
     private void startWriteThread() {
-        this.writeLoopThread.start();
+        if (null != writeExecutor) {
+            writeExecutor.start(writeVirtualThread, String.format("WriteThread-%s-%d", topic, partitionGroup));
+        } else {
+            this.writeLoopThread.start();
+        }
     }
 
     @Override
@@ -988,9 +1775,14 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
                 } catch (InterruptedException e) {
                     logger.error(e.getMessage(), e);
                 }
+                cancelBizIdIndexBackfill();
                 System.out.println("Stopping flush thread...");
                 stopFlushThread();
+                if (config.flushForce) {
+                    store.force();
+                }
                 flushCheckpoint();
+                writeShutdownMarker();
                 System.out.println("Stopping callback thread...");
 
 //                stopCallbackThread();
@@ -1005,7 +1797,7 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
     }
 
     private boolean isAllStoreClean() {
-        return Stream.concat(Stream.of(store), partitionMap.values().stream().map(partition -> partition.store)).allMatch(PositioningStore::isClean);
+        return Stream.concat(Stream.of(store), partitionMap.values().stream().map(partition -> partition.store.physicalStore())).allMatch(PositioningStore::isClean);
     }
 
 //    private void stopCallbackThread() {
@@ -1013,11 +1805,27 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
 //    }
 
     private void stopFlushThread() {
-        flushLoopThread.stop();
+        if (null != flushExecutor) {
+            stopVirtualThread(flushExecutor, flushVirtualThread);
+        } else {
+            flushLoopThread.stop();
+        }
     }
 
     private void stopWriteThread() {
-        writeLoopThread.stop();
+        if (null != writeExecutor) {
+            stopVirtualThread(writeExecutor, writeVirtualThread);
+        } else {
+            writeLoopThread.stop();
+        }
+    }
+
+    private void stopVirtualThread(VirtualThreadExecutor executor, VirtualThread virtualThread) {
+        try {
+            executor.stop(virtualThread);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     @Override
@@ -1086,9 +1894,14 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
         stopFlushThread();
         try {
             for (Partition partition : partitionMap.values()) {
-                partition.store.setRight(0L);
+                partition.setRight(0L);
             }
             store.clear(position);
+            if (null != bizIdIndex) {
+                bizIdIndex.clear(position);
+            }
+            corruptPosition = -1L;
+            logCompactor.reset(position);
         } finally {
             startFlushThread();
         }
@@ -1108,13 +1921,20 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
         //  如果被选为LEADER，index是不正确的。
         if (clearIndexStore) {
             for (Partition partition : partitionMap.values()) {
-                partition.store.setRight(0L);
+                partition.setRight(0L);
             }
         } else {
             rollbackPartitions(position);
         }
 
         store.setRight(position);
+        if (null != bizIdIndex) {
+            rebuildBizIdIndex(bizIdIndex.truncate(position));
+        }
+        if (corruptPosition >= position) {
+            corruptPosition = -1L;
+        }
+        logCompactor.reset(position);
 
         resetLastEntryTerm();
     }
@@ -1138,10 +1958,45 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
     }
 
 
+    /**
+     * 所有消息都已建立索引时写入正常关闭标记，下次启动时用于跳过索引重建。
+     */
+    private void writeShutdownMarker() throws IOException {
+        if (indexPosition != store.right()) {
+            return;
+        }
+        Map<Short, Long> partitions = new HashMap<>(partitionMap.size());
+        Map<Short, Long> partitionCrcs = new HashMap<>(partitionMap.size());
+        for (Map.Entry<Short, Partition> entry : partitionMap.entrySet()) {
+            IndexStore indexStore = entry.getValue().store;
+            if (config.flushForce) {
+                indexStore.force();
+            }
+            partitions.put(entry.getKey(), indexStore.right());
+            partitionCrcs.put(entry.getKey(), tailCrc(indexStore.physicalStore()));
+        }
+        ShutdownMarker marker = new ShutdownMarker(indexPosition, store.right(), tailCrc(store), partitions, partitionCrcs);
+        byte [] serializedData = JSON.toJSONString(marker,
+                SerializerFeature.PrettyFormat, SerializerFeature.DisableCircularReferenceDetect).getBytes(StandardCharsets.UTF_8);
+
+        File markerFile = new File(base, SHUTDOWN_MARKER_FILE);
+        try(FileOutputStream fos = new FileOutputStream(markerFile)) {
+            fos.write(serializedData);
+            fos.getFD().sync();
+        }
+    }
+
     long flushPosition() {
         return store.flushPosition();
     }
 
+    /**
+     * 已持久化的位置：开启强制同步时为fsync完成的位置，否则为刷盘位置。
+     */
+    long persistentPosition() {
+        return config.flushForce ? store.forcePosition() : store.flushPosition();
+    }
+
     /**
      * 集群提交的位置 flushPosition <= commitPosition
      */
@@ -1224,7 +2079,7 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
                         indexItem.setBatchMessageSize(batchSize);
                     }
 
-                    writeIndex(indexItem, partition.store);
+                    writeIndex(indexItem, partition, byteBuffer);
                     updateLastEntryTerm(byteBuffer);
                     byteBuffer.position(byteBuffer.position() + indexItem.getLength());
                     counter++;
@@ -1278,7 +2133,7 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
             // 回滚分区索引
             partitionSnapshot.forEach((partition, snapshotPosition) -> {
                 try {
-                    partitionMap.get(partition).store.setRight(snapshotPosition);
+                    partitionMap.get(partition).setRight(snapshotPosition);
                 } catch (Throwable e) {
                     logger.warn("Rollback partition failed! " +
                                     "topic: {}, group: {}, partition: {}, rollback position: {}, current position: {}, store: {}.",
@@ -1330,7 +2185,7 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
         }
 
         belt = this.callbackMap.get(QosLevel.ALL);
-        belt.callbackBefore(Math.min(this.flushPosition(), this.commitPosition()));
+        belt.callbackBefore(Math.min(this.persistentPosition(), this.commitPosition()));
 
 
 //        callbackThread.wakeup();
@@ -1357,6 +2212,284 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
         return term;
     }
 
+    @Override
+    public List<SnapshotFile> snapshotFiles() {
+        List<SnapshotFile> files = new ArrayList<>();
+        // 最后一个文件可能正在写入，不包含在快照中
+        List<StoreFile<ByteBuffer>> journalFiles = store.storeFiles();
+        for (int i = 0; i < journalFiles.size() - 1; i++) {
+            StoreFile<ByteBuffer> storeFile = journalFiles.get(i);
+            if (!storeFile.isClean() || storeFile.position() + storeFile.writePosition() > indexPosition) {
+                break;
+            }
+            files.add(new SnapshotFile(SnapshotFile.JOURNAL, storeFile.position(), storeFile.timestamp(),
+                    storeFile.writePosition(), false));
+        }
+        if (files.isEmpty()) {
+            return files;
+        }
+        // 索引文件传输到当前的结束位置，FOLLOWER安装快照时截断快照结束位置之后的索引
+        for (Map.Entry<Short, Partition> entry : partitionMap.entrySet()) {
+            IndexStore indexStore = entry.getValue().store;
+            boolean compactIndex = indexStore instanceof CompactIndexStore;
+            for (StoreFile<IndexItem> storeFile : indexStore.physicalStore().storeFiles()) {
+                if (storeFile.writePosition() > 0) {
+                    files.add(new SnapshotFile(entry.getKey(), storeFile.position(), storeFile.timestamp(),
+                            storeFile.writePosition(), compactIndex));
+                }
+            }
+        }
+        return files;
+    }
+
+    @Override
+    public RByteBuffer readSnapshotFile(SnapshotFile file, long offset, int length) throws IOException {
+        PositioningStore<?> positioningStore = file.isJournal() ? store : snapshotIndexStore(file.getPartition());
+        int readLength = (int) Math.min(length, file.getLength() - offset);
+        // 直接引用缓存页，编码请求时才复制到网络缓冲区，请求完成后释放
+        return positioningStore.readPinnedByteBuffer(file.getPosition() + offset, readLength);
+    }
+
+    @Override
+    public void writeSnapshotFile(SnapshotFile file, long offset, ByteBuffer data) throws IOException {
+        if (!file.isJournal() && !partitionMap.containsKey(file.getPartition())) {
+            logger.info("Skip snapshot file of removed partition, file: {}, store: {}.", file, base.getAbsolutePath());
+            return;
+        }
+        int headerSize = file.isJournal() ? store.fileHeaderSize() : snapshotIndexStore(file.getPartition()).fileHeaderSize();
+        File dir = snapshotDir(file.getPartition());
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException(String.format("Create directory: %s failed!", dir.getAbsolutePath()));
+        }
+        File compactMarker = new File(dir, COMPACT_INDEX_MARKER_FILE);
+        if (file.isCompactIndex() && !compactMarker.isFile() && !compactMarker.createNewFile()) {
+            throw new IOException(String.format("Create file: %s failed!", compactMarker.getAbsolutePath()));
+        }
+
+        File target = new File(dir, String.valueOf(file.getPosition()));
+        StandardOpenOption[] options = offset == 0L ?
+                new StandardOpenOption[]{StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING} :
+                new StandardOpenOption[]{StandardOpenOption.CREATE, StandardOpenOption.WRITE};
+        try (FileChannel channel = FileChannel.open(target.toPath(), options)) {
+            if (offset == 0L) {
+                // 文件头的前8个字节是文件的创建时间
+                ByteBuffer header = ByteBuffer.allocate(headerSize);
+                header.putLong(file.getTimestamp()).clear();
+                writeFully(channel, header, 0L);
+            }
+            writeFully(channel, data, headerSize + offset);
+            if (headerSize + file.getLength() <= channel.size()) {
+                channel.force(true);
+            }
+        }
+    }
+
+    @Override
+    public void clearSnapshot() {
+        File snapshotBase = new File(base, SNAPSHOT_DIR);
+        if (snapshotBase.exists()) {
+            Store.deleteFolder(snapshotBase);
+        }
+    }
+
+    @Override
+    public void installSnapshot(long position) throws IOException {
+        File snapshotBase = new File(base, SNAPSHOT_DIR);
+        File journalDir = snapshotDir(SnapshotFile.JOURNAL);
+        long snapshotRight = snapshotRight(journalDir);
+        if (snapshotRight != position) {
+            throw new IOException(String.format("Incomplete snapshot, expected position: %d, actual: %d, store: %s.",
+                    position, snapshotRight, base.getAbsolutePath()));
+        }
+
+        logger.info("Installing snapshot, position: {}, store: {}...", Format.formatWithComma(position), base.getAbsolutePath());
+        // 先写入安装标记，安装过程中异常退出时，启动后按照标记用快照目录中的文件重新安装
+        File markerFile = new File(base, SNAPSHOT_INSTALL_MARKER_FILE);
+        try (FileOutputStream fos = new FileOutputStream(markerFile)) {
+            fos.write(String.valueOf(position).getBytes(StandardCharsets.UTF_8));
+            fos.getFD().sync();
+        }
+        cancelBizIdIndexBackfill();
+        stopFlushThread();
+        writeLock.lock();
+        try {
+            store.install(journalDir, position);
+            for (Map.Entry<Short, Partition> entry : partitionMap.entrySet()) {
+                installPartition(entry.getKey(), entry.getValue(), snapshotDir(entry.getKey()));
+            }
+            rollbackPartitions(position);
+            indexPosition = position;
+            // 快照不包含时间索引，从分区索引重建，每隔timeIndexIntervalCount条消息读取一次存储时间
+            recoverTimeIndices();
+            flushCheckpoint();
+            if (null != bizIdIndex) {
+                // 只索引之后写入的消息，快照中的消息在后台补建，不在锁内扫描整个消息日志
+                bizIdIndex.clear(position);
+            }
+            corruptPosition = -1L;
+            scrubPosition = store.left();
+            logCompactor.reset(store.left());
+            resetLastEntryTerm();
+            Files.deleteIfExists(markerFile.toPath());
+            Store.deleteFolder(snapshotBase);
+        } finally {
+            writeLock.unlock();
+            startFlushThread();
+        }
+        if (null != bizIdIndex) {
+            backfillBizIdIndex(position);
+        }
+        logger.info("Snapshot installed, left position: {}, right position: {}, store: {}.",
+                Format.formatWithComma(store.left()), Format.formatWithComma(store.right()), base.getAbsolutePath());
+    }
+
+    /**
+     * 用快照中的索引文件重新创建分区索引，快照中没有这个分区的索引文件时清空索引。
+     * 索引格式和LEADER保持一致。时间索引先清空，回滚分区索引之后再重建。
+     */
+    private void installPartition(short partition, Partition p, File dir) throws IOException {
+        boolean compactIndex = hasStoreFile(dir) ? new File(dir, COMPACT_INDEX_MARKER_FILE).isFile() : p.store instanceof CompactIndexStore;
+        p.store.physicalStore().clear(0L);
+        p.store.close();
+
+        File indexBase = new File(base, "index" + File.separator + partition);
+        File compactMarker = new File(indexBase, COMPACT_INDEX_MARKER_FILE);
+        if (!compactIndex) {
+            Files.deleteIfExists(compactMarker.toPath());
+        } else if (!compactMarker.isFile() && !compactMarker.createNewFile()) {
+            throw new IOException(String.format("Create file: %s failed!", compactMarker.getAbsolutePath()));
+        }
+        File[] files = dir.listFiles(file -> file.isFile() && file.getName().matches("\\d+"));
+        if (null != files) {
+            for (File file : files) {
+                PositioningStore.linkFile(file, new File(indexBase, file.getName()));
+            }
+        }
+
+        IndexStore indexStore = newIndexStore(partition, compactIndex);
+        indexStore.recover();
+        p.timeIndex.truncate(0L);
+        partitionMap.put(partition, new Partition(indexStore, p.timeIndex));
+    }
+
+    /**
+     * 快照目录中消息日志文件的结束位置，目录中没有文件时返回-1
+     */
+    private long snapshotRight(File journalDir) {
+        long snapshotRight = -1L;
+        File[] journalFiles = journalDir.listFiles(file -> file.isFile() && file.getName().matches("\\d+"));
+        if (null != journalFiles) {
+            for (File journalFile : journalFiles) {
+                snapshotRight = Math.max(snapshotRight, Long.parseLong(journalFile.getName()) + journalFile.length() - store.fileHeaderSize());
+            }
+        }
+        return snapshotRight;
+    }
+
+    /**
+     * 启动时存在安装标记，说明上次安装快照被中断，消息日志和索引可能只替换了一部分。
+     * 按文件重新安装：删除消息日志、分区索引和时间索引的所有文件，链接快照目录中的文件，
+     * 删除检查点和业务ID索引，之后按照异常退出的方式恢复并重建索引。
+     * 快照目录中的消息日志不完整时清空存储，由LEADER重新复制。
+     *
+     * @return 重新安装的快照结束位置，没有需要重新安装的快照时返回-1
+     */
+    private long recoverSnapshotInstall() throws IOException {
+        File markerFile = new File(base, SNAPSHOT_INSTALL_MARKER_FILE);
+        if (!markerFile.isFile()) {
+            return -1L;
+        }
+        long position;
+        try {
+            position = Long.parseLong(new String(Files.readAllBytes(markerFile.toPath()), StandardCharsets.UTF_8).trim());
+        } catch (NumberFormatException e) {
+            // 标记写入完成之前不会修改存储，标记不完整时直接删除
+            logger.warn("Invalid snapshot install marker {}, ignore it.", markerFile.getAbsolutePath(), e);
+            Files.deleteIfExists(markerFile.toPath());
+            return -1L;
+        }
+        File journalDir = snapshotDir(SnapshotFile.JOURNAL);
+        boolean complete = snapshotRight(journalDir) == position;
+        logger.warn("Interrupted snapshot install found, position: {}, snapshot complete: {}, store: {}. Reinstalling...",
+                Format.formatWithComma(position), complete, base.getAbsolutePath());
+
+        deleteStoreFiles(base);
+        deleteStoreFiles(config.coldBase);
+        File indexBase = new File(base, "index");
+        Short[] partitions = indexBase.isDirectory() ? loadPartitionIndices(indexBase) : null;
+        if (null != partitions) {
+            for (short partition : partitions) {
+                String relPath = "index" + File.separator + partition;
+                File partitionBase = new File(base, relPath);
+                deleteStoreFiles(partitionBase);
+                deleteStoreFiles(null == config.coldBase ? null : new File(config.coldBase, relPath));
+                deleteStoreFiles(new File(base, "timeindex" + File.separator + partition));
+                File dir = snapshotDir(partition);
+                if (complete && hasStoreFile(dir)) {
+                    File compactMarker = new File(partitionBase, COMPACT_INDEX_MARKER_FILE);
+                    if (!new File(dir, COMPACT_INDEX_MARKER_FILE).isFile()) {
+                        Files.deleteIfExists(compactMarker.toPath());
+                    } else if (!compactMarker.isFile() && !compactMarker.createNewFile()) {
+                        throw new IOException(String.format("Create file: %s failed!", compactMarker.getAbsolutePath()));
+                    }
+                    linkStoreFiles(dir, partitionBase);
+                }
+            }
+        }
+        if (complete) {
+            linkStoreFiles(journalDir, base);
+        }
+        Files.deleteIfExists(new File(base, CHECKPOINT_FILE).toPath());
+        File bizIdBase = new File(base, "bizid");
+        if (bizIdBase.exists()) {
+            Store.deleteFolder(bizIdBase);
+        }
+        Files.deleteIfExists(markerFile.toPath());
+        Store.deleteFolder(new File(base, SNAPSHOT_DIR));
+        return complete ? position : -1L;
+    }
+
+    /**
+     * 删除目录中的存储文件，包括压缩的文件和临时文件，不删除子目录和标记文件
+     */
+    private static void deleteStoreFiles(File dir) throws IOException {
+        File[] files = null == dir ? null : dir.listFiles(file -> file.isFile() && file.getName().matches("\\d+.*"));
+        if (null != files) {
+            for (File file : files) {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+    }
+
+    private static void linkStoreFiles(File dir, File target) throws IOException {
+        File[] files = dir.listFiles(file -> file.isFile() && file.getName().matches("\\d+"));
+        if (null != files) {
+            for (File file : files) {
+                PositioningStore.linkFile(file, new File(target, file.getName()));
+            }
+        }
+    }
+
+    private PositioningStore<IndexItem> snapshotIndexStore(short partition) {
+        Partition p = partitionMap.get(partition);
+        if (null == p) {
+            throw new NoSuchElementException(String.format("No such partition: %d in topic: %s, partition group: %d.", partition, topic, partitionGroup));
+        }
+        return p.store.physicalStore();
+    }
+
+    private File snapshotDir(short partition) {
+        File snapshotBase = new File(base, SNAPSHOT_DIR);
+        return partition == SnapshotFile.JOURNAL ? new File(snapshotBase, "journal") :
+                new File(snapshotBase, "index" + File.separator + partition);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
     @Override
     public long leftPosition() {
         return store.left();
@@ -1368,12 +2501,44 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
 
     @Override
     public void close() {
+        cancelBizIdIndexBackfill();
         if (null != store) store.close();
         for (Partition partition : partitionMap.values()) {
             partition.store.close();
+            partition.timeIndex.close();
+        }
+        if (null != bizIdIndex) {
+            bizIdIndex.close();
         }
     }
 
+    /**
+     * 根据业务ID查找消息，没有开启业务ID索引时返回空列表。
+     * 只能查到开启索引之后写入并且还没有被删除的消息。
+     */
+    public List<ByteBuffer> readByBizId(String bizId) throws IOException {
+        List<ByteBuffer> messages = new ArrayList<>();
+        if (null == bizIdIndex || null == bizId) {
+            return messages;
+        }
+        byte[] bytes = bizId.getBytes(StandardCharsets.UTF_8);
+        for (long position : bizIdIndex.lookup(bytes)) {
+            if (position < store.left() || position >= indexPosition) {
+                continue;
+            }
+            try {
+                ByteBuffer message = store.read(position);
+                // 哈希可能冲突，需要比较消息中的业务ID
+                if (null != message && BizIdIndex.matches(message, bytes)) {
+                    messages.add(message);
+                }
+            } catch (PositionOverflowException | PositionUnderflowException ignored) {
+                // 消息已经被删除或者截断
+            }
+        }
+        return messages;
+    }
+
     /**
      * 根据消息存储时间获取索引。
      * 如果找到，返回最后一条 “存储时间 <= timestamp” 消息的索引。
@@ -1383,8 +2548,24 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
 
         try {
             if (partitionMap.containsKey(partition)) {
-                PositioningStore<IndexItem> indexStore = partitionMap.get(partition).store;
-                long searchedIndex = binarySearchByTimestamp(timestamp, store, indexStore, indexStore.left() / IndexItem.STORAGE_SIZE, indexStore.right() / IndexItem.STORAGE_SIZE - 1);
+                Partition p = partitionMap.get(partition);
+                IndexStore indexStore = p.store;
+                long leftIndex = indexStore.left() / IndexItem.STORAGE_SIZE;
+                long rightIndex = indexStore.right() / IndexItem.STORAGE_SIZE - 1;
+
+                // 先用时间索引缩小查找范围，时间索引读取失败时在[leftIndex, rightIndex]全范围内查找
+                try {
+                    long[] range = p.timeIndex.lookup(timestamp);
+                    if (range[0] > leftIndex && range[0] < rightIndex) {
+                        leftIndex = range[0];
+                    }
+                    if (range[1] > leftIndex && range[1] < rightIndex) {
+                        rightIndex = range[1];
+                    }
+                } catch (PositionOverflowException | PositionUnderflowException | IOException e) {
+                    logger.warn("Lookup time index of partition {} failed, topic: {}, timestamp: {}.", partition, topic, timestamp, e);
+                }
+                long searchedIndex = binarySearchByTimestamp(timestamp, store, indexStore, leftIndex, rightIndex);
 
                 // 考虑到有可能出现连续n条消息时间相同，找到这n条消息的第一条
                 while (searchedIndex - 1 >= indexStore.left() && timestamp <= getStorageTimestamp(store, indexStore, searchedIndex - 1)) {
@@ -1400,18 +2581,21 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
     }
 
     private long getStorageTimestamp(PositioningStore<ByteBuffer> journalStore,
-                                     PositioningStore<IndexItem> indexStore,
+                                     IndexStore indexStore,
                                      long index) throws IOException {
-        IndexItem indexItem = indexStore.read(index * IndexItem.STORAGE_SIZE);
-        ByteBuffer journal = journalStore.read(indexItem.getOffset(), indexItem.getLength());
+        // 直接从缓存页中读取消息的存储时间，不复制消息
+        return journalStore.read(indexStore.readOffset(index * IndexItem.STORAGE_SIZE),
+                (message, length) -> getStorageTimestamp(message));
+    }
 
-        return MessageParser.getLong(journal, MessageParser.CLIENT_TIMESTAMP) + MessageParser.getInt(journal, MessageParser.STORAGE_TIMESTAMP);
+    static long getStorageTimestamp(ByteBuffer message) {
+        return MessageParser.getLong(message, MessageParser.CLIENT_TIMESTAMP) + MessageParser.getInt(message, MessageParser.STORAGE_TIMESTAMP);
     }
 
     // 折半查找
     private long binarySearchByTimestamp(long timestamp,
                                          PositioningStore<ByteBuffer> journalStore,
-                                         PositioningStore<IndexItem> indexStore,
+                                         IndexStore indexStore,
                                          long leftIndexInclude,
                                          long rightIndexInclude) throws IOException {
 
@@ -1461,27 +2645,37 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
     }
 
     private static class Partition {
-        private final PositioningStore<IndexItem> store;
+        private final IndexStore store;
+        private final TimeIndex timeIndex;
+        // 顺序读取识别：下一次读取的索引 -> 已连续顺序读取的次数
+        private final Map<Long, Integer> readStreams = new ConcurrentHashMap<>();
 
 
-        private Partition(PositioningStore<IndexItem> store) {
+        private Partition(IndexStore store, TimeIndex timeIndex) {
             this.store = store;
+            this.timeIndex = timeIndex;
+        }
+
+        private void setRight(long position) throws IOException {
+            store.setRight(position);
+            timeIndex.truncate(position / IndexItem.STORAGE_SIZE);
         }
 
         private void rollbackTo(long messagePosition) throws IOException {
 
             long indexPosition = store.right() - IndexItem.STORAGE_SIZE;
+            long[] offsets = new long[1];
+            int[] lengths = new int[1];
             while (indexPosition >= store.left()) {
-                IndexItem indexItem = store.read(indexPosition);
-                if (null != indexItem) {
-                    if (indexItem.getOffset() + indexItem.getLength() <= messagePosition) break;
+                if (store.batchRead(indexPosition, 1, offsets, lengths) > 0) {
+                    if (offsets[0] + lengths[0] <= messagePosition) break;
                 } else {
                     throw new RollBackException(String.format("Failed to rollback store %s to position %d, batchRead index failed!", store.base().getAbsolutePath(), messagePosition));
                 }
                 indexPosition -= IndexItem.STORAGE_SIZE;
             }
 
-            store.setRight(indexPosition <= store.left() ? 0L : indexPosition + IndexItem.STORAGE_SIZE);
+            setRight(indexPosition <= store.left() ? 0L : indexPosition + IndexItem.STORAGE_SIZE);
 
         }
 
@@ -1499,6 +2693,36 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
         }
     }
 
+    /**
+     * 一次读取消息的上下文
+     */
+    private static class ReadContext {
+        private final short partition;
+        private final long index;
+        private final long maxSize;
+        private final boolean pinned;
+        private final List<ByteBuffer> buffers;
+        private final List<RByteBuffer> pinnedBuffers;
+        // 读取到的索引：消息偏移量和长度
+        private final long[] offsets;
+        private final int[] lengths;
+        // 已读取消息的总长度
+        private long size = 0L;
+        // 合并后的读取次数
+        private int rangeCount = 0;
+
+        private ReadContext(short partition, long index, int count, long maxSize, boolean pinned) {
+            this.partition = partition;
+            this.index = index;
+            this.maxSize = maxSize;
+            this.pinned = pinned;
+            this.buffers = new ArrayList<>(count);
+            this.pinnedBuffers = pinned ? new ArrayList<>() : null;
+            this.offsets = new long[count];
+            this.lengths = new int[count];
+        }
+    }
+
     public static class Config {
         public static final int DEFAULT_MAX_MESSAGE_LENGTH = 4 * 1024 * 1024;
         public static final int DEFAULT_WRITE_REQUEST_CACHE_SIZE = 128;
@@ -1506,6 +2730,9 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
         public static final long DEFAULT_WRITE_TIMEOUT_MS = 3000L;
         public static final long DEFAULT_MAX_DIRTY_SIZE = 10L * 1024 * 1024;
         public static final long DEFAULT_PRINT_METRIC_INTERVAL_MS = 0L;
+        public static final boolean DEFAULT_FLUSH_FORCE = false;
+        public static final long DEFAULT_TIME_INDEX_INTERVAL_MS = 1000L;
+        public static final int DEFAULT_TIME_INDEX_INTERVAL_COUNT = 4096;
 
         /**
          * 允许脏数据的最大长度，超过这个长度就阻塞写入。
@@ -1540,6 +2767,68 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
         private PositioningStore.Config storeConfig;
         private PositioningStore.Config indexStoreConfig;
 
+        /**
+         * 刷盘后是否强制同步到磁盘(fsync)。
+         * 开启后PERSISTENCE级别的写入在fsync完成后才返回，每轮刷盘只做一次fsync。
+         */
+        private boolean flushForce = DEFAULT_FLUSH_FORCE;
+
+        /**
+         * 时间索引的时间间隔(ms)和消息条数间隔，满足任一间隔就记录一条时间索引
+         */
+        private long timeIndexIntervalMs = DEFAULT_TIME_INDEX_INTERVAL_MS;
+        private int timeIndexIntervalCount = DEFAULT_TIME_INDEX_INTERVAL_COUNT;
+
+        /**
+         * 冷存储目录，为null时不开启分层存储
+         */
+        private File coldBase = null;
+
+        /**
+         * 文件创建超过这个时间(ms)后转移到冷存储
+         */
+        private long coldTierAgeMs = StoreConfig.DEFAULT_COLD_TIER_AGE_MS;
+
+        /**
+         * 消息日志文件的压缩类型，为null时不压缩
+         */
+        private String compressType = null;
+
+        /**
+         * 消息日志文件创建超过这个时间(ms)后压缩
+         */
+        private long compressAgeMs = StoreConfig.DEFAULT_COMPRESS_AGE_MS;
+
+        /**
+         * 压缩块大小
+         */
+        private int compressBlockSize = StoreConfig.DEFAULT_COMPRESS_BLOCK_SIZE;
+
+        /**
+         * 顺序预读引擎，多个分区组共享，为null时不预读
+         */
+        private ReadAhead readAhead = null;
+
+        /**
+         * 新建的分区索引是否使用紧凑格式，批消息只保存一条索引
+         */
+        private boolean compactIndex = false;
+
+        /**
+         * 异步读取的线程池，同一个数据目录下的分区组共享，为null时异步读取在调用线程中执行
+         */
+        private ExecutorService readExecutor = null;
+
+        /**
+         * 后台任务（例如补建业务ID索引）的线程池，所有分区组共享，为null时在调用线程中执行
+         */
+        private ExecutorService backgroundExecutor = null;
+
+        /**
+         * 是否建立业务ID索引
+         */
+        private boolean bizIdIndex = false;
+
         public Config() {
 
             this(DEFAULT_MAX_MESSAGE_LENGTH, DEFAULT_WRITE_REQUEST_CACHE_SIZE, DEFAULT_FLUSH_INTERVAL_MS,
@@ -1560,6 +2849,110 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
             this.storeConfig = storeConfig;
             this.indexStoreConfig = indexStoreConfig;
         }
+
+        public boolean isFlushForce() {
+            return flushForce;
+        }
+
+        public void setFlushForce(boolean flushForce) {
+            this.flushForce = flushForce;
+        }
+
+        public long getTimeIndexIntervalMs() {
+            return timeIndexIntervalMs;
+        }
+
+        public void setTimeIndexIntervalMs(long timeIndexIntervalMs) {
+            this.timeIndexIntervalMs = timeIndexIntervalMs;
+        }
+
+        public int getTimeIndexIntervalCount() {
+            return timeIndexIntervalCount;
+        }
+
+        public void setTimeIndexIntervalCount(int timeIndexIntervalCount) {
+            this.timeIndexIntervalCount = timeIndexIntervalCount;
+        }
+
+        public File getColdBase() {
+            return coldBase;
+        }
+
+        public void setColdBase(File coldBase) {
+            this.coldBase = coldBase;
+        }
+
+        public long getColdTierAgeMs() {
+            return coldTierAgeMs;
+        }
+
+        public void setColdTierAgeMs(long coldTierAgeMs) {
+            this.coldTierAgeMs = coldTierAgeMs;
+        }
+
+        public String getCompressType() {
+            return compressType;
+        }
+
+        public void setCompressType(String compressType) {
+            this.compressType = compressType;
+        }
+
+        public long getCompressAgeMs() {
+            return compressAgeMs;
+        }
+
+        public void setCompressAgeMs(long compressAgeMs) {
+            this.compressAgeMs = compressAgeMs;
+        }
+
+        public int getCompressBlockSize() {
+            return compressBlockSize;
+        }
+
+        public void setCompressBlockSize(int compressBlockSize) {
+            this.compressBlockSize = compressBlockSize;
+        }
+
+        public ReadAhead getReadAhead() {
+            return readAhead;
+        }
+
+        public void setReadAhead(ReadAhead readAhead) {
+            this.readAhead = readAhead;
+        }
+
+        public boolean isBizIdIndex() {
+            return bizIdIndex;
+        }
+
+        public void setBizIdIndex(boolean bizIdIndex) {
+            this.bizIdIndex = bizIdIndex;
+        }
+
+        public boolean isCompactIndex() {
+            return compactIndex;
+        }
+
+        public void setCompactIndex(boolean compactIndex) {
+            this.compactIndex = compactIndex;
+        }
+
+        public ExecutorService getReadExecutor() {
+            return readExecutor;
+        }
+
+        public void setReadExecutor(ExecutorService readExecutor) {
+            this.readExecutor = readExecutor;
+        }
+
+        public ExecutorService getBackgroundExecutor() {
+            return backgroundExecutor;
+        }
+
+        public void setBackgroundExecutor(ExecutorService backgroundExecutor) {
+            this.backgroundExecutor = backgroundExecutor;
+        }
     }
 
     class CallbackPositioningBelt {
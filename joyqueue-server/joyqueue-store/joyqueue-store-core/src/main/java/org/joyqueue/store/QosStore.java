@@ -24,6 +24,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Future;
 
 /**
@@ -75,6 +76,11 @@ public class QosStore implements PartitionGroupStore {
         return store.clean(time, partitionAckMap, keepUnconsumed);
     }
 
+    @Override
+    public long compact(long tombstoneBefore) throws IOException {
+        return store.compact(tombstoneBefore);
+    }
+
     /**
      * 根据消息存储时间获取索引。
      * 如果找到，返回最后一条 “存储时间 <= timestamp” 消息的索引。
@@ -106,4 +112,19 @@ public class QosStore implements PartitionGroupStore {
 
         return store.read(partition, index, count, maxSize);
     }
+
+    @Override
+    public ReadResult readPinned(short partition, long index, int count, long maxSize) throws IOException {
+        return store.readPinned(partition, index, count, maxSize);
+    }
+
+    @Override
+    public CompletableFuture<ReadResult> readAsync(short partition, long index, int count, long maxSize) {
+        return store.readAsync(partition, index, count, maxSize);
+    }
+
+    @Override
+    public CompletableFuture<ReadResult> readPinnedAsync(short partition, long index, int count, long maxSize) {
+        return store.readPinnedAsync(partition, index, count, maxSize);
+    }
 }
@@ -0,0 +1,191 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.store;
+
+import org.joyqueue.store.file.PositioningStore;
+import org.joyqueue.store.file.StoreFile;
+import org.joyqueue.store.utils.PreloadBufferPool;
+import org.joyqueue.toolkit.concurrent.NamedThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 顺序预读：消费者落后较多并且顺序读取时，异步把后续的消息日志和索引提前加载到缓存页中，
+ * 避免每次读取到文件边界时同步加载缓存页导致的延迟抖动。
+ * 所有分区组共享一个内存预算，预读加载的缓存页被读取或者被清理后归还预算。
+ * 缓存池内存占用超过核心利用率时不预读，避免挤占尾部读取的缓存。
+ */
+public class ReadAhead {
+    private static final Logger logger = LoggerFactory.getLogger(ReadAhead.class);
+    private static final int QUEUE_SIZE = 1024;
+    private static final long KEEP_ALIVE_MS = 60 * 1000L;
+    private static final long STOP_TIMEOUT_MS = 10 * 1000L;
+
+    private final PreloadBufferPool bufferPool;
+    private final long maxMemorySize;
+    private final int window;
+    private final ThreadPoolExecutor executor;
+    // 预读加载、还没有被读取的缓存页
+    private final Map<StoreFile<?>, Preloaded> preloadedFiles = new ConcurrentHashMap<>();
+    private final AtomicLong usedSize = new AtomicLong(0L);
+    // 正在预读的分区索引，同一个分区同时只执行一个预读任务
+    private final Set<PositioningStore<?>> pending = ConcurrentHashMap.newKeySet();
+    private volatile boolean stopped = false;
+
+    public ReadAhead(PreloadBufferPool bufferPool, long maxMemorySize, int window, int threads) {
+        this.bufferPool = bufferPool;
+        this.maxMemorySize = maxMemorySize;
+        this.window = window;
+        this.executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_MS, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(QUEUE_SIZE), new NamedThreadFactory("ReadAheadThread", true));
+        // 没有落后的消费者时预读线程自动退出
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 提交一次预读
+     *
+     * @param indexStore    分区索引
+     * @param indexPosition 下一次读取的索引位置
+     * @param store         消息日志
+     * @param position      下一次读取的消息日志位置
+     */
+    public void submit(PositioningStore<?> indexStore, long indexPosition, PositioningStore<?> store, long position) {
+        // 消费者已经追上尾部，尾部数据都在缓存中，不需要预读
+        if (stopped || store.right() - position <= window) {
+            return;
+        }
+        releaseConsumed();
+        if (!pending.add(indexStore)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    preload(store, position);
+                    preload(indexStore, indexPosition);
+                } catch (Throwable t) {
+                    logger.debug("Read ahead exception, store: {}.", store.base(), t);
+                } finally {
+                    pending.remove(indexStore);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.remove(indexStore);
+        }
+    }
+
+    /**
+     * 停止预读，丢弃还没有执行的预读任务，避免关闭后的预读任务访问已经关闭的文件。
+     */
+    public void stop() {
+        stopped = true;
+        // 不中断正在执行的预读，中断会关闭读取中的FileChannel
+        List<Runnable> dropped = new ArrayList<>();
+        executor.getQueue().drainTo(dropped);
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(STOP_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                logger.warn("Read ahead threads not terminated in {}ms.", STOP_TIMEOUT_MS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        pending.clear();
+        preloadedFiles.clear();
+        usedSize.set(0L);
+        logger.info("Read ahead stopped, {} pending tasks dropped.", dropped.size());
+    }
+
+    /**
+     * 预读窗口内的数据，窗口跨越文件边界时最多提前加载一个新的缓存页
+     */
+    private void preload(PositioningStore<?> store, long position) throws IOException {
+        int pageSize = store.fileDataSize();
+        long reserved = reserve(pageSize) ? pageSize : 0L;
+        List<? extends StoreFile<?>> loaded;
+        try {
+            loaded = store.preload(position, window, reserved);
+        } catch (Throwable t) {
+            usedSize.addAndGet(-reserved);
+            throw t;
+        }
+        if (loaded.isEmpty()) {
+            usedSize.addAndGet(-reserved);
+        } else {
+            // maxLoadSize只允许加载一个缓存页
+            StoreFile<?> storeFile = loaded.get(0);
+            preloadedFiles.put(storeFile, new Preloaded(reserved, storeFile.lastAccessTime()));
+        }
+    }
+
+    private boolean reserve(long size) {
+        if (!bufferPool.hasFreeMemory(size)) {
+            return false;
+        }
+        while (true) {
+            long used = usedSize.get();
+            if (used + size > maxMemorySize) {
+                return false;
+            }
+            if (usedSize.compareAndSet(used, used + size)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 预读的缓存页被读取过，或者已经被清理，归还内存预算
+     */
+    private void releaseConsumed() {
+        Iterator<Map.Entry<StoreFile<?>, Preloaded>> iterator = preloadedFiles.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<StoreFile<?>, Preloaded> entry = iterator.next();
+            StoreFile<?> storeFile = entry.getKey();
+            if (!storeFile.hasPage() || storeFile.lastAccessTime() > entry.getValue().accessTime) {
+                iterator.remove();
+                usedSize.addAndGet(-entry.getValue().size);
+            }
+        }
+    }
+
+    long usedSize() {
+        return usedSize.get();
+    }
+
+    private static class Preloaded {
+        private final long size;
+        private final long accessTime;
+
+        private Preloaded(long size, long accessTime) {
+            this.size = size;
+            this.accessTime = accessTime;
+        }
+    }
+}
@@ -16,8 +16,10 @@
 package org.joyqueue.store;
 
 import org.joyqueue.exception.JoyQueueCode;
+import org.joyqueue.toolkit.buffer.RByteBuffer;
 
 import java.nio.ByteBuffer;
+import java.util.List;
 
 
 /**
@@ -40,6 +42,11 @@ public class ReadResult {
      */
     private boolean eop;
 
+    /**
+     * 零拷贝读取时，消息所引用的缓存页切片，使用完毕后需要调用{@link #release()}释放。
+     */
+    private List<RByteBuffer> pinnedBuffers;
+
     public JoyQueueCode getCode() {
         return code;
     }
@@ -63,4 +70,26 @@ public class ReadResult {
     public void setEop(boolean eop) {
         this.eop = eop;
     }
+
+    public List<RByteBuffer> getPinnedBuffers() {
+        return pinnedBuffers;
+    }
+
+    public void setPinnedBuffers(List<RByteBuffer> pinnedBuffers) {
+        this.pinnedBuffers = pinnedBuffers;
+    }
+
+    /**
+     * 释放零拷贝读取的消息引用的缓存页，释放后不能再访问消息。
+     * 非零拷贝读取时调用此方法没有任何影响。
+     */
+    public void release() {
+        List<RByteBuffer> buffers = this.pinnedBuffers;
+        this.pinnedBuffers = null;
+        if (null != buffers) {
+            for (RByteBuffer buffer : buffers) {
+                buffer.release();
+            }
+        }
+    }
 }
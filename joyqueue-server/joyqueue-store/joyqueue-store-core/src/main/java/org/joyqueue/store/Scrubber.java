@@ -0,0 +1,214 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.store;
+
+import org.joyqueue.store.file.PositioningStore;
+import org.joyqueue.store.file.StoreFile;
+import org.joyqueue.store.index.IndexItem;
+import org.joyqueue.store.index.IndexStore;
+import org.joyqueue.store.message.MessageParser;
+import org.joyqueue.toolkit.time.SystemClock;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * 后台校验：按照限定的读取速率，顺序读取已经写满并且刷盘的消息日志文件，逐条校验消息长度、消息体CRC（CRC不为0时），
+ * 以及分区索引是否指向这条消息。直接读取磁盘文件，不占用缓存池。
+ * 每个分区组只记录第一条损坏消息的位置，之后的数据在截断重新复制之前不再校验。
+ */
+class Scrubber {
+    private static final int READ_BUFFER_SIZE = 1024 * 1024;
+    // 限速的统计窗口
+    private static final long RATE_WINDOW_MS = 1000L;
+
+    private final long rate;
+    private final int maxMessageLength;
+    private ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    private long windowTimestamp = 0L;
+    private long windowSize = 0L;
+
+    /**
+     * @param rate             读取速率上限(Bytes/s)
+     * @param maxMessageLength 消息的最大长度
+     */
+    Scrubber(long rate, int maxMessageLength) {
+        this.rate = rate;
+        this.maxMessageLength = maxMessageLength;
+    }
+
+    /**
+     * 从头校验一个分区组的所有已封存消息日志文件
+     *
+     * @return 本次校验的数据长度
+     */
+    long scrub(PartitionGroupStoreManager manager) throws IOException, InterruptedException {
+        PositioningStore<ByteBuffer> store = manager.messageStore();
+        long left = store.left();
+        manager.setScrubPosition(left);
+        long size = 0L;
+        for (StoreFile<ByteBuffer> storeFile : store.sealedFiles(left)) {
+            if (manager.corruptPosition() >= 0) {
+                break;
+            }
+            long start = Math.max(left, storeFile.position());
+            long end = scrubFile(manager, store, storeFile, start);
+            // 返回-1表示文件已经被删除
+            if (end > start) {
+                size += end - start;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * 校验一个文件中从position开始的消息
+     *
+     * @return 校验结束的位置，文件已经被删除返回-1
+     */
+    private long scrubFile(PartitionGroupStoreManager manager, PositioningStore<ByteBuffer> store,
+                           StoreFile<ByteBuffer> storeFile, long position) throws IOException, InterruptedException {
+        long end = storeFile.position() + storeFile.writePosition();
+        long headerOffset = store.fileHeaderSize() - storeFile.position();
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(storeFile.file().toPath(), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            if (storeFile.position() < store.left()) {
+                return -1L;
+            }
+            throw e;
+        }
+        try {
+            buffer.clear().flip();
+            long pointer = position;
+            while (pointer < end) {
+                if (!fill(channel, pointer, end, headerOffset, Integer.BYTES)) {
+                    manager.markCorrupt(pointer, "Truncated message length");
+                    break;
+                }
+                int length = buffer.getInt(buffer.position());
+                if (length <= MessageParser.getFixedAttributesLength() || length >= maxMessageLength || pointer + length > end) {
+                    manager.markCorrupt(pointer, String.format("Invalid message length %d", length));
+                    break;
+                }
+                fill(channel, pointer, end, headerOffset, length);
+                ByteBuffer message = buffer.slice();
+                message.limit(length);
+                String error = check(manager, message, pointer);
+                if (null != error) {
+                    manager.markCorrupt(pointer, error);
+                    break;
+                }
+                buffer.position(buffer.position() + length);
+                pointer += length;
+                manager.setScrubPosition(pointer);
+            }
+            return pointer;
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * 保证缓冲区中至少有size字节从pointer开始的数据
+     *
+     * @return 文件中剩余的数据不足size字节时返回false
+     */
+    private boolean fill(FileChannel channel, long pointer, long end, long headerOffset, int size) throws IOException, InterruptedException {
+        if (buffer.remaining() >= size) {
+            return true;
+        }
+        if (pointer + size > end) {
+            return false;
+        }
+        if (buffer.capacity() < size) {
+            ByteBuffer larger = ByteBuffer.allocate(size);
+            larger.put(buffer);
+            buffer = larger;
+        } else {
+            buffer.compact();
+        }
+        long readPosition = pointer + buffer.position();
+        buffer.limit((int) Math.min(buffer.capacity(), end - pointer));
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, headerOffset + readPosition);
+            if (read < 0) {
+                throw new EOFException(String.format("Unexpected end of file at position %d", readPosition));
+            }
+            readPosition += read;
+            throttle(read);
+        }
+        buffer.flip();
+        return true;
+    }
+
+    /**
+     * 校验一条消息
+     *
+     * @return 校验通过返回null，否则返回错误描述
+     */
+    private String check(PartitionGroupStoreManager manager, ByteBuffer message, long position) throws IOException {
+        short partition;
+        long index;
+        try {
+            ByteBuffer body = MessageParser.getByteBuffer(message, MessageParser.BODY);
+            // 消息体为空时没有计算CRC；CRC为0说明生产消息的协议没有设置CRC（例如Kafka转换的消息），不校验
+            long crc = MessageParser.getLong(message, MessageParser.CRC);
+            if (body.hasRemaining() && crc != 0L) {
+                CRC32 crc32 = new CRC32();
+                crc32.update(body);
+                if (crc32.getValue() != crc) {
+                    return "CRC mismatch";
+                }
+            }
+            partition = MessageParser.getShort(message, MessageParser.PARTITION);
+            index = MessageParser.getLong(message, MessageParser.INDEX);
+        } catch (RuntimeException e) {
+            return String.format("Parse message failed: %s", e.getMessage());
+        }
+
+        IndexStore indexStore = manager.indexStore(partition);
+        long indexPosition = index * IndexItem.STORAGE_SIZE;
+        if (null != indexStore && position < manager.indexPosition()
+                && indexPosition >= indexStore.left() && indexPosition < indexStore.right()) {
+            long offset = indexStore.readOffset(indexPosition);
+            if (offset != position) {
+                return String.format("Index mismatch, partition: %d, index: %d, offset in index: %d", partition, index, offset);
+            }
+        }
+        return null;
+    }
+
+    private void throttle(int size) throws InterruptedException {
+        long now = SystemClock.now();
+        if (now - windowTimestamp >= RATE_WINDOW_MS) {
+            windowTimestamp = now;
+            windowSize = 0L;
+        }
+        windowSize += size;
+        long expectedMs = windowSize * 1000L / rate;
+        long elapsedMs = now - windowTimestamp;
+        if (expectedMs > elapsedMs) {
+            Thread.sleep(expectedMs - elapsedMs);
+        }
+    }
+}
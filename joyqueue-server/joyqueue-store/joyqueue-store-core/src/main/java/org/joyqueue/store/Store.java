@@ -22,6 +22,9 @@ import org.joyqueue.store.replication.ReplicableStore;
 import org.joyqueue.store.transaction.TransactionStore;
 import org.joyqueue.store.transaction.TransactionStoreManager;
 import org.joyqueue.store.utils.PreloadBufferPool;
+import org.joyqueue.toolkit.concurrent.LoopThread;
+import org.joyqueue.toolkit.concurrent.NamedThreadFactory;
+import org.joyqueue.toolkit.concurrent.VirtualThreadExecutor;
 import org.joyqueue.toolkit.config.PropertySupplier;
 import org.joyqueue.toolkit.config.PropertySupplierAware;
 import org.joyqueue.toolkit.service.Service;
@@ -32,12 +35,23 @@ import org.slf4j.LoggerFactory;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * @author liyue25
@@ -66,26 +80,58 @@ import java.util.stream.Collectors;
  * │   ├── 1
  * │   └── 2
  * └── subscription        # 订阅文件，记录所有订阅和消费指针
+ * <p>
+ * 配置了多个数据目录时，主目录之外的每个数据目录下也有自己的lock和topics目录，
+ * 每个PartitionGroup只存放在其中一个数据目录中，事务消息目录只存放在主目录中。
  */
 public class Store extends Service implements StoreService, Closeable, PropertySupplierAware {
 
     private static final Logger logger = LoggerFactory.getLogger(Store.class);
     private static final int SCHEDULE_EXECUTOR_THREADS = 16;
+    private static final long BACKGROUND_KEEP_ALIVE_MS = 60 * 1000L;
 
 
     private static final String TOPICS_DIR = "topics";
     private static final String TX_DIR = "tx";
     private static final String DEL_PREFIX = ".d.";
+    // 迁移PartitionGroup时，目标目录中还没有复制完成的临时目录前缀
+    private static final String MOVE_PREFIX = ".m.";
     /**
      * key: [topic]/[group index]，例如：order/1
      */
-    private final Map<String, PartitionGroupStoreManager> storeMap = new HashMap<>();
+    private final Map<String, PartitionGroupStoreManager> storeMap = new ConcurrentHashMap<>();
+    /**
+     * 恢复和创建PartitionGroup时使用的锁，不同PartitionGroup可以并行恢复
+     * key: [topic]/[group index]
+     */
+    private final ConcurrentMap<String, Object> restoreLocks = new ConcurrentHashMap<>();
     private final Map<String, TransactionStoreManager> txStoreMap = new HashMap<>();
+    /**
+     * PartitionGroup所在的数据目录
+     * key: [topic]/[group index]
+     */
+    private final Map<String, StoreDirectory> groupDirectories = new ConcurrentHashMap<>();
+    // 所有数据目录，第一个是主目录
+    private List<StoreDirectory> directories;
+    // 主目录之外的数据目录的进程锁
+    private List<StoreLock> dataLocks;
     private StoreConfig config;
     private PreloadBufferPool bufferPool;
     private File base;
     private PropertySupplier propertySupplier;
     private StoreLock storeLock;
+    // 开启共享线程时，所有PartitionGroup共用的写入执行器，刷盘执行器每个数据目录一个
+    private VirtualThreadExecutor writeExecutor;
+    // 所有PartitionGroup共用的后台任务线程池，例如补建业务ID索引
+    private ExecutorService backgroundExecutor;
+    // 开启分层存储时，定期把冷数据转移到冷存储的线程
+    private LoopThread coldTierThread;
+    // 开启压缩时，定期压缩消息日志文件的线程
+    private LoopThread compressThread;
+    // 开启后台校验时，定期校验消息日志和索引的线程
+    private LoopThread scrubThread;
+    // 开启顺序预读时，所有PartitionGroup共用的预读引擎
+    private ReadAhead readAhead;
 
     public Store() {
         //do nothing
@@ -109,12 +155,34 @@ public class Store extends Service implements StoreService, Closeable, PropertyS
             storeLock = new StoreLock(new File(base, "lock"));
             storeLock.lock();
         }
+        if (directories == null) {
+            List<StoreDirectory> directories = new ArrayList<>();
+            List<StoreLock> dataLocks = new ArrayList<>();
+            directories.add(new StoreDirectory(base, config.getDiskFullRatio()));
+            List<String> paths = config.getDataPaths();
+            for (String path : paths.subList(1, paths.size())) {
+                File dataBase = new File(path);
+                checkOrCreateBase(dataBase);
+                StoreLock dataLock = new StoreLock(new File(dataBase, "lock"));
+                dataLock.lock();
+                dataLocks.add(dataLock);
+                directories.add(new StoreDirectory(dataBase, config.getDiskFullRatio()));
+            }
+            this.directories = directories;
+            this.dataLocks = dataLocks;
+            logger.info("Store data directories: {}.", directories);
+            directories.forEach(this::deleteMoveTemps);
+        }
         if (bufferPool == null) {
             System.setProperty(PreloadBufferPool.PRINT_METRIC_INTERVAL_MS_KEY, String.valueOf(config.getPrintMetricIntervalMs()));
             this.bufferPool = PreloadBufferPool.getInstance();
         }
         this.bufferPool.addPreLoad(config.getIndexFileSize(), config.getPreLoadBufferCoreCount(), config.getPreLoadBufferMaxCount());
         this.bufferPool.addPreLoad(config.getMessageFileSize(), config.getPreLoadBufferCoreCount(), config.getPreLoadBufferMaxCount());
+        if (readAhead == null && config.isReadAheadEnabled()) {
+            readAhead = new ReadAhead(bufferPool, config.getReadAheadMemorySize(),
+                    config.getReadAheadWindowSize(), config.getReadAheadThreadCount());
+        }
 
     }
 
@@ -128,6 +196,41 @@ public class Store extends Service implements StoreService, Closeable, PropertyS
             if (!manger.isStarted()) manger.start();
         }
 
+        if (config.isColdTierEnabled()) {
+            coldTierThread = LoopThread.builder()
+                    .name("StoreColdTierThread")
+                    .doWork(this::offload)
+                    .sleepTime(config.getColdTierIntervalMs(), config.getColdTierIntervalMs())
+                    .onException(e -> logger.warn("Offload exception: ", e))
+                    .build();
+            coldTierThread.start();
+            logger.info("Store cold tier: {}, age: {}ms.", config.getColdTierPath(), config.getColdTierAgeMs());
+        }
+
+        if (config.isCompressEnabled()) {
+            compressThread = LoopThread.builder()
+                    .name("StoreCompressThread")
+                    .doWork(this::compress)
+                    .sleepTime(config.getCompressIntervalMs(), config.getCompressIntervalMs())
+                    .onException(e -> logger.warn("Compress exception: ", e))
+                    .build();
+            compressThread.start();
+            logger.info("Store compress type: {}, age: {}ms, block size: {}.",
+                    config.getCompressType(), config.getCompressAgeMs(), config.getCompressBlockSize());
+        }
+
+        if (config.isScrubEnabled()) {
+            Scrubber scrubber = new Scrubber(config.getScrubRate(), config.getMaxMessageLength());
+            scrubThread = LoopThread.builder()
+                    .name("StoreScrubThread")
+                    .doWork(() -> scrub(scrubber))
+                    .sleepTime(config.getScrubIntervalMs(), config.getScrubIntervalMs())
+                    .onException(e -> logger.warn("Scrub exception: ", e))
+                    .build();
+            scrubThread.start();
+            logger.info("Store scrub rate: {} Bytes/s, interval: {}ms.", config.getScrubRate(), config.getScrubIntervalMs());
+        }
+
         started.set(true);
         logger.info("Store started.");
     }
@@ -138,17 +241,128 @@ public class Store extends Service implements StoreService, Closeable, PropertyS
 
         logger.info("Stopping store {}...", base.getPath());
 
+        if (null != coldTierThread) {
+            coldTierThread.stop();
+            coldTierThread = null;
+        }
+
+        if (null != compressThread) {
+            compressThread.stop();
+            compressThread = null;
+        }
+
+        if (null != scrubThread) {
+            scrubThread.stop();
+            scrubThread = null;
+        }
+
+        // 先停止预读，避免排队的预读任务在分区组关闭后读取已经关闭的文件
+        if (null != readAhead) {
+            readAhead.stop();
+            readAhead = null;
+        }
+
         storeMap.values().forEach(p -> {
             p.disable();
             p.stop();
         });
 
+        stopSharedExecutors();
+
         storeLock.unlock();
+        dataLocks.forEach(StoreLock::unlock);
 
         logger.info("Store {} stopped.", base.getPath());
     }
 
+    private void offload() {
+        for (PartitionGroupStoreManager manager : storeMap.values()) {
+            try {
+                long size = manager.offload();
+                if (size > 0) {
+                    logger.info("Moved {} bytes to cold tier, topic: {}, group: {}.",
+                            size, manager.getTopic(), manager.getPartitionGroup());
+                }
+            } catch (Throwable t) {
+                logger.warn("Offload exception, topic: {}, group: {}.",
+                        manager.getTopic(), manager.getPartitionGroup(), t);
+            }
+        }
+    }
+
+    private void compress() {
+        for (PartitionGroupStoreManager manager : storeMap.values()) {
+            try {
+                long size = manager.compress();
+                if (size > 0) {
+                    logger.info("Compressed message files saved {} bytes, topic: {}, group: {}.",
+                            size, manager.getTopic(), manager.getPartitionGroup());
+                }
+            } catch (Throwable t) {
+                logger.warn("Compress exception, topic: {}, group: {}.",
+                        manager.getTopic(), manager.getPartitionGroup(), t);
+            }
+        }
+    }
+
+    private void scrub(Scrubber scrubber) throws InterruptedException {
+        for (PartitionGroupStoreManager manager : storeMap.values()) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException();
+            }
+            try {
+                long size = scrubber.scrub(manager);
+                logger.info("Scrubbed {} bytes, topic: {}, group: {}, corrupt position: {}.",
+                        size, manager.getTopic(), manager.getPartitionGroup(), manager.corruptPosition());
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Throwable t) {
+                logger.warn("Scrub exception, topic: {}, group: {}.",
+                        manager.getTopic(), manager.getPartitionGroup(), t);
+            }
+        }
+    }
+
+    private synchronized void stopSharedExecutors() {
+        if (null != writeExecutor) {
+            writeExecutor.stop();
+            writeExecutor = null;
+        }
+        directories.forEach(StoreDirectory::stop);
+        if (null != backgroundExecutor) {
+            backgroundExecutor.shutdown();
+            backgroundExecutor = null;
+        }
+    }
+
+    /**
+     * 后台任务线程池，单线程依次执行，空闲时线程退出
+     */
+    private ExecutorService createBackgroundExecutor() {
+        if (null == backgroundExecutor) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, BACKGROUND_KEEP_ALIVE_MS, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>(), new NamedThreadFactory("StoreBackgroundThread", true));
+            executor.allowCoreThreadTimeOut(true);
+            backgroundExecutor = executor;
+        }
+        return backgroundExecutor;
+    }
+
+    private void createSharedExecutors() {
+        if (config.isSharedThread() && null == writeExecutor) {
+            // 写入请求到来时唤醒，空闲时不空转
+            writeExecutor = new VirtualThreadExecutor(0L, 100L, 10, 100L,
+                    config.getThreadCount(), "StoreWriteThread");
+            logger.info("Store shared write threads: {}, flush threads per directory: {}, data directories: {}.",
+                    config.getThreadCount(), config.getFlushThreadCount(), directories.size());
+        }
+    }
+
     public void checkOrCreateBase() {
+        checkOrCreateBase(base);
+    }
+
+    private void checkOrCreateBase(File base) {
         if (!base.exists()) {
             if (!base.mkdirs()) throw new StoreInitializeException(String.format("Failed to create directory: %s.", base.getAbsolutePath()));
         } else {
@@ -157,25 +371,46 @@ public class Store extends Service implements StoreService, Closeable, PropertyS
     }
 
 
+    /**
+     * 删除迁移PartitionGroup中断时遗留在目标目录中的临时目录，这些目录中的数据不完整，源目录中的数据仍然有效。
+     */
+    private void deleteMoveTemps(StoreDirectory directory) {
+        File[] topics = new File(directory.base(), TOPICS_DIR).listFiles(File::isDirectory);
+        if (null == topics) {
+            return;
+        }
+        for (File topic : topics) {
+            File[] temps = topic.listFiles((dir, name) -> name.startsWith(MOVE_PREFIX));
+            if (null != temps) {
+                for (File temp : temps) {
+                    logger.warn("Delete unfinished partition group move: {}.", temp.getAbsolutePath());
+                    deleteFolder(temp);
+                }
+            }
+        }
+    }
+
     public boolean physicalDelete() {
         if (started.get()) {
             logger.info("Stop me fist!");
             return false;
         } else {
-            logger.info("PHYSICAL DELETE {}...", base.getAbsolutePath());
-            deleteFolder(base);
+            for (StoreDirectory directory : directories) {
+                logger.info("PHYSICAL DELETE {}...", directory.base().getAbsolutePath());
+                deleteFolder(directory.base());
+            }
             return true;
         }
     }
 
     @Override
     public boolean partitionGroupExists(String topic, int partitionGroup) {
-        return new File(base, getPartitionGroupRelPath(topic, partitionGroup)).isDirectory();
+        return null != findDirectory(topic, partitionGroup, false);
     }
 
     @Override
     public boolean topicExists(String topic) {
-        return new File(base, getTopicRelPath(topic)).isDirectory();
+        return directories.stream().anyMatch(directory -> new File(directory.base(), getTopicRelPath(topic)).isDirectory());
     }
 
     @Override
@@ -224,22 +459,49 @@ public class Store extends Service implements StoreService, Closeable, PropertyS
                 }).filter(Objects::nonNull).collect(Collectors.toList());
     }
 
+    /**
+     * 删除PartitionGroup，和恢复、创建、迁移一样先持有restoreLock，避免和同一个PartitionGroup的并行恢复冲突。
+     * 加锁顺序：先restoreLock再Store，避免死锁。
+     */
     @Override
-    public synchronized void removePartitionGroup(String topic, int partitionGroup) {
+    public void removePartitionGroup(String topic, int partitionGroup) {
+        synchronized (restoreLock(topic, partitionGroup)) {
+            removePartitionGroupFiles(topic, partitionGroup);
+        }
+    }
+
+    private synchronized void removePartitionGroupFiles(String topic, int partitionGroup) {
         PartitionGroupStoreManager partitionGroupStoreManger = storeMap.remove(topic + "/" + partitionGroup);
         if (null != partitionGroupStoreManger) {
             partitionGroupStoreManger.stop();
             partitionGroupStoreManger.close();
         }
-        File groupBase = new File(base, getPartitionGroupRelPath(topic, partitionGroup));
-
-        if (groupBase.exists()) delete(groupBase);
+        StoreDirectory groupDirectory = groupDirectories.remove(topic + "/" + partitionGroup);
+        if (null != groupDirectory) {
+            groupDirectory.resetWriteRate();
+        }
+        boolean topicRemains = false;
+        for (StoreDirectory directory : directories) {
+            File groupBase = new File(directory.base(), getPartitionGroupRelPath(topic, partitionGroup));
+            if (groupBase.exists()) delete(groupBase);
 
+            File topicBase = new File(directory.base(), getTopicRelPath(topic));
+            File[] files = topicBase.listFiles((dir, name) -> name.matches("\\d+"));
+            if (null != files && files.length > 0) {
+                topicRemains = true;
+            } else if (directory.base() != base && topicBase.exists()) {
+                delete(topicBase);
+            }
+        }
 
-        File topicBase = new File(base, getTopicRelPath(topic));
+        if (config.isColdTierEnabled()) {
+            File coldGroupBase = new File(config.getColdTierPath(), getPartitionGroupRelPath(topic, partitionGroup));
+            if (coldGroupBase.exists()) delete(coldGroupBase);
+        }
 
-        File[] files = topicBase.listFiles((dir, name) -> name.matches("\\d+"));
-        if (null == files || files.length == 0) {
+        // 事务消息目录在主目录中，所有数据目录中都没有这个topic的PartitionGroup时才删除
+        if (!topicRemains) {
+            File topicBase = new File(base, getTopicRelPath(topic));
             synchronized (txStoreMap) {
                 if (txStoreMap.containsKey(topic)) {
                     TransactionStoreManager transactionStore = txStoreMap.remove(topic);
@@ -254,44 +516,235 @@ public class Store extends Service implements StoreService, Closeable, PropertyS
     }
 
 
+    /**
+     * 恢复PartitionGroup，耗时的recover()不持有Store的锁，多个PartitionGroup可以并行恢复。
+     * 加锁顺序：先restoreLock再Store，避免死锁。
+     */
     @Override
-    public synchronized void restorePartitionGroup(String topic, int partitionGroup){
-
-        PartitionGroupStoreManager partitionGroupStoreManger = partitionGroupStore(topic, partitionGroup);
-        if (null == partitionGroupStoreManger) {
-            File groupBase = new File(base, getPartitionGroupRelPath(topic, partitionGroup));
-            partitionGroupStoreManger = new PartitionGroupStoreManager(topic, partitionGroup, groupBase
-                    , getPartitionGroupConfig(config)
-                    , bufferPool);
-            partitionGroupStoreManger.recover();
-            if (isStarted()) {
-                partitionGroupStoreManger.start();
+    public void restorePartitionGroup(String topic, int partitionGroup){
+        synchronized (restoreLock(topic, partitionGroup)) {
+            PartitionGroupStoreManager partitionGroupStoreManger = partitionGroupStore(topic, partitionGroup);
+            if (null == partitionGroupStoreManger) {
+                StoreDirectory directory = findDirectory(topic, partitionGroup, true);
+                if (null == directory) {
+                    directory = directories.get(0);
+                }
+                File groupBase = new File(directory.base(), getPartitionGroupRelPath(topic, partitionGroup));
+                VirtualThreadExecutor writeExecutor, flushExecutor;
+                ExecutorService backgroundExecutor;
+                synchronized (this) {
+                    createSharedExecutors();
+                    writeExecutor = this.writeExecutor;
+                    flushExecutor = null == writeExecutor ? null : directory.flushExecutor(config);
+                    backgroundExecutor = createBackgroundExecutor();
+                }
+                PartitionGroupStoreManager.Config partitionGroupConfig = getPartitionGroupConfig(topic, partitionGroup, config);
+                partitionGroupConfig.setReadExecutor(directory.readExecutor(config));
+                partitionGroupConfig.setBackgroundExecutor(backgroundExecutor);
+                partitionGroupStoreManger = new PartitionGroupStoreManager(topic, partitionGroup, groupBase
+                        , partitionGroupConfig
+                        , bufferPool, writeExecutor, flushExecutor);
+                partitionGroupStoreManger.recover();
+                synchronized (this) {
+                    if (isStarted()) {
+                        partitionGroupStoreManger.start();
+                    }
+                    storeMap.put(topic + "/" + partitionGroup, partitionGroupStoreManger);
+                    groupDirectories.put(topic + "/" + partitionGroup, directory);
+                    directory.resetWriteRate();
+                }
             }
-            storeMap.put(topic + "/" + partitionGroup, partitionGroupStoreManger);
+        }
+    }
 
+    @Override
+    public void createPartitionGroup(String topic, int partitionGroup, short[] partitions) {
+        synchronized (restoreLock(topic, partitionGroup)) {
+            if (!storeMap.containsKey(topic + "/" + partitionGroup)) {
+                for (StoreDirectory directory : directories) {
+                    File groupBase = new File(directory.base(), getPartitionGroupRelPath(topic, partitionGroup));
+                    if (groupBase.exists()) delete(groupBase);
+                }
+                StoreDirectory directory = selectDirectory();
+                File groupBase = new File(directory.base(), getPartitionGroupRelPath(topic, partitionGroup));
+                PartitionGroupStoreSupport.init(groupBase, partitions);
+                logger.info("Create partition group in {}, topic: {}, group: {}.", directory, topic, partitionGroup);
+
+                restorePartitionGroup(topic, partitionGroup);
+            }
         }
     }
 
     @Override
-    public synchronized void createPartitionGroup(String topic, int partitionGroup, short[] partitions) {
-        if (!storeMap.containsKey(topic + "/" + partitionGroup)) {
-            File groupBase = new File(base, getPartitionGroupRelPath(topic, partitionGroup));
-            if (groupBase.exists()) delete(groupBase);
-            PartitionGroupStoreSupport.init(groupBase, partitions);
+    public int dataDirectoryCount() {
+        return directories.size();
+    }
+
+    /**
+     * 把PartitionGroup迁移到另一个数据目录。
+     * 迁移期间PartitionGroup停止服务，迁移完成后之前通过getStore获取的实例失效，需要重新获取。
+     */
+    @Override
+    public void movePartitionGroup(String topic, int partitionGroup, String dataPath) throws IOException {
+        File targetPath = new File(dataPath).getCanonicalFile();
+        StoreDirectory target = null;
+        for (StoreDirectory directory : directories) {
+            if (directory.base().getCanonicalFile().equals(targetPath)) {
+                target = directory;
+            }
+        }
+        if (null == target) {
+            throw new IllegalArgumentException(String.format("Not a data directory: %s.", dataPath));
+        }
+        synchronized (restoreLock(topic, partitionGroup)) {
+            String key = topic + "/" + partitionGroup;
+            PartitionGroupStoreManager manager = storeMap.get(key);
+            StoreDirectory source = groupDirectories.get(key);
+            if (null == manager || null == source) {
+                throw new NoSuchPartitionGroupException();
+            }
+            if (source == target) {
+                return;
+            }
+            boolean enabled = manager.serviceStatus();
+            synchronized (this) {
+                storeMap.remove(key);
+                groupDirectories.remove(key);
+            }
+            manager.disable();
+            manager.stop();
+            manager.close();
+            source.resetWriteRate();
+
+            File sourceBase = new File(source.base(), getPartitionGroupRelPath(topic, partitionGroup));
+            File targetBase = new File(target.base(), getPartitionGroupRelPath(topic, partitionGroup));
+            File tempBase = new File(targetBase.getParentFile(), MOVE_PREFIX + partitionGroup);
+            try {
+                if (tempBase.exists()) {
+                    deleteFolder(tempBase);
+                }
+                Files.createDirectories(tempBase.getParentFile().toPath());
+                copyFolder(sourceBase.toPath(), tempBase.toPath());
+                if (!tempBase.renameTo(targetBase)) {
+                    throw new IOException(String.format("Rename %s to %s failed.", tempBase, targetBase));
+                }
+            } catch (IOException e) {
+                if (tempBase.exists()) {
+                    deleteFolder(tempBase);
+                }
+                restorePartitionGroup(topic, partitionGroup);
+                if (enabled) {
+                    partitionGroupStore(topic, partitionGroup).enable();
+                }
+                throw e;
+            }
+            delete(sourceBase);
+            logger.info("Moved partition group from {} to {}, topic: {}, group: {}.", source, target, topic, partitionGroup);
 
             restorePartitionGroup(topic, partitionGroup);
+            if (enabled) {
+                partitionGroupStore(topic, partitionGroup).enable();
+            }
         }
     }
 
+    /**
+     * 查找PartitionGroup所在的数据目录，迁移中断时可能有多个目录中存在完整的数据，使用第一个找到的目录。
+     *
+     * @param deleteDuplicates 是否逻辑删除其它目录中的数据，只能在持有restoreLock时删除
+     */
+    private StoreDirectory findDirectory(String topic, int partitionGroup, boolean deleteDuplicates) {
+        StoreDirectory directory = groupDirectories.get(topic + "/" + partitionGroup);
+        if (null != directory) {
+            return directory;
+        }
+        for (StoreDirectory candidate : directories) {
+            File groupBase = new File(candidate.base(), getPartitionGroupRelPath(topic, partitionGroup));
+            if (groupBase.isDirectory()) {
+                if (null == directory) {
+                    directory = candidate;
+                } else if (deleteDuplicates) {
+                    logger.warn("Duplicate partition group {} deleted, using {}.", groupBase, directory);
+                    delete(groupBase);
+                }
+            }
+        }
+        return directory;
+    }
+
+    /**
+     * 选择新建PartitionGroup的数据目录：跳过磁盘已满的目录，
+     * 按照剩余空间乘以空闲写入比例（1 - 目录写入速率 / 总写入速率）打分，选择得分最高的目录。
+     */
+    private StoreDirectory selectDirectory() {
+        if (directories.size() == 1) {
+            return directories.get(0);
+        }
+        long[] writeRates = new long[directories.size()];
+        long totalWriteRate = 0L;
+        for (int i = 0; i < directories.size(); i++) {
+            StoreDirectory directory = directories.get(i);
+            long writeSize = 0L;
+            for (Map.Entry<String, StoreDirectory> entry : groupDirectories.entrySet()) {
+                PartitionGroupStoreManager manager = storeMap.get(entry.getKey());
+                if (entry.getValue() == directory && null != manager) {
+                    writeSize += manager.rightPosition();
+                }
+            }
+            writeRates[i] = directory.sampleWriteRate(writeSize);
+            totalWriteRate += writeRates[i];
+        }
+
+        StoreDirectory selected = null;
+        double selectedScore = -1D;
+        for (int i = 0; i < directories.size(); i++) {
+            StoreDirectory directory = directories.get(i);
+            if (directory.isDiskFull()) {
+                continue;
+            }
+            double idle = totalWriteRate > 0 ? 1D - (double) writeRates[i] / totalWriteRate : 1D;
+            double score = directory.usableSpace() * idle;
+            if (score > selectedScore) {
+                selected = directory;
+                selectedScore = score;
+            }
+        }
+        if (null == selected) {
+            // 所有目录都满了，选择剩余空间最大的目录，写入时返回磁盘已满
+            selected = directories.stream().max(Comparator.comparingLong(StoreDirectory::usableSpace)).orElse(directories.get(0));
+        }
+        return selected;
+    }
+
+    private Object restoreLock(String topic, int partitionGroup) {
+        return restoreLocks.computeIfAbsent(topic + "/" + partitionGroup, key -> new Object());
+    }
+
 
-    private PartitionGroupStoreManager.Config getPartitionGroupConfig(StoreConfig config) {
+    private PartitionGroupStoreManager.Config getPartitionGroupConfig(String topic, int partitionGroup, StoreConfig config) {
 
         PositioningStore.Config messageConfig = getMessageStoreConfig(config);
         PositioningStore.Config indexConfig = getIndexStoreConfig(config);
-        return new PartitionGroupStoreManager.Config(
+        PartitionGroupStoreManager.Config partitionGroupConfig = new PartitionGroupStoreManager.Config(
                 config.getMaxMessageLength(), config.getWriteRequestCacheSize(), config.getFlushIntervalMs(),
                 config.getWriteTimeoutMs(), config.getMaxDirtySize(),
                 config.getPrintMetricIntervalMs(), messageConfig, indexConfig);
+        partitionGroupConfig.setFlushForce(config.isFlushForce(topic));
+        partitionGroupConfig.setTimeIndexIntervalMs(config.getTimeIndexIntervalMs());
+        partitionGroupConfig.setTimeIndexIntervalCount(config.getTimeIndexIntervalCount());
+        if (config.isColdTierEnabled()) {
+            partitionGroupConfig.setColdBase(new File(config.getColdTierPath(), getPartitionGroupRelPath(topic, partitionGroup)));
+            partitionGroupConfig.setColdTierAgeMs(config.getColdTierAgeMs());
+        }
+        if (config.isCompressEnabled()) {
+            partitionGroupConfig.setCompressType(config.getCompressType());
+            partitionGroupConfig.setCompressAgeMs(config.getCompressAgeMs());
+            partitionGroupConfig.setCompressBlockSize(config.getCompressBlockSize());
+        }
+        partitionGroupConfig.setReadAhead(readAhead);
+        partitionGroupConfig.setCompactIndex(config.isCompactIndex());
+        partitionGroupConfig.setBizIdIndex(config.isBizIdIndex());
+        return partitionGroupConfig;
     }
 
     private PositioningStore.Config getIndexStoreConfig(StoreConfig config) {
@@ -373,6 +826,13 @@ public class Store extends Service implements StoreService, Closeable, PropertyS
         return base;
     }
 
+    /**
+     * 所有数据目录，第一个是主目录
+     */
+    List<File> dataBases() {
+        return directories.stream().map(StoreDirectory::base).collect(Collectors.toList());
+    }
+
 
     // TODO: 在哪儿调用呢？
     @Override
@@ -382,7 +842,20 @@ public class Store extends Service implements StoreService, Closeable, PropertyS
         }
     }
 
-    private void deleteFolder(File folder) {
+    private void copyFolder(Path source, Path target) throws IOException {
+        try (Stream<Path> paths = Files.walk(source)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                Path dest = target.resolve(source.relativize(path).toString());
+                if (Files.isDirectory(path)) {
+                    Files.createDirectories(dest);
+                } else {
+                    Files.copy(path, dest, StandardCopyOption.COPY_ATTRIBUTES);
+                }
+            }
+        }
+    }
+
+    static void deleteFolder(File folder) {
         File[] files = folder.listFiles();
         if (files != null) {
             for (File f : files) {
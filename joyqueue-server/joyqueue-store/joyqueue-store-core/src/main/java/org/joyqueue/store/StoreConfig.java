@@ -19,6 +19,9 @@ import org.joyqueue.store.file.PositioningStore;
 import org.joyqueue.toolkit.config.Property;
 import org.joyqueue.toolkit.config.PropertySupplier;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * 存储配置
  * 总磁盘大小 = PartitionGroup 数量 * partitionGroupMaxStoreSize
@@ -30,10 +33,27 @@ public class StoreConfig {
 
     public static final int DEFAULT_MESSAGE_FILE_SIZE = 128 * 1024 * 1024;
     public static final int DEFAULT_INDEX_FILE_SIZE = 512 * 1024;
-    public static final int DEFAULT_THREAD_COUNT = 4;
+    public static final int DEFAULT_THREAD_COUNT = Runtime.getRuntime().availableProcessors();
+    public static final boolean DEFAULT_SHARED_THREAD = false;
+    // 每个数据目录一个刷盘线程，刷盘线程总数等于数据目录的数量
+    public static final int DEFAULT_FLUSH_THREAD_COUNT = 1;
     public static final int DEFAULT_PRE_LOAD_BUFFER_CORE_COUNT = 3;
     public static final int DEFAULT_PRE_LOAD_BUFFER_MAX_COUNT = 10;
     public static final long DEFAULT_PRINT_METRIC_INTERVAL_MS = 0;
+    public static final long DEFAULT_COLD_TIER_AGE_MS = 24 * 60 * 60 * 1000L;
+    public static final long DEFAULT_COLD_TIER_INTERVAL_MS = 60 * 1000L;
+    public static final long DEFAULT_COMPRESS_AGE_MS = 60 * 60 * 1000L;
+    public static final int DEFAULT_COMPRESS_BLOCK_SIZE = 256 * 1024;
+    public static final long DEFAULT_COMPRESS_INTERVAL_MS = 60 * 1000L;
+    public static final long DEFAULT_READ_AHEAD_MEMORY_SIZE = 0L;
+    public static final int DEFAULT_READ_AHEAD_WINDOW_SIZE = 4 * 1024 * 1024;
+    public static final int DEFAULT_READ_AHEAD_THREAD_COUNT = 2;
+    public static final boolean DEFAULT_COMPACT_INDEX = false;
+    public static final int DEFAULT_READ_IO_THREAD_COUNT = 4;
+    public static final int DEFAULT_READ_IO_QUEUE_SIZE = 1024;
+    public static final long DEFAULT_SCRUB_RATE = 0L;
+    public static final long DEFAULT_SCRUB_INTERVAL_MS = 60 * 60 * 1000L;
+    public static final boolean DEFAULT_BIZ_ID_INDEX = false;
 
     public static final String STORE_PATH = "/store";
     /**
@@ -54,6 +74,16 @@ public class StoreConfig {
      */
     private int threadCount = DEFAULT_THREAD_COUNT;
 
+    /**
+     * 是否所有PartitionGroup共享写入和刷盘线程，共享时写入线程数量为threadCount
+     */
+    private boolean sharedThread = DEFAULT_SHARED_THREAD;
+
+    /**
+     * 共享刷盘线程的数量
+     */
+    private int flushThreadCount = DEFAULT_FLUSH_THREAD_COUNT;
+
     /**
      * 预加载DirectBuffer的核心数量
      */
@@ -92,6 +122,106 @@ public class StoreConfig {
 
     private int diskFullRatio = PositioningStore.Config.DEFAULT_DISK_FULL_RATIO;
 
+    /**
+     * 刷盘后是否强制同步到磁盘(fsync)
+     */
+    private boolean flushForce = PartitionGroupStoreManager.Config.DEFAULT_FLUSH_FORCE;
+
+    /**
+     * 时间索引的时间间隔(ms)
+     */
+    private long timeIndexIntervalMs = PartitionGroupStoreManager.Config.DEFAULT_TIME_INDEX_INTERVAL_MS;
+
+    /**
+     * 时间索引的消息条数间隔
+     */
+    private int timeIndexIntervalCount = PartitionGroupStoreManager.Config.DEFAULT_TIME_INDEX_INTERVAL_COUNT;
+
+    /**
+     * 冷存储目录，为空时不开启分层存储
+     */
+    private String coldTierPath = "";
+
+    /**
+     * 文件创建超过这个时间(ms)后转移到冷存储
+     */
+    private long coldTierAgeMs = DEFAULT_COLD_TIER_AGE_MS;
+
+    /**
+     * 检查并转移冷数据的时间间隔(ms)
+     */
+    private long coldTierIntervalMs = DEFAULT_COLD_TIER_INTERVAL_MS;
+
+    /**
+     * 消息日志文件的压缩类型：snappy或者zlib，为空时不压缩
+     */
+    private String compressType = "";
+
+    /**
+     * 消息日志文件创建超过这个时间(ms)后压缩
+     */
+    private long compressAgeMs = DEFAULT_COMPRESS_AGE_MS;
+
+    /**
+     * 压缩块大小，按位置读取时只解压对应的块
+     */
+    private int compressBlockSize = DEFAULT_COMPRESS_BLOCK_SIZE;
+
+    /**
+     * 检查并压缩消息日志文件的时间间隔(ms)
+     */
+    private long compressIntervalMs = DEFAULT_COMPRESS_INTERVAL_MS;
+
+    /**
+     * 顺序预读的全局内存预算，为0时不开启预读
+     */
+    private long readAheadMemorySize = DEFAULT_READ_AHEAD_MEMORY_SIZE;
+
+    /**
+     * 顺序预读的窗口大小，消费者距离尾部超过这个长度时才预读
+     */
+    private int readAheadWindowSize = DEFAULT_READ_AHEAD_WINDOW_SIZE;
+
+    /**
+     * 执行预读的线程数
+     */
+    private int readAheadThreadCount = DEFAULT_READ_AHEAD_THREAD_COUNT;
+
+    /**
+     * 新建的分区索引是否使用紧凑格式，已有索引数据的分区保持原来的格式
+     */
+    private boolean compactIndex = DEFAULT_COMPACT_INDEX;
+
+    /**
+     * 额外的数据目录，多个目录用逗号分隔
+     */
+    private String dataPaths = "";
+
+    /**
+     * 每个数据目录异步读取的线程数
+     */
+    private int readIoThreadCount = DEFAULT_READ_IO_THREAD_COUNT;
+
+    /**
+     * 每个数据目录异步读取的等待队列长度
+     */
+    private int readIoQueueSize = DEFAULT_READ_IO_QUEUE_SIZE;
+
+    /**
+     * 后台校验消息日志的读取速率上限(Bytes/s)，为0时不校验
+     */
+    private long scrubRate = DEFAULT_SCRUB_RATE;
+
+    /**
+     * 两轮后台校验之间的间隔
+     */
+    private long scrubIntervalMs = DEFAULT_SCRUB_INTERVAL_MS;
+
+    /**
+     * 是否建立业务ID索引
+     */
+    private boolean bizIdIndex = DEFAULT_BIZ_ID_INDEX;
+
 
     private PropertySupplier propertySupplier;
 
@@ -187,6 +317,22 @@ public class StoreConfig {
         this.threadCount = threadCount;
     }
 
+    public boolean isSharedThread() {
+        return PropertySupplier.getValue(propertySupplier, StoreConfigKey.SHARED_THREAD, this.sharedThread);
+    }
+
+    public void setSharedThread(boolean sharedThread) {
+        this.sharedThread = sharedThread;
+    }
+
+    public int getFlushThreadCount() {
+        return PropertySupplier.getValue(propertySupplier, StoreConfigKey.FLUSH_THREAD_COUNT, this.flushThreadCount);
+    }
+
+    public void setFlushThreadCount(int flushThreadCount) {
+        this.flushThreadCount = flushThreadCount;
+    }
+
     public int getPreLoadBufferCoreCount() {
         return PropertySupplier.getValue(propertySupplier, StoreConfigKey.PRELOAD_BUFFER_CORE_COUNT, this.preLoadBufferCoreCount);
     }
@@ -227,5 +373,207 @@ public class StoreConfig {
     public void setDiskFullRatio(int diskFullRatio) {
         this.diskFullRatio = diskFullRatio;
     }
-}
 
+    public boolean isFlushForce() {
+        return PropertySupplier.getValue(propertySupplier, StoreConfigKey.FLUSH_FORCE, this.flushForce);
+    }
+
+    public void setFlushForce(boolean flushForce) {
+        this.flushForce = flushForce;
+    }
+
+    /**
+     * 获取topic级别的强制同步配置，未配置时使用全局配置
+     */
+    public boolean isFlushForce(String topic) {
+        if (propertySupplier == null) {
+            return isFlushForce();
+        }
+        return PropertySupplier.getValue(propertySupplier, StoreConfigKey.FLUSH_FORCE_TOPIC_PREFIX.getName() + topic,
+                StoreConfigKey.FLUSH_FORCE_TOPIC_PREFIX.getType(), isFlushForce());
+    }
+
+    public long getTimeIndexIntervalMs() {
+        return PropertySupplier.getValue(propertySupplier, StoreConfigKey.TIME_INDEX_INTERVAL_MS, this.timeIndexIntervalMs);
+    }
+
+    public void setTimeIndexIntervalMs(long timeIndexIntervalMs) {
+        this.timeIndexIntervalMs = timeIndexIntervalMs;
+    }
+
+    public int getTimeIndexIntervalCount() {
+        return PropertySupplier.getValue(propertySupplier, StoreConfigKey.TIME_INDEX_INTERVAL_COUNT, this.timeIndexIntervalCount);
+    }
+
+    public void setTimeIndexIntervalCount(int timeIndexIntervalCount) {
+        this.timeIndexIntervalCount = timeIndexIntervalCount;
+    }
+
+    public String getColdTierPath() {
+        return PropertySupplier.getValue(propertySupplier, StoreConfigKey.COLD_TIER_PATH, this.coldTierPath);
+    }
+
+    public void setColdTierPath(String coldTierPath) {
+        this.coldTierPath = coldTierPath;
+    }
+
+    public boolean isColdTierEnabled() {
+        String path = getColdTierPath();
+        return null != path && !path.isEmpty();
+    }
+
+    public long getColdTierAgeMs() {
+        return PropertySupplier.getValue(propertySupplier, StoreConfigKey.COLD_TIER_AGE_MS, this.coldTierAgeMs);
+    }
+
+    public void setColdTierAgeMs(long coldTierAgeMs) {
+        this.coldTierAgeMs = coldTierAgeMs;
+    }
+
+    public long getColdTierIntervalMs() {
+        return PropertySupplier.getValue(propertySupplier, StoreConfigKey.COLD_TIER_INTERVAL_MS, this.coldTierIntervalMs);
+    }
+
+    public void setColdTierIntervalMs(long coldTierIntervalMs) {
+        this.coldTierIntervalMs = coldTierIntervalMs;
+    }
+
+    public String getCompressType() {
+        return PropertySupplier.getValue(propertySupplier, StoreConfigKey.COMPRESS_TYPE, this.compressType);
+    }
+
+    public void setCompressType(String compressType) {
+        this.compressType = compressType;
+    }
+
+    public boolean isCompressEnabled() {
+        String type = getCompressType();
+        return null != type && !type.isEmpty();
+    }
+
+    public long getCompressAgeMs() {
+        return PropertySupplier.getValue(propertySupplier, StoreConfigKey.COMPRESS_AGE_MS, this.compressAgeMs);
+    }
+
+    public void setCompressAgeMs(long compressAgeMs) {
+        this.compressAgeMs = compressAgeMs;
+    }
+
+    public int getCompressBlockSize() {
+        return PropertySupplier.getValue(propertySupplier, StoreConfigKey.COMPRESS_BLOCK_SIZE, this.compressBlockSize);
+    }
+
+    public void setCompressBlockSize(int compressBlockSize) {
+        this.compressBlockSize = compressBlockSize;
+    }
+
+    public long getCompressIntervalMs() {
+        return PropertySupplier.getValue(propertySupplier, StoreConfigKey.COMPRESS_INTERVAL_MS, this.compressIntervalMs);
+    }
+
+    public void setCompressIntervalMs(long compressIntervalMs) {
+        this.compressIntervalMs = compressIntervalMs;
+    }
+
+    public long getReadAheadMemorySize() {
+        return PropertySupplier.getValue(propertySupplier, StoreConfigKey.READ_AHEAD_MEMORY_SIZE, this.readAheadMemorySize);
+    }
+
+    public void setReadAheadMemorySize(long readAheadMemorySize) {
+        this.readAheadMemorySize = readAheadMemorySize;
+    }
+
+    public boolean isReadAheadEnabled() {
+        return getReadAheadMemorySize() > 0;
+    }
+
+    public int getReadAheadWindowSize() {
+        return PropertySupplier.getValue(propertySupplier, StoreConfigKey.READ_AHEAD_WINDOW_SIZE, this.readAheadWindowSize);
+    }
+
+    public void setReadAheadWindowSize(int readAheadWindowSize) {
+        this.readAheadWindowSize = readAheadWindowSize;
+    }
+
+    public int getReadAheadThreadCount() {
+        return PropertySupplier.getValue(propertySupplier, StoreConfigKey.READ_AHEAD_THREAD_COUNT, this.readAheadThreadCount);
+    }
+
+    public void setReadAheadThreadCount(int readAheadThreadCount) {
+        this.readAheadThreadCount = readAheadThreadCount;
+    }
+
+    public boolean isCompactIndex() {
+        return PropertySupplier.getValue(propertySupplier, StoreConfigKey.COMPACT_INDEX, this.compactIndex);
+    }
+
+    public void setCompactIndex(boolean compactIndex) {
+        this.compactIndex = compactIndex;
+    }
+
+    /**
+     * 所有数据目录，第一个是主目录{@link #getPath()}，其后是额外配置的数据目录
+     */
+    public List<String> getDataPaths() {
+        List<String> paths = new ArrayList<>();
+        paths.add(getPath());
+        String extra = PropertySupplier.getValue(propertySupplier, StoreConfigKey.DATA_PATHS, this.dataPaths);
+        if (extra != null) {
+            for (String path : extra.split(",")) {
+                path = path.trim();
+                if (!path.isEmpty() && !paths.contains(path)) {
+                    paths.add(path);
+                }
+            }
+        }
+        return paths;
+    }
+
+    public void setDataPaths(String dataPaths) {
+        this.dataPaths = dataPaths;
+    }
+
+    public int getReadIoThreadCount() {
+        return PropertySupplier.getValue(propertySupplier, StoreConfigKey.READ_IO_THREAD_COUNT, this.readIoThreadCount);
+    }
+
+    public void setReadIoThreadCount(int readIoThreadCount) {
+        this.readIoThreadCount = readIoThreadCount;
+    }
+
+    public int getReadIoQueueSize() {
+        return PropertySupplier.getValue(propertySupplier, StoreConfigKey.READ_IO_QUEUE_SIZE, this.readIoQueueSize);
+    }
+
+    public void setReadIoQueueSize(int readIoQueueSize) {
+        this.readIoQueueSize = readIoQueueSize;
+    }
+
+    public long getScrubRate() {
+        return PropertySupplier.getValue(propertySupplier, StoreConfigKey.SCRUB_RATE, this.scrubRate);
+    }
+
+    public void setScrubRate(long scrubRate) {
+        this.scrubRate = scrubRate;
+    }
+
+    public boolean isScrubEnabled() {
+        return getScrubRate() > 0;
+    }
+
+    public long getScrubIntervalMs() {
+        return PropertySupplier.getValue(propertySupplier, StoreConfigKey.SCRUB_INTERVAL_MS, this.scrubIntervalMs);
+    }
+
+    public void setScrubIntervalMs(long scrubIntervalMs) {
+        this.scrubIntervalMs = scrubIntervalMs;
+    }
+
+    public boolean isBizIdIndex() {
+        return PropertySupplier.getValue(propertySupplier, StoreConfigKey.BIZ_ID_INDEX, this.bizIdIndex);
+    }
+
+    public void setBizIdIndex(boolean bizIdIndex) {
+        this.bizIdIndex = bizIdIndex;
+    }
+}
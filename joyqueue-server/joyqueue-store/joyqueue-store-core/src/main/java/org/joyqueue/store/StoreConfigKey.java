@@ -18,9 +18,12 @@ package org.joyqueue.store;
 import org.joyqueue.store.file.PositioningStore;
 import org.joyqueue.toolkit.config.PropertyDef;
 
+import static org.joyqueue.store.PartitionGroupStoreManager.Config.DEFAULT_FLUSH_FORCE;
 import static org.joyqueue.store.PartitionGroupStoreManager.Config.DEFAULT_FLUSH_INTERVAL_MS;
 import static org.joyqueue.store.PartitionGroupStoreManager.Config.DEFAULT_MAX_DIRTY_SIZE;
 import static org.joyqueue.store.PartitionGroupStoreManager.Config.DEFAULT_MAX_MESSAGE_LENGTH;
+import static org.joyqueue.store.PartitionGroupStoreManager.Config.DEFAULT_TIME_INDEX_INTERVAL_COUNT;
+import static org.joyqueue.store.PartitionGroupStoreManager.Config.DEFAULT_TIME_INDEX_INTERVAL_MS;
 import static org.joyqueue.store.PartitionGroupStoreManager.Config.DEFAULT_WRITE_REQUEST_CACHE_SIZE;
 import static org.joyqueue.store.PartitionGroupStoreManager.Config.DEFAULT_WRITE_TIMEOUT_MS;
 import static org.joyqueue.store.file.PositioningStore.Config.DEFAULT_FILE_HEADER_SIZE;
@@ -42,9 +45,17 @@ public enum StoreConfigKey implements PropertyDef {
      */
     INDEX_FILE_SIZE("store.index.file.size", StoreConfig.DEFAULT_INDEX_FILE_SIZE, Type.INT),
     /**
-     * 虚拟线程执行器的线程数量
+     * 虚拟线程执行器的线程数量，默认等于CPU核数
      */
     THREAD_COUNT("store.thread.count", StoreConfig.DEFAULT_THREAD_COUNT, Type.INT),
+    /**
+     * 是否所有PartitionGroup共享写入和刷盘线程
+     */
+    SHARED_THREAD("store.thread.shared", StoreConfig.DEFAULT_SHARED_THREAD, Type.BOOLEAN),
+    /**
+     * 每个数据目录的共享刷盘线程数量，默认为1，刷盘线程总数等于数据目录的数量
+     */
+    FLUSH_THREAD_COUNT("store.flush.thread.count", StoreConfig.DEFAULT_FLUSH_THREAD_COUNT, Type.INT),
     /**
      * 预加载DirectBuffer的核心数量
      */
@@ -77,6 +88,90 @@ public enum StoreConfigKey implements PropertyDef {
     MAX_DIRTY_SIZE("store.max.dirty.size", DEFAULT_MAX_DIRTY_SIZE, Type.LONG),
 
     DISK_FULL_RATIO("store.disk.full.ratio", PositioningStore.Config.DEFAULT_DISK_FULL_RATIO, Type.INT),
+    /**
+     * 刷盘后是否强制同步到磁盘(fsync)
+     */
+    FLUSH_FORCE("store.flush.force", DEFAULT_FLUSH_FORCE, Type.BOOLEAN),
+    /**
+     * 按topic配置是否强制同步到磁盘，例如：store.flush.force.topic.order=true
+     */
+    FLUSH_FORCE_TOPIC_PREFIX("store.flush.force.topic.", DEFAULT_FLUSH_FORCE, Type.BOOLEAN),
+    /**
+     * 时间索引的时间间隔(ms)
+     */
+    TIME_INDEX_INTERVAL_MS("store.time.index.interval", DEFAULT_TIME_INDEX_INTERVAL_MS, Type.LONG),
+    /**
+     * 时间索引的消息条数间隔
+     */
+    TIME_INDEX_INTERVAL_COUNT("store.time.index.interval.count", DEFAULT_TIME_INDEX_INTERVAL_COUNT, Type.INT),
+    /**
+     * 冷存储目录，为空时不开启分层存储
+     */
+    COLD_TIER_PATH("store.tier.cold.path", "", Type.STRING),
+    /**
+     * 文件创建超过这个时间(ms)后转移到冷存储
+     */
+    COLD_TIER_AGE_MS("store.tier.cold.age", StoreConfig.DEFAULT_COLD_TIER_AGE_MS, Type.LONG),
+    /**
+     * 检查并转移冷数据的时间间隔(ms)
+     */
+    COLD_TIER_INTERVAL_MS("store.tier.cold.interval", StoreConfig.DEFAULT_COLD_TIER_INTERVAL_MS, Type.LONG),
+    /**
+     * 消息日志文件的压缩类型：snappy或者zlib，为空时不压缩
+     */
+    COMPRESS_TYPE("store.compress.type", "", Type.STRING),
+    /**
+     * 消息日志文件创建超过这个时间(ms)后压缩
+     */
+    COMPRESS_AGE_MS("store.compress.age", StoreConfig.DEFAULT_COMPRESS_AGE_MS, Type.LONG),
+    /**
+     * 压缩块大小
+     */
+    COMPRESS_BLOCK_SIZE("store.compress.block.size", StoreConfig.DEFAULT_COMPRESS_BLOCK_SIZE, Type.INT),
+    /**
+     * 检查并压缩消息日志文件的时间间隔(ms)
+     */
+    COMPRESS_INTERVAL_MS("store.compress.interval", StoreConfig.DEFAULT_COMPRESS_INTERVAL_MS, Type.LONG),
+    /**
+     * 顺序预读的全局内存预算，为0时不开启预读
+     */
+    READ_AHEAD_MEMORY_SIZE("store.read.ahead.memory", StoreConfig.DEFAULT_READ_AHEAD_MEMORY_SIZE, Type.LONG),
+    /**
+     * 顺序预读的窗口大小
+     */
+    READ_AHEAD_WINDOW_SIZE("store.read.ahead.window", StoreConfig.DEFAULT_READ_AHEAD_WINDOW_SIZE, Type.INT),
+    /**
+     * 执行预读的线程数
+     */
+    READ_AHEAD_THREAD_COUNT("store.read.ahead.thread.count", StoreConfig.DEFAULT_READ_AHEAD_THREAD_COUNT, Type.INT),
+    /**
+     * 新建的分区索引是否使用紧凑格式，批消息只保存一条索引
+     */
+    COMPACT_INDEX("store.index.compact", StoreConfig.DEFAULT_COMPACT_INDEX, Type.BOOLEAN),
+    /**
+     * 额外的数据目录，多个目录用逗号分隔，新建的分区组按照剩余空间和写入负载分布到各个目录
+     */
+    DATA_PATHS("store.data.paths", "", Type.STRING),
+    /**
+     * 每个数据目录异步读取的线程数，为0时异步读取在调用线程中执行
+     */
+    READ_IO_THREAD_COUNT("store.read.io.thread.count", StoreConfig.DEFAULT_READ_IO_THREAD_COUNT, Type.INT),
+    /**
+     * 每个数据目录异步读取的等待队列长度，队列满时在调用线程中读取
+     */
+    READ_IO_QUEUE_SIZE("store.read.io.queue.size", StoreConfig.DEFAULT_READ_IO_QUEUE_SIZE, Type.INT),
+    /**
+     * 后台校验消息日志的读取速率上限(Bytes/s)，为0时不校验
+     */
+    SCRUB_RATE("store.scrub.rate", StoreConfig.DEFAULT_SCRUB_RATE, Type.LONG),
+    /**
+     * 两轮后台校验之间的间隔
+     */
+    SCRUB_INTERVAL_MS("store.scrub.interval.ms", StoreConfig.DEFAULT_SCRUB_INTERVAL_MS, Type.LONG),
+    /**
+     * 是否建立业务ID索引
+     */
+    BIZ_ID_INDEX("store.biz.id.index", StoreConfig.DEFAULT_BIZ_ID_INDEX, Type.BOOLEAN),
 
     PRINT_METRIC_INTERVAL_MS("print.metric.interval", StoreConfig.DEFAULT_PRINT_METRIC_INTERVAL_MS, Type.LONG);
 
@@ -0,0 +1,137 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.store;
+
+import org.joyqueue.toolkit.concurrent.NamedThreadFactory;
+import org.joyqueue.toolkit.concurrent.VirtualThreadExecutor;
+import org.joyqueue.toolkit.time.SystemClock;
+
+import java.io.File;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一个数据目录，通常对应一块磁盘。
+ * 每个目录独立计算磁盘是否已满、写入速率，开启共享线程时每个目录使用独立的刷盘执行器。
+ * 每个目录有独立的异步读取线程池，一块磁盘上的慢读取不会占满其它磁盘的读取线程。
+ */
+class StoreDirectory {
+    private static final long CHECK_DISK_SPACE_COOL_DOWN = 1000L;
+    // 写入速率的最小采样间隔
+    private static final long WRITE_RATE_SAMPLE_INTERVAL_MS = 1000L;
+    private static final long READ_KEEP_ALIVE_MS = 60 * 1000L;
+
+    private final File base;
+    private final int diskFullRatio;
+    private final AtomicLong lastCheckDiskSpaceTimestamp = new AtomicLong(0L);
+    private volatile boolean diskFull = false;
+    private VirtualThreadExecutor flushExecutor;
+    private ThreadPoolExecutor readExecutor;
+    // 上一次采样时目录中所有分区组消息日志的写入位置之和，小于0表示需要重新采样
+    private long lastWriteSize = -1L;
+    private long lastSampleTimestamp = 0L;
+    // 写入速率(Bytes/s)
+    private long writeRate = 0L;
+
+    StoreDirectory(File base, int diskFullRatio) {
+        this.base = base;
+        this.diskFullRatio = diskFullRatio;
+    }
+
+    File base() {
+        return base;
+    }
+
+    boolean isDiskFull() {
+        long timestamp = lastCheckDiskSpaceTimestamp.get();
+        if (SystemClock.now() - timestamp > CHECK_DISK_SPACE_COOL_DOWN &&
+                lastCheckDiskSpaceTimestamp.compareAndSet(timestamp, SystemClock.now())) {
+            diskFull = (base.getTotalSpace() - base.getFreeSpace()) * 100 > base.getTotalSpace() * diskFullRatio;
+        }
+        return diskFull;
+    }
+
+    long usableSpace() {
+        return base.getUsableSpace();
+    }
+
+    /**
+     * 采样写入速率
+     *
+     * @param writeSize 目录中所有分区组消息日志的写入位置之和
+     * @return 写入速率(Bytes/s)
+     */
+    synchronized long sampleWriteRate(long writeSize) {
+        long now = SystemClock.now();
+        if (lastWriteSize < 0) {
+            lastWriteSize = writeSize;
+            lastSampleTimestamp = now;
+        } else if (now - lastSampleTimestamp >= WRITE_RATE_SAMPLE_INTERVAL_MS) {
+            writeRate = Math.max(0L, writeSize - lastWriteSize) * 1000L / (now - lastSampleTimestamp);
+            lastWriteSize = writeSize;
+            lastSampleTimestamp = now;
+        }
+        return writeRate;
+    }
+
+    /**
+     * 目录中的分区组发生变化，写入位置之和不再连续，下次重新采样
+     */
+    synchronized void resetWriteRate() {
+        lastWriteSize = -1L;
+    }
+
+    synchronized VirtualThreadExecutor flushExecutor(StoreConfig config) {
+        if (null == flushExecutor) {
+            flushExecutor = new VirtualThreadExecutor(0L, config.getFlushIntervalMs(), 1, 100L,
+                    config.getFlushThreadCount(), "StoreFlushThread-" + base.getName());
+        }
+        return flushExecutor;
+    }
+
+    /**
+     * 异步读取的线程池，线程数和等待队列都有上限，队列满时拒绝执行。
+     * 线程数配置为0时返回null，异步读取在调用线程中执行。
+     */
+    synchronized ExecutorService readExecutor(StoreConfig config) {
+        if (null == readExecutor && config.getReadIoThreadCount() > 0) {
+            readExecutor = new ThreadPoolExecutor(config.getReadIoThreadCount(), config.getReadIoThreadCount(),
+                    READ_KEEP_ALIVE_MS, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(config.getReadIoQueueSize()),
+                    new NamedThreadFactory("StoreReadThread-" + base.getName(), true));
+            readExecutor.allowCoreThreadTimeOut(true);
+        }
+        return readExecutor;
+    }
+
+    synchronized void stop() {
+        if (null != flushExecutor) {
+            flushExecutor.stop();
+            flushExecutor = null;
+        }
+        if (null != readExecutor) {
+            readExecutor.shutdown();
+            readExecutor = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return base.getPath();
+    }
+}
@@ -32,4 +32,8 @@ public class StoreInitializeException extends RuntimeException {
     StoreInitializeException(Throwable t) {
         super(t);
     }
+
+    public StoreInitializeException(String message, Throwable t) {
+        super(message, t);
+    }
 }
\ No newline at end of file
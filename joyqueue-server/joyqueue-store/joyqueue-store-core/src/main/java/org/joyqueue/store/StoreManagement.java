@@ -19,6 +19,7 @@ import org.joyqueue.exception.JoyQueueCode;
 import org.joyqueue.store.file.PositioningStore;
 import org.joyqueue.store.file.StoreFile;
 import org.joyqueue.store.index.IndexItem;
+import org.joyqueue.store.index.IndexStore;
 import org.joyqueue.store.utils.ByteBufferUtils;
 import org.joyqueue.store.utils.PreloadBufferPool;
 import org.slf4j.Logger;
@@ -29,10 +30,14 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.function.ToLongFunction;
 
 /**
  * @author liyue25
@@ -76,6 +81,9 @@ public class StoreManagement implements StoreManagementService {
             partitionGroupMetric.setLeftPosition(partitionGroupStoreManger.leftPosition());
             partitionGroupMetric.setReplicationPosition(partitionGroupStoreManger.commitPosition());
             partitionGroupMetric.setRightPosition(partitionGroupStoreManger.rightPosition());
+            partitionGroupMetric.setScrubPosition(partitionGroupStoreManger.scrubPosition());
+            partitionGroupMetric.setCorruptPosition(partitionGroupStoreManger.corruptPosition());
+            partitionGroupMetric.setCorruptCount(partitionGroupStoreManger.corruptCount());
 
             partitionGroupMetric.setPartitionMetrics(
                     Arrays.stream(partitionGroupStoreManger.listPartitions())
@@ -90,7 +98,7 @@ public class StoreManagement implements StoreManagementService {
     private PartitionMetric getPartitionMetric(PartitionGroupStoreManager partitionGroupStoreManger, short partition) {
         PartitionMetric partitionMetric = null;
 
-        PositioningStore<IndexItem> indexStore = partitionGroupStoreManger.indexStore(partition);
+        IndexStore indexStore = partitionGroupStoreManger.indexStore(partition);
         if (null != indexStore) {
             partitionMetric = new PartitionMetric();
             partitionMetric.setPartition(partition);
@@ -148,15 +156,32 @@ public class StoreManagement implements StoreManagementService {
     }
 
     public long freeSpace() {
-        return store.base().getFreeSpace();
+        return sumSpace(File::getFreeSpace);
     }
 
     public long totalSpace(){
-        return store.base().getTotalSpace();
+        return sumSpace(File::getTotalSpace);
     }
 
     private long usableSpace(){
-        return store.base().getUsableSpace();
+        return sumSpace(File::getUsableSpace);
+    }
+
+    /**
+     * 累加所有数据目录的磁盘空间，多个数据目录在同一个文件系统上时只计算一次
+     */
+    private long sumSpace(ToLongFunction<File> space) {
+        Map<Object, File> fileStores = new LinkedHashMap<>();
+        for (File dataBase : store.dataBases()) {
+            Object key;
+            try {
+                key = Files.getFileStore(dataBase.toPath());
+            } catch (IOException e) {
+                key = dataBase;
+            }
+            fileStores.putIfAbsent(key, dataBase);
+        }
+        return fileStores.values().stream().mapToLong(space).sum();
     }
 
 
@@ -216,6 +241,27 @@ public class StoreManagement implements StoreManagementService {
 
     }
 
+    @Override
+    public byte[][] readMessagesByBizId(String topic, String bizId) {
+        try {
+            List<byte[]> messages = new ArrayList<>();
+            for (int group : store.partitionGroups(topic)) {
+                PartitionGroupStoreManager partitionGroupStore = store.partitionGroupStore(topic, group);
+                if (null != partitionGroupStore) {
+                    for (ByteBuffer message : partitionGroupStore.readByBizId(bizId)) {
+                        byte[] bytes = new byte[message.remaining()];
+                        message.duplicate().get(bytes);
+                        messages.add(bytes);
+                    }
+                }
+            }
+            return messages.toArray(new byte[0][]);
+        } catch (Throwable t) {
+            logger.warn("Exception:", t);
+            return null;
+        }
+    }
+
     @Override
     public byte[][] readMessages(File file, long position, int count, boolean includeFileHeader) {
 
@@ -0,0 +1,263 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.store.file;
+
+import org.joyqueue.toolkit.io.Compressor;
+import org.joyqueue.toolkit.io.Snappy;
+import org.joyqueue.toolkit.io.Zlib;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+
+/**
+ * 按块压缩的只读日志文件。
+ * 文件格式：
+ * 文件头 | MAGIC(4) | 压缩类型(1) | 数据长度(4) | 块大小(4) | 块数量(4) | 块偏移表(8 * (块数量 + 1)) | 压缩块...
+ * 每个块单独压缩，块偏移表记录每个块在文件中的位置，按位置读取时只需要解压对应的块。
+ */
+class CompressedSegment {
+    // 压缩文件的后缀
+    static final String SUFFIX = ".z";
+    private static final int MAGIC = 0x4A515A31;
+    private static final byte SNAPPY = 1, ZLIB = 2;
+    private static final int META_SIZE = 4 + 1 + 4 + 4 + 4;
+
+    private final Compressor compressor;
+    private final int dataSize;
+    private final int blockSize;
+    private final long[] offsets;
+    // 已经解压到缓存页中的块
+    private final BitSet loadedBlocks = new BitSet();
+
+    private CompressedSegment(Compressor compressor, int dataSize, int blockSize, long[] offsets) {
+        this.compressor = compressor;
+        this.dataSize = dataSize;
+        this.blockSize = blockSize;
+        this.offsets = offsets;
+    }
+
+    static boolean isSupported(String type) {
+        return typeOf(type) > 0;
+    }
+
+    private static byte typeOf(String type) {
+        if ("snappy".equalsIgnoreCase(type)) {
+            return SNAPPY;
+        } else if ("zlib".equalsIgnoreCase(type)) {
+            return ZLIB;
+        }
+        return 0;
+    }
+
+    private static Compressor compressorOf(byte type) throws IOException {
+        switch (type) {
+            case SNAPPY:
+                return Snappy.INSTANCE;
+            case ZLIB:
+                return Zlib.INSTANCE;
+            default:
+                throw new IOException(String.format("Unsupported compress type: %d!", type));
+        }
+    }
+
+    int dataSize() {
+        return dataSize;
+    }
+
+    /**
+     * 读取压缩文件的块偏移表
+     */
+    static CompressedSegment open(File file, int headerSize) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer meta = ByteBuffer.allocate(META_SIZE);
+            readFully(channel, meta, headerSize);
+            meta.flip();
+            if (meta.getInt() != MAGIC) {
+                throw new IOException(String.format("Invalid compressed file: %s!", file.getAbsolutePath()));
+            }
+            Compressor compressor = compressorOf(meta.get());
+            int dataSize = meta.getInt();
+            int blockSize = meta.getInt();
+            int blockCount = meta.getInt();
+            ByteBuffer table = ByteBuffer.allocate(Long.BYTES * (blockCount + 1));
+            readFully(channel, table, headerSize + META_SIZE);
+            table.flip();
+            long[] offsets = new long[blockCount + 1];
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = table.getLong();
+            }
+            return new CompressedSegment(compressor, dataSize, blockSize, offsets);
+        }
+    }
+
+    /**
+     * 按块压缩源文件的数据，写入target，文件头原样复制。
+     *
+     * @return 压缩后的文件
+     */
+    static CompressedSegment write(File source, File target, int headerSize, int dataSize, String type, int blockSize) throws IOException {
+        byte compressType = typeOf(type);
+        Compressor compressor = compressorOf(compressType);
+        int blockCount = (dataSize + blockSize - 1) / blockSize;
+        long[] offsets = new long[blockCount + 1];
+        try (FileChannel src = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+             FileChannel dest = FileChannel.open(target.toPath(), StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(headerSize);
+            readFully(src, header, 0L);
+            header.flip();
+            writeFully(dest, header, 0L);
+
+            long position = headerSize + META_SIZE + (long) Long.BYTES * offsets.length;
+            byte[] block = new byte[blockSize];
+            ByteArrayOutputStream out = new ByteArrayOutputStream(blockSize);
+            for (int i = 0; i < blockCount; i++) {
+                int length = Math.min(blockSize, dataSize - i * blockSize);
+                readFully(src, ByteBuffer.wrap(block, 0, length), headerSize + (long) i * blockSize);
+                out.reset();
+                compressor.compress(block, 0, length, out);
+                offsets[i] = position;
+                position += writeFully(dest, ByteBuffer.wrap(out.toByteArray()), position);
+            }
+            offsets[blockCount] = position;
+
+            ByteBuffer meta = ByteBuffer.allocate(META_SIZE + Long.BYTES * offsets.length);
+            meta.putInt(MAGIC).put(compressType).putInt(dataSize).putInt(blockSize).putInt(blockCount);
+            for (long offset : offsets) {
+                meta.putLong(offset);
+            }
+            meta.flip();
+            writeFully(dest, meta, headerSize);
+            dest.force(true);
+        }
+        return new CompressedSegment(compressor, dataSize, blockSize, offsets);
+    }
+
+    /**
+     * 确保[position, position + length)范围内的块已经解压到缓存页中
+     *
+     * @param length 小于0时解压到文件末尾
+     */
+    synchronized void load(File file, ByteBuffer page, int position, int length) throws IOException {
+        int blockCount = offsets.length - 1;
+        int end = length < 0 ? dataSize : Math.min(dataSize, position + Math.max(length, 1));
+        int firstBlock = position / blockSize;
+        int lastBlock = Math.min((end - 1) / blockSize, blockCount - 1);
+        if (loadedBlocks.nextClearBit(firstBlock) > lastBlock) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            for (int i = firstBlock; i <= lastBlock; i++) {
+                if (!loadedBlocks.get(i)) {
+                    ByteBuffer dest = page.duplicate();
+                    dest.clear();
+                    dest.position(i * blockSize);
+                    dest.limit(Math.min(dataSize, (i + 1) * blockSize));
+                    decompressBlock(channel, i, dest);
+                    loadedBlocks.set(i);
+                }
+            }
+        }
+    }
+
+    synchronized void unload() {
+        loadedBlocks.clear();
+    }
+
+    /**
+     * 解压整个文件，写入target，用于回滚压缩文件。
+     */
+    void restore(File file, File target, int headerSize) throws IOException {
+        try (FileChannel src = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+             FileChannel dest = FileChannel.open(target.toPath(), StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(headerSize);
+            readFully(src, header, 0L);
+            header.flip();
+            writeFully(dest, header, 0L);
+            ByteBuffer block = ByteBuffer.allocate(blockSize);
+            for (int i = 0; i < offsets.length - 1; i++) {
+                block.clear();
+                block.limit(Math.min(blockSize, dataSize - i * blockSize));
+                decompressBlock(src, i, block);
+                block.flip();
+                writeFully(dest, block, headerSize + (long) i * blockSize);
+            }
+            dest.force(true);
+        }
+    }
+
+    private void decompressBlock(FileChannel channel, int block, ByteBuffer dest) throws IOException {
+        byte[] compressed = new byte[(int) (offsets[block + 1] - offsets[block])];
+        readFully(channel, ByteBuffer.wrap(compressed), offsets[block]);
+        compressor.decompress(compressed, 0, compressed.length, new ByteBufferOutputStream(dest));
+        if (dest.hasRemaining()) {
+            throw new IOException(String.format("Decompressed block %d is too short, remaining: %d!", block, dest.remaining()));
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int length = channel.read(buffer, position);
+            if (length < 0) {
+                throw new EOFException();
+            }
+            position += length;
+        }
+    }
+
+    private static int writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int size = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        return size;
+    }
+
+    /**
+     * 把解压的数据直接写入缓存页
+     */
+    private static class ByteBufferOutputStream extends OutputStream {
+        private final ByteBuffer dest;
+
+        ByteBufferOutputStream(ByteBuffer dest) {
+            this.dest = dest;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (!dest.hasRemaining()) {
+                throw new IOException("Decompressed block is too long!");
+            }
+            dest.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > dest.remaining()) {
+                throw new IOException("Decompressed block is too long!");
+            }
+            dest.put(b, off, len);
+        }
+    }
+}
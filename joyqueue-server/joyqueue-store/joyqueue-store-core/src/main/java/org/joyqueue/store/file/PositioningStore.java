@@ -18,6 +18,7 @@ package org.joyqueue.store.file;
 import org.joyqueue.store.PositionOverflowException;
 import org.joyqueue.store.PositionUnderflowException;
 import org.joyqueue.store.utils.PreloadBufferPool;
+import org.joyqueue.toolkit.buffer.RByteBuffer;
 import org.joyqueue.toolkit.format.Format;
 import org.joyqueue.toolkit.time.SystemClock;
 import org.slf4j.Logger;
@@ -27,7 +28,13 @@ import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
@@ -50,23 +57,33 @@ public class PositioningStore<T> implements Closeable {
     private final int diskFullRatio;
     private final int maxMessageLength;
     private final File base;
+    // 冷存储目录，为null时不开启分层存储
+    private final File coldBase;
     private final LogSerializer<T> serializer;
     private final PreloadBufferPool bufferPool;
     private final NavigableMap<Long, StoreFile<T>> storeFileMap = new ConcurrentSkipListMap<>();
 
     private final AtomicLong flushPosition = new AtomicLong(0L);
+    private final AtomicLong forcePosition = new AtomicLong(0L);
     private final AtomicLong rightPosition = new AtomicLong(0L);
     private final AtomicLong leftPosition = new AtomicLong(0L);
+    // 打开文件的次数
+    private final AtomicLong fileOpenCounter = new AtomicLong(0L);
 
     private final Lock writeLock = new ReentrantLock();
     private final Lock flushLock = new ReentrantLock();
     private final ReentrantLock deleteLock = new ReentrantLock();
 
     // 正在写入的
-    private StoreFile<T> writeStoreFile = null;
+    private volatile StoreFile<T> writeStoreFile = null;
 
     public PositioningStore(File base, Config config, PreloadBufferPool bufferPool, LogSerializer<T> serializer) {
+        this(base, null, config, bufferPool, serializer);
+    }
+
+    public PositioningStore(File base, File coldBase, Config config, PreloadBufferPool bufferPool, LogSerializer<T> serializer) {
         this.base = base;
+        this.coldBase = coldBase;
         this.fileHeaderSize = config.fileHeaderSize;
         this.fileDataSize = config.fileDataSize;
         this.maxMessageLength = config.maxMessageLength;
@@ -92,6 +109,13 @@ public class PositioningStore<T> implements Closeable {
         return flushPosition.get();
     }
 
+    /**
+     * 已经同步到磁盘(fsync)的位置，forcePosition <= flushPosition
+     */
+    public long forcePosition() {
+        return forcePosition.get();
+    }
+
     public void clear(long position) {
         logger.info("Clear store, new position: {}, store: {}...",
                 Format.formatWithComma(position),
@@ -106,6 +130,7 @@ public class PositioningStore<T> implements Closeable {
             this.leftPosition.set(position);
             this.rightPosition.set(position);
             this.flushPosition.set(position);
+            this.forcePosition.set(position);
             resetWriteStoreFile();
         } finally {
             deleteLock.unlock();
@@ -141,10 +166,12 @@ public class PositioningStore<T> implements Closeable {
                 this.leftPosition.set(position);
                 this.rightPosition.set(position);
                 this.flushPosition.set(position);
+                this.forcePosition.set(position);
             } else if (position < right()) {
                 rollbackFiles(position);
                 this.rightPosition.set(position);
                 if (this.flushPosition() > position) this.flushPosition.set(position);
+                if (this.forcePosition() > position) this.forcePosition.set(position);
             }
             resetWriteStoreFile();
         } finally {
@@ -178,7 +205,7 @@ public class PositioningStore<T> implements Closeable {
         if (!storeFileMap.isEmpty()) {
             // position 所在的Page需要截断至position
             Map.Entry<Long, StoreFile<T>> entry = storeFileMap.floorEntry(position);
-            StoreFile storeFile = entry.getValue();
+            StoreFile<T> storeFile = entry.getValue();
             if (position > storeFile.position()) {
                 int relPos = (int) (position - storeFile.position());
                 logger.info("Truncate store file {} to relative position {}.", storeFile.file().getAbsolutePath(), relPos);
@@ -209,6 +236,15 @@ public class PositioningStore<T> implements Closeable {
     }
 
     public void recover() throws IOException {
+        recover(true);
+    }
+
+    /**
+     * 恢复存储
+     * @param recoverLogTail 是否从末尾向前查找最后一条完整的日志并截掉之后的数据。
+     *                       正常关闭且已校验过末尾数据时可以传false，跳过扫描。
+     */
+    public void recover(boolean recoverLogTail) throws IOException {
         logger.info("Recovering store file: {}...", base.getAbsolutePath());
         try {
             // 注意锁的顺序必须一致，避免死锁。
@@ -219,20 +255,12 @@ public class PositioningStore<T> implements Closeable {
 
             long recoverPosition = this.storeFileMap.isEmpty() ? 0L : this.storeFileMap.lastKey() + this.storeFileMap.lastEntry().getValue().fileDataSize();
             flushPosition.set(recoverPosition);
+            forcePosition.set(recoverPosition);
             rightPosition.set(recoverPosition);
             leftPosition.set(this.storeFileMap.isEmpty() ? 0L : this.storeFileMap.firstKey());
 
-            if (recoverPosition > 0) {
-                long lastLogTail = toLogTail(recoverPosition - 1);
-                if (lastLogTail < 0) {
-                    throw new CorruptedLogException(String.format("Unable to read any valid log. Corrupted log files: %s.", base.getAbsolutePath()));
-                }
-                if (lastLogTail < recoverPosition) {
-                    rollbackFiles(lastLogTail);
-                    flushPosition.set(lastLogTail);
-                    rightPosition.set(lastLogTail);
-
-                }
+            if (recoverLogTail) {
+                recoverLogTailUnsafe();
             }
             resetWriteStoreFile();
         } finally {
@@ -247,16 +275,46 @@ public class PositioningStore<T> implements Closeable {
                 base.getAbsolutePath());
     }
 
-    private void recoverFileMap() throws IOException {
-        File[] files = base.listFiles(file -> file.isFile() && file.getName().matches("\\d+"));
-        long filePosition;
-        if (null != files) {
-            for (File file : files) {
-                filePosition = Long.parseLong(file.getName());
-                storeFileMap.put(filePosition, new StoreFileImpl<>(filePosition, base, fileHeaderSize, serializer, bufferPool, fileDataSize));
-//                storeFileMap.put(filePosition, new FastWriteStoreFile<>(filePosition, base, fileHeaderSize, serializer, 10 * 1024 * 1024));
+    /**
+     * 从末尾向前查找最后一条完整的日志，截掉之后的数据。
+     * 用于调用{@link #recover(boolean)}时跳过了末尾检查，事后发现需要检查的情况。
+     */
+    public void recoverLogTail() throws IOException {
+        try {
+            flushLock.lock();
+            writeLock.lock();
+            deleteLock.lock();
+            recoverLogTailUnsafe();
+            resetWriteStoreFile();
+        } finally {
+            deleteLock.unlock();
+            writeLock.unlock();
+            flushLock.unlock();
+        }
+    }
+
+    private void recoverLogTailUnsafe() throws IOException {
+        long recoverPosition = right();
+        if (recoverPosition > 0) {
+            long lastLogTail = toLogTail(recoverPosition - 1);
+            if (lastLogTail < 0) {
+                throw new CorruptedLogException(String.format("Unable to read any valid log. Corrupted log files: %s.", base.getAbsolutePath()));
+            }
+            if (lastLogTail < recoverPosition) {
+                rollbackFiles(lastLogTail);
+                flushPosition.set(lastLogTail);
+                forcePosition.set(lastLogTail);
+                rightPosition.set(lastLogTail);
+
             }
         }
+    }
+
+    private void recoverFileMap() throws IOException {
+        if (null != coldBase && coldBase.isDirectory()) {
+            recoverFiles(coldBase);
+        }
+        recoverFiles(base);
         // 当服务器断电时，在存储的末尾，有可能会存在没来得及刷盘的空文件，需要删掉。
 
         while (!storeFileMap.isEmpty() && storeFileMap.lastEntry().getValue().file().length() <= fileHeaderSize) {
@@ -280,9 +338,196 @@ public class PositioningStore<T> implements Closeable {
                 if (position != fileEntry.getKey()) {
                     throw new CorruptedLogException(String.format("Files are not continuous! expect: %d, actual file name: %d, store: %s.", position, fileEntry.getKey(), base.getAbsolutePath()));
                 }
-                position += fileEntry.getValue().file().length() - fileHeaderSize;
+                position += fileEntry.getValue().fileDataSize();
+            }
+        }
+    }
+
+    /**
+     * 加载目录中的文件，需要先加载冷存储目录，再加载原目录。
+     */
+    private void recoverFiles(File dir) throws IOException {
+        // 删除转移或者压缩过程中残留的临时文件
+        File[] tmpFiles = dir.listFiles(file -> file.isFile() && file.getName().endsWith(StoreFileImpl.TMP_SUFFIX));
+        if (null != tmpFiles) {
+            for (File tmpFile : tmpFiles) {
+                if (!tmpFile.delete()) {
+                    throw new IOException(String.format("Delete file %s failed!", tmpFile.getAbsolutePath()));
+                }
+            }
+        }
+        File[] files = dir.listFiles(file -> file.isFile() && file.getName().matches("\\d+(\\" + CompressedSegment.SUFFIX + ")?"));
+        if (null == files) {
+            return;
+        }
+        // 压缩文件排在前面，同一位置同时存在压缩文件和原文件时，删除原文件
+        Arrays.sort(files, Comparator.comparing(file -> !file.getName().endsWith(CompressedSegment.SUFFIX)));
+        for (File file : files) {
+            String name = file.getName();
+            long filePosition = Long.parseLong(name.endsWith(CompressedSegment.SUFFIX) ?
+                    name.substring(0, name.length() - CompressedSegment.SUFFIX.length()) : name);
+            if (storeFileMap.containsKey(filePosition)) {
+                // 转移到冷存储或者压缩已完成，但是没来得及删除原文件
+                if (!file.delete()) {
+                    throw new IOException(String.format("Delete file %s failed!", file.getAbsolutePath()));
+                }
+                logger.info("Store file deleted: {}, it's already moved or compressed.", file.getAbsolutePath());
+                continue;
+            }
+            storeFileMap.put(filePosition, new StoreFileImpl<>(filePosition, dir, fileHeaderSize, serializer, bufferPool, fileDataSize, fileOpenCounter));
+//                storeFileMap.put(filePosition, new FastWriteStoreFile<>(filePosition, base, fileHeaderSize, serializer, 10 * 1024 * 1024));
+        }
+    }
+
+    /**
+     * 按块压缩创建时间早于timestamp的文件，正在写入的文件和最后一个文件不压缩。
+     * 压缩后文件仍然在storeFileMap中，读取时按需解压。
+     *
+     * @param timestamp 文件创建时间的上限
+     * @param type      压缩类型
+     * @param blockSize 压缩块大小
+     * @return 本次压缩节省的磁盘空间
+     */
+    public long compress(long timestamp, String type, int blockSize) throws IOException {
+        long savedSize = 0L;
+        for (StoreFile<T> storeFile : storeFileMap.values()) {
+            Map.Entry<Long, StoreFile<T>> lastEntry = storeFileMap.lastEntry();
+            if (storeFile == writeStoreFile || null == lastEntry || storeFile == lastEntry.getValue()
+                    || storeFile.timestamp() >= timestamp) {
+                break;
+            }
+            // 持有删除锁，避免压缩过程中文件被删除
+            deleteLock.lock();
+            try {
+                if (storeFileMap.get(storeFile.position()) == storeFile) {
+                    long length = storeFile.file().length();
+                    if (storeFile.compress(type, blockSize)) {
+                        savedSize += length - storeFile.file().length();
+                        logger.info("Store file compressed: {}, {} -> {}.", storeFile.file().getAbsolutePath(),
+                                Format.formatWithComma(length), Format.formatWithComma(storeFile.file().length()));
+                    }
+                }
+            } finally {
+                deleteLock.unlock();
+            }
+        }
+        return savedSize;
+    }
+
+    /**
+     * 用数据长度相同的新文件tmp替换storeFile，用于日志压实。正在写入的文件和最后一个文件不替换。
+     *
+     * @param storeFile 被替换的文件
+     * @param tmp       新文件
+     * @param dataSize  生成新文件时storeFile的数据长度
+     * @return 替换成功返回true，失败时tmp已经被删除
+     */
+    public boolean replace(StoreFile<T> storeFile, File tmp, int dataSize) throws IOException {
+        // 持有删除锁，避免替换过程中文件被删除
+        deleteLock.lock();
+        try {
+            Map.Entry<Long, StoreFile<T>> lastEntry = storeFileMap.lastEntry();
+            if (storeFileMap.get(storeFile.position()) != storeFile || storeFile == writeStoreFile
+                    || null == lastEntry || storeFile == lastEntry.getValue()) {
+                Files.deleteIfExists(tmp.toPath());
+                return false;
+            }
+            return storeFile.replace(tmp, dataSize);
+        } finally {
+            deleteLock.unlock();
+        }
+    }
+
+    /**
+     * 用dir中的文件替换存储中的所有文件，用于副本从快照初始化。
+     * dir中的文件必须连续完整，文件名是文件的起始位置；dir中没有文件时清空存储，最大最小位置都置为position。
+     * 文件以硬链接的方式安装，dir中的文件保留，安装中断后可以重新安装。
+     *
+     * @param dir      快照文件所在的目录
+     * @param position dir中没有文件时的位置
+     */
+    public void install(File dir, long position) throws IOException {
+        try {
+            // 注意锁的顺序必须一致，避免死锁。
+            flushLock.lock();
+            writeLock.lock();
+            deleteLock.lock();
+            clear();
+            File[] files = dir.listFiles(file -> file.isFile() && file.getName().matches("\\d+"));
+            if (null != files) {
+                for (File file : files) {
+                    linkFile(file, new File(base, file.getName()));
+                }
+            }
+            recoverFileMap();
+            long right = storeFileMap.isEmpty() ? position : storeFileMap.lastKey() + storeFileMap.lastEntry().getValue().fileDataSize();
+            leftPosition.set(storeFileMap.isEmpty() ? position : storeFileMap.firstKey());
+            rightPosition.set(right);
+            flushPosition.set(right);
+            forcePosition.set(right);
+            resetWriteStoreFile();
+        } finally {
+            deleteLock.unlock();
+            writeLock.unlock();
+            flushLock.unlock();
+        }
+        logger.info("Store installed, leftPosition: {}, rightPosition: {}, base: {}.",
+                Format.formatWithComma(left()),
+                Format.formatWithComma(right()),
+                base.getAbsolutePath());
+    }
+
+    /**
+     * 为source创建硬链接target，文件系统不支持硬链接时复制文件，target已经存在时替换
+     */
+    public static void linkFile(File source, File target) throws IOException {
+        Files.deleteIfExists(target.toPath());
+        try {
+            Files.createLink(target.toPath(), source.toPath());
+        } catch (UnsupportedOperationException | IOException e) {
+            Files.copy(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            try (FileChannel channel = FileChannel.open(target.toPath(), StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+        }
+    }
+
+    /**
+     * 把创建时间早于timestamp的文件转移到冷存储，正在写入的文件和最后一个文件不转移。
+     * 转移后文件仍然在storeFileMap中，读取时直接读冷存储中的文件。
+     *
+     * @param timestamp 文件创建时间的上限
+     * @return 本次转移的数据大小
+     */
+    public long offload(long timestamp) throws IOException {
+        if (null == coldBase) {
+            return 0L;
+        }
+        long offloadSize = 0L;
+        for (StoreFile<T> storeFile : storeFileMap.values()) {
+            Map.Entry<Long, StoreFile<T>> lastEntry = storeFileMap.lastEntry();
+            if (storeFile == writeStoreFile || null == lastEntry || storeFile == lastEntry.getValue()
+                    || storeFile.timestamp() >= timestamp) {
+                break;
+            }
+            if (coldBase.equals(storeFile.file().getParentFile())) {
+                continue;
+            }
+            if (!coldBase.isDirectory() && !coldBase.mkdirs()) {
+                throw new IOException(String.format("Create directory: %s failed!", coldBase.getAbsolutePath()));
+            }
+            // 持有删除锁，避免转移过程中文件被删除
+            deleteLock.lock();
+            try {
+                if (storeFileMap.get(storeFile.position()) == storeFile && storeFile.moveTo(coldBase)) {
+                    offloadSize += storeFile.fileDataSize();
+                    logger.info("Store file moved to cold tier: {}.", storeFile.file().getAbsolutePath());
+                }
+            } finally {
+                deleteLock.unlock();
             }
         }
+        return offloadSize;
     }
 
     private long toLogTail(long position) {
@@ -370,11 +615,61 @@ public class PositioningStore<T> implements Closeable {
                     }
                     return true;
                 }
-                StoreFile storeFile = entry.getValue();
+                StoreFile<T> storeFile = entry.getValue();
                 if (!storeFile.isClean()) storeFile.flush();
                 if (flushPosition() < storeFile.position() + storeFile.flushPosition()) {
                     flushPosition.set(storeFile.position() + storeFile.flushPosition());
                 }
+                sealPreviousStoreFile(storeFile);
+                return true;
+            } finally {
+                flushLock.unlock();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 开始刷盘一个文件时，上一个文件已经写满并且刷盘完成，关闭它的写文件句柄。
+     */
+    private void sealPreviousStoreFile(StoreFile<T> storeFile) {
+        Map.Entry<Long, StoreFile<T>> previous = storeFileMap.lowerEntry(storeFile.position());
+        if (null != previous && previous.getValue() != writeStoreFile && previous.getValue().isClean()) {
+            previous.getValue().seal();
+        }
+    }
+
+    /**
+     * 打开文件的总次数，用于统计刷盘的系统调用开销
+     */
+    public long fileOpenCount() {
+        return fileOpenCounter.get();
+    }
+
+    /**
+     * 将所有已刷盘但尚未同步的数据强制同步到磁盘(fsync)。
+     * 一次调用覆盖上次同步之后刷盘的全部数据，可能跨越多个文件。
+     *
+     * @return 有数据被同步返回true，否则返回false
+     */
+    public boolean force() throws IOException {
+        if (forcePosition() < flushPosition()) {
+            try {
+                flushLock.lock();
+                long forceEnd = flushPosition();
+                long forceStart = Math.max(forcePosition(), left());
+                if (forceStart < forceEnd) {
+                    Long fromKey = storeFileMap.floorKey(forceStart);
+                    if (null == fromKey) {
+                        fromKey = forceStart;
+                    }
+                    for (StoreFile<T> storeFile : storeFileMap.subMap(fromKey, true, forceEnd, false).values()) {
+                        storeFile.force();
+                    }
+                }
+                if (forcePosition() < forceEnd) {
+                    forcePosition.set(forceEnd);
+                }
                 return true;
             } finally {
                 flushLock.unlock();
@@ -384,7 +679,7 @@ public class PositioningStore<T> implements Closeable {
     }
 
     private StoreFile<T> createStoreFile(long position) {
-        StoreFile<T> storeFile = new StoreFileImpl<>(position, base, fileHeaderSize, serializer, bufferPool, fileDataSize);
+        StoreFile<T> storeFile = new StoreFileImpl<>(position, base, fileHeaderSize, serializer, bufferPool, fileDataSize, fileOpenCounter);
         StoreFile<T> present;
         if ((present = storeFileMap.putIfAbsent(position, storeFile)) != null) {
             storeFile = present;
@@ -439,6 +734,15 @@ public class PositioningStore<T> implements Closeable {
         }
     }
 
+    /**
+     * 用reader直接读取position所在文件中从position开始的数据，不反序列化，用于避免逐条创建对象
+     */
+    public <R> R read(long position, BufferReader<R> reader) throws IOException {
+        checkReadPosition(position);
+        StoreFile<T> storeFile = storeFileMap.floorEntry(position).getValue();
+        return storeFile.read((int) (position - storeFile.position()), -1, reader);
+    }
+
     private T tryRead(long position) throws IOException {
 
         checkReadPosition(position);
@@ -484,7 +788,7 @@ public class PositioningStore<T> implements Closeable {
     public ByteBuffer readByteBuffer(long position, int length) throws IOException {
         checkReadPosition(position);
         try {
-            StoreFile storeFile = storeFileMap.floorEntry(position).getValue();
+            StoreFile<T> storeFile = storeFileMap.floorEntry(position).getValue();
             int relPosition = (int) (position - storeFile.position());
             ByteBuffer byteBuffer = storeFile.readByteBuffer(relPosition, length);
             byteBuffer.limit(byteBuffer.position() + serializer.trim(byteBuffer, length));
@@ -501,6 +805,26 @@ public class PositioningStore<T> implements Closeable {
         }
     }
 
+    /**
+     * 零拷贝读取，返回缓存页的只读切片，使用完毕后必须调用{@link RByteBuffer#release()}释放。
+     */
+    public RByteBuffer readPinnedByteBuffer(long position, int length) throws IOException {
+        checkReadPosition(position);
+        try {
+            StoreFile<T> storeFile = storeFileMap.floorEntry(position).getValue();
+            int relPosition = (int) (position - storeFile.position());
+            return storeFile.readPinnedByteBuffer(relPosition, length);
+        } catch (Throwable t) {
+            logger.warn("Exception on readPinnedByteBuffer position {} of store {}, " +
+                            "leftPosition: {}, rightPosition: {}, flushPosition: {}.",
+                    position, base.getAbsolutePath(),
+                    Format.formatWithComma(left()),
+                    Format.formatWithComma(right()),
+                    Format.formatWithComma(flushPosition()),
+                    t);
+            throw t;
+        }
+    }
 
     private void checkReadPosition(long position) {
         long p;
@@ -552,6 +876,9 @@ public class PositioningStore<T> implements Closeable {
                             if(flushPosition.get() < leftPosition.get()) {
                                 flushPosition.set(leftPosition.get());
                             }
+                            if(forcePosition.get() < leftPosition.get()) {
+                                forcePosition.set(leftPosition.get());
+                            }
                         } else {
                             break;
                         }
@@ -586,14 +913,14 @@ public class PositioningStore<T> implements Closeable {
 
     public long physicalDeleteLeftFile() throws IOException {
         if (storeFileMap.isEmpty()) return 0;
-        StoreFile storeFile = storeFileMap.firstEntry().getValue();
+        StoreFile<T> storeFile = storeFileMap.firstEntry().getValue();
         return physicalDeleteTo(storeFile.position() + (storeFile.hasPage() ? storeFile.writePosition() : storeFile.fileDataSize()));
     }
 
     /**
      * 删除文件，丢弃未刷盘的数据，用于rollback
      */
-    private void forceDeleteStoreFile(StoreFile storeFile) throws IOException {
+    private void forceDeleteStoreFile(StoreFile<T> storeFile) throws IOException {
         storeFile.forceUnload();
         File file = storeFile.file();
         if (file.exists()) {
@@ -662,14 +989,14 @@ public class PositioningStore<T> implements Closeable {
 
     @Override
     public void close() {
-        for (StoreFile storeFile : storeFileMap.values()) {
+        for (StoreFile<T> storeFile : storeFileMap.values()) {
             storeFile.unload();
         }
     }
 
     public byte[] readBytes(long position, int length) throws IOException {
         checkReadPosition(position);
-        StoreFile storeFile = storeFileMap.floorEntry(position).getValue();
+        StoreFile<T> storeFile = storeFileMap.floorEntry(position).getValue();
         int relPosition = (int) (position - storeFile.position());
         return storeFile.readByteBuffer(relPosition, length).array();
     }
@@ -678,6 +1005,108 @@ public class PositioningStore<T> implements Closeable {
         return storeFileMap.size();
     }
 
+    /**
+     * 最左侧文件的结束位置，也就是下一个文件的起始位置，只有一个文件时返回right()
+     */
+    public long leftFileEnd() {
+        Map.Entry<Long, StoreFile<T>> first = storeFileMap.firstEntry();
+        Long next = null == first ? null : storeFileMap.higherKey(first.getKey());
+        return null == next ? right() : next;
+    }
+
+    public int fileDataSize() {
+        return fileDataSize;
+    }
+
+    /**
+     * position所在的文件是否已经加载了缓存页，读取时不需要从磁盘加载。
+     * position不在[left, right)范围内时读取会立即失败或者返回空，也认为不需要加载。
+     */
+    public boolean isResident(long position) {
+        if (position < left() || position >= right()) {
+            return true;
+        }
+        Map.Entry<Long, StoreFile<T>> entry = storeFileMap.floorEntry(position);
+        return null == entry || entry.getValue().hasPage();
+    }
+
+    /**
+     * 结束位置大于position，已经写满并且刷盘完成的文件，这些文件不会再被修改，可以直接读取磁盘文件。
+     * 最后一个文件和正在写入的文件不包含在内，压缩后的文件需要解压才能读取原始数据，也不包含在内。
+     */
+    public List<StoreFile<T>> sealedFiles(long position) {
+        List<StoreFile<T>> sealed = new ArrayList<>();
+        Map.Entry<Long, StoreFile<T>> lastEntry = storeFileMap.lastEntry();
+        for (StoreFile<T> storeFile : storeFileMap.values()) {
+            if (storeFile == writeStoreFile || null == lastEntry || storeFile == lastEntry.getValue() || !storeFile.isClean()) {
+                break;
+            }
+            if (storeFile.position() + storeFile.writePosition() > position
+                    && !storeFile.file().getName().endsWith(CompressedSegment.SUFFIX)) {
+                sealed.add(storeFile);
+            }
+        }
+        return sealed;
+    }
+
+    /**
+     * 第一个压缩文件的起始位置，没有压缩文件时返回Long.MAX_VALUE
+     */
+    public long firstCompressedPosition() {
+        for (StoreFile<T> storeFile : storeFileMap.values()) {
+            if (storeFile.file().getName().endsWith(CompressedSegment.SUFFIX)) {
+                return storeFile.position();
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * 当前所有文件，按位置排序
+     */
+    public List<StoreFile<T>> storeFiles() {
+        return new ArrayList<>(storeFileMap.values());
+    }
+
+    public int fileHeaderSize() {
+        return fileHeaderSize;
+    }
+
+    /**
+     * 预读[position, position + length)范围内的数据，顺序读取落后的消费者时提前加载缓存页。
+     *
+     * @param maxLoadSize 最多允许新加载的缓存页总长度，超过后停止预读
+     * @return 本次预读新加载缓存页的文件
+     */
+    public List<StoreFile<T>> preload(long position, int length, long maxLoadSize) throws IOException {
+        List<StoreFile<T>> loaded = new ArrayList<>();
+        long pointer = Math.max(position, left());
+        long end = Math.min(position + length, right());
+        long loadSize = 0L;
+        while (pointer < end) {
+            Map.Entry<Long, StoreFile<T>> entry = storeFileMap.floorEntry(pointer);
+            if (null == entry) {
+                break;
+            }
+            StoreFile<T> storeFile = entry.getValue();
+            long fileEnd = storeFile.position() + storeFile.writePosition();
+            if (fileEnd <= pointer) {
+                break;
+            }
+            if (!storeFile.hasPage()) {
+                if (loadSize + fileDataSize > maxLoadSize) {
+                    break;
+                }
+                loadSize += fileDataSize;
+            }
+            if (storeFile.preload((int) (pointer - storeFile.position()), (int) (Math.min(end, fileEnd) - pointer))) {
+                loaded.add(storeFile);
+            }
+            pointer = fileEnd;
+        }
+        return loaded;
+    }
+
     public int meetMinStoreFile(long minIndexedPhysicalPosition) {
         return storeFileMap.headMap(minIndexedPhysicalPosition).size();
     }
@@ -0,0 +1,91 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.store.file;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 正常关闭标记，停止存储时写入，记录消息日志和各分区索引的结束位置及末尾数据的CRC。
+ * 启动时校验通过则信任已有索引，跳过日志末尾扫描和索引重建。
+ */
+public class ShutdownMarker {
+    private int version;
+    private long indexPosition;
+    private long journalRight;
+    private long journalCrc;
+    private Map<Short, Long> partitions;
+    private Map<Short, Long> partitionCrcs;
+
+    public ShutdownMarker() {}
+
+    public ShutdownMarker(long indexPosition, long journalRight, long journalCrc,
+                          Map<Short, Long> partitions, Map<Short, Long> partitionCrcs) {
+        this.indexPosition = indexPosition;
+        this.journalRight = journalRight;
+        this.journalCrc = journalCrc;
+        this.partitions = new HashMap<>(partitions);
+        this.partitionCrcs = new HashMap<>(partitionCrcs);
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public void setVersion(int version) {
+        this.version = version;
+    }
+
+    public long getIndexPosition() {
+        return indexPosition;
+    }
+
+    public void setIndexPosition(long indexPosition) {
+        this.indexPosition = indexPosition;
+    }
+
+    public long getJournalRight() {
+        return journalRight;
+    }
+
+    public void setJournalRight(long journalRight) {
+        this.journalRight = journalRight;
+    }
+
+    public long getJournalCrc() {
+        return journalCrc;
+    }
+
+    public void setJournalCrc(long journalCrc) {
+        this.journalCrc = journalCrc;
+    }
+
+    public Map<Short, Long> getPartitions() {
+        return partitions;
+    }
+
+    public void setPartitions(Map<Short, Long> partitions) {
+        this.partitions = partitions;
+    }
+
+    public Map<Short, Long> getPartitionCrcs() {
+        return partitionCrcs;
+    }
+
+    public void setPartitionCrcs(Map<Short, Long> partitionCrcs) {
+        this.partitionCrcs = partitionCrcs;
+    }
+}
@@ -15,6 +15,8 @@
  */
 package org.joyqueue.store.file;
 
+import org.joyqueue.toolkit.buffer.RByteBuffer;
+
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -55,6 +57,15 @@ public interface StoreFile<T> extends Timed {
      */
     T read(int position, int length) throws IOException;
 
+    /**
+     * 用给定的reader直接读取缓存页中的数据，不使用文件的序列化器
+     *
+     * @param position     文件内的相对位置
+     * @param length       数据长度，当长度小于0时则自动判断数据长度
+     * @param bufferReader reader读取的ByteBuffer从position开始，到文件写入位置结束
+     */
+    <R> R read(int position, int length, BufferReader<R> bufferReader) throws IOException;
+
     /**
      * 追加写入数据
      *
@@ -71,6 +82,15 @@ public interface StoreFile<T> extends Timed {
      */
     ByteBuffer readByteBuffer(int position, int length) throws IOException;
 
+    /**
+     * 零拷贝读取一段ByteBuffer，返回缓存页的只读切片。
+     * 使用完毕后必须调用{@link RByteBuffer#release()}释放，释放之前缓存页不会被回收。
+     *
+     * @param position 位置
+     * @param length   长度
+     */
+    RByteBuffer readPinnedByteBuffer(int position, int length) throws IOException;
+
     /**
      * 写入一段Bytebuffer
      */
@@ -83,6 +103,16 @@ public interface StoreFile<T> extends Timed {
      */
     int flush() throws IOException;
 
+    /**
+     * 将已刷盘的数据强制同步到磁盘（fsync），保证掉电后数据不丢失。
+     */
+    void force() throws IOException;
+
+    /**
+     * 文件不再写入并且已经刷盘完成，释放写文件使用的文件句柄
+     */
+    void seal();
+
     /**
      * 回滚到指定位置，未刷盘的数据直接丢弃，已刷盘的数据需要截断。
      */
@@ -108,8 +138,51 @@ public interface StoreFile<T> extends Timed {
      */
     int flushPosition();
 
+    /**
+     * 已同步到磁盘的位置
+     */
+    int forcePosition();
+
     /**
      * 文件创建时间
      */
     long timestamp();
+
+    /**
+     * 把文件转移到另一个目录，用于把不再写入的文件转移到冷存储。
+     * 文件存在未刷盘的数据或者正在被零拷贝读取时不转移。
+     *
+     * @param base 目标目录
+     * @return 转移成功返回true
+     */
+    boolean moveTo(File base) throws IOException;
+
+    /**
+     * 按块压缩文件，压缩后文件只读，读取时按需解压。
+     * 文件存在未刷盘的数据、已经压缩或者正在被零拷贝读取时不压缩。
+     *
+     * @param type      压缩类型：snappy或者zlib
+     * @param blockSize 压缩块大小
+     * @return 压缩成功返回true
+     */
+    boolean compress(String type, int blockSize) throws IOException;
+
+    /**
+     * 用数据长度相同的新文件替换文件内容，消息的位置不变，用于日志压实。
+     * 文件存在未刷盘的数据、数据长度变化、已经压缩、已经转移或者正在被零拷贝读取时不替换，并删除新文件。
+     *
+     * @param tmp      新文件，必须和文件在同一目录
+     * @param dataSize 生成新文件时文件的数据长度
+     * @return 替换成功返回true
+     */
+    boolean replace(File tmp, int dataSize) throws IOException;
+
+    /**
+     * 预读：加载缓存页，并把给定范围的数据提前读入内存，不记录缓存命中。
+     *
+     * @param position 文件内的相对位置
+     * @param length   预读长度
+     * @return 本次调用加载了缓存页返回true
+     */
+    boolean preload(int position, int length) throws IOException;
 }
@@ -17,6 +17,8 @@ package org.joyqueue.store.file;
 
 import org.joyqueue.store.utils.BufferHolder;
 import org.joyqueue.store.utils.PreloadBufferPool;
+import org.joyqueue.toolkit.buffer.RByteBuffer;
+import org.joyqueue.toolkit.ref.Reference;
 import org.joyqueue.toolkit.time.SystemClock;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,7 +32,12 @@ import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.StampedLock;
 
 /**
@@ -44,12 +51,18 @@ public class StoreFileImpl<T> implements StoreFile<T>, BufferHolder {
     // 读写：
     // DIRECT_BUFFER: 数据先写入DirectBuffer，异步刷盘到文件，性能最好；
     private static final int MAPPED_BUFFER = 0, DIRECT_BUFFER = 1, NO_BUFFER = -1;
+    // 转移文件时使用的临时文件后缀
+    public static final String TMP_SUFFIX = ".tmp";
+    // 预读时逐页访问映射内存的步长
+    private static final int OS_PAGE_SIZE = 4096;
     // 文件全局位置
     private final long filePosition;
     // 文件头长度
     private final int headerSize;
-    // 对应的File
-    private final File file;
+    // 对应的File，转移到冷存储后指向冷存储中的文件
+    private volatile File file;
+    // 压缩后的文件，为null时文件未压缩
+    private volatile CompressedSegment segment = null;
     // buffer读写锁：
     // 访问(包括读和写）buffer时加读锁；
     // 加载、释放buffer时加写锁；
@@ -59,26 +72,56 @@ public class StoreFileImpl<T> implements StoreFile<T>, BufferHolder {
     // 缓存页
     private ByteBuffer pageBuffer = null;
     private int bufferType = NO_BUFFER;
+    // 缓存页的引用计数，文件自身持有一个引用，零拷贝读取的每个切片各持有一个引用
+    private PageReference pageReference = null;
     private PreloadBufferPool bufferPool;
     private int capacity;
     private long lastAccessTime = SystemClock.now();
     // 当前刷盘位置
     private int flushPosition;
+    // 当前已同步到磁盘(fsync)的位置
+    private int forcePosition;
     // 当前写入位置
     private int writePosition = 0;
     private long timestamp = -1L;
     private AtomicBoolean positionLock = new AtomicBoolean(false);
+    // 文件内容被回滚或者替换的次数，不加锁转移或者压缩文件时，用于判断期间文件是否被修改
+    private volatile int modifications = 0;
+    // 写文件使用的FileChannel，第一次刷盘时打开，文件写满（seal）或者卸载缓存页时关闭。
+    // 打开时必须持有bufferLock的读锁和positionLock，或者bufferLock的写锁；关闭时必须持有bufferLock的写锁。
+    private volatile FileChannel fileChannel = null;
+    // 打开文件的计数器，用于统计刷盘的系统调用开销
+    private final AtomicLong fileOpenCounter;
 
     public StoreFileImpl(long filePosition, File base, int headerSize, LogSerializer<T> serializer, PreloadBufferPool bufferPool, int maxFileDataLength) {
+        this(filePosition, base, headerSize, serializer, bufferPool, maxFileDataLength, new AtomicLong(0L));
+    }
+
+    public StoreFileImpl(long filePosition, File base, int headerSize, LogSerializer<T> serializer, PreloadBufferPool bufferPool, int maxFileDataLength, AtomicLong fileOpenCounter) {
         this.filePosition = filePosition;
+        this.fileOpenCounter = fileOpenCounter;
         this.headerSize = headerSize;
         this.serializer = serializer;
         this.bufferPool = bufferPool;
         this.capacity = maxFileDataLength;
-        this.file = new File(base, String.valueOf(filePosition));
-        if (file.exists() && file.length() > headerSize) {
+        File compressedFile = new File(base, filePosition + CompressedSegment.SUFFIX);
+        if (compressedFile.exists()) {
+            this.file = compressedFile;
+            try {
+                this.segment = CompressedSegment.open(compressedFile, headerSize);
+            } catch (IOException e) {
+                throw new CorruptedLogException(String.format("Open compressed file %s failed: %s.", compressedFile.getAbsolutePath(), e.getMessage()));
+            }
+            this.writePosition = segment.dataSize();
+            this.flushPosition = writePosition;
+            this.forcePosition = writePosition;
+        } else {
+            this.file = new File(base, String.valueOf(filePosition));
+        }
+        if (null == segment && file.exists() && file.length() > headerSize) {
             this.writePosition = (int) (file.length() - headerSize);
             this.flushPosition = writePosition;
+            this.forcePosition = writePosition;
         }
         createTimestamp = SystemClock.now();
 
@@ -96,11 +139,18 @@ public class StoreFileImpl<T> implements StoreFile<T>, BufferHolder {
 
     private void loadRoUnsafe() throws IOException {
         if (null != pageBuffer) throw new IOException("Buffer already loaded!");
+        if (null != segment) {
+            // 压缩文件无法映射，读取时按块解压到缓存页中
+            ByteBuffer buffer = bufferPool.allocateDirect(this, true);
+            pageBuffer = buffer;
+            bufferType = DIRECT_BUFFER;
+            pageReference = new PageReference(buffer, DIRECT_BUFFER);
+            return;
+        }
         bufferPool.allocateMMap(this);
         try {
             MappedByteBuffer loadBuffer;
-            try (RandomAccessFile raf = new RandomAccessFile(file, "r");
-                 FileChannel fileChannel = raf.getChannel()) {
+            try (FileChannel fileChannel = openChannel("r")) {
                 loadBuffer =
                         fileChannel.map(FileChannel.MapMode.READ_ONLY, headerSize, file.length() - headerSize);
             }
@@ -108,6 +158,7 @@ public class StoreFileImpl<T> implements StoreFile<T>, BufferHolder {
             pageBuffer = loadBuffer;
             bufferType = MAPPED_BUFFER;
             pageBuffer.clear();
+            pageReference = new PageReference(loadBuffer, MAPPED_BUFFER);
         } catch (Throwable t) {
 //            logger.warn("Exception: ", t);
             bufferPool.releaseMMap(this);
@@ -128,18 +179,29 @@ public class StoreFileImpl<T> implements StoreFile<T>, BufferHolder {
 
     private void loadDirectBuffer(ByteBuffer buffer) throws IOException {
         if (file.exists() && file.length() > headerSize) {
-            try (RandomAccessFile raf = new RandomAccessFile(file, "r");
-                 FileChannel fileChannel = raf.getChannel()) {
-                fileChannel.position(headerSize);
-                int length;
-                do {
-                    length = fileChannel.read(buffer);
-                } while (length > 0);
+            // 已经打开写文件的FileChannel时直接使用，否则只读打开，读完即关闭
+            FileChannel channel = this.fileChannel;
+            if (null != channel) {
+                readFully(channel, buffer);
+            } else {
+                try (FileChannel readChannel = openChannel("r")) {
+                    readFully(readChannel, buffer);
+                }
             }
             buffer.clear();
         }
         this.pageBuffer = buffer;
         bufferType = DIRECT_BUFFER;
+        pageReference = new PageReference(buffer, DIRECT_BUFFER);
+    }
+
+    private void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        long readPosition = headerSize;
+        int length;
+        do {
+            length = channel.read(buffer, readPosition);
+            readPosition += Math.max(length, 0);
+        } while (length > 0);
     }
 
     public long timestamp() {
@@ -179,7 +241,7 @@ public class StoreFileImpl<T> implements StoreFile<T>, BufferHolder {
     public boolean unload() {
         long stamp = bufferLock.writeLock();
         try {
-            if (isClean()) {
+            if (isClean() && !isPinned()) {
                 unloadUnsafe();
                 return true;
             } else {
@@ -210,10 +272,14 @@ public class StoreFileImpl<T> implements StoreFile<T>, BufferHolder {
         return read(position, length, serializer);
     }
 
+    @Override
     public <R> R read(int position, int length, BufferReader<R> bufferReader) throws IOException {
         touch();
         long stamp = bufferLock.readLock();
         try {
+            if (hasPage()) {
+                bufferPool.hit(this);
+            }
             while (!hasPage()) {
                 long ws = bufferLock.tryConvertToWriteLock(stamp);
                 if (ws != 0L) {
@@ -229,6 +295,10 @@ public class StoreFileImpl<T> implements StoreFile<T>, BufferHolder {
             if (rs != 0L) {
                 stamp = rs;
             }
+            CompressedSegment segment = this.segment;
+            if (null != segment) {
+                segment.load(file, pageBuffer, position, length);
+            }
             ByteBuffer byteBuffer = pageBuffer.asReadOnlyBuffer();
             byteBuffer.position(position);
             byteBuffer.limit(writePosition);
@@ -251,6 +321,17 @@ public class StoreFileImpl<T> implements StoreFile<T>, BufferHolder {
         });
     }
 
+    @Override
+    public RByteBuffer readPinnedByteBuffer(int position, int length) throws IOException {
+        return read(position, Math.min(length, writePosition - position), (src, len) -> {
+            if (len < src.remaining()) {
+                src.limit(src.position() + len);
+            }
+            // 调用read方法时持有bufferLock的读锁，pageReference不会被并发修改
+            return new RByteBuffer(src.slice(), pageReference);
+        });
+    }
+
     @Override
     public int append(T t) throws IOException {
         touch();
@@ -319,19 +400,58 @@ public class StoreFileImpl<T> implements StoreFile<T>, BufferHolder {
         lastAccessTime = SystemClock.now();
     }
 
+    @Override
+    public boolean preload(int position, int length) throws IOException {
+        touch();
+        boolean loaded = false;
+        long stamp = bufferLock.readLock();
+        try {
+            while (!hasPage()) {
+                long ws = bufferLock.tryConvertToWriteLock(stamp);
+                if (ws != 0L) {
+                    stamp = ws;
+                    loadRoUnsafe();
+                    loaded = true;
+                } else {
+                    bufferLock.unlockRead(stamp);
+                    stamp = bufferLock.writeLock();
+                }
+            }
+            long rs = bufferLock.tryConvertToReadLock(stamp);
+            if (rs != 0L) {
+                stamp = rs;
+            }
+            int end = Math.min(position + length, writePosition);
+            if (end > position) {
+                CompressedSegment segment = this.segment;
+                if (null != segment) {
+                    segment.load(file, pageBuffer, position, end - position);
+                } else if (bufferType == MAPPED_BUFFER) {
+                    // 逐页访问映射内存，让操作系统提前把文件读入page cache
+                    for (int p = position; p < end; p += OS_PAGE_SIZE) {
+                        pageBuffer.get(p);
+                    }
+                }
+            }
+            return loaded;
+        } finally {
+            bufferLock.unlock(stamp);
+        }
+    }
+
     /**
      * 刷盘
      */
     // Not thread safe!
     @Override
     public int flush() throws IOException {
+        boolean failed = false;
         long stamp = bufferLock.readLock();
         try {
             if (positionLock.compareAndSet(false, true)) {
-                try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
-                     FileChannel fileChannel = raf.getChannel()) {
-
+                try {
                     if (writePosition > flushPosition) {
+                        FileChannel fileChannel = writeChannel();
                         if (flushPosition == 0) {
                             writeTimestamp(fileChannel);
                         }
@@ -340,6 +460,7 @@ public class StoreFileImpl<T> implements StoreFile<T>, BufferHolder {
                 } catch (Throwable t) {
                     logger.warn("StoreFileImpl flush exception! file: {}, flushPosition: {}, writePosition: {}.",
                             file.getAbsolutePath(), flushPosition, writePosition, t);
+                    failed = true;
                     throw t;
                 } finally {
                     positionLock.compareAndSet(true, false);
@@ -347,21 +468,92 @@ public class StoreFileImpl<T> implements StoreFile<T>, BufferHolder {
             }
         } finally {
             bufferLock.unlockRead(stamp);
+            if (failed) {
+                // 关闭FileChannel需要写锁，释放读锁后再关闭，下次刷盘时重新打开
+                closeChannelExclusively();
+            }
         }
         return 0;
     }
 
 
+    @Override
+    public void force() throws IOException {
+        long stamp = bufferLock.readLock();
+        try {
+            int forceEnd = flushPosition;
+            if (forceEnd > forcePosition) {
+                FileChannel channel = this.fileChannel;
+                if (null != channel) {
+                    channel.force(false);
+                } else {
+                    fileOpenCounter.incrementAndGet();
+                    try (FileChannel tempChannel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                        tempChannel.force(false);
+                    } catch (NoSuchFileException ignored) {
+                        // 文件已经被删除，不需要同步
+                    }
+                }
+                forcePosition = forceEnd;
+            }
+        } finally {
+            bufferLock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public void seal() {
+        closeChannelExclusively();
+    }
+
+    /**
+     * 加写锁关闭FileChannel
+     */
+    private void closeChannelExclusively() {
+        if (null != fileChannel) {
+            long stamp = bufferLock.writeLock();
+            try {
+                closeChannel();
+            } finally {
+                bufferLock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    private FileChannel writeChannel() throws IOException {
+        if (null == fileChannel) {
+            fileChannel = openChannel("rw");
+        }
+        return fileChannel;
+    }
+
+    private FileChannel openChannel(String mode) throws IOException {
+        fileOpenCounter.incrementAndGet();
+        return new RandomAccessFile(file, mode).getChannel();
+    }
+
+    private void closeChannel() {
+        FileChannel channel = this.fileChannel;
+        this.fileChannel = null;
+        if (null != channel) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.warn("Close file channel exception, file: {}.", file.getAbsolutePath(), e);
+            }
+        }
+    }
+
     private int flushPageBuffer(FileChannel fileChannel) throws IOException {
         int flushEnd = writePosition;
         ByteBuffer flushBuffer = pageBuffer.asReadOnlyBuffer();
         flushBuffer.position(flushPosition);
         flushBuffer.limit(flushEnd);
-        fileChannel.position(headerSize + flushPosition);
+        long filePosition = headerSize + flushPosition;
         int flushSize = flushEnd - flushPosition;
 
         while (flushBuffer.hasRemaining()) {
-            fileChannel.write(flushBuffer);
+            filePosition += fileChannel.write(flushBuffer, filePosition);
         }
         flushPosition = flushEnd;
         return flushSize;
@@ -370,6 +562,18 @@ public class StoreFileImpl<T> implements StoreFile<T>, BufferHolder {
     // Not thread safe!
     @Override
     public void rollback(int position) throws IOException {
+        if (null != segment && position < writePosition) {
+            // 压缩文件只读，先解压还原成普通文件再回滚
+            long ws = bufferLock.writeLock();
+            try {
+                if (null != segment) {
+                    decompressUnsafe();
+                }
+            } finally {
+                bufferLock.unlockWrite(ws);
+            }
+        }
+        long stamp = bufferLock.readLock();
         while (!positionLock.compareAndSet(false, true)) {
             Thread.yield();
         }
@@ -377,15 +581,17 @@ public class StoreFileImpl<T> implements StoreFile<T>, BufferHolder {
             if (position < writePosition) {
                 writePosition = position;
             }
+            if (position < forcePosition) {
+                forcePosition = position;
+            }
             if (position < flushPosition) {
                 flushPosition = position;
-                try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
-                     FileChannel fileChannel = raf.getChannel()) {
-                    fileChannel.truncate(position + headerSize);
-                }
+                modifications++;
+                writeChannel().truncate(position + headerSize);
             }
         } finally {
             positionLock.compareAndSet(true, false);
+            bufferLock.unlockRead(stamp);
         }
 
     }
@@ -402,6 +608,10 @@ public class StoreFileImpl<T> implements StoreFile<T>, BufferHolder {
 
     @Override
     public int fileDataSize() {
+        CompressedSegment segment = this.segment;
+        if (null != segment) {
+            return segment.dataSize();
+        }
         return Math.max((int) file.length() - headerSize, 0);
     }
 
@@ -410,6 +620,11 @@ public class StoreFileImpl<T> implements StoreFile<T>, BufferHolder {
         return flushPosition;
     }
 
+    @Override
+    public int forcePosition() {
+        return forcePosition;
+    }
+
     @Override
     public long lastAccessTime() {
         return lastAccessTime;
@@ -417,38 +632,178 @@ public class StoreFileImpl<T> implements StoreFile<T>, BufferHolder {
 
 
     private void unloadUnsafe() {
+        closeChannel();
+        CompressedSegment segment = this.segment;
+        if (null != segment) {
+            segment.unload();
+        }
         if (MAPPED_BUFFER == this.bufferType) {
-            unloadMappedBuffer();
+            bufferPool.releaseMMap(this);
         } else if (DIRECT_BUFFER == this.bufferType) {
-            unloadDirectBuffer();
+            bufferPool.detachDirect(this);
         }
-    }
-
-    private void unloadDirectBuffer() {
-        final ByteBuffer direct = pageBuffer;
+        final PageReference reference = pageReference;
+        pageReference = null;
         pageBuffer = null;
         this.bufferType = NO_BUFFER;
-        if (null != direct) bufferPool.releaseDirect(direct, this);
+        // 释放文件自身持有的引用，如果还有未释放的切片，等最后一个切片释放时再回收缓存页
+        if (null != reference) reference.release();
+    }
+
+    private void unloadDirectBuffer(ByteBuffer direct) {
+        bufferPool.recycleDirect(direct);
     }
 
-    private void unloadMappedBuffer() {
+    private void unloadMappedBuffer(Buffer mapped) {
         try {
-            final Buffer mapped = pageBuffer;
-            pageBuffer = null;
-            this.bufferType = NO_BUFFER;
-            if (null != mapped) {
-                Method getCleanerMethod;
-                getCleanerMethod = mapped.getClass().getMethod("cleaner");
-                getCleanerMethod.setAccessible(true);
-                Cleaner cleaner = (Cleaner) getCleanerMethod.invoke(mapped, new Object[0]);
-                cleaner.clean();
-            }
-            bufferPool.releaseMMap(this);
+            Method getCleanerMethod;
+            getCleanerMethod = mapped.getClass().getMethod("cleaner");
+            getCleanerMethod.setAccessible(true);
+            Cleaner cleaner = (Cleaner) getCleanerMethod.invoke(mapped, new Object[0]);
+            cleaner.clean();
         } catch (Exception e) {
             logger.warn("Release direct buffer exception: ", e);
         }
     }
 
+    /**
+     * 不加锁复制文件，复制期间不影响读取和加载缓存页；再持有写锁检查文件没有被修改，切换到新文件并删除原文件。
+     * 调用方需要保证复制期间文件不会被删除。
+     */
+    @Override
+    public boolean moveTo(File base) throws IOException {
+        File source = this.file;
+        File target = new File(base, source.getName());
+        File tmp = new File(base, source.getName() + TMP_SUFFIX);
+        if (!isClean() || !source.exists()) {
+            return false;
+        }
+        int expectedModifications = this.modifications;
+        long length = source.length();
+        try {
+            Files.copy(source.toPath(), tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp.toPath());
+            throw e;
+        }
+
+        long stamp = bufferLock.writeLock();
+        try {
+            // 复制期间文件被回滚、替换或者被零拷贝读取，放弃本次转移
+            if (!isClean() || isPinned() || source != this.file || expectedModifications != this.modifications
+                    || source.length() != length) {
+                Files.deleteIfExists(tmp.toPath());
+                return false;
+            }
+            unloadUnsafe();
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            this.file = target;
+        } finally {
+            bufferLock.unlockWrite(stamp);
+        }
+        if (!source.delete()) {
+            logger.warn("Delete file {} failed after moved to {}.", source.getAbsolutePath(), target.getAbsolutePath());
+        }
+        return true;
+    }
+
+    /**
+     * 不加锁按块压缩文件，压缩期间不影响读取和加载缓存页；再持有写锁检查文件没有被修改，切换到压缩文件并删除原文件。
+     * 调用方需要保证压缩期间文件不会被删除。
+     */
+    @Override
+    public boolean compress(String type, int blockSize) throws IOException {
+        if (null != segment || !CompressedSegment.isSupported(type)) {
+            return false;
+        }
+        File source = this.file;
+        File target = new File(source.getParentFile(), source.getName() + CompressedSegment.SUFFIX);
+        File tmp = new File(source.getParentFile(), target.getName() + TMP_SUFFIX);
+        if (!isClean() || !source.exists()) {
+            return false;
+        }
+        int expectedModifications = this.modifications;
+        int dataSize = writePosition;
+        CompressedSegment compressed;
+        try {
+            compressed = CompressedSegment.write(source, tmp, headerSize, dataSize, type, blockSize);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp.toPath());
+            throw e;
+        }
+
+        long stamp = bufferLock.writeLock();
+        try {
+            // 压缩期间文件被回滚、替换、转移或者被零拷贝读取，放弃本次压缩
+            if (!isClean() || isPinned() || source != this.file || expectedModifications != this.modifications
+                    || writePosition != dataSize || null != segment) {
+                Files.deleteIfExists(tmp.toPath());
+                return false;
+            }
+            unloadUnsafe();
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            this.file = target;
+            this.segment = compressed;
+        } finally {
+            bufferLock.unlockWrite(stamp);
+        }
+        if (!source.delete()) {
+            logger.warn("Delete file {} failed after compressed to {}.", source.getAbsolutePath(), target.getAbsolutePath());
+        }
+        return true;
+    }
+
+    /**
+     * 持有写锁用新文件替换原文件，替换后重新加载缓存页。
+     */
+    @Override
+    public boolean replace(File tmp, int dataSize) throws IOException {
+        long stamp = bufferLock.writeLock();
+        try {
+            File source = this.file;
+            if (!isClean() || isPinned() || null != segment || writePosition != dataSize
+                    || !source.getParentFile().equals(tmp.getParentFile())) {
+                Files.deleteIfExists(tmp.toPath());
+                return false;
+            }
+            unloadUnsafe();
+            Files.move(tmp.toPath(), source.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            modifications++;
+            return true;
+        } finally {
+            bufferLock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * 把压缩文件还原成普通文件，调用时必须持有bufferLock的写锁
+     */
+    private void decompressUnsafe() throws IOException {
+        File source = this.file;
+        File target = new File(source.getParentFile(), String.valueOf(filePosition));
+        File tmp = new File(source.getParentFile(), target.getName() + TMP_SUFFIX);
+        segment.restore(source, tmp, headerSize);
+        unloadUnsafe();
+        Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        this.file = target;
+        this.segment = null;
+        // 回滚会修改还原后的文件，压缩文件必须删除，否则恢复时可能使用过期的数据
+        if (!source.delete()) {
+            throw new IOException(String.format("Delete file %s failed!", source.getAbsolutePath()));
+        }
+    }
+
+    /**
+     * 是否有零拷贝读取的切片还没有释放
+     */
+    private boolean isPinned() {
+        final PageReference reference = pageReference;
+        return null != reference && reference.references() > 1;
+    }
+
 
     @Override
     public int size() {
@@ -457,11 +812,48 @@ public class StoreFileImpl<T> implements StoreFile<T>, BufferHolder {
 
     @Override
     public boolean isFree() {
-        return isClean();
+        return isClean() && !isPinned();
     }
 
     @Override
     public boolean evict() {
         return unload();
     }
+
+    /**
+     * 缓存页引用计数，计数归零时回收缓存页
+     */
+    private class PageReference implements Reference {
+        private final ByteBuffer buffer;
+        private final int type;
+        private final AtomicLong counter = new AtomicLong(1L);
+
+        PageReference(ByteBuffer buffer, int type) {
+            this.buffer = buffer;
+            this.type = type;
+        }
+
+        @Override
+        public void acquire() {
+            counter.incrementAndGet();
+        }
+
+        @Override
+        public boolean release() {
+            if (counter.decrementAndGet() == 0) {
+                if (MAPPED_BUFFER == type) {
+                    unloadMappedBuffer(buffer);
+                } else if (DIRECT_BUFFER == type) {
+                    unloadDirectBuffer(buffer);
+                }
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public long references() {
+            return counter.get();
+        }
+    }
 }
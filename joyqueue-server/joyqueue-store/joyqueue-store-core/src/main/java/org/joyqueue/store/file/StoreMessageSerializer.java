@@ -38,13 +38,11 @@ public class StoreMessageSerializer implements LogSerializer<ByteBuffer> {
 
     private static boolean checkCRC(ByteBuffer buffer) {
         ByteBuffer body = MessageParser.getByteBuffer(buffer, MessageParser.BODY);
-        if (body.remaining() > 0) {
-            CRC32 crc32 = new CRC32();
-            crc32.update(body);
-            long crc = crc32.getValue();
-            return crc == MessageParser.getLong(buffer, MessageParser.CRC);
-        }
-        return false;
+        // 消息体为空（例如压实主题的删除标记）时CRC为0
+        CRC32 crc32 = new CRC32();
+        crc32.update(body);
+        long crc = crc32.getValue();
+        return crc == MessageParser.getLong(buffer, MessageParser.CRC);
 
     }
 
@@ -0,0 +1,558 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.store.index;
+
+import org.joyqueue.store.message.MessageParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * 分区组的业务ID索引：业务ID的64位哈希 -> 消息在消息日志中的位置，用于没有归档存储时按业务ID查找消息。
+ * <p>
+ * 按照LSM的方式组织：新写入的记录保存在内存表中，内存表的记录数或者覆盖的消息日志长度达到上限后冻结，
+ * 由刷盘线程按照哈希排序写入一个不可变的段文件。段文件以覆盖的消息日志起始位置命名，
+ * 内存中只保存每个段的稀疏索引，查找时每个段只需要读取一小块数据。
+ * 内存表不单独持久化，重启后从最后一个段覆盖的结束位置开始重新读取消息日志恢复。
+ * <p>
+ * 写入、回滚只在写线程中调用，段文件在刷盘线程中写入，查找可以并发调用。
+ * 安装快照之后在后台线程中为快照中的消息补建索引，补建的段位于已有的段之前。
+ */
+public class BizIdIndex implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(BizIdIndex.class);
+    public static final int DEFAULT_MAX_ENTRIES = 64 * 1024;
+    // 一条记录：哈希、消息位置
+    private static final int ENTRY_SIZE = 8 + 8;
+    // 段文件头：覆盖的消息日志起始位置、结束位置、记录数
+    private static final int HEADER_SIZE = 8 + 8 + 4;
+    // 稀疏索引的间隔记录数，稀疏索引保存在段文件末尾
+    private static final int FENCE_INTERVAL = 256;
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private final File base;
+    private final int maxEntries;
+    private final long maxSpan;
+    // 已经写入的段，key为覆盖的消息日志起始位置
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    // 已经冻结、等待写入段文件的内存表，按照起始位置排序
+    private final ConcurrentLinkedDeque<MemTable> frozen = new ConcurrentLinkedDeque<>();
+    // 正在写入的内存表，恢复之前为null
+    private volatile MemTable active;
+    // 清空、回滚、关闭或者取消补建时加一，正在补建的索引发现变化后停止
+    private volatile long epoch = 0L;
+
+    /**
+     * @param base       索引目录
+     * @param maxEntries 内存表的最大记录数
+     * @param maxSpan    内存表覆盖的消息日志最大长度，限制重启后需要重新读取的消息日志长度
+     */
+    public BizIdIndex(File base, int maxEntries, long maxSpan) {
+        this.base = base;
+        this.maxEntries = maxEntries;
+        this.maxSpan = maxSpan;
+    }
+
+    /**
+     * 加载段文件，删除超出indexPosition的段
+     *
+     * @param indexPosition 消息日志中已经建立索引的位置
+     * @param leftPosition  消息日志的最小位置
+     * @return 需要从这个位置开始重新读取消息日志恢复内存表
+     */
+    public long recover(long indexPosition, long leftPosition) throws IOException {
+        boolean created = !base.isDirectory();
+        if (created && !base.mkdirs()) {
+            throw new IOException(String.format("Create directory: %s failed!", base.getAbsolutePath()));
+        }
+        File[] files = base.listFiles(File::isFile);
+        if (null == files) {
+            throw new IOException(String.format("List directory: %s failed!", base.getAbsolutePath()));
+        }
+        Arrays.sort(files, Comparator.comparing(File::getName, Comparator.comparing(name ->
+                name.matches("\\d+") ? Long.parseLong(name) : -1L)));
+        segments.clear();
+        frozen.clear();
+        long end = -1L;
+        for (File file : files) {
+            if (!file.getName().matches("\\d+")) {
+                Files.deleteIfExists(file.toPath());
+                continue;
+            }
+            Segment segment = null;
+            try {
+                segment = Segment.open(file);
+            } catch (IOException e) {
+                logger.warn("Open business id index segment {} failed, delete it.", file.getAbsolutePath(), e);
+            }
+            // 段之间不能重叠，也不能超出已经建立索引的位置
+            if (null == segment || segment.start < end || segment.end > indexPosition) {
+                Files.deleteIfExists(file.toPath());
+                continue;
+            }
+            segments.put(segment.start, segment);
+            end = segment.end;
+        }
+
+        long start;
+        if (end >= 0) {
+            start = Math.max(end, leftPosition);
+        } else if (created) {
+            // 新建的索引只索引之后写入的消息，写入一个空的段记录起始位置
+            start = indexPosition;
+            writeSegment(new MemTable(start));
+        } else {
+            start = leftPosition;
+        }
+        active = new MemTable(start);
+        logger.info("Business id index {} recovered, segments: {}, rebuild from position: {}.",
+                base.getAbsolutePath(), segments.size(), start);
+        return start;
+    }
+
+    /**
+     * 写入一条消息后调用，消息没有业务ID时只更新覆盖的位置
+     *
+     * @param message  消息
+     * @param position 消息在消息日志中的位置
+     * @param end      消息的结束位置
+     */
+    public void append(ByteBuffer message, long position, long end) {
+        MemTable memTable = active;
+        if (null == memTable || end <= memTable.end) {
+            return;
+        }
+        ByteBuffer bizId = MessageParser.getByteBuffer(message, MessageParser.BIZ_ID);
+        if (bizId.hasRemaining()) {
+            memTable.append(hash(bizId), position);
+        }
+        memTable.advance(end);
+        if (memTable.size >= maxEntries || memTable.end - memTable.start >= maxSpan) {
+            frozen.addLast(memTable);
+            active = new MemTable(memTable.end);
+        }
+    }
+
+    /**
+     * 把冻结的内存表写入段文件
+     *
+     * @return 写入了段文件返回true
+     */
+    public boolean flush() throws IOException {
+        boolean flushed = false;
+        MemTable memTable;
+        while (null != (memTable = frozen.peekFirst())) {
+            writeSegment(memTable);
+            frozen.pollFirst();
+            flushed = true;
+        }
+        return flushed;
+    }
+
+    /**
+     * 删除位置大于等于position的记录，用于消息日志回滚
+     *
+     * @return 需要从这个位置开始重新读取消息日志，补齐被删除的段中位置小于position的记录
+     */
+    public synchronized long truncate(long position) throws IOException {
+        epoch++;
+        MemTable memTable = active;
+        if (null == memTable) {
+            return position;
+        }
+        if (memTable.start < position) {
+            memTable.truncate(position);
+            return memTable.end;
+        }
+
+        long end = -1L;
+        Iterator<MemTable> iterator = frozen.iterator();
+        while (iterator.hasNext()) {
+            MemTable m = iterator.next();
+            if (m.end > position) {
+                iterator.remove();
+            } else {
+                end = Math.max(end, m.end);
+            }
+        }
+        for (Segment segment : new ArrayList<>(segments.descendingMap().values())) {
+            if (segment.end > position) {
+                deleteSegment(segment);
+            } else {
+                end = Math.max(end, segment.end);
+            }
+        }
+        long start = end >= 0 ? end : position;
+        active = new MemTable(start);
+        return start;
+    }
+
+    /**
+     * 删除所有记录，从position开始重新建立索引
+     */
+    public synchronized void clear(long position) throws IOException {
+        epoch++;
+        frozen.clear();
+        for (Segment segment : new ArrayList<>(segments.values())) {
+            deleteSegment(segment);
+        }
+        active = new MemTable(position);
+        writeSegment(new MemTable(position));
+    }
+
+    /**
+     * @return 当前的版本，提交补建任务时记录，传给{@link #backfill(long, long, long, MessageReader)}
+     */
+    public long epoch() {
+        return epoch;
+    }
+
+    /**
+     * 停止正在进行和还没有开始的补建，已经写入的段保留
+     */
+    public synchronized void cancelBackfill() {
+        epoch++;
+    }
+
+    /**
+     * 为[start, end)之间的消息补建索引，每个内存表写满后直接写入段文件。
+     * 提交补建之后索引被清空、回滚、关闭或者取消补建时停止，已经写入的段保留，之间缺少的部分不再补建。
+     *
+     * @param start      补建的起始位置
+     * @param end        补建的结束位置，等于已有的第一个段的起始位置
+     * @param startEpoch 提交补建时的版本
+     * @param reader     读取消息日志
+     * @return 补建到的位置
+     */
+    public long backfill(long start, long end, long startEpoch, MessageReader reader) throws IOException {
+        MemTable memTable = new MemTable(start);
+        long position = start;
+        while (position < end && startEpoch == epoch) {
+            ByteBuffer message = reader.read(position);
+            if (null == message) {
+                break;
+            }
+            long next = position + message.remaining();
+            ByteBuffer bizId = MessageParser.getByteBuffer(message, MessageParser.BIZ_ID);
+            if (bizId.hasRemaining()) {
+                memTable.append(hash(bizId), position);
+            }
+            memTable.advance(next);
+            position = next;
+            if (memTable.size >= maxEntries || memTable.end - memTable.start >= maxSpan || position >= end) {
+                synchronized (this) {
+                    if (startEpoch != epoch) {
+                        break;
+                    }
+                    writeSegment(memTable);
+                }
+                memTable = new MemTable(position);
+            }
+        }
+        return memTable.start;
+    }
+
+    /**
+     * 删除结束位置小于等于position的段，最后一个段记录了已经覆盖的位置，不删除
+     *
+     * @return 删除的文件大小
+     */
+    public long deleteBefore(long position) throws IOException {
+        long deletedSize = 0L;
+        Map.Entry<Long, Segment> last = segments.lastEntry();
+        if (null == last) {
+            return deletedSize;
+        }
+        for (Segment segment : segments.headMap(position).values()) {
+            if (segment.end <= position && segment != last.getValue()) {
+                deletedSize += segment.file.length();
+                deleteSegment(segment);
+            }
+        }
+        return deletedSize;
+    }
+
+    /**
+     * 查找业务ID哈希相同的消息的位置，哈希可能冲突，调用方需要比较消息中的业务ID
+     *
+     * @return 按照位置升序排列的消息位置
+     */
+    public List<Long> lookup(byte[] bizId) throws IOException {
+        long hash = hash(ByteBuffer.wrap(bizId));
+        TreeSet<Long> positions = new TreeSet<>();
+        for (Segment segment : segments.values()) {
+            segment.lookup(hash, positions);
+        }
+        // 内存表写入段之后才从冻结列表中删除，可能同时在两处找到同一条记录
+        for (MemTable memTable : frozen) {
+            memTable.lookup(hash, positions);
+        }
+        MemTable memTable = active;
+        if (null != memTable) {
+            memTable.lookup(hash, positions);
+        }
+        return new ArrayList<>(positions);
+    }
+
+    /**
+     * 消息的业务ID是否和bizId相同
+     */
+    public static boolean matches(ByteBuffer message, byte[] bizId) {
+        return ByteBuffer.wrap(bizId).equals(MessageParser.getByteBuffer(message, MessageParser.BIZ_ID));
+    }
+
+    public int segmentCount() {
+        return segments.size();
+    }
+
+    public File base() {
+        return base;
+    }
+
+    @Override
+    public void close() {
+        epoch++;
+        segments.clear();
+        frozen.clear();
+    }
+
+    private void writeSegment(MemTable memTable) throws IOException {
+        long[][] entries = memTable.sortedEntries();
+        int count = entries[0].length;
+        int fenceCount = (count + FENCE_INTERVAL - 1) / FENCE_INTERVAL;
+        long[] fences = new long[fenceCount];
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + count * ENTRY_SIZE + fenceCount * Long.BYTES);
+        buffer.putLong(memTable.start).putLong(memTable.end).putInt(count);
+        for (int i = 0; i < count; i++) {
+            buffer.putLong(entries[0][i]).putLong(entries[1][i]);
+            if (i % FENCE_INTERVAL == 0) {
+                fences[i / FENCE_INTERVAL] = entries[0][i];
+            }
+        }
+        for (long fence : fences) {
+            buffer.putLong(fence);
+        }
+        buffer.flip();
+
+        File file = new File(base, String.valueOf(memTable.start));
+        File tmp = new File(base, memTable.start + TMP_SUFFIX);
+        try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        segments.put(memTable.start, new Segment(file, memTable.start, memTable.end, count, fences));
+    }
+
+    private void deleteSegment(Segment segment) throws IOException {
+        segments.remove(segment.start, segment);
+        Files.deleteIfExists(segment.file.toPath());
+    }
+
+    /**
+     * 读取消息日志中指定位置的消息
+     */
+    public interface MessageReader {
+        ByteBuffer read(long position) throws IOException;
+    }
+
+    /**
+     * 64位FNV-1a哈希
+     */
+    public static long hash(ByteBuffer bizId) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = bizId.position(); i < bizId.limit(); i++) {
+            hash ^= bizId.get(i) & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * 内存表，记录按照消息位置升序追加
+     */
+    private static class MemTable {
+        private final long start;
+        private volatile long end;
+        private long[] hashes = new long[16];
+        private long[] positions = new long[16];
+        private volatile int size = 0;
+
+        private MemTable(long start) {
+            this.start = start;
+            this.end = start;
+        }
+
+        private synchronized void append(long hash, long position) {
+            if (size == hashes.length) {
+                hashes = Arrays.copyOf(hashes, size * 2);
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            hashes[size] = hash;
+            positions[size] = position;
+            size++;
+        }
+
+        private void advance(long end) {
+            this.end = end;
+        }
+
+        private synchronized void truncate(long position) {
+            while (size > 0 && positions[size - 1] >= position) {
+                size--;
+            }
+            if (end > position) {
+                end = position;
+            }
+        }
+
+        private synchronized void lookup(long hash, TreeSet<Long> result) {
+            for (int i = 0; i < size; i++) {
+                if (hashes[i] == hash) {
+                    result.add(positions[i]);
+                }
+            }
+        }
+
+        /**
+         * @return 按照哈希、位置排序的记录：[哈希数组, 位置数组]
+         */
+        private synchronized long[][] sortedEntries() {
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            // 原始记录按照位置升序，稳定排序之后哈希相同的记录仍然按照位置升序
+            Arrays.sort(order, Comparator.comparingLong(i -> hashes[i]));
+            long[][] entries = new long[2][size];
+            for (int i = 0; i < size; i++) {
+                entries[0][i] = hashes[order[i]];
+                entries[1][i] = positions[order[i]];
+            }
+            return entries;
+        }
+    }
+
+    /**
+     * 不可变的段文件：文件头 + 按照哈希排序的记录 + 稀疏索引
+     */
+    private static class Segment {
+        private final File file;
+        private final long start;
+        private final long end;
+        private final int count;
+        // 每隔FENCE_INTERVAL条记录的哈希
+        private final long[] fences;
+
+        private Segment(File file, long start, long end, int count, long[] fences) {
+            this.file = file;
+            this.start = start;
+            this.end = end;
+            this.count = count;
+            this.fences = fences;
+        }
+
+        private static Segment open(File file) throws IOException {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                readFully(channel, header, 0L);
+                long start = header.getLong();
+                long end = header.getLong();
+                int count = header.getInt();
+                int fenceCount = (count + FENCE_INTERVAL - 1) / FENCE_INTERVAL;
+                long fenceOffset = HEADER_SIZE + (long) count * ENTRY_SIZE;
+                if (count < 0 || start != Long.parseLong(file.getName()) || end < start
+                        || channel.size() != fenceOffset + (long) fenceCount * Long.BYTES) {
+                    throw new IOException("Invalid segment header!");
+                }
+                ByteBuffer fenceBuffer = ByteBuffer.allocate(fenceCount * Long.BYTES);
+                readFully(channel, fenceBuffer, fenceOffset);
+                long[] fences = new long[fenceCount];
+                fenceBuffer.asLongBuffer().get(fences);
+                return new Segment(file, start, end, count, fences);
+            }
+        }
+
+        private void lookup(long hash, TreeSet<Long> result) throws IOException {
+            if (count == 0) {
+                return;
+            }
+            // 第一个哈希大于等于hash的稀疏索引，哈希等于hash的记录都在上一个稀疏索引之后
+            int low = 0, high = fences.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (fences[mid] < hash) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            int entry = Math.max(0, low - 1) * FENCE_INTERVAL;
+            ByteBuffer block = ByteBuffer.allocate(FENCE_INTERVAL * ENTRY_SIZE);
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                while (entry < count) {
+                    int blockCount = Math.min(FENCE_INTERVAL, count - entry);
+                    block.clear();
+                    block.limit(blockCount * ENTRY_SIZE);
+                    readFully(channel, block, HEADER_SIZE + (long) entry * ENTRY_SIZE);
+                    for (int i = 0; i < blockCount; i++) {
+                        long h = block.getLong();
+                        long position = block.getLong();
+                        if (h == hash) {
+                            result.add(position);
+                        } else if (h > hash) {
+                            return;
+                        }
+                    }
+                    entry += blockCount;
+                }
+            } catch (NoSuchFileException ignored) {
+                // 段已经被删除
+            }
+        }
+
+        private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    throw new IOException("Unexpected end of file!");
+                }
+                position += read;
+            }
+            buffer.flip();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.store.index;
+
+import org.joyqueue.store.file.LogSerializer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 紧凑索引序列化，每个批消息一条记录：起始索引(long) + 消息偏移量(long) + 消息长度(int) + 批消息条数(int)
+ */
+public class CompactIndexSerializer implements LogSerializer<IndexItem> {
+    public static final int STORAGE_SIZE = 8 + 8 + 4 + 4;
+
+    @Override
+    public IndexItem read(ByteBuffer buffer, int length) {
+        IndexItem indexItem = new IndexItem();
+        indexItem.setIndex(buffer.getLong());
+        indexItem.setOffset(buffer.getLong());
+        indexItem.setLength(buffer.getInt());
+        int count = buffer.getInt();
+        indexItem.setBatchMessageSize((short) count);
+        indexItem.setBatchMessage(count > 1);
+        return indexItem;
+    }
+
+    @Override
+    public int size(IndexItem indexItem) {
+        return STORAGE_SIZE;
+    }
+
+    @Override
+    public int trim(ByteBuffer byteBuffer, int length) {
+        return byteBuffer.remaining() - byteBuffer.remaining() % STORAGE_SIZE;
+    }
+
+    @Override
+    public int append(IndexItem indexItem, ByteBuffer to) {
+        to.putLong(indexItem.getIndex());
+        to.putLong(indexItem.getOffset());
+        to.putInt(indexItem.getLength());
+        to.putInt(indexItem.getBatchMessageSize());
+        return STORAGE_SIZE;
+    }
+}
@@ -0,0 +1,393 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.store.index;
+
+import org.joyqueue.store.PositionOverflowException;
+import org.joyqueue.store.PositionUnderflowException;
+import org.joyqueue.store.file.BufferReader;
+import org.joyqueue.store.file.PositioningStore;
+import org.joyqueue.toolkit.format.Format;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 紧凑索引格式：每个批消息只保存一条记录，记录中包含批消息的起始索引和条数，
+ * 对外仍然按照每条消息一个逻辑位置读写，与{@link DefaultIndexStore}的行为一致。
+ * 第k条记录保存在物理位置k * {@link CompactIndexSerializer#STORAGE_SIZE}，按照起始索引二分查找。
+ */
+public class CompactIndexStore implements IndexStore {
+    private static final Logger logger = LoggerFactory.getLogger(CompactIndexStore.class);
+    private static final int ENTRY_SIZE = CompactIndexSerializer.STORAGE_SIZE;
+
+    private final PositioningStore<IndexItem> store;
+    // 逻辑索引范围：[leftIndex, rightIndex)
+    private volatile long leftIndex = 0L;
+    private volatile long rightIndex = 0L;
+    // 最近一次定位到的记录，顺序读取时避免重复二分查找
+    private volatile Entry hint = null;
+
+    public CompactIndexStore(PositioningStore<IndexItem> store) {
+        this.store = store;
+    }
+
+    @Override
+    public long left() {
+        return leftIndex * IndexItem.STORAGE_SIZE;
+    }
+
+    @Override
+    public long right() {
+        return rightIndex * IndexItem.STORAGE_SIZE;
+    }
+
+    @Override
+    public void recover() throws IOException {
+        store.recover();
+        recoverEntries();
+    }
+
+    @Override
+    public void recover(boolean recoverLogTail) throws IOException {
+        store.recover(recoverLogTail);
+        recoverEntries();
+    }
+
+    /**
+     * 截掉末尾不完整或者与上一条记录不连续的记录，然后计算逻辑索引范围
+     */
+    private void recoverEntries() throws IOException {
+        long validPosition = store.right() - store.right() % ENTRY_SIZE;
+        while (validPosition > store.left()) {
+            IndexItem current = store.read(validPosition - ENTRY_SIZE);
+            if (current.getLength() > 0 && current.getBatchMessageSize() > 0) {
+                if (validPosition - ENTRY_SIZE == store.left()) {
+                    break;
+                }
+                IndexItem previous = store.read(validPosition - 2 * ENTRY_SIZE);
+                if (previous.getIndex() + previous.getBatchMessageSize() == current.getIndex()
+                        && previous.getOffset() < current.getOffset()) {
+                    break;
+                }
+            }
+            validPosition -= ENTRY_SIZE;
+        }
+        if (validPosition < store.right()) {
+            logger.info("Truncate invalid compact indices, position: {}, right: {}, store: {}.",
+                    Format.formatWithComma(validPosition),
+                    Format.formatWithComma(store.right()),
+                    store.base().getAbsolutePath());
+            store.setRight(validPosition);
+        }
+
+        hint = null;
+        if (store.right() > store.left()) {
+            Entry last = entryAt(store.right() - ENTRY_SIZE);
+            rightIndex = last.end();
+            leftIndex = entryAt(store.left()).start();
+        } else {
+            leftIndex = 0L;
+            rightIndex = 0L;
+        }
+    }
+
+    @Override
+    public void setRight(long position) throws IOException {
+        long index = position / IndexItem.STORAGE_SIZE;
+        if (index == rightIndex) {
+            return;
+        }
+        hint = null;
+        if (index <= leftIndex || index > rightIndex) {
+            store.clear(0L);
+            leftIndex = index;
+            rightIndex = index;
+        } else {
+            // 回滚到批消息中间时，截掉这条记录后重新写入前面的部分
+            Entry entry = locate(index);
+            store.setRight(entry.position);
+            rightIndex = entry.start();
+            if (index > entry.start()) {
+                appendEntry(entry.start(), entry.item.getOffset(), entry.item.getLength(), (int) (index - entry.start()));
+            }
+        }
+    }
+
+    @Override
+    public IndexItem read(long position) throws IOException {
+        return locate(checkReadPosition(position)).toIndexItem();
+    }
+
+    /**
+     * 同一批消息的索引内容相同，返回的列表中共用同一个对象
+     */
+    @Override
+    public List<IndexItem> batchRead(long position, int count) throws IOException {
+        long index = checkReadPosition(position);
+        long right = rightIndex;
+        List<IndexItem> list = new ArrayList<>(count);
+        Entry entry = locate(index);
+        while (true) {
+            IndexItem indexItem = entry.toIndexItem();
+            long end = Math.min(entry.end(), right);
+            while (list.size() < count && index < end) {
+                list.add(indexItem);
+                index++;
+            }
+            if (list.size() >= count || index >= right) {
+                break;
+            }
+            entry = entryAt(entry.position + ENTRY_SIZE);
+        }
+        hint = entry;
+        return list;
+    }
+
+    @Override
+    public int batchRead(long position, int count, long[] offsets, int[] lengths) throws IOException {
+        long index = checkReadPosition(position);
+        int max = (int) Math.min(count, rightIndex - index);
+        ArrayReader reader = new ArrayReader(offsets, lengths, max, index);
+        long pointer = locate(index).position;
+        do {
+            int records = reader.records;
+            store.read(pointer, reader);
+            if (reader.records == records) {
+                break;
+            }
+            pointer += (long) (reader.records - records) * ENTRY_SIZE;
+        } while (reader.size < max);
+        return reader.size;
+    }
+
+    @Override
+    public long readOffset(long position) throws IOException {
+        return locate(checkReadPosition(position)).item.getOffset();
+    }
+
+    @Override
+    public long append(IndexItem indexItem) throws IOException {
+        appendEntry(rightIndex, indexItem.getOffset(), indexItem.getLength(),
+                indexItem.isBatchMessage() ? indexItem.getBatchMessageSize() : 1);
+        return right();
+    }
+
+    private void appendEntry(long index, long offset, int length, int count) throws IOException {
+        IndexItem entry = new IndexItem((short) 0, index, length, offset);
+        entry.setBatchMessageSize((short) count);
+        if (store.right() == store.left()) {
+            leftIndex = index;
+        }
+        store.append(entry);
+        rightIndex = index + count;
+    }
+
+    @Override
+    public boolean flush() throws IOException {
+        return store.flush();
+    }
+
+    @Override
+    public boolean force() throws IOException {
+        return store.force();
+    }
+
+    @Override
+    public boolean isClean() {
+        return store.isClean();
+    }
+
+    @Override
+    public int fileCount() {
+        return store.fileCount();
+    }
+
+    @Override
+    public long fileOpenCount() {
+        return store.fileOpenCount();
+    }
+
+    @Override
+    public int meetMinStoreFile(long position) throws IOException {
+        return store.meetMinStoreFile(position == Long.MAX_VALUE ? Long.MAX_VALUE : physicalPosition(position));
+    }
+
+    @Override
+    public long physicalDeleteLeftFile() throws IOException {
+        long deletedSize = store.physicalDeleteLeftFile();
+        if (deletedSize > 0) {
+            leftIndex = store.right() > store.left() ? entryAt(store.left()).start() : rightIndex;
+        }
+        return deletedSize;
+    }
+
+    @Override
+    public long offload(long timestamp) throws IOException {
+        return store.offload(timestamp);
+    }
+
+    @Override
+    public File base() {
+        return store.base();
+    }
+
+    @Override
+    public PositioningStore<IndexItem> physicalStore() {
+        return store;
+    }
+
+    @Override
+    public long physicalPosition(long position) throws IOException {
+        long index = position / IndexItem.STORAGE_SIZE;
+        if (index >= rightIndex) {
+            return store.right();
+        }
+        if (index <= leftIndex) {
+            return store.left();
+        }
+        return locate(index).position;
+    }
+
+    @Override
+    public void close() {
+        store.close();
+    }
+
+    private long checkReadPosition(long position) {
+        long index = position / IndexItem.STORAGE_SIZE;
+        if (index < leftIndex) {
+            throw new PositionUnderflowException(position, left());
+        } else if (index >= rightIndex) {
+            throw new PositionOverflowException(position, right());
+        }
+        return index;
+    }
+
+    /**
+     * 查找包含index的记录，即最后一条起始索引 <= index 的记录
+     */
+    private Entry locate(long index) throws IOException {
+        Entry entry = hint;
+        if (null != entry && entry.position >= store.left() && entry.position < store.right()) {
+            if (entry.contains(index)) {
+                return entry;
+            }
+            // 顺序读取时通常在下一条记录中
+            if (index >= entry.end() && entry.position + ENTRY_SIZE < store.right()) {
+                entry = entryAt(entry.position + ENTRY_SIZE);
+                if (entry.contains(index)) {
+                    hint = entry;
+                    return entry;
+                }
+            }
+        }
+
+        long low = store.left() / ENTRY_SIZE;
+        long high = store.right() / ENTRY_SIZE - 1;
+        entry = entryAt(low * ENTRY_SIZE);
+        if (entry.start() > index) {
+            // 左侧的文件刚刚被删除
+            throw new PositionUnderflowException(index * IndexItem.STORAGE_SIZE, entry.start() * IndexItem.STORAGE_SIZE);
+        }
+        while (low < high) {
+            long mid = low + (high - low + 1) / 2;
+            Entry midEntry = entryAt(mid * ENTRY_SIZE);
+            if (midEntry.start() <= index) {
+                low = mid;
+                entry = midEntry;
+            } else {
+                high = mid - 1;
+            }
+        }
+        hint = entry;
+        return entry;
+    }
+
+    private Entry entryAt(long position) throws IOException {
+        return new Entry(position, store.read(position));
+    }
+
+    /**
+     * 把一个文件中连续的记录按照逻辑索引展开到数组中
+     */
+    private static class ArrayReader implements BufferReader<Void> {
+        private final long[] offsets;
+        private final int[] lengths;
+        private final int count;
+        private long index;
+        private int size = 0;
+        // 已读取的记录条数
+        private int records = 0;
+
+        private ArrayReader(long[] offsets, int[] lengths, int count, long index) {
+            this.offsets = offsets;
+            this.lengths = lengths;
+            this.count = count;
+            this.index = index;
+        }
+
+        @Override
+        public Void read(ByteBuffer buffer, int length) {
+            while (size < count && buffer.remaining() >= ENTRY_SIZE) {
+                long start = buffer.getLong();
+                long offset = buffer.getLong();
+                int messageLength = buffer.getInt();
+                long end = start + buffer.getInt();
+                records++;
+                for (; index < end && size < count; index++) {
+                    offsets[size] = offset;
+                    lengths[size] = messageLength;
+                    size++;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static class Entry {
+        private final long position;
+        private final IndexItem item;
+
+        private Entry(long position, IndexItem item) {
+            this.position = position;
+            this.item = item;
+        }
+
+        private long start() {
+            return item.getIndex();
+        }
+
+        private long end() {
+            return item.getIndex() + item.getBatchMessageSize();
+        }
+
+        private boolean contains(long index) {
+            return index >= start() && index < end();
+        }
+
+        private IndexItem toIndexItem() {
+            IndexItem indexItem = new IndexItem(item.getPartition(), item.getIndex(), item.getLength(), item.getOffset());
+            indexItem.setBatchMessage(item.isBatchMessage());
+            indexItem.setBatchMessageSize(item.getBatchMessageSize());
+            return indexItem;
+        }
+    }
+}
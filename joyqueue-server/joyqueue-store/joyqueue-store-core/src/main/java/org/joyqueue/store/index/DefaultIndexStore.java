@@ -0,0 +1,193 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.store.index;
+
+import org.joyqueue.store.file.BufferReader;
+import org.joyqueue.store.file.PositioningStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * 原有的索引格式：每条消息一条{@link IndexItem#STORAGE_SIZE}字节的索引，逻辑位置就是物理位置。
+ */
+public class DefaultIndexStore implements IndexStore {
+    private static final BufferReader<Long> OFFSET_READER = (buffer, length) -> buffer.getLong(buffer.position());
+    private final PositioningStore<IndexItem> store;
+
+    public DefaultIndexStore(PositioningStore<IndexItem> store) {
+        this.store = store;
+    }
+
+    @Override
+    public long left() {
+        return store.left();
+    }
+
+    @Override
+    public long right() {
+        return store.right();
+    }
+
+    @Override
+    public void recover() throws IOException {
+        store.recover();
+    }
+
+    @Override
+    public void recover(boolean recoverLogTail) throws IOException {
+        store.recover(recoverLogTail);
+    }
+
+    @Override
+    public void setRight(long position) throws IOException {
+        store.setRight(position);
+    }
+
+    @Override
+    public IndexItem read(long position) throws IOException {
+        return store.read(position);
+    }
+
+    @Override
+    public List<IndexItem> batchRead(long position, int count) throws IOException {
+        return store.batchRead(position, count);
+    }
+
+    @Override
+    public int batchRead(long position, int count, long[] offsets, int[] lengths) throws IOException {
+        // 文件中可能有已写入但还没有更新right的索引，不读取
+        int max = (int) Math.min(count, Math.max(0L, (store.right() - position) / IndexItem.STORAGE_SIZE));
+        ArrayReader reader = new ArrayReader(offsets, lengths, max);
+        long pointer = position;
+        do {
+            int size = reader.size;
+            store.read(pointer, reader);
+            if (reader.size == size) {
+                break;
+            }
+            pointer += (long) (reader.size - size) * IndexItem.STORAGE_SIZE;
+        } while (reader.size < max);
+        return reader.size;
+    }
+
+    @Override
+    public long readOffset(long position) throws IOException {
+        return store.read(position, OFFSET_READER);
+    }
+
+    @Override
+    public long append(IndexItem indexItem) throws IOException {
+        if (!indexItem.isBatchMessage()) {
+            return store.append(indexItem);
+        }
+        // 批消息内每条消息的索引都指向批消息的起始位置，长度都是都批消息的总长度
+        ByteBuffer indexBuffer = ByteBuffer.allocate(indexItem.getBatchMessageSize() * IndexItem.STORAGE_SIZE);
+        for (int j = 0; j < indexItem.getBatchMessageSize(); j++) {
+            indexItem.serializeTo(indexBuffer);
+        }
+        indexBuffer.flip();
+        return store.appendByteBuffer(indexBuffer);
+    }
+
+    @Override
+    public boolean flush() throws IOException {
+        return store.flush();
+    }
+
+    @Override
+    public boolean force() throws IOException {
+        return store.force();
+    }
+
+    @Override
+    public boolean isClean() {
+        return store.isClean();
+    }
+
+    @Override
+    public int fileCount() {
+        return store.fileCount();
+    }
+
+    @Override
+    public long fileOpenCount() {
+        return store.fileOpenCount();
+    }
+
+    @Override
+    public int meetMinStoreFile(long position) {
+        return store.meetMinStoreFile(position);
+    }
+
+    @Override
+    public long physicalDeleteLeftFile() throws IOException {
+        return store.physicalDeleteLeftFile();
+    }
+
+    @Override
+    public long offload(long timestamp) throws IOException {
+        return store.offload(timestamp);
+    }
+
+    @Override
+    public File base() {
+        return store.base();
+    }
+
+    @Override
+    public PositioningStore<IndexItem> physicalStore() {
+        return store;
+    }
+
+    @Override
+    public long physicalPosition(long position) {
+        return position;
+    }
+
+    @Override
+    public void close() {
+        store.close();
+    }
+
+    /**
+     * 把一个文件中连续的索引读到数组中
+     */
+    private static class ArrayReader implements BufferReader<Void> {
+        private final long[] offsets;
+        private final int[] lengths;
+        private final int count;
+        private int size = 0;
+
+        private ArrayReader(long[] offsets, int[] lengths, int count) {
+            this.offsets = offsets;
+            this.lengths = lengths;
+            this.count = count;
+        }
+
+        @Override
+        public Void read(ByteBuffer buffer, int length) {
+            while (size < count && buffer.remaining() >= IndexItem.STORAGE_SIZE) {
+                offsets[size] = buffer.getLong();
+                lengths[size] = buffer.getInt();
+                size++;
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.store.index;
+
+import org.joyqueue.store.file.PositioningStore;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * 分区索引存储。
+ * 位置都是逻辑位置：消息在分区内的序号 * {@link IndexItem#STORAGE_SIZE}，与索引文件的格式无关。
+ */
+public interface IndexStore extends Closeable {
+
+    long left();
+
+    long right();
+
+    void recover() throws IOException;
+
+    void recover(boolean recoverLogTail) throws IOException;
+
+    /**
+     * 将逻辑位置回滚到position，position不在[left, right]范围内时清空索引
+     */
+    void setRight(long position) throws IOException;
+
+    IndexItem read(long position) throws IOException;
+
+    List<IndexItem> batchRead(long position, int count) throws IOException;
+
+    /**
+     * 从position开始读取最多count条索引的消息偏移量和长度，写入调用方提供的数组，不创建IndexItem对象
+     * @return 读取的索引条数
+     */
+    int batchRead(long position, int count, long[] offsets, int[] lengths) throws IOException;
+
+    /**
+     * 读取一条索引的消息偏移量
+     */
+    long readOffset(long position) throws IOException;
+
+    /**
+     * 写入一条消息的索引，批消息写入batchMessageSize条逻辑索引
+     * @return 写入后的逻辑位置
+     */
+    long append(IndexItem indexItem) throws IOException;
+
+    boolean flush() throws IOException;
+
+    boolean force() throws IOException;
+
+    boolean isClean();
+
+    int fileCount();
+
+    long fileOpenCount();
+
+    /**
+     * 逻辑位置position之前的索引文件数量
+     */
+    int meetMinStoreFile(long position) throws IOException;
+
+    long physicalDeleteLeftFile() throws IOException;
+
+    long offload(long timestamp) throws IOException;
+
+    File base();
+
+    /**
+     * 保存索引的物理存储，用于刷盘进度、CRC校验、磁盘占用统计和预读
+     */
+    PositioningStore<IndexItem> physicalStore();
+
+    /**
+     * 逻辑位置对应的物理存储位置
+     */
+    long physicalPosition(long position) throws IOException;
+
+    @Override
+    void close();
+}
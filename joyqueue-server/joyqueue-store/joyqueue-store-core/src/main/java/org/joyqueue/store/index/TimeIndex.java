@@ -0,0 +1,158 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.store.index;
+
+import org.joyqueue.store.file.PositioningStore;
+import org.joyqueue.store.utils.PreloadBufferPool;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * 分区的稀疏时间索引，每隔intervalMs毫秒或者intervalCount条消息记录一条"存储时间 -> 消息序号"，
+ * 按时间查找消息时先在时间索引中确定一个较小的序号范围，再在这个范围内折半查找消息，
+ * 避免折半查找时读取大量冷的消息页。
+ * <p>
+ * 写入和回滚在写线程（恢复时在恢复线程）中调用，删除在清理线程中调用，这些修改操作互斥执行；
+ * 查找不加锁，可以和修改并发调用。
+ */
+public class TimeIndex implements Closeable {
+    private final PositioningStore<TimeIndexItem> store;
+    private final long intervalMs;
+    private final int intervalCount;
+    // 最后一条时间索引，-1表示没有
+    private long lastTimestamp = -1L;
+    private long lastIndex = -1L;
+
+    public TimeIndex(File base, PositioningStore.Config config, PreloadBufferPool bufferPool, long intervalMs, int intervalCount) {
+        this.store = new PositioningStore<>(base, config, bufferPool, new TimeIndexSerializer());
+        this.intervalMs = intervalMs;
+        this.intervalCount = intervalCount;
+    }
+
+    public synchronized void recover() throws IOException {
+        store.recover();
+        //截掉末尾可能存在的半条索引
+        store.setRight(store.right() - store.right() % TimeIndexItem.STORAGE_SIZE);
+        loadLast();
+    }
+
+    /**
+     * 写入一条消息后调用，按照间隔决定是否记录时间索引
+     * @param timestamp 消息存储时间
+     * @param index 消息序号
+     */
+    public synchronized void append(long timestamp, long index) throws IOException {
+        if (lastIndex >= 0 && index - lastIndex < intervalCount && timestamp - lastTimestamp < intervalMs) {
+            return;
+        }
+        store.append(new TimeIndexItem(timestamp, index));
+        lastTimestamp = timestamp;
+        lastIndex = index;
+    }
+
+    /**
+     * 删除序号大于等于index的时间索引，用于分区索引回滚
+     */
+    public synchronized void truncate(long index) throws IOException {
+        if (lastIndex < index) {
+            return;
+        }
+        long position = store.right();
+        while (position - TimeIndexItem.STORAGE_SIZE >= store.left()
+                && store.read(position - TimeIndexItem.STORAGE_SIZE).getIndex() >= index) {
+            position -= TimeIndexItem.STORAGE_SIZE;
+        }
+        store.setRight(position);
+        loadLast();
+    }
+
+    /**
+     * 删除序号小于index的时间索引文件，用于分区索引删除文件之后
+     */
+    public synchronized long deleteBefore(long index) throws IOException {
+        long left = store.left(), right = store.right();
+        // 找到第一条序号大于等于index的时间索引
+        while (left < right) {
+            long mid = left + (right - left) / TimeIndexItem.STORAGE_SIZE / 2 * TimeIndexItem.STORAGE_SIZE;
+            if (store.read(mid).getIndex() < index) {
+                left = mid + TimeIndexItem.STORAGE_SIZE;
+            } else {
+                right = mid;
+            }
+        }
+        return store.physicalDeleteTo(left);
+    }
+
+    /**
+     * 查找时间范围
+     * @param timestamp 存储时间
+     * @return 长度为2的数组：[最后一条存储时间 < timestamp 的时间索引的序号, 第一条存储时间 >= timestamp 的时间索引的序号]，
+     * 不存在时对应位置为-1
+     */
+    public synchronized long[] lookup(long timestamp) throws IOException {
+        long left = store.left(), right = store.right();
+        // 找到第一条存储时间大于等于timestamp的时间索引
+        while (left < right) {
+            long mid = left + (right - left) / TimeIndexItem.STORAGE_SIZE / 2 * TimeIndexItem.STORAGE_SIZE;
+            if (store.read(mid).getTimestamp() < timestamp) {
+                left = mid + TimeIndexItem.STORAGE_SIZE;
+            } else {
+                right = mid;
+            }
+        }
+        long[] range = new long[] {-1L, -1L};
+        if (left - TimeIndexItem.STORAGE_SIZE >= store.left()) {
+            range[0] = store.read(left - TimeIndexItem.STORAGE_SIZE).getIndex();
+        }
+        if (left < store.right()) {
+            range[1] = store.read(left).getIndex();
+        }
+        return range;
+    }
+
+    /**
+     * 最后一条时间索引的消息序号，没有时间索引时返回-1
+     */
+    public synchronized long lastIndex() {
+        return lastIndex;
+    }
+
+    public boolean flush() throws IOException {
+        return store.flush();
+    }
+
+    public File base() {
+        return store.base();
+    }
+
+    private void loadLast() throws IOException {
+        if (store.right() - TimeIndexItem.STORAGE_SIZE >= store.left()) {
+            TimeIndexItem last = store.read(store.right() - TimeIndexItem.STORAGE_SIZE);
+            lastTimestamp = last.getTimestamp();
+            lastIndex = last.getIndex();
+        } else {
+            lastTimestamp = -1L;
+            lastIndex = -1L;
+        }
+    }
+
+    @Override
+    public void close() {
+        store.close();
+    }
+}
@@ -20,6 +20,7 @@ import org.joyqueue.store.ReadException;
 import org.joyqueue.store.StoreInitializeException;
 import org.joyqueue.store.WriteResult;
 import org.joyqueue.store.file.PositioningStore;
+import org.joyqueue.store.file.StoreFile;
 import org.joyqueue.store.utils.PreloadBufferPool;
 import org.joyqueue.toolkit.time.SystemClock;
 import org.slf4j.Logger;
@@ -29,109 +30,385 @@ import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.Callable;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 
 /**
  * 管理暂存的未提交的事务消息
+ * <p>
+ * 一个topic的所有事务共用一个只追加写的事务日志，内存中记录每个事务的消息在日志中的位置。
+ * 每条日志的格式：长度(4) + 类型(1) + 事务ID(4) + 序号(4) + 消息，删除事务时写入一条删除记录。
+ * 写入和删除都在写入线程中成批执行，每批只刷一次盘。
+ * 左侧若干日志文件中仍然有效的数据较少时，写入线程把有效的消息复制到日志末尾，然后删除这些文件。
  *
  * @author liyue25
  * Date: 2018/10/10
  */
 public class TransactionStoreManager implements TransactionStore, Closeable {
     private static final Logger logger = LoggerFactory.getLogger(TransactionStoreManager.class);
+    private static final String LOG_DIR = "log";
+    private static final byte TYPE_DATA = 0;
+    private static final byte TYPE_REMOVE = 1;
+    private static final int HEADER_SIZE = Integer.BYTES + Byte.BYTES + Integer.BYTES + Integer.BYTES;
+    // 左侧若干文件中有效数据的比例(%)低于这个值时压缩
+    private static final int COMPACT_LIVE_RATIO = 50;
+    private static final int MAX_PENDING_WRITES = 1024;
     private final File base;
     private final AtomicInteger idSequence;
+    // 写入线程，日志的追加写、刷盘和压缩都只在这个线程中执行
     private final ExecutorService writeExecutor;
-    private final Map<Integer, PositioningStore<ByteBuffer>> storeMap;
+    private final BlockingQueue<WriteTask> pendingWrites = new ArrayBlockingQueue<>(MAX_PENDING_WRITES);
+    private final AtomicBoolean writing = new AtomicBoolean(false);
+    // 进行中的事务，更新内存中的索引时持有这个对象的锁
+    private final Map<Integer, Transaction> transactions;
+    private final PositioningStore<ByteBuffer> store;
     private final PositioningStore.Config config;
     private final PreloadBufferPool bufferPool;
+    // 读取时持有读锁，压缩更新消息位置和删除文件时持有写锁
+    private final ReadWriteLock compactLock = new ReentrantReadWriteLock();
 
     public TransactionStoreManager(File base, PositioningStore.Config config, PreloadBufferPool bufferPool) {
         this.base = base;
         this.config = config;
         this.bufferPool = bufferPool;
         idSequence = new AtomicInteger(0);
-        loadFiles();
+        transactions = new HashMap<>();
+        if (!base.isDirectory()) {
+            throw new StoreInitializeException(
+                    String.format("Init transaction store directory failed! " +
+                            "Directory NOT exists: %s!", base.getAbsolutePath()));
+        }
+        File logBase = new File(base, LOG_DIR);
+        if (!logBase.isDirectory() && !logBase.mkdir()) {
+            throw new StoreInitializeException(String.format("Failed to create directory: %s.", logBase.getAbsolutePath()));
+        }
+        store = new PositioningStore<>(logBase, config, bufferPool, new TransactionMessageSerializer());
+        try {
+            // 事务日志没有校验信息，从末尾向前查找日志边界可能误判，改为在加载时从头校验
+            store.recover(false);
+            loadTransactions();
+            migrateLegacyFiles();
+        } catch (IOException e) {
+            throw new StoreInitializeException(
+                    String.format("Recover transaction store failed: %s!", base.getAbsolutePath()), e);
+        }
 
         writeExecutor = new ThreadPoolExecutor(1, 1, 10L, TimeUnit.SECONDS,
-                new ArrayBlockingQueue<>(1024), new ThreadPoolExecutor.AbortPolicy());
-        storeMap = new HashMap<>();
+                new LinkedBlockingQueue<>(), new ThreadPoolExecutor.AbortPolicy());
+    }
 
+    /**
+     * 从头扫描事务日志，恢复进行中的事务，截掉末尾不完整的日志
+     */
+    private void loadTransactions() throws IOException {
+        int maxId = -1;
+        long position = store.left();
+        while (position < store.right()) {
+            ByteBuffer record = readRecord(position);
+            if (null == record) {
+                logger.warn("Invalid transaction log at position {}, truncated to {}, store: {}.",
+                        position, position, base.getAbsolutePath());
+                store.setRight(position);
+                break;
+            }
+            int length = record.remaining();
+            byte type = record.get(Integer.BYTES);
+            int id = record.getInt(Integer.BYTES + Byte.BYTES);
+            maxId = Math.max(maxId, id);
+            if (type == TYPE_REMOVE) {
+                transactions.remove(id);
+            } else {
+                int seq = record.getInt(Integer.BYTES + Byte.BYTES + Integer.BYTES);
+                // 压缩时复制的消息在原消息之后，序号相同时后面的覆盖前面的
+                transactions.computeIfAbsent(id, k -> new Transaction()).set(seq, position, length);
+            }
+            position += length;
+        }
+        transactions.entrySet().removeIf(entry -> {
+            if (!entry.getValue().isComplete()) {
+                logger.warn("Incomplete transaction {} dropped, store: {}.", entry.getKey(), base.getAbsolutePath());
+                return true;
+            }
+            return false;
+        });
+        idSequence.set(maxId + 1);
     }
 
-    private void loadFiles() {
-        if (!base.isDirectory()) {
-            throw new StoreInitializeException(
-                    String.format("Init transaction store directory failed! " +
-                            "Directory NOT exists: %s!", base.getAbsolutePath()));
+    private ByteBuffer readRecord(long position) {
+        ByteBuffer record;
+        try {
+            record = store.read(position);
+        } catch (Throwable t) {
+            return null;
+        }
+        int length = record.remaining();
+        if (length < HEADER_SIZE || record.getInt(Integer.BYTES + Byte.BYTES) < 0) {
+            return null;
         }
+        byte type = record.get(Integer.BYTES);
+        if (type == TYPE_REMOVE) {
+            return length == HEADER_SIZE ? record : null;
+        }
+        return type == TYPE_DATA && length > HEADER_SIZE && record.getInt(HEADER_SIZE - Integer.BYTES) >= 0 ? record : null;
+    }
 
-        File[] files = base.listFiles();
-        if (files != null) {
-            idSequence.set(
-                    Arrays.stream(files)
-                            .filter(File::isDirectory)
-                            .map(File::getName)
-                            .filter(fileName -> fileName.matches("\\d+"))
-                            .mapToInt(Integer::parseInt)
-                            .max().orElse(-1)
-            );
-            idSequence.incrementAndGet();
+    /**
+     * 把旧版本每个事务一个目录的数据导入事务日志，导入后删除目录。
+     * 导入过程中异常退出时，下次启动重新导入，序号相同的消息会覆盖之前导入的消息。
+     */
+    private void migrateLegacyFiles() throws IOException {
+        File[] files = base.listFiles(file -> file.isDirectory() && file.getName().matches("\\d+"));
+        if (null == files) {
+            return;
+        }
+        for (File file : files) {
+            int id = Integer.parseInt(file.getName());
+            PositioningStore<ByteBuffer> legacyStore = new PositioningStore<>(file, config, bufferPool, new TransactionMessageSerializer());
+            try {
+                legacyStore.recover(false);
+                List<ByteBuffer> messages = new ArrayList<>();
+                for (long position = legacyStore.left(); position < legacyStore.right(); ) {
+                    ByteBuffer message;
+                    try {
+                        message = legacyStore.read(position);
+                    } catch (Throwable t) {
+                        logger.warn("Legacy transaction {} truncated at position {}.", file.getAbsolutePath(), position);
+                        break;
+                    }
+                    position += message.remaining();
+                    messages.add(message);
+                }
+                transactions.remove(id);
+                if (!messages.isEmpty()) {
+                    append(id, messages);
+                }
+            } finally {
+                legacyStore.close();
+            }
+            idSequence.set(Math.max(idSequence.get(), id + 1));
+            if (!deleteFolder(file)) {
+                logger.warn("Delete legacy transaction directory {} failed.", file.getAbsolutePath());
+            }
+            logger.info("Legacy transaction {} migrated, store: {}.", id, base.getAbsolutePath());
         }
+    }
 
+    private Transaction get(int id) {
+        synchronized (transactions) {
+            return transactions.get(id);
+        }
+    }
 
+    /**
+     * 追加写入一个事务的消息并刷盘，只在加载时调用
+     */
+    private void append(int id, List<ByteBuffer> messages) throws IOException {
+        Transaction transaction = transactions.get(id);
+        int seq = null == transaction ? 0 : transaction.size();
+        List<ByteBuffer> records = new ArrayList<>(messages.size());
+        for (ByteBuffer message : messages) {
+            records.add(record(TYPE_DATA, id, seq++, message));
+        }
+        long position = store.right();
+        try {
+            store.append(records);
+            flush();
+        } catch (Throwable t) {
+            store.setRight(position);
+            throw t;
+        }
+        if (null == transaction) {
+            transaction = new Transaction();
+            transactions.put(id, transaction);
+        }
+        for (ByteBuffer record : records) {
+            transaction.set(transaction.size(), position, record.remaining());
+            position += record.remaining();
+        }
     }
 
-    private PositioningStore<ByteBuffer> get(int id) {
-        synchronized (storeMap) {
-            return storeMap.get(id);
+    /**
+     * 刷盘到日志末尾。PositioningStore.flush()每次只刷一个文件，
+     * 写入跨越文件边界时需要多次刷盘，否则已经确认的数据可能只在缓存页中。
+     */
+    private void flush() throws IOException {
+        while (store.flushPosition() < store.right()) {
+            if (!store.flush()) {
+                throw new IOException(String.format("Flush transaction store %s failed, flush position: %d, right: %d.",
+                        base.getAbsolutePath(), store.flushPosition(), store.right()));
+            }
         }
     }
 
+    private ByteBuffer record(byte type, int id, int seq, ByteBuffer message) {
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + (null == message ? 0 : message.remaining()));
+        record.putInt(record.capacity());
+        record.put(type);
+        record.putInt(id);
+        record.putInt(seq);
+        if (null != message) {
+            record.put(message.duplicate());
+        }
+        record.flip();
+        return record;
+    }
 
-    private PositioningStore<ByteBuffer> getOrCreate(int id) throws IOException {
-        synchronized (storeMap) {
-            if (!storeMap.containsKey(id)) {
-                File storeBase = new File(base, String.valueOf(id));
-                if (storeBase.exists() || storeBase.mkdir()) {
-                    PositioningStore<ByteBuffer> store = new PositioningStore<>(storeBase, config, bufferPool, new TransactionMessageSerializer());
-                    storeMap.put(id, store);
-                    return store;
-                } else {
-                    throw new IOException(String.format("Failed to create directory: %s.", storeBase.getAbsolutePath()));
+    /**
+     * 写入线程的主循环，取出所有排队的请求成批写入，队列为空时退出
+     */
+    private void writeLoop() {
+        List<WriteTask> tasks = new ArrayList<>();
+        while (true) {
+            pendingWrites.drainTo(tasks);
+            if (tasks.isEmpty()) {
+                writing.set(false);
+                if (pendingWrites.isEmpty() || !writing.compareAndSet(false, true)) {
+                    return;
+                }
+                continue;
+            }
+            boolean removed = false;
+            try {
+                removed = write(tasks);
+            } catch (Throwable t) {
+                logger.warn("Write transaction store {} exception: ", base.getAbsolutePath(), t);
+                for (WriteTask task : tasks) {
+                    task.complete(JoyQueueCode.CN_TRANSACTION_EXECUTE_ERROR);
+                }
+            }
+            tasks.clear();
+            if (removed && store.fileCount() > 1) {
+                try {
+                    doCompact();
+                } catch (Throwable t) {
+                    logger.warn("Compact transaction store {} exception: ", base.getAbsolutePath(), t);
+                }
+            }
+        }
+    }
+
+    /**
+     * 写入一批请求：依次追加每个请求的日志，全部追加后只刷一次盘，刷盘成功后再更新内存中的索引并返回结果。
+     * 单个请求追加失败时只回滚这个请求，刷盘失败时回滚整批。
+     *
+     * @return 是否删除了事务
+     */
+    private boolean write(List<WriteTask> tasks) {
+        // 本批次中每个事务的消息数量，-1表示事务不存在
+        Map<Integer, Integer> sizes = new HashMap<>();
+        List<WriteTask> appended = new ArrayList<>(tasks.size());
+        long start = store.right();
+        for (WriteTask task : tasks) {
+            int size = sizes.computeIfAbsent(task.id, id -> {
+                Transaction transaction = get(id);
+                return null == transaction ? -1 : transaction.size();
+            });
+            List<ByteBuffer> records = new ArrayList<>();
+            if (task.isRemove()) {
+                if (size < 0) {
+                    task.complete(JoyQueueCode.CN_TRANSACTION_NOT_EXISTS);
+                    continue;
                 }
+                records.add(record(TYPE_REMOVE, task.id, 0, null));
             } else {
-                return storeMap.get(id);
+                int seq = Math.max(size, 0);
+                for (ByteBuffer message : task.messages) {
+                    records.add(record(TYPE_DATA, task.id, seq++, message));
+                }
+            }
+            long position = store.right();
+            try {
+                store.append(records);
+            } catch (Throwable t) {
+                logger.warn("Write transaction \"{}/{}\" exception: ", base.getAbsoluteFile(), task.id, t);
+                rollback(position);
+                task.complete(JoyQueueCode.CN_TRANSACTION_EXECUTE_ERROR);
+                continue;
+            }
+            task.position = position;
+            task.records = records;
+            sizes.put(task.id, task.isRemove() ? -1 : Math.max(size, 0) + records.size());
+            appended.add(task);
+        }
+
+        try {
+            flush();
+        } catch (Throwable t) {
+            logger.warn("Flush transaction store {} exception: ", base.getAbsolutePath(), t);
+            rollback(start);
+            for (WriteTask task : appended) {
+                task.complete(JoyQueueCode.CN_TRANSACTION_EXECUTE_ERROR);
             }
+            return false;
         }
+
+        boolean removed = false;
+        synchronized (transactions) {
+            for (WriteTask task : appended) {
+                if (task.isRemove()) {
+                    transactions.remove(task.id);
+                    removed = true;
+                    continue;
+                }
+                Transaction transaction = transactions.computeIfAbsent(task.id, id -> new Transaction());
+                long position = task.position;
+                for (ByteBuffer record : task.records) {
+                    transaction.set(transaction.size(), position, record.remaining());
+                    position += record.remaining();
+                }
+            }
+        }
+        for (WriteTask task : appended) {
+            task.complete(JoyQueueCode.SUCCESS);
+        }
+        return removed;
     }
 
-    private WriteResult write(int id, List<ByteBuffer> messages) {
-        WriteResult writeResult = new WriteResult();
+    private void rollback(long position) {
         try {
-            PositioningStore<ByteBuffer> positioningStore = getOrCreate(id);
-            positioningStore.append(messages);
-            positioningStore.flush();
-            writeResult.setCode(JoyQueueCode.SUCCESS);
+            store.setRight(position);
         } catch (Throwable t) {
-            logger.warn("Write transaction file \"{}/{}\" exception: ", base.getAbsoluteFile(), id, t);
-            writeResult.setCode(JoyQueueCode.CN_TRANSACTION_EXECUTE_ERROR);
+            logger.warn("Rollback transaction store {} to {} exception: ", base.getAbsolutePath(), position, t);
+        }
+    }
+
+    private Future<WriteResult> submit(WriteTask task) {
+        if (!pendingWrites.offer(task)) {
+            throw new RejectedExecutionException(String.format("Too many pending writes of transaction store %s.",
+                    base.getAbsolutePath()));
         }
-        return writeResult;
+        if (writing.compareAndSet(false, true)) {
+            try {
+                writeExecutor.execute(this::writeLoop);
+            } catch (RejectedExecutionException e) {
+                writing.set(false);
+                pendingWrites.remove(task);
+                throw e;
+            }
+        }
+        return task.future;
     }
 
     /**
@@ -147,40 +424,130 @@ public class TransactionStoreManager implements TransactionStore, Closeable {
      */
     @Override
     public int[] list() {
-
-        File[] files = base.listFiles();
-        if (files != null) {
-
-            return Arrays.stream(files)
-                    .map(File::getName)
-                    .filter(fileName -> fileName.matches("\\d+"))
-                    .mapToInt(Integer::parseInt)
-                    .sorted()
-                    .toArray();
+        synchronized (transactions) {
+            return transactions.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
         }
-
-        return new int[0];
-
     }
 
     /**
-     * 删除事务
+     * 删除事务，删除记录刷盘之后才从内存中删除，日志文件在写入线程压缩时删除
      */
     @Override
     public boolean remove(int id) {
-        synchronized (storeMap) {
-            PositioningStore<ByteBuffer> store = storeMap.remove(id);
-            if (null != store) store.close();
+        if (null == get(id)) {
+            return false;
         }
-        File txFile = new File(base, String.valueOf(id));
         try {
-            return deleteFolder(txFile);
-        } catch (IOException e) {
-            logger.warn("Exception: ", e);
+            return submit(new WriteTask(id, null)).get().getCode() == JoyQueueCode.SUCCESS;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException | RejectedExecutionException e) {
+            logger.warn("Write transaction remove record \"{}/{}\" exception: ", base.getAbsoluteFile(), id, e);
             return false;
         }
     }
 
+    /**
+     * 在写入线程中压缩事务日志，等待压缩完成
+     *
+     * @return 删除的文件长度
+     */
+    long compact() throws IOException {
+        try {
+            return writeExecutor.submit(this::doCompact).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * 压缩事务日志：从最左侧文件开始，找到有效数据的比例低于{@link #COMPACT_LIVE_RATIO}的最长的连续若干文件，
+     * 最后一个文件除外，把其中进行中事务的消息复制到日志末尾，然后删除这些文件。
+     * 只在写入线程中执行，复制期间不持有transactions的锁，复制完成后在compactLock的写锁中更新消息位置。
+     *
+     * @return 删除的文件长度
+     */
+    private long doCompact() throws IOException {
+        List<StoreFile<ByteBuffer>> files = store.storeFiles();
+        if (files.size() <= 1) {
+            return 0L;
+        }
+        long left = store.left();
+        // ends[i]是第i个文件的结束位置，也就是下一个文件的起始位置
+        long[] ends = new long[files.size() - 1];
+        for (int i = 0; i < ends.length; i++) {
+            ends[i] = files.get(i + 1).position();
+        }
+        long[] liveSizes = new long[ends.length];
+        List<Relocation> relocations = new ArrayList<>();
+        synchronized (transactions) {
+            for (Transaction transaction : transactions.values()) {
+                for (int seq = 0; seq < transaction.size(); seq++) {
+                    long position = transaction.position(seq);
+                    int index = Arrays.binarySearch(ends, position);
+                    index = index >= 0 ? index + 1 : -index - 1;
+                    if (index < ends.length) {
+                        liveSizes[index] += transaction.length(seq);
+                        relocations.add(new Relocation(transaction, seq, position, transaction.length(seq)));
+                    }
+                }
+            }
+        }
+
+        long end = -1L;
+        long liveSize = 0L;
+        for (int i = 0; i < ends.length; i++) {
+            liveSize += liveSizes[i];
+            if (liveSize * 100 < (ends[i] - left) * COMPACT_LIVE_RATIO) {
+                end = ends[i];
+            }
+        }
+        if (end < 0) {
+            return 0L;
+        }
+        long compactEnd = end;
+        relocations.removeIf(relocation -> relocation.position >= compactEnd);
+        relocations.sort(Comparator.comparingLong(relocation -> relocation.position));
+
+        // 先复制，全部写入成功后再更新位置，中途失败时原文件仍然完整
+        List<ByteBuffer> records = new ArrayList<>(relocations.size());
+        for (Relocation relocation : relocations) {
+            records.add(store.read(relocation.position));
+        }
+        // 恢复时按照日志中最大的事务ID生成下一个ID，最大ID所在的文件可能被删除，
+        // 在末尾追加一条删除记录保留最大ID，避免重启后重复使用已经分配过的ID
+        int maxId = idSequence.get() - 1;
+        if (maxId >= 0 && null == get(maxId)) {
+            records.add(record(TYPE_REMOVE, maxId, 0, null));
+        }
+        long position = store.right();
+        if (!records.isEmpty()) {
+            try {
+                store.append(records);
+                flush();
+            } catch (Throwable t) {
+                rollback(position);
+                throw t;
+            }
+        }
+        compactLock.writeLock().lock();
+        try {
+            synchronized (transactions) {
+                for (Relocation relocation : relocations) {
+                    relocation.transaction.set(relocation.seq, position, relocation.length);
+                    position += relocation.length;
+                }
+            }
+            return store.physicalDeleteTo(compactEnd);
+        } finally {
+            compactLock.writeLock().unlock();
+        }
+    }
+
     /**
      * 异步写入消息，线程安全，保证ACID(写入磁盘)
      *
@@ -191,7 +558,7 @@ public class TransactionStoreManager implements TransactionStore, Closeable {
      */
     @Override
     public Future<WriteResult> asyncWrite(int id, ByteBuffer... messages) {
-        return writeExecutor.submit(new WriteTask(id, Arrays.asList(messages)));
+        return submit(new WriteTask(id, Arrays.asList(messages)));
     }
 
     /**
@@ -199,8 +566,19 @@ public class TransactionStoreManager implements TransactionStore, Closeable {
      */
     @Override
     public Iterator<ByteBuffer> readIterator(int id) {
-        PositioningStore<ByteBuffer> store = get(id);
-        return store == null ? null : new ReadIterator(store);
+        Transaction transaction = get(id);
+        return transaction == null ? null : new ReadIterator(transaction);
+    }
+
+    int fileCount() {
+        return store.fileCount();
+    }
+
+    /**
+     * 写入之后还没有刷盘的数据长度
+     */
+    long dirtySize() {
+        return store.right() - store.flushPosition();
     }
 
     /**
@@ -228,9 +606,20 @@ public class TransactionStoreManager implements TransactionStore, Closeable {
         if (!writeExecutor.isTerminated()) {
             logger.warn("Failed to shutdown executor!");
         }
+        WriteTask task;
+        while ((task = pendingWrites.poll()) != null) {
+            task.complete(JoyQueueCode.CN_TRANSACTION_EXECUTE_ERROR);
+        }
 
-
-        storeMap.values().forEach(PositioningStore::close);
+        // 关闭时没有刷盘的文件不会被写入，先刷盘
+        synchronized (transactions) {
+            try {
+                flush();
+            } catch (IOException e) {
+                logger.warn("Flush transaction store {} exception: ", base.getAbsolutePath(), e);
+            }
+        }
+        store.close();
 
     }
 
@@ -250,36 +639,117 @@ public class TransactionStoreManager implements TransactionStore, Closeable {
         return folder.delete();
     }
 
-    private class WriteTask implements Callable<WriteResult> {
+    /**
+     * 一个事务的消息在日志中的位置，按照序号排列
+     */
+    private static class Transaction {
+        private volatile long[] positions = new long[4];
+        private int[] lengths = new int[4];
+        private volatile int size = 0;
+
+        private Transaction() {
+            Arrays.fill(positions, -1L);
+        }
+
+        private int size() {
+            return size;
+        }
+
+        private long position(int seq) {
+            return positions[seq];
+        }
+
+        private int length(int seq) {
+            return lengths[seq];
+        }
+
+        private void set(int seq, long position, int length) {
+            long[] positions = this.positions;
+            if (seq >= positions.length) {
+                int capacity = Math.max(seq + 1, positions.length * 2);
+                int oldLength = positions.length;
+                positions = Arrays.copyOf(positions, capacity);
+                Arrays.fill(positions, oldLength, capacity, -1L);
+                lengths = Arrays.copyOf(lengths, capacity);
+            }
+            positions[seq] = position;
+            lengths[seq] = length;
+            this.positions = positions;
+            if (seq >= size) {
+                size = seq + 1;
+            }
+        }
+
+        private boolean isComplete() {
+            for (int i = 0; i < size; i++) {
+                if (positions[i] < 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private long liveSize(long left, long end) {
+            long liveSize = 0L;
+            for (int i = 0; i < size; i++) {
+                if (positions[i] >= left && positions[i] < end) {
+                    liveSize += lengths[i];
+                }
+            }
+            return liveSize;
+        }
+    }
+
+    private static class Relocation {
+        private final Transaction transaction;
+        private final int seq;
+        private final long position;
+        private final int length;
+
+        private Relocation(Transaction transaction, int seq, long position, int length) {
+            this.transaction = transaction;
+            this.seq = seq;
+            this.position = position;
+            this.length = length;
+        }
+    }
+
+    /**
+     * 排队等待写入线程处理的请求，messages为null时表示删除事务
+     */
+    private static class WriteTask {
         private final int id;
         private final List<ByteBuffer> messages;
+        private final CompletableFuture<WriteResult> future = new CompletableFuture<>();
+        private long position;
+        private List<ByteBuffer> records;
 
         WriteTask(int id, List<ByteBuffer> messages) {
             this.id = id;
             this.messages = messages;
         }
 
-        /**
-         * Computes a result, or throws an exception if unable to do so.
-         *
-         * @return computed result
-         */
-        @Override
-        public WriteResult call() {
-            return write(id, messages);
+        private boolean isRemove() {
+            return null == messages;
+        }
+
+        private void complete(JoyQueueCode code) {
+            WriteResult writeResult = new WriteResult();
+            writeResult.setCode(code);
+            future.complete(writeResult);
         }
     }
 
     private class ReadIterator implements Iterator<ByteBuffer> {
 
-        private final PositioningStore<ByteBuffer> store;
-        private final long right;
-        private long position;
+        private final Transaction transaction;
+        private final int size;
+        private int seq;
 
-        private ReadIterator(PositioningStore<ByteBuffer> store) {
-            this.store = store;
-            right = store.right();
-            position = 0;
+        private ReadIterator(Transaction transaction) {
+            this.transaction = transaction;
+            size = transaction.size();
+            seq = 0;
         }
 
         /**
@@ -291,7 +761,7 @@ public class TransactionStoreManager implements TransactionStore, Closeable {
          */
         @Override
         public boolean hasNext() {
-            return position < right;
+            return seq < size;
         }
 
         /**
@@ -304,13 +774,16 @@ public class TransactionStoreManager implements TransactionStore, Closeable {
         @Override
         public ByteBuffer next() {
             if (hasNext()) {
-                ByteBuffer buffer;
+                compactLock.readLock().lock();
                 try {
-                    buffer = store.read(position);
-                    position += buffer.remaining();
-                    return buffer;
+                    ByteBuffer record = store.read(transaction.position(seq));
+                    seq++;
+                    record.position(HEADER_SIZE);
+                    return record.slice();
                 } catch (Throwable t) {
                     throw new ReadException(t);
+                } finally {
+                    compactLock.readLock().unlock();
                 }
 
             } else {
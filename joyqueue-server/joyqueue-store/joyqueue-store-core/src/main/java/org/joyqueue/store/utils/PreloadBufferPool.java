@@ -27,7 +27,9 @@ import sun.nio.ch.DirectBuffer;
 import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
@@ -36,8 +38,9 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
 
 /**
  * @author liyue25
@@ -57,6 +60,18 @@ public class PreloadBufferPool {
      * 缓存核心利用率，系统会尽量将这个比率以内的内存用满。
      */
     private static final double CORE_RATIO = 0.8d;
+    /**
+     * protected区最多占用清理阈值的比率，超过后优先清理protected区中最旧的页面，避免probation区被饿死。
+     */
+    private static final double PROTECTED_RATIO = 0.75d;
+    /**
+     * 记录最近从probation区清理出去的页面数量上限。
+     */
+    private static final int GHOST_CAPACITY = 1024;
+    /**
+     * 每次从队首取出的待清理页面数量。
+     */
+    private static final int EVICT_BATCH_SIZE = 64;
     public static final String PRINT_METRIC_INTERVAL_MS_KEY = "PreloadBufferPool.PrintMetricIntervalMs";
     public static final String MAX_MEMORY_KEY = "PreloadBufferPool.MaxMemory";
 
@@ -69,6 +84,22 @@ public class PreloadBufferPool {
     private final AtomicLong usedSize = new AtomicLong(0L);
     private final Set<BufferHolder> directBufferHolders = ConcurrentHashMap.newKeySet();
     private final Set<BufferHolder> mMapBufferHolders = ConcurrentHashMap.newKeySet();
+    // 分段LRU（2Q）：新加载的只读页面进入probation区，被清理后短期内再次加载的页面和写入页面进入protected区。
+    // 一次性的顺序扫描只会占用probation区，不会把热点的尾部页面挤出缓存。
+    // 每个分区按进入队列的顺序排列，清理时从队首取最旧的页面，不需要每次都按访问时间排序全部页面。
+    private final Set<BufferHolder> protectedHolders = ConcurrentHashMap.newKeySet();
+    private final LruQueue probationQueue = new LruQueue();
+    private final LruQueue protectedQueue = new LruQueue();
+    // ghost列表只记录页面的identityHashCode，不持有BufferHolder的引用，已删除的文件可以被正常回收。
+    // 哈希冲突只会让个别页面直接进入protected区，不影响正确性。
+    private final Map<Integer, Boolean> ghostHolders = Collections.synchronizedMap(new LinkedHashMap<Integer, Boolean>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Boolean> eldest) {
+            return size() > GHOST_CAPACITY;
+        }
+    });
+    private final TierStat probationStat = new TierStat(Tier.PROBATION);
+    private final TierStat protectedStat = new TierStat(Tier.PROTECTED);
     private Map<Integer, PreLoadCache> bufferCache = new ConcurrentHashMap<>();
     private static PreloadBufferPool instance = null;
 
@@ -134,6 +165,12 @@ public class PreloadBufferPool {
                 Format.formatSize(mmpUsed),
                 Format.formatSize(totalUsed),
                 Format.formatSize(maxMemorySize));
+        for (TierStat stat : new TierStat[]{probationStat, protectedStat}) {
+            LruQueue queue = queueOf(stat.tier);
+            logger.info("Page cache tier {}: pages: {}, used: {}, hits: {}, misses: {}, evictions: {}.",
+                    stat.tier, queue.size(), Format.formatSize(queue.usedSize()),
+                    stat.hits.sum(), stat.misses.sum(), stat.evictions.sum());
+        }
     }
 
     private LoopThread buildPreloadThread() {
@@ -159,7 +196,7 @@ public class PreloadBufferPool {
 
 
     /**
-     * 清除文件缓存页。LRU。
+     * 清除文件缓存页。分段LRU：protected区超限时先清理protected区，然后依次清理probation区和protected区中最旧的页面。
      */
     private void evict() {
         long before = usedSize.get();
@@ -178,23 +215,90 @@ public class PreloadBufferPool {
 
         // 清理使用中最旧的页面，直到内存占用率达标
         if (needEviction()) {
-            List<LruWrapper<BufferHolder>> sorted;
-            sorted = Stream.concat(directBufferHolders.stream(), mMapBufferHolders.stream())
-                    .filter(BufferHolder::isFree)
-                    .map(bufferHolder -> new LruWrapper<>(bufferHolder, bufferHolder.lastAccessTime()))
-                    .sorted(Comparator.comparing(LruWrapper::getLastAccessTime))
-                    .collect(Collectors.toList());
-
-            while (needEviction() && !sorted.isEmpty()) {
-                LruWrapper<BufferHolder> wrapper = sorted.remove(0);
-                BufferHolder holder = wrapper.get();
-                if (holder.lastAccessTime() == wrapper.getLastAccessTime()) {
-                    holder.evict();
+            long protectedLimit = Math.round(evictMemorySize * PROTECTED_RATIO);
+            evictEldest(protectedQueue, b -> true, () -> needEviction() && protectedQueue.usedSize() > protectedLimit);
+            evictEldest(probationQueue, b -> true, this::needEviction);
+            evictEldest(protectedQueue, b -> true, this::needEviction);
+        }
+    }
+
+    /**
+     * 从队首开始清理页面，直到条件不再满足或者队列中的页面都检查过一遍。
+     * 无法清理的页面移到队尾，下一批不会再取到它们。
+     */
+    private void evictEldest(LruQueue queue, Predicate<BufferHolder> filter, BooleanSupplier condition) {
+        int remaining = queue.size();
+        while (remaining > 0 && condition.getAsBoolean()) {
+            List<LruWrapper<BufferHolder>> eldest = queue.eldest(filter, Math.min(remaining, EVICT_BATCH_SIZE));
+            if (eldest.isEmpty()) {
+                break;
+            }
+            for (LruWrapper<BufferHolder> wrapper : eldest) {
+                if (!condition.getAsBoolean()) {
+                    return;
+                }
+                if (!evictOne(wrapper)) {
+                    queue.requeue(wrapper.get());
                 }
             }
+            remaining -= eldest.size();
         }
     }
 
+    private LruQueue queueOf(Tier tier) {
+        return tier == Tier.PROTECTED ? protectedQueue : probationQueue;
+    }
+
+    /**
+     * 清理页面，如果页面在取出之后被访问过则跳过。
+     * probation区被清理的页面记录下来，短期内再次加载时直接进入protected区。
+     */
+    private boolean evictOne(LruWrapper<BufferHolder> wrapper) {
+        BufferHolder holder = wrapper.get();
+        if (holder.lastAccessTime() == wrapper.getLastAccessTime()) {
+            Tier tier = tierOf(holder);
+            if (holder.evict()) {
+                statOf(tier).evictions.increment();
+                if (tier == Tier.PROBATION) {
+                    ghostHolders.put(ghostKey(holder), Boolean.TRUE);
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Integer ghostKey(BufferHolder bufferHolder) {
+        return System.identityHashCode(bufferHolder);
+    }
+
+    private Tier tierOf(BufferHolder bufferHolder) {
+        return protectedHolders.contains(bufferHolder) ? Tier.PROTECTED : Tier.PROBATION;
+    }
+
+    private TierStat statOf(Tier tier) {
+        return tier == Tier.PROTECTED ? protectedStat : probationStat;
+    }
+
+    /**
+     * 页面加载时决定放入哪个分区：写入页面和被清理后再次加载的只读页面进入protected区，其余进入probation区。
+     */
+    private void admit(BufferHolder bufferHolder, boolean readOnly) {
+        Tier tier = !readOnly || null != ghostHolders.remove(ghostKey(bufferHolder)) ? Tier.PROTECTED : Tier.PROBATION;
+        if (tier == Tier.PROTECTED) {
+            protectedHolders.add(bufferHolder);
+        }
+        queueOf(tier).add(bufferHolder);
+        statOf(tier).misses.increment();
+    }
+
+    /**
+     * 读取时缓存页已经加载，记录一次命中。
+     */
+    public void hit(BufferHolder bufferHolder) {
+        statOf(tierOf(bufferHolder)).hits.increment();
+    }
+
     private boolean needEviction() {
         return usedSize.get() > evictMemorySize;
     }
@@ -207,6 +311,14 @@ public class PreloadBufferPool {
         return usedSize.get() < coreMemorySize;
     }
 
+    /**
+     * 再申请size大小的内存后，缓存页占用的内存（不含预加载的空闲缓存）是否仍在核心利用率以内
+     */
+    public boolean hasFreeMemory(long size) {
+        long cached = bufferCache.values().stream().mapToLong(p -> (long) p.bufferSize * p.cache.size()).sum();
+        return usedSize.get() - cached + size < coreMemorySize;
+    }
+
     public synchronized boolean addPreLoad(int bufferSize, int coreCount, int maxCount) {
         return bufferCache.putIfAbsent(bufferSize, new PreLoadCache(bufferSize, coreCount, maxCount)) == null;
     }
@@ -243,18 +355,10 @@ public class PreloadBufferPool {
                         return;
                     }
                 } else {
-                    List<LruWrapper<BufferHolder>> outdated = directBufferHolders.stream()
-                            .filter(b -> b.size() == preLoadCache.bufferSize)
-                            .filter(BufferHolder::isFree)
-                            .map(bufferHolder -> new LruWrapper<>(bufferHolder, bufferHolder.lastAccessTime()))
-                            .sorted(Comparator.comparing(LruWrapper::getLastAccessTime)).collect(Collectors.toList());
-                    while (preLoadCache.cache.size() < preLoadCache.coreCount && !outdated.isEmpty()) {
-                        LruWrapper<BufferHolder> wrapper = outdated.remove(0);
-                        BufferHolder holder = wrapper.get();
-                        if (holder.lastAccessTime() == wrapper.getLastAccessTime()) {
-                            holder.evict();
-                        }
-                    }
+                    Predicate<BufferHolder> filter = b -> b.size() == preLoadCache.bufferSize && directBufferHolders.contains(b);
+                    BooleanSupplier condition = () -> preLoadCache.cache.size() < preLoadCache.coreCount;
+                    evictEldest(probationQueue, filter, condition);
+                    evictEldest(protectedQueue, filter, condition);
                 }
             }
         }
@@ -315,11 +419,21 @@ public class PreloadBufferPool {
 
     public void allocateMMap(BufferHolder bufferHolder) {
         reserveMemory(bufferHolder.size());
+        admit(bufferHolder, true);
         mMapBufferHolders.add(bufferHolder);
     }
 
     public ByteBuffer allocateDirect(BufferHolder bufferHolder) {
+        return allocateDirect(bufferHolder, false);
+    }
+
+    /**
+     * 分配DirectBuffer缓存页
+     * @param readOnly 只读页面（例如解压后的压缩文件）按读取页面进入probation区，写入页面直接进入protected区。
+     */
+    public ByteBuffer allocateDirect(BufferHolder bufferHolder, boolean readOnly) {
         ByteBuffer buffer = allocateDirect(bufferHolder.size());
+        admit(bufferHolder, readOnly);
         directBufferHolders.add(bufferHolder);
         return buffer;
     }
@@ -350,7 +464,28 @@ public class PreloadBufferPool {
     }
 
     public void releaseDirect(ByteBuffer byteBuffer, BufferHolder bufferHolder) {
+        detachDirect(bufferHolder);
+        recycleDirect(byteBuffer);
+    }
+
+    /**
+     * 缓存页从bufferHolder上卸载，但仍被引用（例如零拷贝读取的切片还没有释放），
+     * 暂时不能回收，引用释放后需要调用{@link #recycleDirect(ByteBuffer)}回收。
+     */
+    public void detachDirect(BufferHolder bufferHolder) {
         directBufferHolders.remove(bufferHolder);
+        removeFromTier(bufferHolder);
+    }
+
+    private void removeFromTier(BufferHolder bufferHolder) {
+        if (protectedHolders.remove(bufferHolder)) {
+            protectedQueue.remove(bufferHolder);
+        } else {
+            probationQueue.remove(bufferHolder);
+        }
+    }
+
+    public void recycleDirect(ByteBuffer byteBuffer) {
         int size = byteBuffer.capacity();
         PreLoadCache preLoadCache = bufferCache.get(size);
         if (null != preLoadCache) {
@@ -368,6 +503,7 @@ public class PreloadBufferPool {
 
     public void releaseMMap(BufferHolder bufferHolder) {
         mMapBufferHolders.remove(bufferHolder);
+        removeFromTier(bufferHolder);
         usedSize.getAndAdd(-1 * bufferHolder.size());
 
     }
@@ -395,7 +531,21 @@ public class PreloadBufferPool {
         long mmpUsed = mMapBufferHolders.stream().mapToLong(BufferHolder::size).sum();
         long directUsed = directBufferHolders.stream().mapToLong(BufferHolder::size).sum();
 
+        List<BufferPoolMonitorInfo.TierMonitorInfo> tierMonitorInfos = new ArrayList<>();
+        for (TierStat stat : new TierStat[]{probationStat, protectedStat}) {
+            LruQueue queue = queueOf(stat.tier);
+            BufferPoolMonitorInfo.TierMonitorInfo tierMonitorInfo = new BufferPoolMonitorInfo.TierMonitorInfo();
+            tierMonitorInfo.setTier(stat.tier.name().toLowerCase());
+            tierMonitorInfo.setPages(queue.size());
+            tierMonitorInfo.setUsed(Format.formatSize(queue.usedSize()));
+            tierMonitorInfo.setHits(stat.hits.sum());
+            tierMonitorInfo.setMisses(stat.misses.sum());
+            tierMonitorInfo.setEvictions(stat.evictions.sum());
+            tierMonitorInfos.add(tierMonitorInfo);
+        }
+
         bufferPoolMonitorInfo.setPlMonitorInfos(plMonitorInfos);
+        bufferPoolMonitorInfo.setTierMonitorInfos(tierMonitorInfos);
         bufferPoolMonitorInfo.setPlUsed(Format.formatSize(plUsed));
         bufferPoolMonitorInfo.setUsed(Format.formatSize(totalUsed));
         bufferPoolMonitorInfo.setMaxMemorySize(Format.formatSize(maxMemorySize));
@@ -416,6 +566,84 @@ public class PreloadBufferPool {
         }
     }
 
+    private enum Tier {
+        PROBATION, PROTECTED
+    }
+
+    private static class TierStat {
+        final Tier tier;
+        final LongAdder hits = new LongAdder();
+        final LongAdder misses = new LongAdder();
+        final LongAdder evictions = new LongAdder();
+
+        TierStat(Tier tier) {
+            this.tier = tier;
+        }
+    }
+
+    /**
+     * 一个分区中的页面，按进入队列的顺序排列。
+     * 页面被访问时只更新自己的访问时间，不调整队列；清理时发现队首的页面在入队之后被访问过，
+     * 就把它移到队尾（second chance），所以从队首取出的总是近似最久没有访问的页面。
+     */
+    private static class LruQueue {
+        private final LinkedHashMap<BufferHolder, Long> holders = new LinkedHashMap<>();
+        private long usedSize = 0L;
+
+        synchronized void add(BufferHolder bufferHolder) {
+            if (null == holders.put(bufferHolder, bufferHolder.lastAccessTime())) {
+                usedSize += bufferHolder.size();
+            }
+        }
+
+        synchronized void remove(BufferHolder bufferHolder) {
+            if (null != holders.remove(bufferHolder)) {
+                usedSize -= bufferHolder.size();
+            }
+        }
+
+        /**
+         * 移到队尾
+         */
+        synchronized void requeue(BufferHolder bufferHolder) {
+            if (null != holders.remove(bufferHolder)) {
+                holders.put(bufferHolder, bufferHolder.lastAccessTime());
+            }
+        }
+
+        /**
+         * 从队首开始取出最多maxCount个满足条件的空闲页面，入队之后被访问过的页面和正在使用的页面移到队尾。
+         */
+        synchronized List<LruWrapper<BufferHolder>> eldest(Predicate<BufferHolder> filter, int maxCount) {
+            List<LruWrapper<BufferHolder>> eldest = new ArrayList<>(maxCount);
+            List<BufferHolder> skipped = new ArrayList<>();
+            Iterator<Map.Entry<BufferHolder, Long>> iterator = holders.entrySet().iterator();
+            while (eldest.size() < maxCount && iterator.hasNext()) {
+                Map.Entry<BufferHolder, Long> entry = iterator.next();
+                BufferHolder bufferHolder = entry.getKey();
+                long lastAccessTime = bufferHolder.lastAccessTime();
+                if (lastAccessTime != entry.getValue() || !bufferHolder.isFree()) {
+                    iterator.remove();
+                    skipped.add(bufferHolder);
+                } else if (filter.test(bufferHolder)) {
+                    eldest.add(new LruWrapper<>(bufferHolder, lastAccessTime));
+                }
+            }
+            for (BufferHolder bufferHolder : skipped) {
+                holders.put(bufferHolder, bufferHolder.lastAccessTime());
+            }
+            return eldest;
+        }
+
+        synchronized int size() {
+            return holders.size();
+        }
+
+        synchronized long usedSize() {
+            return usedSize;
+        }
+    }
+
     private static class LruWrapper<V> {
         private final long lastAccessTime;
         private final V t;
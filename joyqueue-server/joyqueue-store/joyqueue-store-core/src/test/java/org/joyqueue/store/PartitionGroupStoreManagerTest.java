@@ -15,14 +15,24 @@
  */
 package org.joyqueue.store;
 
+import com.alibaba.fastjson.JSON;
 import org.joyqueue.domain.QosLevel;
 import org.joyqueue.exception.JoyQueueCode;
 import org.joyqueue.store.file.PositioningStore;
+import org.joyqueue.store.file.ShutdownMarker;
+import org.joyqueue.store.file.StoreFile;
+import org.joyqueue.store.index.CompactIndexSerializer;
+import org.joyqueue.store.index.IndexItem;
+import org.joyqueue.store.index.IndexStore;
+import org.joyqueue.store.message.CompactedMessageParser;
 import org.joyqueue.store.message.MessageParser;
+import org.joyqueue.store.replication.SnapshotFile;
 import org.joyqueue.store.utils.MessageUtils;
 import org.joyqueue.store.utils.PreloadBufferPool;
+import org.joyqueue.toolkit.buffer.RByteBuffer;
 import org.joyqueue.toolkit.concurrent.EventFuture;
 import org.joyqueue.toolkit.concurrent.LoopThread;
+import org.joyqueue.toolkit.concurrent.VirtualThreadExecutor;
 import org.joyqueue.toolkit.format.Format;
 import org.joyqueue.toolkit.time.SystemClock;
 import org.joyqueue.toolkit.util.BaseDirUtils;
@@ -37,18 +47,26 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import java.util.zip.CRC32;
 
 import static org.joyqueue.store.PartitionGroupStoreManager.Config.DEFAULT_FLUSH_INTERVAL_MS;
 import static org.joyqueue.store.PartitionGroupStoreManager.Config.DEFAULT_MAX_DIRTY_SIZE;
@@ -254,7 +272,25 @@ public class PartitionGroupStoreManagerTest {
                 Assert.assertEquals(1, readResult.getMessages().length);
                 ByteBuffer readBuffer = readResult.getMessages()[0];
                 Assert.assertEquals(writeBuffer, readBuffer);
+
+                ReadResult pinnedResult = store.readPinned(partition, i, 1, 0);
+                Assert.assertEquals(JoyQueueCode.SUCCESS, pinnedResult.getCode());
+                Assert.assertEquals(1, pinnedResult.getMessages().length);
+                Assert.assertTrue(pinnedResult.getMessages()[0].isReadOnly());
+                Assert.assertEquals(writeBuffer, pinnedResult.getMessages()[0]);
+                pinnedResult.release();
+            }
+
+            // 批量读取时，物理上连续的消息合并成一次读取
+            ReadResult readResult = store.read(partition, 0, messages.size(), 0);
+            ReadResult pinnedResult = store.readPinned(partition, 0, messages.size(), 0);
+            Assert.assertEquals(messages.size(), readResult.getMessages().length);
+            Assert.assertEquals(messages.size(), pinnedResult.getMessages().length);
+            for (int i = 0; i < messages.size(); i++) {
+                Assert.assertEquals(messages.get(i), readResult.getMessages()[i]);
+                Assert.assertEquals(messages.get(i), pinnedResult.getMessages()[i]);
             }
+            pinnedResult.release();
         } finally {
             commitThread.stop();
         }
@@ -504,6 +540,124 @@ public class PartitionGroupStoreManagerTest {
 
     }
 
+    @Test
+    public void compactIndexTest() throws Exception {
+        int count = 64;
+        short partition = 4;
+        short batchSize = 100;
+        // 分区索引目录为空，重启后使用紧凑格式
+        destroyStore();
+        PartitionGroupStoreManager.Config config = createConfig();
+        config.setCompactIndex(true);
+        recoverStore(config);
+        File compactMarker = new File(groupBase, "index/" + partition + "/" + PartitionGroupStoreManager.COMPACT_INDEX_MARKER_FILE);
+        Assert.assertTrue(compactMarker.isFile());
+
+        List<ByteBuffer> messages = MessageUtils.build(count, 1024)
+                .stream().map(m -> MessageUtils.toBatchMessage(m, batchSize))
+                .collect(Collectors.toList());
+        long length = messages.stream().mapToInt(Buffer::remaining).sum();
+        final EventFuture<WriteResult> future = new EventFuture<>();
+        store.asyncWrite(QosLevel.PERSISTENCE, future, messages.stream().map(b -> new WriteRequest(partition, b)).toArray(WriteRequest[]::new));
+        Assert.assertEquals(JoyQueueCode.SUCCESS, future.get().getCode());
+
+        // 写入成功时索引还没有建完，等待建索引都完成
+        long t0 = SystemClock.now();
+        while (SystemClock.now() - t0 < 10000L && store.indexPosition() < length) {
+            Thread.sleep(10L);
+        }
+        Assert.assertEquals(length, store.indexPosition());
+
+        // 每个批消息只保存一条索引
+        Assert.assertEquals(count * batchSize, store.getRightIndex(partition));
+        Assert.assertEquals(count * CompactIndexSerializer.STORAGE_SIZE, store.indexStore(partition).physicalStore().right());
+        long[] offsets = new long[2 * batchSize];
+        int[] lengths = new int[2 * batchSize];
+        Assert.assertEquals(2 * batchSize, store.indexStore(partition).batchRead(batchSize / 2 * IndexItem.STORAGE_SIZE, 2 * batchSize, offsets, lengths));
+        Assert.assertEquals(0L, offsets[batchSize / 2 - 1]);
+        Assert.assertEquals(messages.get(0).limit(), offsets[batchSize / 2]);
+        Assert.assertEquals(messages.get(0).limit() + messages.get(1).limit(), offsets[2 * batchSize - 1]);
+        Assert.assertEquals(messages.get(2).limit(), lengths[2 * batchSize - 1]);
+        assertBatchMessages(partition, messages, batchSize);
+
+        // 正常关闭后恢复
+        destroyStore();
+        recoverStore(config);
+        assertBatchMessages(partition, messages, batchSize);
+
+        // 异常关闭，索引文件末尾有不完整的记录，重建索引后恢复
+        destroyStore();
+        Assert.assertTrue(new File(groupBase, PartitionGroupStoreManager.SHUTDOWN_MARKER_FILE).delete());
+        try (FileOutputStream output = new FileOutputStream(new File(groupBase, "index/" + partition + "/0"), true)) {
+            output.write(new byte[CompactIndexSerializer.STORAGE_SIZE + 5]);
+        }
+        // 已经使用紧凑格式的分区，关闭配置后仍然可以读取
+        recoverStore(createConfig());
+        Assert.assertEquals(count * batchSize, store.getRightIndex(partition));
+        assertBatchMessages(partition, messages, batchSize);
+
+        // 回滚到批消息中间
+        IndexStore indexStore = store.indexStore(partition);
+        indexStore.setRight((batchSize + batchSize / 2) * IndexItem.STORAGE_SIZE);
+        Assert.assertEquals(batchSize + batchSize / 2, store.getRightIndex(partition));
+        Assert.assertEquals(2 * CompactIndexSerializer.STORAGE_SIZE, indexStore.physicalStore().right());
+        Assert.assertEquals(messages.get(0).limit(), indexStore.read((batchSize + batchSize / 2 - 1) * IndexItem.STORAGE_SIZE).getOffset());
+        Assert.assertEquals(batchSize / 2, indexStore.batchRead(batchSize * IndexItem.STORAGE_SIZE, batchSize).size());
+    }
+
+    @Test
+    public void primitiveIndexReadTest() throws Exception {
+        short partition = 4;
+        List<ByteBuffer> messages = MessageUtils.build(256, 1024);
+        messages.addAll(MessageUtils.build(16, 1024).stream()
+                .map(m -> MessageUtils.toBatchMessage(m, (short) 10))
+                .collect(Collectors.toList()));
+        long length = messages.stream().mapToInt(Buffer::remaining).sum();
+        final EventFuture<WriteResult> future = new EventFuture<>();
+        store.asyncWrite(QosLevel.PERSISTENCE, future, messages.stream().map(b -> new WriteRequest(partition, b)).toArray(WriteRequest[]::new));
+        Assert.assertEquals(JoyQueueCode.SUCCESS, future.get().getCode());
+
+        // 等待建索引都完成
+        long t0 = SystemClock.now();
+        while (SystemClock.now() - t0 < 10000L && store.indexPosition() < length) {
+            Thread.sleep(10L);
+        }
+
+        IndexStore indexStore = store.indexStore(partition);
+        long[] offsets = new long[128];
+        int[] lengths = new int[128];
+        for (long index : new long[] {0L, 200L, 255L, 300L, 395L}) {
+            List<IndexItem> indexItems = indexStore.batchRead(index * IndexItem.STORAGE_SIZE, offsets.length);
+            int count = indexStore.batchRead(index * IndexItem.STORAGE_SIZE, offsets.length, offsets, lengths);
+            Assert.assertEquals(indexItems.size(), count);
+            for (int i = 0; i < count; i++) {
+                Assert.assertEquals(indexItems.get(i).getOffset(), offsets[i]);
+                Assert.assertEquals(indexItems.get(i).getLength(), lengths[i]);
+            }
+            Assert.assertEquals(indexItems.get(0).getOffset(), indexStore.readOffset(index * IndexItem.STORAGE_SIZE));
+        }
+        try {
+            indexStore.batchRead(indexStore.right(), 1, offsets, lengths);
+            Assert.fail();
+        } catch (PositionOverflowException ignored) {
+        }
+    }
+
+    private void assertBatchMessages(short partition, List<ByteBuffer> messages, short batchSize) throws IOException {
+        store.commit(store.rightPosition());
+        for (int i = 0; i < messages.size(); i++) {
+            ByteBuffer writeBuffer = messages.get(i);
+            writeBuffer.clear();
+            for (int j = 0; j < batchSize; j++) {
+                ReadResult readResult = store.read(partition, i * batchSize + j, 1, 0);
+                Assert.assertEquals(JoyQueueCode.SUCCESS, readResult.getCode());
+                Assert.assertEquals(writeBuffer, readResult.getMessages()[0]);
+            }
+        }
+        ReadResult readResult = store.read(partition, batchSize / 2, 3 * batchSize, 0);
+        Assert.assertEquals(4, readResult.getMessages().length);
+    }
+
     @Test
     public void brokenIndexStoreTest() throws Exception{
         int count = 55;
@@ -565,6 +719,20 @@ public class PartitionGroupStoreManagerTest {
 
     @Test
     public void getIndexTest() throws InterruptedException, IOException {
+        getIndexTest(null);
+    }
+
+    @Test
+    public void getIndexWithTimeIndexTest() throws Exception {
+        destroyStore();
+        PartitionGroupStoreManager.Config config = createConfig();
+        config.setTimeIndexIntervalMs(Long.MAX_VALUE);
+        config.setTimeIndexIntervalCount(2);
+        recoverStore(config);
+        getIndexTest(config);
+    }
+
+    private void getIndexTest(PartitionGroupStoreManager.Config recoverConfig) throws InterruptedException, IOException {
         long timeout = 500000L;
         List<ByteBuffer> msgs = MessageUtils.build(20, 255);
         long startTime = SystemClock.now();
@@ -595,7 +763,31 @@ public class PartitionGroupStoreManagerTest {
         long[] storageTimestamps = Arrays.stream(store.read(partition, 0L, 20, 0).getMessages())
                 .mapToLong(b -> MessageParser.getInt(b, MessageParser.STORAGE_TIMESTAMP)).toArray();
 
+        assertGetIndex(partition, startTime, storageTimestamps);
 
+        if (null != recoverConfig) {
+            // 重启后时间索引从文件恢复
+            store.disable();
+            store.stop();
+            store.close();
+            recoverStore(recoverConfig);
+            assertGetIndex(partition, startTime, storageTimestamps);
+
+            // 时间索引文件丢失，恢复时从分区索引补齐
+            store.disable();
+            store.stop();
+            store.close();
+            File[] timeIndexFiles = new File(groupBase, "timeindex/" + partition).listFiles();
+            Assert.assertNotNull(timeIndexFiles);
+            for (File timeIndexFile : timeIndexFiles) {
+                Assert.assertTrue(timeIndexFile.delete());
+            }
+            recoverStore(recoverConfig);
+            assertGetIndex(partition, startTime, storageTimestamps);
+        }
+    }
+
+    private void assertGetIndex(short partition, long startTime, long[] storageTimestamps) {
         Assert.assertEquals(0L, store.getIndex(partition, startTime - 1L));
         Assert.assertEquals(0L, store.getIndex(partition, startTime + storageTimestamps[0]));
         Assert.assertEquals(4L, store.getIndex(partition, startTime + storageTimestamps[3] + 10L));
@@ -604,8 +796,6 @@ public class PartitionGroupStoreManagerTest {
         Assert.assertEquals(15L, store.getIndex(partition, startTime + storageTimestamps[10] + 10L));
         Assert.assertEquals(19L, store.getIndex(partition, startTime + storageTimestamps[19 - 4]));
         Assert.assertEquals(-1L, store.getIndex(partition, startTime + storageTimestamps[19 - 4] + 10L));
-
-
     }
 
     private void verifyTerm(ByteBuffer buffer) {
@@ -661,6 +851,789 @@ public class PartitionGroupStoreManagerTest {
 
     }
 
+    @Test
+    public void shutdownMarkerTest() throws Exception {
+        int count = 1024;
+        short partition = 4;
+        List<ByteBuffer> messages = MessageUtils.build(count, 1024);
+
+        final EventFuture<WriteResult> future = new EventFuture<>();
+        store.asyncWrite(QosLevel.PERSISTENCE, future, messages.stream().map(b -> new WriteRequest(partition, b)).toArray(WriteRequest[]::new));
+        Assert.assertEquals(JoyQueueCode.SUCCESS, future.get().getCode());
+
+        File markerFile = new File(groupBase, PartitionGroupStoreManager.SHUTDOWN_MARKER_FILE);
+        destroyStore();
+        Assert.assertTrue(markerFile.isFile());
+
+        // 正常关闭后直接使用已有索引恢复，标记用过即删除
+        recoverStore();
+        Assert.assertFalse(markerFile.exists());
+        assertMessages(partition, messages);
+
+        // 标记与数据不一致时回退到重建索引
+        destroyStore();
+        ShutdownMarker marker = JSON.parseObject(new String(Files.readAllBytes(markerFile.toPath()), StandardCharsets.UTF_8), ShutdownMarker.class);
+        marker.setJournalCrc(marker.getJournalCrc() + 1);
+        marker.getPartitionCrcs().put(partition, marker.getPartitionCrcs().get(partition) + 1);
+        Files.write(markerFile.toPath(), JSON.toJSONString(marker).getBytes(StandardCharsets.UTF_8));
+        recoverStore();
+        Assert.assertFalse(markerFile.exists());
+        assertMessages(partition, messages);
+
+        final EventFuture<WriteResult> nextFuture = new EventFuture<>();
+        store.asyncWrite(QosLevel.PERSISTENCE, nextFuture, new WriteRequest(partition, MessageUtils.build(1, 1024).get(0)));
+        WriteResult writeResult = nextFuture.get();
+        Assert.assertEquals(JoyQueueCode.SUCCESS, writeResult.getCode());
+        Assert.assertEquals(count, writeResult.getIndices()[0]);
+    }
+
+    private void assertMessages(short partition, List<ByteBuffer> messages) throws IOException {
+        store.commit(store.rightPosition());
+        for (int i = 0; i < messages.size(); i++) {
+            ByteBuffer writeBuffer = messages.get(i);
+            writeBuffer.clear();
+            ReadResult readResult = store.read(partition, i, 1, 0);
+            Assert.assertEquals(JoyQueueCode.SUCCESS, readResult.getCode());
+            Assert.assertEquals(writeBuffer, readResult.getMessages()[0]);
+        }
+    }
+
+    @Test
+    public void coldTierTest() throws Exception {
+        int count = 2048;
+        short partition = 4;
+        List<ByteBuffer> messages = MessageUtils.build(count, 1024);
+        long length = messages.stream().mapToInt(Buffer::remaining).sum();
+
+        destroyStore();
+        File coldGroupBase = new File(base, String.format("cold/%s/%d", topic, partitionGroup));
+        PartitionGroupStoreManager.Config config = new PartitionGroupStoreManager.Config(
+                DEFAULT_MAX_MESSAGE_LENGTH,
+                DEFAULT_WRITE_REQUEST_CACHE_SIZE,
+                1L,
+                DEFAULT_WRITE_TIMEOUT_MS, DEFAULT_MAX_DIRTY_SIZE, 6000,
+                new PositioningStore.Config(512 * 1024),
+                new PositioningStore.Config(8 * 1024));
+        config.setColdBase(coldGroupBase);
+        config.setColdTierAgeMs(0L);
+        recoverStore(config);
+
+        final EventFuture<WriteResult> future = new EventFuture<>();
+        store.asyncWrite(QosLevel.PERSISTENCE, future, messages.stream().map(b -> new WriteRequest(partition, b)).toArray(WriteRequest[]::new));
+        Assert.assertEquals(JoyQueueCode.SUCCESS, future.get().getCode());
+
+        // 只有已经刷盘并建完索引的封存文件才能转移
+        long t0 = SystemClock.now();
+        while (SystemClock.now() - t0 < 10000L && (store.indexPosition() < length || store.messageStore().flushPosition() < length)) {
+            Thread.sleep(10L);
+        }
+        Thread.sleep(10L);
+
+        Assert.assertTrue(store.offload() > 0L);
+        File[] coldFiles = coldGroupBase.listFiles(file -> file.isFile() && file.getName().matches("\\d+"));
+        Assert.assertNotNull(coldFiles);
+        Assert.assertTrue(coldFiles.length > 0);
+        for (File coldFile : coldFiles) {
+            Assert.assertFalse(new File(groupBase, coldFile.getName()).exists());
+        }
+        File[] coldIndexFiles = new File(coldGroupBase, "index/" + partition).listFiles();
+        Assert.assertNotNull(coldIndexFiles);
+        Assert.assertTrue(coldIndexFiles.length > 0);
+        assertMessages(partition, messages);
+
+        // 重启后从冷存储和原目录一起恢复
+        destroyStore();
+        recoverStore(config);
+        assertMessages(partition, messages);
+
+        final EventFuture<WriteResult> nextFuture = new EventFuture<>();
+        store.asyncWrite(QosLevel.PERSISTENCE, nextFuture, new WriteRequest(partition, MessageUtils.build(1, 1024).get(0)));
+        WriteResult writeResult = nextFuture.get();
+        Assert.assertEquals(JoyQueueCode.SUCCESS, writeResult.getCode());
+        Assert.assertEquals(count, writeResult.getIndices()[0]);
+    }
+
+    @Test
+    public void compressTest() throws Exception {
+        int count = 2048;
+        short partition = 4;
+        List<ByteBuffer> messages = MessageUtils.build(count, 1024);
+        long length = messages.stream().mapToInt(Buffer::remaining).sum();
+
+        destroyStore();
+        PartitionGroupStoreManager.Config config = new PartitionGroupStoreManager.Config(
+                DEFAULT_MAX_MESSAGE_LENGTH,
+                DEFAULT_WRITE_REQUEST_CACHE_SIZE,
+                1L,
+                DEFAULT_WRITE_TIMEOUT_MS, DEFAULT_MAX_DIRTY_SIZE, 6000,
+                new PositioningStore.Config(512 * 1024),
+                new PositioningStore.Config(512 * 1024));
+        config.setCompressType("zlib");
+        config.setCompressAgeMs(0L);
+        config.setCompressBlockSize(64 * 1024);
+        recoverStore(config);
+
+        final EventFuture<WriteResult> future = new EventFuture<>();
+        store.asyncWrite(QosLevel.PERSISTENCE, future, messages.stream().map(b -> new WriteRequest(partition, b)).toArray(WriteRequest[]::new));
+        Assert.assertEquals(JoyQueueCode.SUCCESS, future.get().getCode());
+
+        // 等待封存的文件都刷盘后再压缩
+        long t0 = SystemClock.now();
+        while (SystemClock.now() - t0 < 10000L && (store.indexPosition() < length || store.messageStore().flushPosition() < length)) {
+            Thread.sleep(10L);
+        }
+        Thread.sleep(10L);
+
+        store.compress();
+        File[] compressedFiles = groupBase.listFiles(file -> file.isFile() && file.getName().endsWith(".z"));
+        Assert.assertNotNull(compressedFiles);
+        Assert.assertTrue(compressedFiles.length > 0);
+        assertMessages(partition, messages);
+
+        // 重启后压缩文件仍然可以读取
+        destroyStore();
+        recoverStore(config);
+        assertMessages(partition, messages);
+
+        final EventFuture<WriteResult> nextFuture = new EventFuture<>();
+        store.asyncWrite(QosLevel.PERSISTENCE, nextFuture, new WriteRequest(partition, MessageUtils.build(1, 1024).get(0)));
+        WriteResult writeResult = nextFuture.get();
+        Assert.assertEquals(JoyQueueCode.SUCCESS, writeResult.getCode());
+        Assert.assertEquals(count, writeResult.getIndices()[0]);
+    }
+
+    @Test
+    public void readAheadTest() throws Exception {
+        int count = 2048;
+        int batchSize = 16;
+        short partition = 4;
+        List<ByteBuffer> messages = MessageUtils.build(count, 1024);
+
+        destroyStore();
+        long budget = 4 * 1024 * 1024L;
+        ReadAhead readAhead = new ReadAhead(PreloadBufferPool.getInstance(), budget, 1024 * 1024, 1);
+        PartitionGroupStoreManager.Config config = new PartitionGroupStoreManager.Config(
+                DEFAULT_MAX_MESSAGE_LENGTH,
+                DEFAULT_WRITE_REQUEST_CACHE_SIZE,
+                1L,
+                DEFAULT_WRITE_TIMEOUT_MS, DEFAULT_MAX_DIRTY_SIZE, 6000,
+                new PositioningStore.Config(512 * 1024),
+                new PositioningStore.Config(8 * 1024));
+        config.setReadAhead(readAhead);
+        recoverStore(config);
+
+        final EventFuture<WriteResult> future = new EventFuture<>();
+        store.asyncWrite(QosLevel.PERSISTENCE, future, messages.stream().map(b -> new WriteRequest(partition, b)).toArray(WriteRequest[]::new));
+        Assert.assertEquals(JoyQueueCode.SUCCESS, future.get().getCode());
+
+        // 重启后缓存页都没有加载，模拟落后的消费者顺序读取
+        destroyStore();
+        recoverStore(config);
+        store.commit(store.rightPosition());
+        for (int i = 0; i < count; i += batchSize) {
+            ReadResult readResult = store.read(partition, i, batchSize, 0);
+            Assert.assertEquals(JoyQueueCode.SUCCESS, readResult.getCode());
+            Assert.assertEquals(batchSize, readResult.getMessages().length);
+            for (int j = 0; j < batchSize; j++) {
+                ByteBuffer writeBuffer = messages.get(i + j);
+                writeBuffer.clear();
+                Assert.assertEquals(writeBuffer, readResult.getMessages()[j]);
+            }
+            if (i == 3 * batchSize) {
+                // 连续顺序读取之后，下一个消息日志文件已经被预读
+                long deadline = SystemClock.now() + 1000L;
+                while (readAhead.usedSize() == 0L && SystemClock.now() < deadline) {
+                    Thread.sleep(10L);
+                }
+                Assert.assertTrue(readAhead.usedSize() > 0L);
+            }
+            Assert.assertTrue(readAhead.usedSize() <= budget);
+        }
+
+        // 停止后不再接受新的预读，内存预算全部归还
+        readAhead.stop();
+        Assert.assertEquals(0L, readAhead.usedSize());
+        ReadResult readResult = store.read(partition, 0, batchSize, 0);
+        Assert.assertEquals(JoyQueueCode.SUCCESS, readResult.getCode());
+        Assert.assertEquals(0L, readAhead.usedSize());
+    }
+
+    @Test
+    public void readAsyncTest() throws Exception {
+        int count = 2048;
+        short partition = 4;
+        List<ByteBuffer> messages = MessageUtils.build(count, 1024);
+
+        destroyStore();
+        ThreadPoolExecutor readExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+        try {
+            PartitionGroupStoreManager.Config config = new PartitionGroupStoreManager.Config(
+                    DEFAULT_MAX_MESSAGE_LENGTH,
+                    DEFAULT_WRITE_REQUEST_CACHE_SIZE,
+                    1L,
+                    DEFAULT_WRITE_TIMEOUT_MS, DEFAULT_MAX_DIRTY_SIZE, 6000,
+                    new PositioningStore.Config(512 * 1024),
+                    new PositioningStore.Config(8 * 1024));
+            config.setReadExecutor(readExecutor);
+            recoverStore(config);
+
+            long length = messages.stream().mapToInt(Buffer::remaining).sum();
+            final EventFuture<WriteResult> future = new EventFuture<>();
+            store.asyncWrite(QosLevel.PERSISTENCE, future, messages.stream().map(b -> new WriteRequest(partition, b)).toArray(WriteRequest[]::new));
+            Assert.assertEquals(JoyQueueCode.SUCCESS, future.get().getCode());
+            long t0 = SystemClock.now();
+            while (SystemClock.now() - t0 < 10000L && store.indexPosition() < length) {
+                Thread.sleep(10L);
+            }
+            store.commit(store.rightPosition());
+
+            // 尾部数据都在缓存页中，在调用线程中读取
+            CompletableFuture<ReadResult> tailRead = store.readAsync(partition, count - 1, 1, 0);
+            Assert.assertTrue(tailRead.isDone());
+            Assert.assertEquals(1, tailRead.get().getMessages().length);
+            Assert.assertEquals(0L, readExecutor.getTaskCount());
+
+            // 重启后头部的缓存页没有加载，在读取线程中读取
+            destroyStore();
+            recoverStore(config);
+            store.commit(store.rightPosition());
+            ReadResult readResult = store.readAsync(partition, 0, 16, 0).get();
+            Assert.assertEquals(JoyQueueCode.SUCCESS, readResult.getCode());
+            Assert.assertEquals(16, readResult.getMessages().length);
+            for (int i = 0; i < 16; i++) {
+                ByteBuffer writeBuffer = messages.get(i);
+                writeBuffer.clear();
+                Assert.assertEquals(writeBuffer, readResult.getMessages()[i]);
+            }
+            Assert.assertEquals(1L, readExecutor.getTaskCount());
+
+            // 零拷贝异步读取
+            ReadResult pinnedResult = store.readPinnedAsync(partition, 1024, 16, 0).get();
+            Assert.assertEquals(JoyQueueCode.SUCCESS, pinnedResult.getCode());
+            Assert.assertEquals(16, pinnedResult.getMessages().length);
+            ByteBuffer writeBuffer = messages.get(1024);
+            writeBuffer.clear();
+            Assert.assertEquals(writeBuffer, pinnedResult.getMessages()[0]);
+            pinnedResult.release();
+            Assert.assertEquals(2L, readExecutor.getTaskCount());
+        } finally {
+            readExecutor.shutdown();
+        }
+    }
+
+    @Test
+    public void scrubTest() throws Exception {
+        int count = 2048;
+        short partition = 4;
+        List<ByteBuffer> messages = MessageUtils.build(count, 1024);
+        // 没有设置CRC的消息（例如Kafka转换的消息）不校验CRC
+        for (int i = 0; i < count; i += 3) {
+            MessageParser.setLong(messages.get(i), MessageParser.CRC, 0L);
+        }
+        long length = messages.stream().mapToInt(Buffer::remaining).sum();
+
+        destroyStore();
+        PartitionGroupStoreManager.Config config = new PartitionGroupStoreManager.Config(
+                DEFAULT_MAX_MESSAGE_LENGTH,
+                DEFAULT_WRITE_REQUEST_CACHE_SIZE,
+                1L,
+                DEFAULT_WRITE_TIMEOUT_MS, DEFAULT_MAX_DIRTY_SIZE, 6000,
+                new PositioningStore.Config(512 * 1024),
+                new PositioningStore.Config(8 * 1024));
+        recoverStore(config);
+
+        final EventFuture<WriteResult> future = new EventFuture<>();
+        store.asyncWrite(QosLevel.PERSISTENCE, future, messages.stream().map(b -> new WriteRequest(partition, b)).toArray(WriteRequest[]::new));
+        Assert.assertEquals(JoyQueueCode.SUCCESS, future.get().getCode());
+        store.commit(store.rightPosition());
+        long t0 = SystemClock.now();
+        while (SystemClock.now() - t0 < 10000L && store.indexPosition() < length) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(length, store.indexPosition());
+
+        Scrubber scrubber = new Scrubber(1024L * 1024 * 1024, DEFAULT_MAX_MESSAGE_LENGTH);
+        long sealedEnd = store.messageStore().sealedFiles(0L).stream()
+                .mapToLong(f -> f.position() + f.writePosition()).max().orElse(0L);
+        Assert.assertTrue(sealedEnd > 0L);
+        Assert.assertEquals(sealedEnd, scrubber.scrub(store));
+        Assert.assertEquals(sealedEnd, store.scrubPosition());
+        Assert.assertEquals(-1L, store.corruptPosition());
+
+        // 修改一条已封存消息的消息体
+        int corruptIndex = count / 4;
+        long corruptOffset = store.indexStore(partition).readOffset(corruptIndex * IndexItem.STORAGE_SIZE);
+        Assert.assertTrue(corruptOffset < sealedEnd);
+        ByteBuffer corruptMessage = messages.get(corruptIndex);
+        corruptMessage.clear();
+        int bodyOffset = MessageParser.getByteBuffer(corruptMessage, MessageParser.BODY).position();
+        StoreFile<ByteBuffer> storeFile = store.messageStore().sealedFiles(corruptOffset).get(0);
+        try (RandomAccessFile raf = new RandomAccessFile(storeFile.file(), "rw")) {
+            long offset = store.messageStore().fileHeaderSize() + corruptOffset - storeFile.position() + bodyOffset;
+            raf.seek(offset);
+            int b = raf.read();
+            raf.seek(offset);
+            raf.write(b ^ 0xFF);
+        }
+
+        scrubber.scrub(store);
+        Assert.assertEquals(corruptOffset, store.corruptPosition());
+        Assert.assertEquals(corruptOffset, store.scrubPosition());
+        Assert.assertEquals(1L, store.corruptCount());
+
+        // 截断到损坏位置之后等待重新复制
+        store.setRightPosition(corruptOffset);
+        Assert.assertEquals(corruptOffset, store.rightPosition());
+        Assert.assertEquals(-1L, store.corruptPosition());
+    }
+
+    @Test
+    public void bizIdIndexTest() throws Exception {
+        int count = 2048;
+        short partition = 4;
+        byte[] body = new byte[1024];
+        CRC32 crc32 = new CRC32();
+        crc32.update(body);
+        List<ByteBuffer> messages = IntStream.range(0, count).mapToObj(i -> {
+            byte[] bizId = ("order-" + i).getBytes(StandardCharsets.UTF_8);
+            ByteBuffer message = MessageParser.build(new byte[][]{body, bizId, new byte[0], new byte[0], new byte[0]});
+            MessageParser.setLong(message, MessageParser.CRC, crc32.getValue());
+            return message;
+        }).collect(Collectors.toList());
+        long length = messages.stream().mapToInt(Buffer::remaining).sum();
+
+        destroyStore();
+        PartitionGroupStoreManager.Config config = new PartitionGroupStoreManager.Config(
+                DEFAULT_MAX_MESSAGE_LENGTH,
+                DEFAULT_WRITE_REQUEST_CACHE_SIZE,
+                1L,
+                DEFAULT_WRITE_TIMEOUT_MS, DEFAULT_MAX_DIRTY_SIZE, 6000,
+                new PositioningStore.Config(512 * 1024),
+                new PositioningStore.Config(8 * 1024));
+        config.setBizIdIndex(true);
+        recoverStore(config);
+
+        final EventFuture<WriteResult> future = new EventFuture<>();
+        store.asyncWrite(QosLevel.PERSISTENCE, future, messages.stream().map(b -> new WriteRequest(partition, b)).toArray(WriteRequest[]::new));
+        Assert.assertEquals(JoyQueueCode.SUCCESS, future.get().getCode());
+        store.commit(store.rightPosition());
+        long t0 = SystemClock.now();
+        while (SystemClock.now() - t0 < 10000L && store.indexPosition() < length) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(length, store.indexPosition());
+
+        assertBizId(10, partition);
+        assertBizId(count - 1, partition);
+        Assert.assertTrue(store.readByBizId("order-" + count).isEmpty());
+
+        // 重启后从索引段和消息日志恢复
+        destroyStore();
+        recoverStore(config);
+        assertBizId(10, partition);
+        assertBizId(count - 1, partition);
+
+        // 截断之后的消息不能再查到
+        long truncatePosition = store.indexStore(partition).readOffset(count / 2 * IndexItem.STORAGE_SIZE);
+        store.setRightPosition(truncatePosition);
+        assertBizId(count / 2 - 1, partition);
+        Assert.assertTrue(store.readByBizId("order-" + count / 2).isEmpty());
+        Assert.assertTrue(store.readByBizId("order-" + (count - 1)).isEmpty());
+    }
+
+    @Test
+    public void compactTest() throws Exception {
+        int count = 2048;
+        int keys = 64;
+        short partition = 4;
+        byte[] body = new byte[1024];
+        CRC32 crc32 = new CRC32();
+        crc32.update(body);
+        List<ByteBuffer> messages = new ArrayList<>(count + 1);
+        // 第一条消息是删除标记
+        messages.add(MessageParser.build(new byte[][]{new byte[0], "tombstone".getBytes(StandardCharsets.UTF_8), new byte[0], new byte[0], new byte[0]}));
+        for (int i = 1; i <= count; i++) {
+            byte[] bizId = ("key-" + (i % keys)).getBytes(StandardCharsets.UTF_8);
+            ByteBuffer message = MessageParser.build(new byte[][]{body, bizId, new byte[0], new byte[0], new byte[0]});
+            MessageParser.setLong(message, MessageParser.CRC, crc32.getValue());
+            messages.add(message);
+        }
+        long length = messages.stream().mapToInt(Buffer::remaining).sum();
+
+        destroyStore();
+        PartitionGroupStoreManager.Config config = new PartitionGroupStoreManager.Config(
+                DEFAULT_MAX_MESSAGE_LENGTH,
+                DEFAULT_WRITE_REQUEST_CACHE_SIZE,
+                1L,
+                DEFAULT_WRITE_TIMEOUT_MS, DEFAULT_MAX_DIRTY_SIZE, 6000,
+                new PositioningStore.Config(512 * 1024),
+                new PositioningStore.Config(8 * 1024));
+        recoverStore(config);
+
+        final EventFuture<WriteResult> future = new EventFuture<>();
+        store.asyncWrite(QosLevel.PERSISTENCE, future, messages.stream().map(b -> new WriteRequest(partition, b)).toArray(WriteRequest[]::new));
+        Assert.assertEquals(JoyQueueCode.SUCCESS, future.get().getCode());
+        store.commit(store.rightPosition());
+        long t0 = SystemClock.now();
+        while (SystemClock.now() - t0 < 10000L && (store.indexPosition() < length || store.messageStore().flushPosition() < length)) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(length, store.indexPosition());
+        long sealedEnd = store.messageStore().sealedFiles(0L).stream()
+                .mapToLong(f -> f.position() + f.writePosition()).max().orElse(0L);
+        Assert.assertTrue(sealedEnd > 0L);
+
+        // 业务ID表的大小小于业务ID数量，分多轮压实
+        LogCompactor compactor = new LogCompactor(keys / 2);
+        Assert.assertTrue(compactor.compact(store, Long.MIN_VALUE) > 0L);
+        assertCompacted(partition, count, keys, sealedEnd, false);
+        // 没有新的消息时不需要再次压实
+        Assert.assertEquals(0L, compactor.compact(store, Long.MIN_VALUE));
+        Assert.assertEquals(0L, store.compact(Long.MIN_VALUE));
+
+        // 删除标记过期后也被删除
+        Assert.assertTrue(store.compact(Long.MAX_VALUE) > 0L);
+        assertCompacted(partition, count, keys, sealedEnd, true);
+
+        destroyStore();
+        recoverStore(config);
+        store.commit(store.rightPosition());
+        assertCompacted(partition, count, keys, sealedEnd, true);
+    }
+
+    @Test
+    public void compactTombstoneTest() throws Exception {
+        short partition = 4;
+        byte[] bizId = "tombstone".getBytes(StandardCharsets.UTF_8);
+        byte[] body = new byte[1024];
+        CRC32 crc32 = new CRC32();
+        crc32.update(body);
+        ByteBuffer value = MessageParser.build(new byte[][]{body, bizId, new byte[0], new byte[0], new byte[0]});
+        MessageParser.setLong(value, MessageParser.CRC, crc32.getValue());
+        ByteBuffer tombstone = MessageParser.build(new byte[][]{new byte[0], bizId, new byte[0], new byte[0], new byte[0]});
+
+        destroyStore();
+        PartitionGroupStoreManager.Config config = new PartitionGroupStoreManager.Config(
+                DEFAULT_MAX_MESSAGE_LENGTH,
+                DEFAULT_WRITE_REQUEST_CACHE_SIZE,
+                1L,
+                DEFAULT_WRITE_TIMEOUT_MS, DEFAULT_MAX_DIRTY_SIZE, 6000,
+                new PositioningStore.Config(512 * 1024),
+                new PositioningStore.Config(8 * 1024));
+        config.setCompressType("zlib");
+        config.setCompressAgeMs(0L);
+        config.setCompressBlockSize(64 * 1024);
+        recoverStore(config);
+
+        // 旧消息所在的文件被压缩，不会被压实
+        List<ByteBuffer> messages = new ArrayList<>();
+        messages.add(value);
+        messages.addAll(MessageUtils.build(1024, 1024));
+        final EventFuture<WriteResult> future = new EventFuture<>();
+        store.asyncWrite(QosLevel.PERSISTENCE, future, messages.stream().map(b -> new WriteRequest(partition, b)).toArray(WriteRequest[]::new));
+        Assert.assertEquals(JoyQueueCode.SUCCESS, future.get().getCode());
+        store.commit(store.rightPosition());
+        long t0 = SystemClock.now();
+        while (SystemClock.now() - t0 < 10000L && (store.indexPosition() < store.rightPosition() || store.messageStore().flushPosition() < store.rightPosition())) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(10L);
+        Assert.assertTrue(store.compress() > 0L);
+
+        messages = new ArrayList<>();
+        messages.add(tombstone);
+        messages.addAll(MessageUtils.build(1024, 1024));
+        final EventFuture<WriteResult> nextFuture = new EventFuture<>();
+        store.asyncWrite(QosLevel.PERSISTENCE, nextFuture, messages.stream().map(b -> new WriteRequest(partition, b)).toArray(WriteRequest[]::new));
+        Assert.assertEquals(JoyQueueCode.SUCCESS, nextFuture.get().getCode());
+        store.commit(store.rightPosition());
+        t0 = SystemClock.now();
+        while (SystemClock.now() - t0 < 10000L && (store.indexPosition() < store.rightPosition() || store.messageStore().flushPosition() < store.rightPosition())) {
+            Thread.sleep(10);
+        }
+
+        // 删除标记过期也不能删除，否则压缩文件中的旧消息会重新成为最新的消息
+        store.compact(Long.MAX_VALUE);
+        ByteBuffer message = store.read(partition, 1025, 1, 0).getMessages()[0];
+        Assert.assertFalse(CompactedMessageParser.isCompacted(message));
+        Assert.assertTrue(CompactedMessageParser.isTombstone(message));
+        Assert.assertFalse(CompactedMessageParser.isCompacted(store.read(partition, 0, 1, 0).getMessages()[0]));
+    }
+
+    @Test
+    public void snapshotTest() throws Exception {
+        PartitionGroupStoreManager.Config config = snapshotConfig();
+        List<SnapshotFile> files = prepareSnapshot(config);
+        long position = snapshotPosition(files);
+
+        File followerBase = new File(base, String.format("follower/%s/%d", topic, partitionGroup));
+        PartitionGroupStoreSupport.init(followerBase, partitions);
+        PartitionGroupStoreManager follower = new PartitionGroupStoreManager(topic, partitionGroup, followerBase, config, bufferPool);
+        follower.recover();
+        follower.start();
+        try {
+            // FOLLOWER中原有的数据在安装快照后被替换
+            ByteBuffer stale = store.readEntryBuffer(0L, 10 * 1024);
+            follower.appendEntryBuffer(stale);
+
+            copySnapshot(files, follower);
+            follower.installSnapshot(position);
+            Assert.assertEquals(store.leftPosition(), follower.leftPosition());
+            Assert.assertEquals(position, follower.rightPosition());
+            Assert.assertFalse(new File(followerBase, PartitionGroupStoreManager.SNAPSHOT_DIR).exists());
+            Assert.assertFalse(new File(followerBase, PartitionGroupStoreManager.SNAPSHOT_INSTALL_MARKER_FILE).exists());
+            // 快照中的消息在LEADER上已经提交，FOLLOWER收到LEADER的提交位置之后才能读取
+            follower.commit(position);
+            assertTimeIndexRebuilt(follower);
+
+            assertReplicated(follower, position);
+        } finally {
+            follower.stop();
+            follower.close();
+        }
+    }
+
+    @Test
+    public void snapshotInstallRecoverTest() throws Exception {
+        PartitionGroupStoreManager.Config config = snapshotConfig();
+        List<SnapshotFile> files = prepareSnapshot(config);
+        long position = snapshotPosition(files);
+
+        File followerBase = new File(base, String.format("follower/%s/%d", topic, partitionGroup));
+        PartitionGroupStoreSupport.init(followerBase, partitions);
+        PartitionGroupStoreManager follower = new PartitionGroupStoreManager(topic, partitionGroup, followerBase, config, bufferPool);
+        follower.recover();
+        follower.start();
+        follower.appendEntryBuffer(store.readEntryBuffer(0L, 10 * 1024));
+        copySnapshot(files, follower);
+        // 模拟写入安装标记之后异常退出
+        Files.write(new File(followerBase, PartitionGroupStoreManager.SNAPSHOT_INSTALL_MARKER_FILE).toPath(),
+                String.valueOf(position).getBytes(StandardCharsets.UTF_8));
+        follower.stop();
+        follower.close();
+
+        follower = new PartitionGroupStoreManager(topic, partitionGroup, followerBase, config, bufferPool);
+        follower.recover();
+        follower.start();
+        try {
+            Assert.assertEquals(store.leftPosition(), follower.leftPosition());
+            Assert.assertEquals(position, follower.rightPosition());
+            Assert.assertFalse(new File(followerBase, PartitionGroupStoreManager.SNAPSHOT_DIR).exists());
+            Assert.assertFalse(new File(followerBase, PartitionGroupStoreManager.SNAPSHOT_INSTALL_MARKER_FILE).exists());
+            // 快照中的消息在LEADER上已经提交，FOLLOWER收到LEADER的提交位置之后才能读取
+            follower.commit(position);
+            assertTimeIndexRebuilt(follower);
+
+            assertReplicated(follower, position);
+        } finally {
+            follower.stop();
+            follower.close();
+        }
+    }
+
+    private PartitionGroupStoreManager.Config snapshotConfig() {
+        return new PartitionGroupStoreManager.Config(
+                DEFAULT_MAX_MESSAGE_LENGTH,
+                DEFAULT_WRITE_REQUEST_CACHE_SIZE,
+                1L,
+                DEFAULT_WRITE_TIMEOUT_MS, DEFAULT_MAX_DIRTY_SIZE, 6000,
+                new PositioningStore.Config(512 * 1024),
+                new PositioningStore.Config(8 * 1024));
+    }
+
+    /**
+     * 重新创建LEADER的存储并写入消息，返回LEADER的快照文件
+     */
+    private List<SnapshotFile> prepareSnapshot(PartitionGroupStoreManager.Config config) throws Exception {
+        int count = 3000;
+        List<ByteBuffer> messages = MessageUtils.build(count, 1024);
+        long length = messages.stream().mapToInt(Buffer::remaining).sum();
+
+        destroyStore();
+        recoverStore(config);
+
+        final EventFuture<WriteResult> future = new EventFuture<>();
+        store.asyncWrite(QosLevel.PERSISTENCE, future, IntStream.range(0, count)
+                .mapToObj(i -> new WriteRequest(partitions[i % partitions.length], messages.get(i)))
+                .toArray(WriteRequest[]::new));
+        Assert.assertEquals(JoyQueueCode.SUCCESS, future.get().getCode());
+        store.commit(store.rightPosition());
+        long t0 = SystemClock.now();
+        while (SystemClock.now() - t0 < 10000L && (store.indexPosition() < length || store.messageStore().flushPosition() < length)) {
+            Thread.sleep(10);
+        }
+
+        List<SnapshotFile> files = store.snapshotFiles();
+        Assert.assertFalse(files.isEmpty());
+        return files;
+    }
+
+    private long snapshotPosition(List<SnapshotFile> files) {
+        SnapshotFile lastJournal = files.stream().filter(SnapshotFile::isJournal).reduce((a, b) -> b).orElse(null);
+        Assert.assertNotNull(lastJournal);
+        long position = lastJournal.getPosition() + lastJournal.getLength();
+        Assert.assertTrue(position > 0L && position < store.rightPosition());
+        return position;
+    }
+
+    private void copySnapshot(List<SnapshotFile> files, PartitionGroupStoreManager follower) throws IOException {
+        follower.clearSnapshot();
+        for (SnapshotFile file : files) {
+            long offset = 0L;
+            while (offset < file.getLength()) {
+                RByteBuffer data = store.readSnapshotFile(file, offset, 100 * 1024);
+                try {
+                    Assert.assertTrue(data.hasRemaining());
+                    int size = data.remaining();
+                    follower.writeSnapshotFile(file, offset, data.getBuffer());
+                    offset += size;
+                } finally {
+                    data.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * 安装快照之后时间索引从分区索引重建，按时间查找的结果和LEADER一致
+     */
+    private void assertTimeIndexRebuilt(PartitionGroupStoreManager follower) throws IOException {
+        for (short partition : partitions) {
+            long rightIndex = follower.getRightIndex(partition);
+            if (rightIndex <= follower.getLeftIndex(partition)) {
+                continue;
+            }
+            Assert.assertTrue(follower.timeIndex(partition).lastIndex() >= 0L);
+            for (long i = follower.getLeftIndex(partition); i < rightIndex; i += 97) {
+                long timestamp = PartitionGroupStoreManager.getStorageTimestamp(follower.read(partition, i, 1, 0).getMessages()[0]);
+                Assert.assertEquals(store.getIndex(partition, timestamp), follower.getIndex(partition, timestamp));
+            }
+        }
+    }
+
+    /**
+     * 从快照的结束位置继续复制，比较LEADER和FOLLOWER的所有消息
+     */
+    private void assertReplicated(PartitionGroupStoreManager follower, long position) throws Exception {
+        long replicatePosition = position;
+        while (replicatePosition < store.rightPosition()) {
+            replicatePosition = follower.appendEntryBuffer(store.readEntryBuffer(replicatePosition, 64 * 1024));
+        }
+        follower.commit(follower.rightPosition());
+        Assert.assertEquals(store.rightPosition(), follower.rightPosition());
+
+        for (short partition : partitions) {
+            Assert.assertEquals(store.getRightIndex(partition), follower.getRightIndex(partition));
+            for (long i = 0; i < store.getRightIndex(partition); i++) {
+                Assert.assertEquals(store.read(partition, i, 1, 0).getMessages()[0],
+                        follower.read(partition, i, 1, 0).getMessages()[0]);
+            }
+        }
+    }
+
+    private void assertCompacted(short partition, int count, int keys, long sealedEnd, boolean tombstoneRemoved) throws IOException {
+        IndexStore indexStore = store.indexStore(partition);
+        for (int i = 0; i <= count; i++) {
+            ReadResult readResult = store.read(partition, i, 1, 0);
+            Assert.assertEquals(JoyQueueCode.SUCCESS, readResult.getCode());
+            ByteBuffer message = readResult.getMessages()[0];
+            long offset = indexStore.readOffset(i * IndexItem.STORAGE_SIZE);
+            boolean sealed = offset + message.remaining() <= sealedEnd;
+            boolean superseded = i == 0 ? tombstoneRemoved : i + keys <= count;
+            Assert.assertEquals(i, MessageParser.getLong(message, MessageParser.INDEX));
+            Assert.assertEquals(sealed && superseded, CompactedMessageParser.isCompacted(message));
+            if (!CompactedMessageParser.isCompacted(message) && i > 0) {
+                Assert.assertEquals("key-" + (i % keys),
+                        new String(MessageParser.getBytes(message, MessageParser.BIZ_ID), StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    private void assertBizId(long index, short partition) throws IOException {
+        List<ByteBuffer> found = store.readByBizId("order-" + index);
+        Assert.assertEquals(1, found.size());
+        Assert.assertEquals(partition, MessageParser.getShort(found.get(0), MessageParser.PARTITION));
+        Assert.assertEquals(index, MessageParser.getLong(found.get(0), MessageParser.INDEX));
+    }
+
+    @Test
+    public void flushForceTest() throws Exception {
+        int count = 1024;
+        short partition = 4;
+        List<ByteBuffer> messages = MessageUtils.build(count, 1024);
+        long length = messages.stream().mapToInt(Buffer::remaining).sum();
+
+        destroyStore();
+        PartitionGroupStoreManager.Config config = createConfig();
+        config.setFlushForce(true);
+        recoverStore(config);
+
+        final EventFuture<WriteResult> future = new EventFuture<>();
+        store.asyncWrite(QosLevel.PERSISTENCE, future, messages.stream().map(b -> new WriteRequest(partition, b)).toArray(WriteRequest[]::new));
+
+        WriteResult writeResult = future.get();
+        Assert.assertEquals(JoyQueueCode.SUCCESS, writeResult.getCode());
+        Assert.assertEquals(length, store.messageStore().forcePosition());
+        Assert.assertEquals(length, store.persistentPosition());
+    }
+
+    @Test
+    public void batchWriteIsolationTest() throws Exception {
+        int count = 100;
+        short partition = 4;
+        List<ByteBuffer> messages = MessageUtils.build(count, 1024);
+        ByteBuffer tooLarge = MessageUtils.build(1, DEFAULT_MAX_MESSAGE_LENGTH + 1).get(0);
+
+        // 连续提交多个WriteCommand，写入线程会批量处理，其中一个消息过大的WriteCommand不应影响其它WriteCommand
+        List<EventFuture<WriteResult>> futures = new LinkedList<>();
+        EventFuture<WriteResult> failedFuture = new EventFuture<>();
+        for (int i = 0; i < count; i++) {
+            if (i == count / 2) {
+                store.asyncWrite(QosLevel.PERSISTENCE, failedFuture, new WriteRequest(partition, tooLarge));
+            }
+            EventFuture<WriteResult> future = new EventFuture<>();
+            store.asyncWrite(QosLevel.PERSISTENCE, future, new WriteRequest(partition, messages.get(i)));
+            futures.add(future);
+        }
+
+        Assert.assertEquals(JoyQueueCode.SE_WRITE_FAILED, failedFuture.get().getCode());
+        long index = 0L;
+        for (EventFuture<WriteResult> future : futures) {
+            WriteResult writeResult = future.get();
+            Assert.assertEquals(JoyQueueCode.SUCCESS, writeResult.getCode());
+            Assert.assertEquals(index++, writeResult.getIndices()[0]);
+        }
+
+        store.commit(store.rightPosition());
+        for (int i = 0; i < count; i++) {
+            ReadResult readResult = store.read(partition, i, 1, 0);
+            Assert.assertEquals(JoyQueueCode.SUCCESS, readResult.getCode());
+            ByteBuffer writeBuffer = messages.get(i);
+            writeBuffer.clear();
+            Assert.assertEquals(writeBuffer, readResult.getMessages()[0]);
+        }
+    }
+
+    @Test
+    public void sharedExecutorTest() throws Exception {
+        VirtualThreadExecutor writeExecutor = new VirtualThreadExecutor(50L, 10L, 10, 100L, 2, "TestWriteThread");
+        VirtualThreadExecutor flushExecutor = new VirtualThreadExecutor(0L, 1L, 1, 100L, 1, "TestFlushThread");
+        try {
+            destroyStore();
+            bufferPool = PreloadBufferPool.getInstance();
+            this.store = new PartitionGroupStoreManager(topic, partitionGroup, groupBase, createConfig(),
+                    bufferPool, writeExecutor, flushExecutor);
+            this.store.recover();
+            this.store.start();
+            this.store.enable();
+            writeReadTest(QosLevel.PERSISTENCE);
+        } finally {
+            destroyStore();
+            writeExecutor.stop();
+            flushExecutor.stop();
+        }
+    }
+
     @Before
     public void before() throws Exception {
         prepareBaseDir();
@@ -698,19 +1671,25 @@ public class PartitionGroupStoreManagerTest {
     }
 
     private void recoverStore() {
-        if (null == bufferPool) {
-            bufferPool = PreloadBufferPool.getInstance();
-            bufferPool.addPreLoad(128 * 1024 * 1024, 2, 4);
-            bufferPool.addPreLoad(512 * 1024, 2, 4);
-        }
+        recoverStore(createConfig());
+    }
 
-        PartitionGroupStoreManager.Config config = new PartitionGroupStoreManager.Config(
+    private PartitionGroupStoreManager.Config createConfig() {
+        return new PartitionGroupStoreManager.Config(
                 DEFAULT_MAX_MESSAGE_LENGTH,
                 DEFAULT_WRITE_REQUEST_CACHE_SIZE,
                 1L,
                 DEFAULT_WRITE_TIMEOUT_MS, DEFAULT_MAX_DIRTY_SIZE, 6000,
                 new PositioningStore.Config(128 * 1024 * 1024),
                 new PositioningStore.Config(512 * 1024));
+    }
+
+    private void recoverStore(PartitionGroupStoreManager.Config config) {
+        if (null == bufferPool) {
+            bufferPool = PreloadBufferPool.getInstance();
+            bufferPool.addPreLoad(128 * 1024 * 1024, 2, 4);
+            bufferPool.addPreLoad(512 * 1024, 2, 4);
+        }
 
         this.store = new PartitionGroupStoreManager(topic, partitionGroup, groupBase, config,
                 bufferPool);
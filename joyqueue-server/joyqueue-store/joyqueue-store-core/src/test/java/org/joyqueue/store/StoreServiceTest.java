@@ -17,6 +17,7 @@ package org.joyqueue.store;
 
 import org.joyqueue.domain.QosLevel;
 import org.joyqueue.exception.JoyQueueCode;
+import org.joyqueue.store.replication.ReplicableStore;
 import org.joyqueue.toolkit.util.BaseDirUtils;
 import org.joyqueue.store.utils.MessageUtils;
 import org.joyqueue.toolkit.time.SystemClock;
@@ -30,8 +31,12 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.IntStream;
 
 /**
  * @author liyue25
@@ -44,6 +49,7 @@ public class StoreServiceTest {
     private int partitionGroup = 6;
     private short[] partitions = new short[]{4, 5, 6};
     private Store store;
+    private StoreConfig config;
 
     @Before
     public void createStore() throws Exception {
@@ -52,7 +58,7 @@ public class StoreServiceTest {
         int MB = 1024 * 1024;
         long GB = 1024 * MB;
 
-        StoreConfig config = new StoreConfig(null);
+        config = new StoreConfig(null);
         config.setPath(base.getAbsolutePath());
 
 
@@ -93,5 +99,77 @@ public class StoreServiceTest {
 
     }
 
+    @Test
+    public void parallelRestoreTest() throws Exception {
+        int groupCount = 16;
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            CompletableFuture.allOf(IntStream.range(0, groupCount)
+                    .mapToObj(group -> CompletableFuture.runAsync(() -> store.createPartitionGroup(topic, group, partitions), executor))
+                    .toArray(CompletableFuture[]::new)).get();
+            Assert.assertEquals(groupCount, store.getStore(topic).size());
+
+            // 重启后并行恢复
+            store.stop();
+            store = new Store(config);
+            store.start();
+            CompletableFuture.allOf(IntStream.range(0, groupCount)
+                    .mapToObj(group -> CompletableFuture.runAsync(() -> store.restorePartitionGroup(topic, group), executor))
+                    .toArray(CompletableFuture[]::new)).get();
+        } finally {
+            executor.shutdown();
+        }
 
+        for (int group = 0; group < groupCount; group++) {
+            ReplicableStore replicableStore = store.getReplicableStore(topic, group);
+            Assert.assertNotNull(replicableStore);
+            replicableStore.enable();
+            PartitionGroupStore partitionGroupStore = store.getStore(topic, group, QosLevel.PERSISTENCE);
+            Future<WriteResult> future = partitionGroupStore.asyncWrite(new WriteRequest(partitions[0], MessageUtils.build(1, 1024).get(0)));
+            Assert.assertEquals(JoyQueueCode.SUCCESS, future.get().getCode());
+        }
+    }
+
+    @Test
+    public void multiDirectoryTest() throws Exception {
+        File dataBase = BaseDirUtils.prepareBaseDir(System.getProperty("java.io.tmpdir") + File.separator + "joyqueuedata2");
+        PartitionGroupStore partitionGroupStore = store.getStore(topic, partitionGroup, QosLevel.PERSISTENCE);
+        Assert.assertEquals(JoyQueueCode.SUCCESS, partitionGroupStore.asyncWrite(
+                new WriteRequest(partitions[0], MessageUtils.build(1, 1024).get(0))).get().getCode());
+
+        store.stop();
+        config.setDataPaths(dataBase.getAbsolutePath());
+        store = new Store(config);
+        store.start();
+        Assert.assertEquals(2, store.dataDirectoryCount());
+        Assert.assertTrue(store.partitionGroupExists(topic, partitionGroup));
+        store.restorePartitionGroup(topic, partitionGroup);
+        store.createPartitionGroup(topic, partitionGroup + 1, partitions);
+        Assert.assertTrue(store.partitionGroupExists(topic, partitionGroup + 1));
+
+        // 迁移到另一个数据目录
+        File groupRelPath = new File(new File("topics", topic), String.valueOf(partitionGroup));
+        store.getReplicableStore(topic, partitionGroup).enable();
+        store.movePartitionGroup(topic, partitionGroup, dataBase.getAbsolutePath());
+        Assert.assertTrue(new File(dataBase, groupRelPath.getPath()).isDirectory());
+        Assert.assertFalse(new File(store.base(), groupRelPath.getPath()).exists());
+        Assert.assertTrue(store.getReplicableStore(topic, partitionGroup).serviceStatus());
+        partitionGroupStore = store.getStore(topic, partitionGroup, QosLevel.PERSISTENCE);
+        Assert.assertEquals(1, partitionGroupStore.getRightIndex(partitions[0]));
+        Assert.assertEquals(JoyQueueCode.SUCCESS, partitionGroupStore.asyncWrite(
+                new WriteRequest(partitions[0], MessageUtils.build(1, 1024).get(0))).get().getCode());
+        Assert.assertEquals(2, partitionGroupStore.getRightIndex(partitions[0]));
+
+        // 重启后从新目录恢复，遗留的迁移临时目录被删除
+        store.stop();
+        File moveTemp = new File(new File(dataBase, new File("topics", topic).getPath()), ".m." + (partitionGroup + 1));
+        Assert.assertTrue(new File(moveTemp, "0").mkdirs());
+        store = new Store(config);
+        store.start();
+        Assert.assertFalse(moveTemp.exists());
+        store.restorePartitionGroup(topic, partitionGroup);
+        partitionGroupStore = store.getStore(topic, partitionGroup, QosLevel.PERSISTENCE);
+        Assert.assertEquals(2, partitionGroupStore.getRightIndex(partitions[0]));
+        Assert.assertNotNull(partitionGroupStore.read(partitions[0], 1, 1, 0));
+    }
 }
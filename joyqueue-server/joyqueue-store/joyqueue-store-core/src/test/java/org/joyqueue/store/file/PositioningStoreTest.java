@@ -17,7 +17,7 @@ package org.joyqueue.store.file;
 
 import org.joyqueue.store.index.IndexItem;
 import org.joyqueue.store.index.IndexSerializer;
-import org.joyqueue.store.nsm.VirtualThreadExecutor;
+import org.joyqueue.toolkit.concurrent.VirtualThreadExecutor;
 import org.joyqueue.store.utils.MessageTestUtils;
 import org.joyqueue.store.utils.PreloadBufferPool;
 import org.joyqueue.toolkit.time.SystemClock;
@@ -560,6 +560,27 @@ public class PositioningStoreTest {
     }
 
 
+    @Test
+    public void reuseFileChannelTest() throws Exception {
+        ByteBuffer buffer = MessageTestUtils.createMessage(new byte[1024]);
+        int fileSize = 128 * buffer.capacity();
+        PreloadBufferPool bufferPool = PreloadBufferPool.getInstance();
+        try (PositioningStore<ByteBuffer> store = prepareStore(bufferPool, new PositioningStore.Config(fileSize, 128, 90))) {
+            // 每写一条消息刷一次盘，写满3个文件
+            for (int i = 0; i < 3 * 128; i++) {
+                store.append(buffer.duplicate());
+                while (store.flush()) {
+                    Thread.yield();
+                }
+            }
+            Assert.assertEquals(3, store.fileCount());
+            Assert.assertEquals(store.right(), store.flushPosition());
+            // 每个文件只打开一次
+            Assert.assertEquals(3L, store.fileOpenCount());
+        }
+    }
+
+
     @Before
     public void before() throws Exception {
         prepareBaseDir();
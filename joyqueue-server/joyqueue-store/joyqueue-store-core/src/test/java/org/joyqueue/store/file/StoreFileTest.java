@@ -15,8 +15,10 @@
  */
 package org.joyqueue.store.file;
 
+import org.joyqueue.monitor.BufferPoolMonitorInfo;
 import org.joyqueue.store.utils.MessageTestUtils;
 import org.joyqueue.store.utils.PreloadBufferPool;
+import org.joyqueue.toolkit.buffer.RByteBuffer;
 import org.joyqueue.toolkit.time.SystemClock;
 import org.joyqueue.toolkit.util.BaseDirUtils;
 import org.junit.After;
@@ -31,6 +33,8 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * @author majun8
@@ -72,6 +76,104 @@ public class StoreFileTest {
 
     }
 
+    @Test
+    public void pinnedReadTest() throws IOException {
+        StoreFileImpl<ByteBuffer> storeFile = new StoreFileImpl<>(666L, base, 128, new StoreMessageSerializer(1024), PreloadBufferPool.getInstance(), 1024 * 1024 * 10);
+        ByteBuffer message = MessageTestUtils.createMessage(new byte[10]);
+        storeFile.append(message);
+        storeFile.flush();
+
+        RByteBuffer pinned = storeFile.readPinnedByteBuffer(0, message.remaining());
+        Assert.assertTrue(pinned.isReadOnly());
+        Assert.assertEquals(message, pinned.getBuffer());
+
+        // 切片释放之前，缓存页不能被淘汰
+        Assert.assertFalse(storeFile.isFree());
+        Assert.assertFalse(storeFile.unload());
+        Assert.assertTrue(storeFile.hasPage());
+
+        // 强制卸载后，切片仍然可以访问，最后一个切片释放时回收缓存页
+        storeFile.forceUnload();
+        Assert.assertFalse(storeFile.hasPage());
+        Assert.assertEquals(message, pinned.getBuffer());
+        Assert.assertTrue(pinned.release());
+        Assert.assertTrue(storeFile.isFree());
+    }
+
+
+    @Test
+    public void pageCacheTierTest() throws IOException {
+        PreloadBufferPool bufferPool = PreloadBufferPool.getInstance();
+        StoreFileImpl<ByteBuffer> storeFile = new StoreFileImpl<>(666L, base, 128, new StoreMessageSerializer(1024), bufferPool, 1024 * 1024 * 10);
+        BufferPoolMonitorInfo.TierMonitorInfo probation = tier(bufferPool, "probation");
+        BufferPoolMonitorInfo.TierMonitorInfo protect = tier(bufferPool, "protected");
+
+        // 写入页面直接进入protected区
+        ByteBuffer message = MessageTestUtils.createMessage(new byte[512]);
+        storeFile.append(message.duplicate());
+        storeFile.flush();
+        Assert.assertEquals(protect.getMisses() + 1, tier(bufferPool, "protected").getMisses());
+        storeFile.unload();
+
+        // 只读页面首次加载进入probation区，再次读取记为命中
+        Assert.assertEquals(message, storeFile.read(0, message.remaining()));
+        Assert.assertEquals(probation.getMisses() + 1, tier(bufferPool, "probation").getMisses());
+        Assert.assertEquals(message, storeFile.read(0, message.remaining()));
+        Assert.assertEquals(probation.getHits() + 1, tier(bufferPool, "probation").getHits());
+        storeFile.unload();
+    }
+
+    private BufferPoolMonitorInfo.TierMonitorInfo tier(PreloadBufferPool bufferPool, String name) {
+        return bufferPool.monitorInfo().getTierMonitorInfos().stream()
+                .filter(tier -> name.equals(tier.getTier()))
+                .findAny().orElseThrow(IllegalStateException::new);
+    }
+
+    @Test
+    public void compressTest() throws IOException {
+        int count = 1000;
+        StoreFileImpl<ByteBuffer> storeFile = new StoreFileImpl<>(666L, base, 128, new StoreMessageSerializer(2048), PreloadBufferPool.getInstance(), 1024 * 1024 * 10);
+        List<ByteBuffer> messages = new ArrayList<>(count);
+        int[] positions = new int[count];
+        for (int i = 0; i < count; i++) {
+            ByteBuffer message = MessageTestUtils.createMessage(new byte[1024]);
+            positions[i] = storeFile.writePosition();
+            storeFile.append(message.duplicate());
+            messages.add(message);
+        }
+        storeFile.flush();
+        int dataSize = storeFile.writePosition();
+        long rawLength = storeFile.file().length();
+
+        Assert.assertTrue(storeFile.compress("snappy", 4096));
+        Assert.assertTrue(storeFile.file().getName().endsWith(CompressedSegment.SUFFIX));
+        Assert.assertTrue(storeFile.file().length() < rawLength);
+        Assert.assertFalse(new File(base, "666").exists());
+        Assert.assertEquals(dataSize, storeFile.fileDataSize());
+        assertMessages(storeFile, messages, positions, count);
+
+        // 重新打开压缩文件
+        storeFile.unload();
+        storeFile = new StoreFileImpl<>(666L, base, 128, new StoreMessageSerializer(2048), PreloadBufferPool.getInstance(), 1024 * 1024 * 10);
+        Assert.assertEquals(dataSize, storeFile.writePosition());
+        assertMessages(storeFile, messages, positions, count);
+
+        // 回滚时先还原成普通文件
+        storeFile.rollback(positions[count / 2]);
+        Assert.assertEquals("666", storeFile.file().getName());
+        Assert.assertFalse(new File(base, "666" + CompressedSegment.SUFFIX).exists());
+        Assert.assertEquals(positions[count / 2], storeFile.writePosition());
+        assertMessages(storeFile, messages, positions, count / 2);
+        storeFile.unload();
+    }
+
+    private void assertMessages(StoreFileImpl<ByteBuffer> storeFile, List<ByteBuffer> messages, int[] positions, int count) throws IOException {
+        for (int i = count - 1; i >= 0; i--) {
+            ByteBuffer message = messages.get(i);
+            Assert.assertEquals(message, storeFile.readByteBuffer(positions[i], message.remaining()));
+            Assert.assertEquals(message, storeFile.read(positions[i], -1));
+        }
+    }
 
     @Test
     public void readFileNotExistTimestamp() {
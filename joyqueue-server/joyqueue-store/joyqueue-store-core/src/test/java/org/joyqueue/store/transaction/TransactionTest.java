@@ -31,9 +31,11 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.Future;
+import java.util.stream.Collectors;
 
 /**
  * @author liyue25
@@ -69,6 +71,129 @@ public class TransactionTest {
 
     }
 
+    @Test
+    public void sharedLogTest() throws Exception {
+        int transactionCount = 256, messageCount = 16;
+        PositioningStore.Config config = new PositioningStore.Config(64 * 1024);
+        PreloadBufferPool bufferPool = PreloadBufferPool.getInstance();
+        List<ByteBuffer> messages = MessageTestUtils.createMessages(MessageTestUtils.createBodyList("hahahaha", messageCount));
+
+        // 旧版本每个事务一个目录
+        int legacyId = 1000;
+        File legacyBase = new File(base, String.valueOf(legacyId));
+        Assert.assertTrue(legacyBase.mkdir());
+        PositioningStore<ByteBuffer> legacyStore = new PositioningStore<>(legacyBase,
+                config, bufferPool, new TransactionMessageSerializer());
+        legacyStore.recover();
+        legacyStore.append(messages.stream().map(ByteBuffer::slice).collect(Collectors.toList()));
+        legacyStore.flush();
+        legacyStore.close();
+
+        TransactionStoreManager transactionStoreManager = new TransactionStoreManager(base, config, bufferPool);
+        Assert.assertArrayEquals(new int[]{legacyId}, transactionStoreManager.list());
+        Assert.assertFalse(legacyBase.exists());
+        List<Integer> live = new ArrayList<>();
+        live.add(legacyId);
+        for (int i = 0; i < transactionCount; i++) {
+            int tId = transactionStoreManager.next();
+            Assert.assertTrue(tId > legacyId);
+            Future<WriteResult> future = transactionStoreManager.asyncWrite(tId, messages.stream().map(ByteBuffer::slice).toArray(ByteBuffer[]::new));
+            Assert.assertEquals(JoyQueueCode.SUCCESS, future.get().getCode());
+            // 写入跨越文件边界时也要全部刷盘之后才返回
+            Assert.assertEquals(0L, transactionStoreManager.dirtySize());
+            if (i % 16 == 0) {
+                live.add(tId);
+            }
+        }
+        int fileCount = transactionStoreManager.fileCount();
+        Assert.assertTrue(fileCount > 2);
+        for (int tId : transactionStoreManager.list()) {
+            if (!live.contains(tId)) {
+                Assert.assertTrue(transactionStoreManager.remove(tId));
+            }
+        }
+        Assert.assertFalse(transactionStoreManager.remove(legacyId - 1));
+        Assert.assertEquals(0L, transactionStoreManager.dirtySize());
+        transactionStoreManager.compact();
+        Assert.assertEquals(0L, transactionStoreManager.dirtySize());
+        Assert.assertTrue(transactionStoreManager.fileCount() < fileCount);
+        assertTransactions(transactionStoreManager, live, messages);
+
+        // 重启后恢复
+        transactionStoreManager.close();
+        transactionStoreManager = new TransactionStoreManager(base, config, bufferPool);
+        assertTransactions(transactionStoreManager, live, messages);
+        Assert.assertTrue(transactionStoreManager.next() > legacyId + transactionCount);
+        transactionStoreManager.close();
+    }
+
+    @Test
+    public void compactTest() throws Exception {
+        PositioningStore.Config config = new PositioningStore.Config(64 * 1024);
+        PreloadBufferPool bufferPool = PreloadBufferPool.getInstance();
+        List<ByteBuffer> messages = MessageTestUtils.createMessages(MessageTestUtils.createBodyList("hahahaha", 16));
+        int messagesSize = messages.stream().mapToInt(ByteBuffer::remaining).sum();
+        TransactionStoreManager transactionStoreManager = new TransactionStoreManager(base, config, bufferPool);
+
+        // 长时间未提交的事务占满最左侧文件的大部分
+        int liveId = transactionStoreManager.next();
+        int liveBatches = 48 * 1024 / messagesSize + 1;
+        for (int i = 0; i < liveBatches; i++) {
+            Future<WriteResult> future = transactionStoreManager.asyncWrite(liveId, messages.stream().map(ByteBuffer::slice).toArray(ByteBuffer[]::new));
+            Assert.assertEquals(JoyQueueCode.SUCCESS, future.get().getCode());
+        }
+
+        // 不等待结果连续写入，成批刷盘后全部成功
+        List<Integer> ids = new ArrayList<>();
+        List<Future<WriteResult>> futures = new ArrayList<>();
+        for (int i = 0; i < 2 * liveBatches + 16; i++) {
+            int tId = transactionStoreManager.next();
+            ids.add(tId);
+            futures.add(transactionStoreManager.asyncWrite(tId, messages.stream().map(ByteBuffer::slice).toArray(ByteBuffer[]::new)));
+        }
+        for (Future<WriteResult> future : futures) {
+            Assert.assertEquals(JoyQueueCode.SUCCESS, future.get().getCode());
+        }
+        Assert.assertEquals(0L, transactionStoreManager.dirtySize());
+        int fileCount = transactionStoreManager.fileCount();
+        Assert.assertTrue(fileCount > 2);
+
+        // 最左侧文件的有效数据比例很高，仍然和右侧的文件一起压缩
+        for (int tId : ids) {
+            Assert.assertTrue(transactionStoreManager.remove(tId));
+        }
+        transactionStoreManager.compact();
+        Assert.assertTrue(transactionStoreManager.fileCount() < fileCount);
+        Assert.assertArrayEquals(new int[]{liveId}, transactionStoreManager.list());
+        assertTransaction(transactionStoreManager, liveId, messages, liveBatches);
+
+        transactionStoreManager.close();
+        transactionStoreManager = new TransactionStoreManager(base, config, bufferPool);
+        Assert.assertArrayEquals(new int[]{liveId}, transactionStoreManager.list());
+        assertTransaction(transactionStoreManager, liveId, messages, liveBatches);
+        transactionStoreManager.close();
+    }
+
+    private void assertTransaction(TransactionStoreManager transactionStoreManager, int tId, List<ByteBuffer> messages, int batches) {
+        Iterator<ByteBuffer> iterator = transactionStoreManager.readIterator(tId);
+        int i = 0;
+        while (iterator.hasNext()) {
+            Assert.assertEquals(messages.get(i++ % messages.size()), iterator.next());
+        }
+        Assert.assertEquals(messages.size() * batches, i);
+    }
+
+    private void assertTransactions(TransactionStoreManager transactionStoreManager, List<Integer> ids, List<ByteBuffer> messages) {
+        Assert.assertArrayEquals(ids.stream().mapToInt(Integer::intValue).toArray(), transactionStoreManager.list());
+        for (int tId : ids) {
+            Iterator<ByteBuffer> iterator = transactionStoreManager.readIterator(tId);
+            int i = 0;
+            while (iterator.hasNext()) {
+                Assert.assertEquals(messages.get(i++), iterator.next());
+            }
+            Assert.assertEquals(messages.size(), i);
+        }
+    }
 
     @After
     public void destroyBaseDir() {